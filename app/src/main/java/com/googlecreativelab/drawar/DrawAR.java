@@ -24,6 +24,7 @@ import android.content.SharedPreferences;
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
 import android.opengl.Matrix;
+import android.os.Build;
 import android.os.Bundle;
 import android.support.design.widget.BaseTransientBottomBar;
 import android.support.design.widget.Snackbar;
@@ -39,12 +40,14 @@ import android.view.WindowManager;
 import android.widget.ImageButton;
 import android.widget.LinearLayout;
 import android.widget.SeekBar;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import com.google.ar.core.ArCoreApk;
 import com.google.ar.core.Camera;
 import com.google.ar.core.Config;
 import com.google.ar.core.Frame;
+import com.google.ar.core.Pose;
 import com.google.ar.core.Session;
 import com.google.ar.core.TrackingState;
 import com.google.ar.core.exceptions.UnavailableApkTooOldException;
@@ -55,13 +58,16 @@ import com.googlecreativelab.drawar.rendering.BackgroundRenderer;
 import com.googlecreativelab.drawar.rendering.LineShaderRenderer;
 import com.googlecreativelab.drawar.rendering.LineUtils;
 
-import java.util.ArrayList;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicReference;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
-import javax.vecmath.Vector2f;
 import javax.vecmath.Vector3f;
 
 
@@ -74,6 +80,21 @@ public class DrawAR extends AppCompatActivity implements GLSurfaceView.Renderer,
         GestureDetector.OnDoubleTapListener{
     private static final String TAG = DrawAR.class.getSimpleName();
 
+    // Touch samples buffered between two frames, several frames worth at the highest touch rates
+    private static final int TOUCH_QUEUE_CAPACITY = 1024;
+
+    // The drawing is saved to this file in the app's files directory when the app is paused
+    private static final String DRAWING_FILE = "drawing.bin";
+
+    // The frame stats are dumped to this file in the app's external files directory when the app
+    // is paused, and shown on screen every FRAME_STATS_INTERVAL milliseconds while toggled on
+    private static final String FRAME_STATS_FILE = "frame_stats.tsv";
+    private static final long FRAME_STATS_INTERVAL = 500;
+
+    // While recording, the session is traced into a new file with this prefix in the app's
+    // external files directory
+    private static final String SESSION_TRACE_PREFIX = "session_";
+
     private GLSurfaceView mSurfaceView;
 
     private Config mDefaultConfig;
@@ -91,9 +112,12 @@ public class DrawAR extends AppCompatActivity implements GLSurfaceView.Renderer,
     private float mScreenWidth = 0;
     private float mScreenHeight = 0;
 
-    private BiquadFilter biquadFilter;
-    private Vector3f mLastPoint;
-    private AtomicReference<Vector2f> lastTouch = new AtomicReference<>();
+    private TouchSampleQueue mTouchQueue = new TouchSampleQueue(TOUCH_QUEUE_CAPACITY);
+    private TouchSampleQueue.Sample mTouchSample = new TouchSampleQueue.Sample();
+
+    // What the stroke input takes from every frame, and what is recorded into a session trace
+    private SessionFrame mSessionFrame = new SessionFrame(TOUCH_QUEUE_CAPACITY);
+    private SessionRecorder mSessionRecorder;
 
     private GestureDetectorCompat mDetector;
 
@@ -103,23 +127,48 @@ public class DrawAR extends AppCompatActivity implements GLSurfaceView.Renderer,
     private SeekBar mLineWidthBar;
     private SeekBar mLineDistanceScaleBar;
     private SeekBar mSmoothingBar;
+    private TextView mFrameStatsView;
 
 
     private float mLineWidthMax = 0.33f;
     private float mDistanceScale = 0.0f;
     private float mLineSmoothing = 0.1f;
 
-    private float[] mLastFramePosition;
+    // Scratch space for getCalibrationMatrix
+    private float[] mCalibrationTranslation = new float[3];
+    private float[] mCalibrationAxis = new float[3];
 
-    private AtomicBoolean bIsTracking = new AtomicBoolean(true);
     private AtomicBoolean bReCenterView = new AtomicBoolean(false);
-    private AtomicBoolean bTouchDown = new AtomicBoolean(false);
     private AtomicBoolean bClearDrawing = new AtomicBoolean(false);
     private AtomicBoolean bLineParameters = new AtomicBoolean(false);
     private AtomicBoolean bUndo = new AtomicBoolean(false);
-    private AtomicBoolean bNewStroke = new AtomicBoolean(false);
-
-    private ArrayList<ArrayList<Vector3f>> mStrokes;
+    private AtomicBoolean bRedo = new AtomicBoolean(false);
+    private AtomicBoolean bEraseMode = new AtomicBoolean(false);
+    private AtomicBoolean bRecordSession = new AtomicBoolean(false);
+
+    private StrokeStore mStrokes;
+    private StrokeBvh mStrokeBvh;
+    private StrokeSimplifier mStrokeSimplifier;
+    private StrokeInput mStrokeInput;
+
+    // Writes the drawing off the UI Thread, the GL Thread leaves the strokes alone meanwhile
+    private final ExecutorService mSaveExecutor = Executors.newSingleThreadExecutor();
+    private volatile Future<?> mPendingSave;
+    private final Runnable mSaveDrawing = new Runnable() {
+        @Override
+        public void run() {
+            saveDrawing();
+        }
+    };
+
+    private final FrameStats mFrameStats = new FrameStats();
+    private final Runnable mFrameStatsUpdater = new Runnable() {
+        @Override
+        public void run() {
+            mFrameStatsView.setText(mFrameStats.getSummary());
+            mFrameStatsView.postDelayed(this, FRAME_STATS_INTERVAL);
+        }
+    };
 
     private DisplayRotationHelper mDisplayRotationHelper;
     private Snackbar mMessageSnackbar;
@@ -140,6 +189,7 @@ public class DrawAR extends AppCompatActivity implements GLSurfaceView.Renderer,
         mSurfaceView = findViewById(R.id.surfaceview);
         mSettingsUI = findViewById(R.id.strokeUI);
         mButtonBar = findViewById(R.id.button_bar);
+        mFrameStatsView = findViewById(R.id.frameStats);
 
         // Settings seek bars
         mLineDistanceScaleBar = findViewById(R.id.distanceScale);
@@ -171,8 +221,8 @@ public class DrawAR extends AppCompatActivity implements GLSurfaceView.Renderer,
                 } else if (seekBar == mSmoothingBar) {
                     editor.putInt("mSmoothing", progress);
                     mLineSmoothing = LineUtils.map((float) progress, 0, 100, 0.01f, 0.2f, true);
+                    mStrokeInput.setSmoothing(mLineSmoothing);
                 }
-                mLineShaderRenderer.bNeedsUpdate.set(true);
 
                 editor.apply();
 
@@ -198,8 +248,6 @@ public class DrawAR extends AppCompatActivity implements GLSurfaceView.Renderer,
         // Reset the zero matrix
         Matrix.setIdentityM(mZeroMatrix, 0);
 
-        mLastPoint = new Vector3f(0, 0, 0);
-
         bInstallRequested = false;
 
         // Set up renderer.
@@ -212,61 +260,21 @@ public class DrawAR extends AppCompatActivity implements GLSurfaceView.Renderer,
         // Setup touch detector
         mDetector = new GestureDetectorCompat(this, this);
         mDetector.setOnDoubleTapListener(this);
-        mStrokes = new ArrayList<>();
-
-
-    }
-
-
-    /**
-     * addStroke adds a new stroke to the scene
-     *
-     * @param touchPoint a 2D point in screen space and is projected into 3D world space
-     */
-    private void addStroke(Vector2f touchPoint) {
-        Vector3f newPoint = LineUtils.GetWorldCoords(touchPoint, mScreenWidth, mScreenHeight, projmtx, viewmtx);
-        addStroke(newPoint);
-    }
-
-
-    /**
-     * addPoint adds a point to the current stroke
-     *
-     * @param touchPoint a 2D point in screen space and is projected into 3D world space
-     */
-    private void addPoint(Vector2f touchPoint) {
-        Vector3f newPoint = LineUtils.GetWorldCoords(touchPoint, mScreenWidth, mScreenHeight, projmtx, viewmtx);
-        addPoint(newPoint);
-    }
-
-
-    /**
-     * addStroke creates a new stroke
-     *
-     * @param newPoint a 3D point in world space
-     */
-    private void addStroke(Vector3f newPoint) {
-        biquadFilter = new BiquadFilter(mLineSmoothing);
-        for (int i = 0; i < 1500; i++) {
-            biquadFilter.update(newPoint);
-        }
-        Vector3f p = biquadFilter.update(newPoint);
-        mLastPoint = new Vector3f(p);
-        mStrokes.add(new ArrayList<Vector3f>());
-        mStrokes.get(mStrokes.size() - 1).add(mLastPoint);
-    }
+        mStrokes = new StrokeStore();
+        mStrokeBvh = new StrokeBvh();
+        mStrokeSimplifier = new StrokeSimplifier(AppSettings.getSimplifyTolerance());
+        mStrokeInput = new StrokeInput(mStrokes, mStrokeBvh, mStrokeSimplifier, mLineSmoothing,
+                TOUCH_QUEUE_CAPACITY);
+        mStrokeInput.setSimplifyListener(new StrokeInput.SimplifyListener() {
+            @Override
+            public void onStrokeSimplified(int stroke, int originalCount, int count) {
+                Log.d(TAG, "Simplified stroke from " + originalCount + " to " + count
+                        + " points (" + (100 - 100 * count / originalCount) + "% fewer)");
+            }
+        });
+        mLineShaderRenderer.setQuantizePositions(AppSettings.getQuantizePositions());
+        loadDrawing();
 
-    /**
-     * addPoint adds a point to the current stroke
-     *
-     * @param newPoint a 3D point in world space
-     */
-    private void addPoint(Vector3f newPoint) {
-        if (LineUtils.distanceCheck(newPoint, mLastPoint)) {
-            Vector3f p = biquadFilter.update(newPoint);
-            mLastPoint = new Vector3f(p);
-            mStrokes.get(mStrokes.size() - 1).add(mLastPoint);
-        }
     }
 
 
@@ -329,6 +337,21 @@ public class DrawAR extends AppCompatActivity implements GLSurfaceView.Renderer,
         mSurfaceView.onResume();
         mDisplayRotationHelper.onResume();
         mPaused = false;
+
+        if (mFrameStatsView.getVisibility() == View.VISIBLE) {
+            mFrameStatsView.post(mFrameStatsUpdater);
+        }
+    }
+
+    /**
+     * onDestroy part of the Android Activity Lifecycle
+     */
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mStrokeSimplifier.shutdown();
+        mSaveExecutor.shutdown();
+        mLineShaderRenderer.release();
     }
 
     /**
@@ -343,9 +366,15 @@ public class DrawAR extends AppCompatActivity implements GLSurfaceView.Renderer,
 
         if (mSession != null) {
             mDisplayRotationHelper.onPause();
+            // Queued events run before the GL Thread pauses, so the save starts from the last frame
+            mSurfaceView.queueEvent(mSaveDrawing);
             mSurfaceView.onPause();
             mSession.pause();
+
+            dumpFrameStats();
+            stopRecording();
         }
+        mFrameStatsView.removeCallbacks(mFrameStatsUpdater);
 
         mPaused = false;
 
@@ -438,82 +467,77 @@ public class DrawAR extends AppCompatActivity implements GLSurfaceView.Renderer,
         mDisplayRotationHelper.updateSessionIfNeeded(mSession);
 
         try {
+            long t = System.nanoTime();
 
             mSession.setCameraTextureName(mBackgroundRenderer.getTextureId());
 
             mFrame = mSession.update();
+            t = mFrameStats.mark(FrameStats.PHASE_SESSION_UPDATE, t);
             Camera camera = mFrame.getCamera();
 
             mState = camera.getTrackingState();
 
-            // Update tracking states
-            if (mState == TrackingState.TRACKING && !bIsTracking.get()) {
-                bIsTracking.set(true);
-            } else if (mState== TrackingState.STOPPED && bIsTracking.get()) {
-                bIsTracking.set(false);
-                bTouchDown.set(false);
-            }
-
             // Get projection matrix.
             camera.getProjectionMatrix(projmtx, 0, AppSettings.getNearClip(), AppSettings.getFarClip());
             camera.getViewMatrix(viewmtx, 0);
 
-            float[] position = new float[3];
-            camera.getPose().getTranslation(position, 0);
-
-            // Check if camera has moved much, if thats the case, stop touchDown events
-            // (stop drawing lines abruptly through the air)
-            if (mLastFramePosition != null) {
-                Vector3f distance = new Vector3f(position[0], position[1], position[2]);
-                distance.sub(new Vector3f(mLastFramePosition[0], mLastFramePosition[1], mLastFramePosition[2]));
-
-                if (distance.length() > 0.15) {
-                    bTouchDown.set(false);
-                }
-            }
-            mLastFramePosition = position;
+            SessionFrame frame = mSessionFrame;
+            frame.timestamp = mFrame.getTimestamp();
+            frame.trackingState = mState == TrackingState.TRACKING ? SessionFrame.TRACKING
+                    : mState == TrackingState.PAUSED ? SessionFrame.PAUSED : SessionFrame.STOPPED;
+            frame.setPosition(viewmtx);
 
             // Multiply the zero matrix
             Matrix.multiplyMM(viewmtx, 0, viewmtx, 0, mZeroMatrix, 0);
 
-
-            if (bNewStroke.get()) {
-                bNewStroke.set(false);
-                addStroke(lastTouch.get());
-                mLineShaderRenderer.bNeedsUpdate.set(true);
-            } else if (bTouchDown.get()) {
-                addPoint(lastTouch.get());
+            System.arraycopy(viewmtx, 0, frame.view, 0, 16);
+            System.arraycopy(projmtx, 0, frame.projection, 0, 16);
+            frame.screenWidth = mScreenWidth;
+            frame.screenHeight = mScreenHeight;
+            frame.flags = (bEraseMode.get() ? SessionFrame.FLAG_ERASE_MODE : 0)
+                    | (bUndo.getAndSet(false) ? SessionFrame.FLAG_UNDO : 0)
+                    | (bRedo.getAndSet(false) ? SessionFrame.FLAG_REDO : 0)
+                    | (bClearDrawing.getAndSet(false) ? SessionFrame.FLAG_CLEAR : 0);
+            frame.pollTouches(mTouchQueue, mTouchSample);
+            recordSessionFrame(frame);
+
+            // Add the touch samples since the last frame to the strokes, or erase with them
+            waitForSave();
+            int change = mStrokeInput.update(frame);
+            if (change == StrokeInput.CHANGE_REBUILD) {
+                mLineShaderRenderer.clear();
+            } else if (change == StrokeInput.CHANGE_APPENDED) {
                 mLineShaderRenderer.bNeedsUpdate.set(true);
             }
 
             if (bReCenterView.get()) {
                 bReCenterView.set(false);
-                mZeroMatrix = getCalibrationMatrix();
+                getCalibrationMatrix(mZeroMatrix);
             }
+            t = mFrameStats.mark(FrameStats.PHASE_INPUT, t);
 
-            if (bClearDrawing.get()) {
-                bClearDrawing.set(false);
-                clearDrawing();
-                mLineShaderRenderer.bNeedsUpdate.set(true);
-            }
-
-            if (bUndo.get()) {
-                bUndo.set(false);
-                if (mStrokes.size() > 0) {
-                    mStrokes.remove(mStrokes.size() - 1);
-                    mLineShaderRenderer.bNeedsUpdate.set(true);
-                }
-            }
+            // The line style is only passed as uniforms, so the seek bars take effect on the next
+            // draw without touching the geometry
             mLineShaderRenderer.setDrawDebug(bLineParameters.get());
+            mLineShaderRenderer.setColor(AppSettings.getColor());
+            mLineShaderRenderer.setOpacity(AppSettings.getOpacity());
+            mLineShaderRenderer.mDrawDistance = AppSettings.getStrokeDrawDistance();
+            mLineShaderRenderer.setDistanceScale(mDistanceScale);
+            mLineShaderRenderer.setLineWidth(mLineWidthMax);
             if (mLineShaderRenderer.bNeedsUpdate.get()) {
-                mLineShaderRenderer.setColor(AppSettings.getColor());
-                mLineShaderRenderer.mDrawDistance = AppSettings.getStrokeDrawDistance();
-                mLineShaderRenderer.setDistanceScale(mDistanceScale);
-                mLineShaderRenderer.setLineWidth(mLineWidthMax);
-                mLineShaderRenderer.clear();
                 mLineShaderRenderer.updateStrokes(mStrokes);
-                mLineShaderRenderer.upload();
             }
+            t = mFrameStats.mark(FrameStats.PHASE_UPDATE_STROKES, t);
+
+            // Geometry is built on a worker thread, upload it once it is ready
+            long uploaded = mLineShaderRenderer.upload();
+            mFrameStats.mark(FrameStats.PHASE_UPLOAD, t);
+
+            mFrameStats.setCounter(FrameStats.COUNTER_STROKES, mStrokes.getStrokeCount());
+            mFrameStats.setCounter(FrameStats.COUNTER_POINTS, mStrokes.getPointCount());
+            mFrameStats.setCounter(FrameStats.COUNTER_VERTICES,
+                    mLineShaderRenderer.getNumVertices());
+            mFrameStats.addCounter(FrameStats.COUNTER_UPLOADED_BYTES, uploaded);
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -526,12 +550,15 @@ public class DrawAR extends AppCompatActivity implements GLSurfaceView.Renderer,
     /**
      * GL Thread Loop
      * clears the Color Buffer and Depth Buffer, draws the current texture from the camera
-     * and draws the Line Renderer if ARCore is tracking the world around it
+     * and draws the Line Renderer if ARCore is tracking the world around it.  The time spent in
+     * each phase is recorded into mFrameStats
      */
     @Override
     public void onDrawFrame(GL10 gl) {
         if (mPaused) return;
 
+        long frameStart = System.nanoTime();
+
         update();
 
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
@@ -541,44 +568,168 @@ public class DrawAR extends AppCompatActivity implements GLSurfaceView.Renderer,
         }
 
         // Draw background.
+        long t = System.nanoTime();
         mBackgroundRenderer.draw(mFrame);
+        t = mFrameStats.mark(FrameStats.PHASE_BACKGROUND, t);
 
         // Draw Lines
         if (mFrame.getCamera().getTrackingState() == TrackingState.TRACKING) {
             mLineShaderRenderer.draw(viewmtx, projmtx, mScreenWidth, mScreenHeight, AppSettings.getNearClip(), AppSettings.getFarClip());
+            mFrameStats.mark(FrameStats.PHASE_LINES, t);
         }
+        mFrameStats.mark(FrameStats.PHASE_FRAME, frameStart);
     }
 
 
     /**
      * Get a matrix usable for zero calibration (only position and compass direction)
+     * @param m receives the matrix
      */
-    public float[] getCalibrationMatrix() {
-        float[] t = new float[3];
-        float[] m = new float[16];
+    public void getCalibrationMatrix(float[] m) {
+        float[] t = mCalibrationTranslation;
+        float[] z = mCalibrationAxis;
 
-        mFrame.getCamera().getPose().getTranslation(t, 0);
-        float[] z = mFrame.getCamera().getPose().getZAxis();
-        Vector3f zAxis = new Vector3f(z[0], z[1], z[2]);
-        zAxis.y = 0;
-        zAxis.normalize();
+        Pose pose = mFrame.getCamera().getPose();
+        pose.getTranslation(t, 0);
+        pose.getTransformedAxis(2, 1f, z, 0);
 
-        double rotate = Math.atan2(zAxis.x, zAxis.z);
+        // The heading of the z axis projected onto the horizontal plane
+        double rotate = Math.atan2(z[0], z[2]);
 
         Matrix.setIdentityM(m, 0);
         Matrix.translateM(m, 0, t[0], t[1], t[2]);
         Matrix.rotateM(m, 0, (float) Math.toDegrees(rotate), 0, 1, 0);
-        return m;
     }
 
 
     /**
-     * Clears the Datacollection of Strokes and sets the Line Renderer to clear and update itself
-     * Designed to be executed on the GL Thread
+     * Starts or stops recording the session as the record switch asks, and records the frame into
+     * the trace while recording.  Executed on the GL Thread
+     */
+    private void recordSessionFrame(SessionFrame frame) {
+        if (bRecordSession.get() && mSessionRecorder == null) {
+            File directory = getExternalFilesDir(null);
+            File file = new File(directory != null ? directory : getFilesDir(),
+                    SESSION_TRACE_PREFIX + System.currentTimeMillis() + ".trace");
+            try {
+                mSessionRecorder = new SessionRecorder(file, mLineSmoothing, mLineWidthMax,
+                        frame.getTouchCapacity());
+                Log.d(TAG, "Recording the session to " + file);
+            } catch (IOException e) {
+                Log.e(TAG, "Could not record the session", e);
+                bRecordSession.set(false);
+            }
+        } else if (!bRecordSession.get() && mSessionRecorder != null) {
+            stopRecording();
+        }
+
+        if (mSessionRecorder != null) {
+            try {
+                mSessionRecorder.write(frame);
+            } catch (IOException e) {
+                Log.e(TAG, "Could not record the session", e);
+                bRecordSession.set(false);
+                stopRecording();
+            }
+        }
+    }
+
+    /**
+     * Closes the session trace being recorded, if there is one.  Executed on the GL Thread, or
+     * while it is paused
+     */
+    private void stopRecording() {
+        if (mSessionRecorder == null) {
+            return;
+        }
+        try {
+            mSessionRecorder.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not finish the session trace", e);
+        }
+        mSessionRecorder = null;
+    }
+
+
+    /**
+     * Loads the drawing saved by saveDrawing, if there is one.  Called before the GL Thread starts.
      */
-    public void clearDrawing() {
-        mStrokes.clear();
-        mLineShaderRenderer.clear();
+    private void loadDrawing() {
+        File file = new File(getFilesDir(), DRAWING_FILE);
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            DrawingFile drawing = DrawingFile.open(file);
+            drawing.readInto(mStrokes);
+            Log.d(TAG, "Loaded " + drawing.getStrokeCount() + " strokes, "
+                    + drawing.getPointCount() + " points");
+        } catch (IOException e) {
+            Log.e(TAG, "Could not load the drawing", e);
+        }
+    }
+
+    /**
+     * Saves the drawing so it survives the process being killed.  Called on the GL Thread, which
+     * only takes the stroke and point counts, the points are written on mSaveExecutor.
+     */
+    private void saveDrawing() {
+        final File file = new File(getFilesDir(), DRAWING_FILE);
+        final int strokeCount = mStrokes.getStrokeCount();
+        final int pointCount = mStrokes.getPointCount();
+        final float width = mLineWidthMax;
+        final Vector3f color = new Vector3f(AppSettings.getColor());
+        final int encoding = AppSettings.getQuantizePositions()
+                ? DrawingFile.ENCODING_DELTA16 : DrawingFile.ENCODING_FLOAT;
+        mPendingSave = mSaveExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    DrawingFile.write(file, mStrokes, strokeCount, pointCount, width, color,
+                            encoding);
+                } catch (IOException e) {
+                    Log.e(TAG, "Could not save the drawing", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Blocks the GL Thread until the last save finished writing the strokes, before they change.
+     * Only the first frames after a quick resume ever wait.
+     */
+    private void waitForSave() {
+        Future<?> save = mPendingSave;
+        if (save == null) {
+            return;
+        }
+        try {
+            save.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Could not save the drawing", e);
+        }
+        mPendingSave = null;
+    }
+
+
+    /**
+     * Dumps the frame stats, labelled with the device and build, to a file that can be pulled
+     * with adb and compared with other runs.  Any thread may call this.
+     */
+    private void dumpFrameStats() {
+        File directory = getExternalFilesDir(null);
+        File file = new File(directory != null ? directory : getFilesDir(), FRAME_STATS_FILE);
+        try {
+            mFrameStats.dump(file, Build.MANUFACTURER + " " + Build.MODEL + ", API "
+                    + Build.VERSION.SDK_INT + ", " + BuildConfig.VERSION_NAME + " ("
+                    + BuildConfig.VERSION_CODE + ")");
+            Log.d(TAG, "Frame stats dumped to " + file);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not dump the frame stats", e);
+        }
     }
 
 
@@ -590,6 +741,30 @@ public class DrawAR extends AppCompatActivity implements GLSurfaceView.Renderer,
         bUndo.set(true);
     }
 
+    /**
+     * onClickRedo brings back the last undone stroke, as long as nothing was drawn since.  Like
+     * undo it is executed in the GL Thread
+     */
+    public void onClickRedo(View button) {
+        bRedo.set(true);
+    }
+
+    /**
+     * onClickEraser toggles erase mode.  While it is on, touches remove the strokes under them
+     * instead of drawing, the removal is executed on the GL Thread
+     */
+    public void onClickEraser(View button) {
+        ImageButton eraserButton = findViewById(R.id.eraserButton);
+
+        if (bEraseMode.get()) {
+            bEraseMode.set(false);
+            eraserButton.setColorFilter(getResources().getColor(R.color.gray));
+        } else {
+            bEraseMode.set(true);
+            eraserButton.setColorFilter(getResources().getColor(R.color.active));
+        }
+    }
+
     /**
      * onClickLineDebug toggles the Line Renderer's Debug View on and off. The line renderer will
      * highlight the lines on the same depth plane to allow users to draw things more coherently
@@ -599,6 +774,31 @@ public class DrawAR extends AppCompatActivity implements GLSurfaceView.Renderer,
     }
 
 
+    /**
+     * onClickRecordSession starts and stops recording the session into a trace file that can be
+     * replayed on a computer with ./gradlew :benchmarks:replay.  The recording happens on the GL
+     * Thread
+     */
+    public void onClickRecordSession(View button) {
+        bRecordSession.set(!bRecordSession.get());
+    }
+
+
+    /**
+     * onClickFrameStats toggles the overlay showing the p50, p99 and max time of every frame phase
+     * and the scene counters
+     */
+    public void onClickFrameStats(View button) {
+        if (mFrameStatsView.getVisibility() == View.GONE) {
+            mFrameStatsView.setVisibility(View.VISIBLE);
+            mFrameStatsView.post(mFrameStatsUpdater);
+        } else {
+            mFrameStatsView.setVisibility(View.GONE);
+            mFrameStatsView.removeCallbacks(mFrameStatsUpdater);
+        }
+    }
+
+
     /**
      * onClickSettings toggles showing and hiding the Line Width, Smoothing, and Debug View toggle
      */
@@ -654,31 +854,50 @@ public class DrawAR extends AppCompatActivity implements GLSurfaceView.Renderer,
     // ------- Touch events
 
     /**
-     * onTouchEvent handles saving the lastTouch screen position and setting bTouchDown and bNewStroke
-     * AtomicBooleans to trigger addPoint and addStroke on the GL Thread to be called
+     * onTouchEvent queues every touch sample of the event, including the historical samples that
+     * were batched into it, so addStroke, addPoint and eraseStrokes are called for all of them on
+     * the GL Thread
      */
     @Override
     public boolean onTouchEvent(MotionEvent tap) {
         this.mDetector.onTouchEvent(tap);
 
-        if (tap.getAction() == MotionEvent.ACTION_DOWN ) {
-            lastTouch.set(new Vector2f(tap.getX(), tap.getY()));
-            bTouchDown.set(true);
-            bNewStroke.set(true);
+        int action = tap.getActionMasked();
+        int pointerId = tap.getPointerId(0);
+        if (action == MotionEvent.ACTION_DOWN) {
+            queueTouch(TouchSampleQueue.ACTION_DOWN, tap.getX(), tap.getY(), tap.getEventTime(),
+                    pointerId);
             return true;
-        } else if (tap.getAction() == MotionEvent.ACTION_MOVE || tap.getAction() == MotionEvent.ACTION_POINTER_DOWN) {
-            lastTouch.set(new Vector2f(tap.getX(), tap.getY()));
-            bTouchDown.set(true);
+        } else if (action == MotionEvent.ACTION_MOVE || action == MotionEvent.ACTION_POINTER_DOWN) {
+            for (int h = 0; h < tap.getHistorySize(); h++) {
+                queueTouch(TouchSampleQueue.ACTION_MOVE, tap.getHistoricalX(h),
+                        tap.getHistoricalY(h), tap.getHistoricalEventTime(h), pointerId);
+            }
+            queueTouch(TouchSampleQueue.ACTION_MOVE, tap.getX(), tap.getY(), tap.getEventTime(),
+                    pointerId);
             return true;
-        } else if (tap.getAction() == MotionEvent.ACTION_UP || tap.getAction() == MotionEvent.ACTION_CANCEL) {
-            bTouchDown.set(false);
-            lastTouch.set(new Vector2f(tap.getX(), tap.getY()));
+        } else if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL) {
+            queueTouch(TouchSampleQueue.ACTION_UP, tap.getX(), tap.getY(), tap.getEventTime(),
+                    pointerId);
             return true;
         }
 
         return super.onTouchEvent(tap);
     }
 
+    /**
+     * Offers a sample to the touch queue.  A full queue drops move samples first, which only
+     * thins out the stroke, and skips a whole touch when even its down does not fit, so the GL
+     * thread never sees a stroke without its end.  Skipped touches are logged.
+     */
+    private void queueTouch(int action, float x, float y, long eventTime, int pointerId) {
+        if (!mTouchQueue.offer(action, x, y, eventTime, pointerId)
+                && action == TouchSampleQueue.ACTION_DOWN) {
+            Log.w(TAG, "Touch queue full, skipping a touch, "
+                    + mTouchQueue.getDroppedCount() + " samples dropped so far");
+        }
+    }
+
 
     @Override
     public boolean onSingleTapConfirmed(MotionEvent e) {
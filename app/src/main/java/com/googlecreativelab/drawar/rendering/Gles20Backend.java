@@ -0,0 +1,204 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar.rendering;
+
+import android.opengl.GLES20;
+
+import java.nio.Buffer;
+
+
+/**
+ * The GlBackend of the app, which calls straight through to GLES20
+ */
+public class Gles20Backend implements GlBackend {
+    @Override
+    public void glGenBuffers(int n, int[] buffers, int offset) {
+        GLES20.glGenBuffers(n, buffers, offset);
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        GLES20.glBindBuffer(target, buffer);
+    }
+
+    @Override
+    public void glBufferData(int target, int size, Buffer data, int usage) {
+        GLES20.glBufferData(target, size, data, usage);
+    }
+
+    @Override
+    public void glBufferSubData(int target, int offset, int size, Buffer data) {
+        GLES20.glBufferSubData(target, offset, size, data);
+    }
+
+    @Override
+    public void glGenTextures(int n, int[] textures, int offset) {
+        GLES20.glGenTextures(n, textures, offset);
+    }
+
+    @Override
+    public void glBindTexture(int target, int texture) {
+        GLES20.glBindTexture(target, texture);
+    }
+
+    @Override
+    public void glTexParameteri(int target, int pname, int param) {
+        GLES20.glTexParameteri(target, pname, param);
+    }
+
+    @Override
+    public int glCreateShader(int type) {
+        return GLES20.glCreateShader(type);
+    }
+
+    @Override
+    public void glShaderSource(int shader, String string) {
+        GLES20.glShaderSource(shader, string);
+    }
+
+    @Override
+    public void glCompileShader(int shader) {
+        GLES20.glCompileShader(shader);
+    }
+
+    @Override
+    public void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+        GLES20.glGetShaderiv(shader, pname, params, offset);
+    }
+
+    @Override
+    public String glGetShaderInfoLog(int shader) {
+        return GLES20.glGetShaderInfoLog(shader);
+    }
+
+    @Override
+    public void glDeleteShader(int shader) {
+        GLES20.glDeleteShader(shader);
+    }
+
+    @Override
+    public int glCreateProgram() {
+        return GLES20.glCreateProgram();
+    }
+
+    @Override
+    public void glAttachShader(int program, int shader) {
+        GLES20.glAttachShader(program, shader);
+    }
+
+    @Override
+    public void glLinkProgram(int program) {
+        GLES20.glLinkProgram(program);
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        GLES20.glUseProgram(program);
+    }
+
+    @Override
+    public int glGetAttribLocation(int program, String name) {
+        return GLES20.glGetAttribLocation(program, name);
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, String name) {
+        return GLES20.glGetUniformLocation(program, name);
+    }
+
+    @Override
+    public void glUniform1f(int location, float x) {
+        GLES20.glUniform1f(location, x);
+    }
+
+    @Override
+    public void glUniform2f(int location, float x, float y) {
+        GLES20.glUniform2f(location, x, y);
+    }
+
+    @Override
+    public void glUniform3f(int location, float x, float y, float z) {
+        GLES20.glUniform3f(location, x, y, z);
+    }
+
+    @Override
+    public void glUniform4fv(int location, int count, float[] v, int offset) {
+        GLES20.glUniform4fv(location, count, v, offset);
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value,
+                                   int offset) {
+        GLES20.glUniformMatrix4fv(location, count, transpose, value, offset);
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        GLES20.glEnableVertexAttribArray(index);
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index) {
+        GLES20.glDisableVertexAttribArray(index);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride,
+                                      int offset) {
+        GLES20.glVertexAttribPointer(index, size, type, normalized, stride, offset);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride,
+                                      Buffer pointer) {
+        GLES20.glVertexAttribPointer(index, size, type, normalized, stride, pointer);
+    }
+
+    @Override
+    public void glDrawArrays(int mode, int first, int count) {
+        GLES20.glDrawArrays(mode, first, count);
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, int offset) {
+        GLES20.glDrawElements(mode, count, type, offset);
+    }
+
+    @Override
+    public void glEnable(int cap) {
+        GLES20.glEnable(cap);
+    }
+
+    @Override
+    public void glDisable(int cap) {
+        GLES20.glDisable(cap);
+    }
+
+    @Override
+    public void glDepthMask(boolean flag) {
+        GLES20.glDepthMask(flag);
+    }
+
+    @Override
+    public String glGetString(int name) {
+        return GLES20.glGetString(name);
+    }
+
+    @Override
+    public int glGetError() {
+        return GLES20.glGetError();
+    }
+}
@@ -16,6 +16,7 @@ package com.googlecreativelab.drawar.rendering;
 
 
 import com.googlecreativelab.drawar.R;
+import com.googlecreativelab.drawar.StrokeStore;
 
 import android.content.Context;
 import android.opengl.GLES20;
@@ -23,11 +24,6 @@ import android.opengl.GLSurfaceView;
 import android.opengl.Matrix;
 import android.util.Log;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.microedition.khronos.egl.EGLConfig;
@@ -42,22 +38,24 @@ public class LineShaderRenderer {
 
 
     private static final String TAG = LineShaderRenderer.class.getSimpleName();
-    private static final int FLOATS_PER_POINT = 3;  // X,Y,Z.
-    private static final int BYTES_PER_FLOAT = 4;
-    private static final int BYTES_PER_POINT = BYTES_PER_FLOAT * FLOATS_PER_POINT;
+    private static final VertexLayout LINE_LAYOUT = LineGeometry.LINE_LAYOUT;
+
+    // The largest error in pixels a level of detail may show on screen
+    private static final float LOD_PIXEL_ERROR = 1.5f;
+
+    // The lineWidth uniform per unit of the line width setting.  The vertices only hold a width
+    // relative to it, so the width, distance scale, color and opacity are applied by the shader
+    private static final float LINE_WIDTH_SCALE = 0.01f;
 
     private float[] mModelMatrix = new float[16];
     private float[] mModelViewMatrix = new float[16];
     private float[] mModelViewProjectionMatrix = new float[16];
 
 
-    private int mPositionAttribute = 0;
+    private int[] mAttributes = new int[LINE_LAYOUT.getAttributeCount()];
+    // The previous and next attributes, bound to the position attribute of the neighbouring points
     private int mPreviousAttribute = 0;
     private int mNextAttribute = 0;
-    private int mSideAttribute = 0;
-    private int mWidthAttribte = 0;
-
-    private int mCountersAttribute = 0;
 
     private int mProjectionUniform = 0;
     private int mModelViewUniform = 0;
@@ -71,6 +69,8 @@ public class LineShaderRenderer {
     private int mDrawModeUniform = 0;
     private int mNearCutoffUniform = 0;
     private int mFarCutoffUniform = 0;
+    private int mPositionTransformUniform = 0;
+    private float[] mPositionTransform = new float[4];
 
     private boolean mDrawMode = false;
 
@@ -78,35 +78,36 @@ public class LineShaderRenderer {
     private int mAlphaTest = 0;
 
 
-    private float[] mPositions;
-    private float[] mCounters;
-    private float[] mNext;
-    private float[] mSide;
-    private float[] mWidth;
-    private float[] mPrevious;
-
-    private int mPositionAddress;
-    private int mPreviousAddress;
-    private int mNextAddress;
-    private int mSideAddress;
-    private int mWidthAddress;
-    private int mCounterAddress;
+    // Geometry is generated by the worker, the GL thread uploads the front geometry when a new one
+    // is published and draws it
+    private GeometryWorker mWorker = new GeometryWorker();
+    private LineGeometry mGeometry = mWorker.getFront();
+    private int mIndexSize = LineGeometry.BYTES_PER_SHORT;
+    private boolean mQuantizePositions = false;
 
+    // Only the pages of the index buffer inside the view frustum are drawn
+    private FrustumCuller mCuller = new FrustumCuller();
+    private int mVisiblePages = 0;
+    private int mBoundBatch = -1;
 
-    private int mNumPoints = 0;
-    private int mNumBytes = 0;
-
-    private int mVbo = 0;
-    private int mVboSize = 0;
+    // The vertex and index buffers, with index buffers of the coarser levels of detail of the
+    // finished pages, drawn instead of the full resolution indices when their simplification error
+    // projects to less than LOD_PIXEL_ERROR pixels
+    private final GlBackend mGl;
+    private final LineBuffers mBuffers;
+    private int mBoundLevel = 0;
+    private int mDrawnIndices = 0;
 
     private int mProgramName = 0;
     private float lineWidth = 0;
+    private float mOpacity = 1f;
 
 
-    private Vector3f mColor;
+    private final Vector3f mColor = new Vector3f(1f, 1f, 1f);
 
 
     public AtomicBoolean bNeedsUpdate = new AtomicBoolean();
+    private AtomicBoolean bNeedsRebuild = new AtomicBoolean(true);
 
     private int mLineDepthScaleUniform;
     private float mLineDepthScale = 10.0f;
@@ -114,7 +115,15 @@ public class LineShaderRenderer {
     public float mDrawDistance;
 
     public LineShaderRenderer() {
+        this(new Gles20Backend());
+    }
 
+    /**
+     * @param gl the GlBackend every GL call goes through
+     */
+    public LineShaderRenderer(GlBackend gl) {
+        mGl = gl;
+        mBuffers = new LineBuffers(gl, mGeometry.getLods().getNumLevels());
     }
 
     /**
@@ -125,18 +134,23 @@ public class LineShaderRenderer {
      * @param context Needed to access shader source.
      */
     public void createOnGlThread(Context context) {
-        ShaderUtil.checkGLError(TAG, "before create");
+        ShaderUtil.checkGLError(mGl, TAG, "before create");
+
+        mBuffers.create();
 
-        int buffers[] = new int[1];
-        GLES20.glGenBuffers(1, buffers, 0);
-        mVbo = buffers[0];
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mVbo);
-        mVboSize = 0;
-        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, mVboSize, null, GLES20.GL_DYNAMIC_DRAW);
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        // 32 bit indices let a single batch address the whole vertex buffer
+        String extensions = mGl.glGetString(GLES20.GL_EXTENSIONS);
+        int indexSize = LineGeometry.BYTES_PER_SHORT;
+        if (extensions != null && extensions.contains("GL_OES_element_index_uint")) {
+            indexSize = LineGeometry.BYTES_PER_INT;
+        }
+        // The new buffers are empty, so all of the geometry is built and uploaded again
+        mIndexSize = indexSize;
+        clear();
+        mWorker.start();
 
 
-        ShaderUtil.checkGLError(TAG, "buffer alloc");
+        ShaderUtil.checkGLError(mGl, TAG, "buffer alloc");
 
 
         /**
@@ -156,68 +170,77 @@ public class LineShaderRenderer {
          *          https://github.com/spite/THREE.MeshLine/blob/master/src/THREE.MeshLine.js
          *
          *
-         * The Renderer batches all of the geometry into a single VBO.  This allows us to have a single
-         * draw call to render the geometry.  We also optimize the application to only re-upload the
+         * The Renderer batches all of the geometry into a single VBO and index buffer.  This allows
+         * us to have a single draw call to render the geometry, or one per 65k vertices when 32 bit
+         * indices are not supported.  We also optimize the application to only re-upload the
          * geometry data when a new stroke or new points are added to the drawing. The renderer uses
          * a technique detailed in the following link to create degenerate faces between the strokes
-         * to disconnect them from one another.
+         * to disconnect them from one another, repeating indices instead of vertices.
          *      https://developer.apple.com/library/content/documentation/3DDrawing/Conceptual/OpenGLES_ProgrammingGuide/TechniquesforWorkingwithVertexData/TechniquesforWorkingwithVertexData.html
          *
          */
 
-        int vertexShader = ShaderUtil.loadGLShader(TAG, context,
+        int vertexShader = ShaderUtil.loadGLShader(mGl, TAG, context,
                 GLES20.GL_VERTEX_SHADER, R.raw.line_vert);
-        int fragmentShader = ShaderUtil.loadGLShader(TAG, context,
+        int fragmentShader = ShaderUtil.loadGLShader(mGl, TAG, context,
                 GLES20.GL_FRAGMENT_SHADER, R.raw.line_frag);
 
 
-        mProgramName = GLES20.glCreateProgram();
-        GLES20.glAttachShader(mProgramName, vertexShader);
-        GLES20.glAttachShader(mProgramName, fragmentShader);
-        GLES20.glLinkProgram(mProgramName);
-        GLES20.glUseProgram(mProgramName);
-
-        ShaderUtil.checkGLError(TAG, "program");
-
-        mPositionAttribute = GLES20.glGetAttribLocation(mProgramName, "position");
-        mPreviousAttribute = GLES20.glGetAttribLocation(mProgramName, "previous");
-        mNextAttribute = GLES20.glGetAttribLocation(mProgramName, "next");
-        mSideAttribute = GLES20.glGetAttribLocation(mProgramName, "side");
-        mWidthAttribte = GLES20.glGetAttribLocation(mProgramName, "width");
-        mCountersAttribute = GLES20.glGetAttribLocation(mProgramName, "counters");
-        mProjectionUniform = GLES20.glGetUniformLocation(mProgramName, "projectionMatrix");
-        mModelViewUniform = GLES20.glGetUniformLocation(mProgramName, "modelViewMatrix");
-        mResolutionUniform = GLES20.glGetUniformLocation(mProgramName, "resolution");
-        mLineWidthUniform = GLES20.glGetUniformLocation(mProgramName, "lineWidth");
-        mColorUniform = GLES20.glGetUniformLocation(mProgramName, "color");
-        mOpacityUniform = GLES20.glGetUniformLocation(mProgramName, "opacity");
-        mNearUniform = GLES20.glGetUniformLocation(mProgramName, "near");
-        mFarUniform = GLES20.glGetUniformLocation(mProgramName, "far");
-        mSizeAttenuationUniform = GLES20.glGetUniformLocation(mProgramName, "sizeAttenuation");
-        mVisibility = GLES20.glGetUniformLocation(mProgramName, "visibility");
-        mAlphaTest = GLES20.glGetUniformLocation(mProgramName, "alphaTest");
-        mDrawModeUniform = GLES20.glGetUniformLocation(mProgramName, "drawMode");
-        mNearCutoffUniform = GLES20.glGetUniformLocation(mProgramName, "nearCutOff");
-        mFarCutoffUniform = GLES20.glGetUniformLocation(mProgramName, "farCutOff");
-        mLineDepthScaleUniform = GLES20.glGetUniformLocation(mProgramName, "lineDepthScale");
-
-        ShaderUtil.checkGLError(TAG, "program  params");
+        mProgramName = mGl.glCreateProgram();
+        mGl.glAttachShader(mProgramName, vertexShader);
+        mGl.glAttachShader(mProgramName, fragmentShader);
+        mGl.glLinkProgram(mProgramName);
+        mGl.glUseProgram(mProgramName);
+
+        ShaderUtil.checkGLError(mGl, TAG, "program");
+
+        for (int i = 0; i < mAttributes.length; i++) {
+            mAttributes[i] = mGl.glGetAttribLocation(mProgramName, LINE_LAYOUT.getAttribute(i).name);
+        }
+        mPreviousAttribute = mGl.glGetAttribLocation(mProgramName, "previous");
+        mNextAttribute = mGl.glGetAttribLocation(mProgramName, "next");
+        mProjectionUniform = mGl.glGetUniformLocation(mProgramName, "projectionMatrix");
+        mModelViewUniform = mGl.glGetUniformLocation(mProgramName, "modelViewMatrix");
+        mResolutionUniform = mGl.glGetUniformLocation(mProgramName, "resolution");
+        mLineWidthUniform = mGl.glGetUniformLocation(mProgramName, "lineWidth");
+        mColorUniform = mGl.glGetUniformLocation(mProgramName, "color");
+        mOpacityUniform = mGl.glGetUniformLocation(mProgramName, "opacity");
+        mNearUniform = mGl.glGetUniformLocation(mProgramName, "near");
+        mFarUniform = mGl.glGetUniformLocation(mProgramName, "far");
+        mSizeAttenuationUniform = mGl.glGetUniformLocation(mProgramName, "sizeAttenuation");
+        mVisibility = mGl.glGetUniformLocation(mProgramName, "visibility");
+        mAlphaTest = mGl.glGetUniformLocation(mProgramName, "alphaTest");
+        mDrawModeUniform = mGl.glGetUniformLocation(mProgramName, "drawMode");
+        mNearCutoffUniform = mGl.glGetUniformLocation(mProgramName, "nearCutOff");
+        mFarCutoffUniform = mGl.glGetUniformLocation(mProgramName, "farCutOff");
+        mLineDepthScaleUniform = mGl.glGetUniformLocation(mProgramName, "lineDepthScale");
+        mPositionTransformUniform = mGl.glGetUniformLocation(mProgramName, "positionTransform");
+
+        ShaderUtil.checkGLError(mGl, TAG, "program  params");
 
         Matrix.setIdentityM(mModelMatrix, 0);
 
-        mColor = new Vector3f(1f, 1f, 1f);
+        mColor.set(1f, 1f, 1f);
         lineWidth = 0.5f;
     }
 
     /**
-     * Sets the LineWidth of the Line.
-     * Requires bNeedsUpdate.set(true) to take effect
+     * Sets the LineWidth of the Line.  Only sets the lineWidth uniform of the next draw, the
+     * geometry is untouched.
      * @param width
      */
     public void setLineWidth(float width){
         lineWidth = width;
     }
 
+    /**
+     * Sets the opacity uniform of the next draw
+     * @param opacity
+     */
+    public void setOpacity(float opacity) {
+        mOpacity = opacity;
+    }
+
     /**
      * Enables or Disables the Debug View in the Fragment Shader.  Debug View highlights the strokes
      * at the same depth as the user.  It allows the user to position new drawings to intersect or
@@ -234,7 +257,7 @@ public class LineShaderRenderer {
      * @param color a Vector3f representing R, G, B for the X, Y, Z values
      */
     public void setColor(Vector3f color) {
-        mColor = new Vector3f(color);
+        mColor.set(color);
     }
 
 
@@ -248,191 +271,68 @@ public class LineShaderRenderer {
     }
 
     /**
-     * This updates the geometry data to be rendered. It ensures the capacity of the float arrays
-     * and then calls addLine to generate the geometry.
-     * @param strokes a ArrayList of ArrayLists of Vector3fs in world space.  The outer ArrayList
-     *                contains the strokes, while the inner ArrayList contains the Vertex of each Line
+     * Sends the changes to the strokes to the geometry worker.  Strokes that were already generated
+     * keep their vertices, only the points added to the active (last) stroke and any new strokes
+     * are generated.  If clear() was called, or strokes were removed, all of the geometry is
+     * rebuilt.  The geometry is uploaded by a later upload() once the worker has finished it.
+     * @param strokes the StrokeStore holding the points of every stroke in world space
      */
-    public void updateStrokes(ArrayList<ArrayList<Vector3f>> strokes) {
-        mNumPoints = 0;
-        for (ArrayList<Vector3f> l : strokes) {
-            mNumPoints += l.size()*2 + 2;
-        }
-
-        ensureCapacity(mNumPoints);
-
-        int offset = 0;
-        for (ArrayList<Vector3f> l : strokes) {
-            offset = addLine(l, offset);
-        }
-        mNumBytes = offset;
-
+    public void updateStrokes(StrokeStore strokes) {
+        bNeedsUpdate.set(false);
+        mWorker.submit(strokes, mIndexSize, mQuantizePositions, bNeedsRebuild.getAndSet(false));
     }
 
     /**
-     * This ensures the capacity of the float arrays that hold the information bound to the Vertex
-     * Attributes needed to render the line with the Vertex and Fragment shader.
-     * @param numPoints
+     * Stores the positions as normalized shorts relative to an origin per draw batch instead of
+     * floats, see LineGeometry.QUANTIZED_LINE_LAYOUT.  Rebuilds all of the geometry.
+     * @param quantize
      */
-    private void ensureCapacity(int numPoints){
-        int count = 1024;
-        if(mSide != null){
-            count = mSide.length;
-        }
-
-        while(count < numPoints){
-            count += 1024;
-        }
-
-        if(mSide == null || mSide.length < count) {
-            Log.i(TAG, "alloc "+count);
-            mPositions = new float[count*3];
-            mNext = new float[count*3];
-            mPrevious = new float[count*3];
-
-            mCounters = new float[count];
-            mSide = new float[count];
-            mWidth = new float[count];
+    public void setQuantizePositions(boolean quantize) {
+        if (quantize != mQuantizePositions) {
+            mQuantizePositions = quantize;
+            clear();
         }
     }
 
     /**
-     * AddLine takes in the 3D positions adds to the buffers to create the stroke and the degenerate
-     * faces needed so the lines render properly.
-     * @param line
-     * @param offset
-     * @return
+     * Stops the geometry worker thread
      */
-    private int addLine(List<Vector3f> line, int offset) {
-        if (line == null || line.size() < 2)
-            return offset;
-
-
-
-
-        int lineSize = line.size();
-
-
-        int ii = offset;
-        for (int i = 0; i < lineSize; i++) {
-
-            int iGood = i;
-            if (iGood < 0) iGood = 0;
-            if (iGood >= lineSize) iGood = lineSize - 1;
-
-            int i_m_1 = (iGood - 1) < 0 ? iGood : iGood - 1;
-            int i_p_1 = (iGood + 1) > (lineSize - 1) ? iGood : iGood + 1;
-            float c = ((float) i / lineSize);
-
-
-            Vector3f current = line.get(iGood);
-            Vector3f previous = line.get(i_m_1);
-            Vector3f next = line.get(i_p_1);
-
-
-
-            if (i == 0) {
-                setMemory(ii++, current, previous, next, c, lineWidth, 1f);
-            }
-
-            setMemory(ii++, current, previous, next, c, lineWidth, 1f);
-            setMemory(ii++, current, previous, next, c, lineWidth, -1f);
-
-            if (i == lineSize - 1) {
-                setMemory(ii++, current, previous, next, c, lineWidth, -1f);
-            }
-        }
-        return ii;
+    public void release() {
+        mWorker.stop();
     }
 
     /**
-     *
-     * setMemory is a helper method used to add the stroke data to the float[] buffers
-     * @param index
-     * @param pos
-     * @param prev
-     * @param next
-     * @param counter
-     * @param width
-     * @param side
-     */
-    private void setMemory(int index, Vector3f pos, Vector3f prev, Vector3f next, float counter, float width, float side){
-        mPositions[index*3] = pos.x;
-        mPositions[index*3+1] = pos.y;
-        mPositions[index*3+2] = pos.z;
-
-        mNext[index*3] = next.x;
-        mNext[index*3+1] = next.y;
-        mNext[index*3+2] = next.z;
-
-        mPrevious[index*3] = prev.x;
-        mPrevious[index*3+1] = prev.y;
-        mPrevious[index*3+2] = prev.z;
-
-        mCounters[index] = counter;
-        mSide[index] = side;
-        mWidth[index] = width;
-
-    }
-
-    /**
-     * Sets the bNeedsUpdate to true.
+     * Sets the bNeedsUpdate to true and requests a full rebuild of the geometry on the next
+     * updateStrokes, used when strokes are removed or changed.
      */
     public void clear() {
+        bNeedsRebuild.set(true);
         bNeedsUpdate.set(true);
     }
 
 
     /**
-     * This takes the float[] and creates FloatBuffers, Binds the VBO, and upload the Attributes to
-     * correct locations with the correct offsets so the Vertex and Fragment shader can render the lines
+     * This uploads the vertices and indices of the geometry the worker published since the last
+     * call into the LineBuffers, so the Vertex and Fragment shader can render the lines.  Only the
+     * data that changed since that geometry was last uploaded is streamed.  Does nothing if no new
+     * geometry is ready.
+     * @return the number of bytes streamed
      */
-    public void upload() {
-        bNeedsUpdate.set(false);
-
-        FloatBuffer current = toFloatBuffer(mPositions);
-        FloatBuffer next = toFloatBuffer(mNext);
-        FloatBuffer previous = toFloatBuffer(mPrevious);
-
-        FloatBuffer side = toFloatBuffer(mSide);
-        FloatBuffer width = toFloatBuffer(mWidth);
-        FloatBuffer counter = toFloatBuffer(mCounters);
-
-
-//        mNumPoints = mPositions.length;
-
-        mPositionAddress = 0;
-        mNextAddress = mPositionAddress + mNumBytes * 3 * BYTES_PER_FLOAT;
-        mPreviousAddress = mNextAddress + mNumBytes * 3 * BYTES_PER_FLOAT;
-        mSideAddress = mPreviousAddress + mNumBytes *3 * BYTES_PER_FLOAT;
-
-        mWidthAddress = mSideAddress + mNumBytes * BYTES_PER_FLOAT;
-        mCounterAddress = mWidthAddress + mNumBytes * BYTES_PER_FLOAT;
-        mVboSize = mCounterAddress + mNumBytes * BYTES_PER_FLOAT;
-
-        ShaderUtil.checkGLError(TAG, "before update");
-
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mVbo);
-
-        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, mVboSize, null, GLES20.GL_DYNAMIC_DRAW);
-
-        GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, mPositionAddress, mNumBytes * 3 * BYTES_PER_FLOAT,
-                current);
-        GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, mNextAddress, mNumBytes * 3 * BYTES_PER_FLOAT,
-                next);
-        GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, mPreviousAddress, mNumBytes * 3 * BYTES_PER_FLOAT,
-                previous);
-        GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, mSideAddress, mNumBytes * BYTES_PER_FLOAT,
-                side);
-        GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, mWidthAddress, mNumBytes * BYTES_PER_FLOAT,
-                width);
-        GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, mCounterAddress, mNumBytes * BYTES_PER_FLOAT,
-                counter);
+    public long upload() {
+        LineGeometry geometry = mWorker.acquire();
+        if (geometry == null) {
+            return 0;
+        }
+        mGeometry = geometry;
 
+        ShaderUtil.checkGLError(mGl, TAG, "before update");
 
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        if (mBuffers.upload(geometry)) {
+            Log.i(TAG, geometry.getGeometryStats());
+        }
 
-        ShaderUtil.checkGLError(TAG, "after update");
+        ShaderUtil.checkGLError(mGl, TAG, "after update");
+        return mBuffers.getUploadedBytes();
     }
 
 
@@ -440,9 +340,11 @@ public class LineShaderRenderer {
      *
      *  This method takes in the current CameraView Matrix and the Camera's Projection Matrix, the
      *  current position and pose of the device, uses those to calculate the ModelViewMatrix and
-     *  ModelViewProjectionMatrix.  It binds the VBO, enables the custom attribute locations,
-     *  binds and uploads the shader uniforms, calls our single DrawArray call, and finally disables
-     *  and unbinds the shader attributes and VBO.
+     *  ModelViewProjectionMatrix.  It binds the VBO and index buffer, enables the custom attribute
+     *  locations, binds and uploads the shader uniforms.  The pages of the index buffer are tested
+     *  against the view frustum, and each run of consecutive visible pages is drawn with a single
+     *  DrawElements call, with the attributes of the interleaved layout pointed at the base
+     *  of its batch.  Finally it disables and unbinds the shader attributes and buffers.
      *
      * @param cameraView
      * @param cameraPerspective
@@ -457,81 +359,205 @@ public class LineShaderRenderer {
         Matrix.multiplyMM(mModelViewMatrix, 0, cameraView, 0, mModelMatrix, 0);
         Matrix.multiplyMM(mModelViewProjectionMatrix, 0, cameraPerspective, 0, mModelViewMatrix, 0);
 
-        ShaderUtil.checkGLError(TAG, "Before draw");
-
-        GLES20.glUseProgram(mProgramName);
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mVbo);
-        GLES20.glVertexAttribPointer(
-                mPositionAttribute, FLOATS_PER_POINT, GLES20.GL_FLOAT, false, BYTES_PER_POINT, mPositionAddress);
-        GLES20.glVertexAttribPointer(
-                mPreviousAttribute, FLOATS_PER_POINT, GLES20.GL_FLOAT, false, BYTES_PER_POINT, mPreviousAddress);
-        GLES20.glVertexAttribPointer(
-                mNextAttribute, FLOATS_PER_POINT, GLES20.GL_FLOAT, false, BYTES_PER_POINT, mNextAddress);
-        GLES20.glVertexAttribPointer(
-                mSideAttribute, 1, GLES20.GL_FLOAT, false, BYTES_PER_FLOAT, mSideAddress);
-        GLES20.glVertexAttribPointer(
-                mWidthAttribte, 1, GLES20.GL_FLOAT, false, BYTES_PER_FLOAT, mWidthAddress);
-        GLES20.glVertexAttribPointer(
-                mCountersAttribute, 1, GLES20.GL_FLOAT, false, BYTES_PER_FLOAT, mCounterAddress);
-        GLES20.glUniformMatrix4fv(
+        ShaderUtil.checkGLError(mGl, TAG, "Before draw");
+
+        mGl.glUseProgram(mProgramName);
+        mGl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mBuffers.getVbo());
+        mGl.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mBuffers.getIbo());
+        mGl.glUniformMatrix4fv(
                 mModelViewUniform, 1, false, mModelViewMatrix, 0);
-        GLES20.glUniformMatrix4fv(
+        mGl.glUniformMatrix4fv(
                 mProjectionUniform, 1, false, cameraPerspective, 0);
 
 
-        GLES20.glUniform2f(mResolutionUniform, screenWidth, screenHeight);
-        GLES20.glUniform1f(mLineWidthUniform, 0.01f);
-        GLES20.glUniform3f(mColorUniform, mColor.x, mColor.y, mColor.z);
-        GLES20.glUniform1f(mOpacityUniform, 1.0f);
-        GLES20.glUniform1f(mNearUniform, nearClip);
-        GLES20.glUniform1f(mFarUniform, farClip);
-        GLES20.glUniform1f(mSizeAttenuationUniform, 1.0f);
-        GLES20.glUniform1f(mVisibility, 1.0f);
-        GLES20.glUniform1f(mAlphaTest, 1.0f);
-        GLES20.glUniform1f(mDrawModeUniform, mDrawMode?1.0f:0.0f);
-        GLES20.glUniform1f(mNearCutoffUniform,  mDrawDistance - 0.0075f);
-        GLES20.glUniform1f(mFarCutoffUniform, mDrawDistance + 0.0075f);
-        GLES20.glUniform1f(mLineDepthScaleUniform, mLineDepthScale);
+        mGl.glUniform2f(mResolutionUniform, screenWidth, screenHeight);
+        mGl.glUniform1f(mLineWidthUniform, LINE_WIDTH_SCALE * lineWidth);
+        mGl.glUniform3f(mColorUniform, mColor.x, mColor.y, mColor.z);
+        mGl.glUniform1f(mOpacityUniform, mOpacity);
+        mGl.glUniform1f(mNearUniform, nearClip);
+        mGl.glUniform1f(mFarUniform, farClip);
+        mGl.glUniform1f(mSizeAttenuationUniform, 1.0f);
+        mGl.glUniform1f(mVisibility, 1.0f);
+        mGl.glUniform1f(mAlphaTest, 1.0f);
+        mGl.glUniform1f(mDrawModeUniform, mDrawMode?1.0f:0.0f);
+        mGl.glUniform1f(mNearCutoffUniform,  mDrawDistance - 0.0075f);
+        mGl.glUniform1f(mFarCutoffUniform, mDrawDistance + 0.0075f);
+        mGl.glUniform1f(mLineDepthScaleUniform, mLineDepthScale);
+
+        for (int attribute : mAttributes) {
+            mGl.glEnableVertexAttribArray(attribute);
+        }
+        mGl.glEnableVertexAttribArray(mPreviousAttribute);
+        mGl.glEnableVertexAttribArray(mNextAttribute);
+
+
+        mCuller.setViewProjection(mModelViewProjectionMatrix);
+        // Grow the page bounds by the widest the vertex shader can make the line
+        float margin = 0.5f * 1.8f * LINE_WIDTH_SCALE * lineWidth * Math.max(1f, mLineDepthScale);
+
+        // The camera position in world space, and the number of pixels a meter covers at a
+        // distance of one meter, to pick the level of detail of every page
+        float[] mv = mModelViewMatrix;
+        float cameraX = -(mv[0] * mv[12] + mv[1] * mv[13] + mv[2] * mv[14]);
+        float cameraY = -(mv[4] * mv[12] + mv[5] * mv[13] + mv[6] * mv[14]);
+        float cameraZ = -(mv[8] * mv[12] + mv[9] * mv[13] + mv[10] * mv[14]);
+        float pixelsPerMeter = cameraPerspective[5] * screenHeight * 0.5f;
+
+        mBoundBatch = -1;
+        mBoundLevel = 0;
+        mVisiblePages = 0;
+        mDrawnIndices = 0;
+        int runLevel = -1;
+        int runBatch = -1;
+        int runStart = 0;
+        int runEnd = 0;
+        LinePages pages = mGeometry.getPages();
+        LineLods lods = mGeometry.getLods();
+        int numPages = pages.getNumPages();
+        for (int p = 0; p < numPages; p++) {
+            if (!mCuller.isVisible(pages.getBounds(), p * LinePages.FLOATS_PER_BOUNDS, margin)) {
+                continue;
+            }
+            mVisiblePages++;
+
+            int batch = pages.getBatch(p);
+            int level = getLevel(p, cameraX, cameraY, cameraZ, pixelsPerMeter);
+            int first;
+            int end;
+            if (level > 0) {
+                first = lods.getFirstIndex(level - 1, p);
+                end = lods.getEndIndex(level - 1, p);
+            } else {
+                first = pages.getFirstIndex(p);
+                end = p + 1 < numPages ? pages.getFirstIndex(p + 1) : mGeometry.getNumIndices();
+                if (first - 2 >= mGeometry.getBatchFirstIndex(batch)) {
+                    // Start two indices early so the strip is connected to the previous page
+                    first -= 2;
+                }
+            }
+
+            if (level == runLevel && batch == runBatch && first <= runEnd) {
+                runEnd = end;
+                continue;
+            }
+            if (runBatch != -1) {
+                drawRange(runLevel, runBatch, runStart, runEnd);
+            }
+            runLevel = level;
+            runBatch = batch;
+            runStart = first;
+            runEnd = end;
+        }
+        if (runBatch != -1) {
+            drawRange(runLevel, runBatch, runStart, runEnd);
+        }
+
+
+        for (int attribute : mAttributes) {
+            mGl.glDisableVertexAttribArray(attribute);
+        }
+        mGl.glDisableVertexAttribArray(mPreviousAttribute);
+        mGl.glDisableVertexAttribArray(mNextAttribute);
 
-        GLES20.glEnableVertexAttribArray(mPositionAttribute);
-        GLES20.glEnableVertexAttribArray(mPreviousAttribute);
-        GLES20.glEnableVertexAttribArray(mNextAttribute);
-        GLES20.glEnableVertexAttribArray(mSideAttribute);
-        GLES20.glEnableVertexAttribArray(mWidthAttribte);
-        GLES20.glEnableVertexAttribArray(mCountersAttribute);
 
+        mGl.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+        mGl.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
 
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, mNumBytes);
+        ShaderUtil.checkGLError(mGl, TAG, "Draw");
+    }
 
 
-        GLES20.glDisableVertexAttribArray(mCountersAttribute);
-        GLES20.glDisableVertexAttribArray(mWidthAttribte);
-        GLES20.glDisableVertexAttribArray(mSideAttribute);
-        GLES20.glDisableVertexAttribArray(mNextAttribute);
-        GLES20.glDisableVertexAttribArray(mPreviousAttribute);
-        GLES20.glDisableVertexAttribArray(mPositionAttribute);
+    /**
+     * Picks the coarsest level of detail whose simplification error stays below LOD_PIXEL_ERROR
+     * pixels at the distance of the closest point of the bounds of the page to the camera
+     * @param page
+     * @return 0 for the full resolution indices, or the coarser level + 1
+     */
+    private int getLevel(int page, float cameraX, float cameraY, float cameraZ, float pixelsPerMeter) {
+        LineLods lods = mGeometry.getLods();
+        if (page >= lods.getNumPages()) {
+            return 0;
+        }
+        float[] bounds = mGeometry.getPages().getBounds();
+        int b = page * LinePages.FLOATS_PER_BOUNDS;
+        float dx = Math.max(0, Math.max(bounds[b] - cameraX, cameraX - bounds[b + 3]));
+        float dy = Math.max(0, Math.max(bounds[b + 1] - cameraY, cameraY - bounds[b + 4]));
+        float dz = Math.max(0, Math.max(bounds[b + 2] - cameraZ, cameraZ - bounds[b + 5]));
+        float distance = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+
+        for (int l = lods.getNumLevels() - 1; l >= 0; l--) {
+            if (lods.getTolerance(l) * pixelsPerMeter <= LOD_PIXEL_ERROR * distance) {
+                return l + 1;
+            }
+        }
+        return 0;
+    }
 
+    /**
+     * Draws a range of the index buffer of a level of detail, pointing the attributes at the base
+     * of its batch first if the previous range was drawn from another batch.
+     * @param level 0 for the full resolution indices, or the coarser level + 1
+     * @param batch
+     * @param first the first index to draw
+     * @param end one past the last index to draw
+     */
+    private void drawRange(int level, int batch, int first, int end) {
+        if (end - first < 3) {
+            return;
+        }
+        if (level != mBoundLevel) {
+            mBoundLevel = level;
+            mGl.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mBuffers.getIbo(level));
+        }
+        mDrawnIndices += end - first;
+        if (batch != mBoundBatch) {
+            mBoundBatch = batch;
+            VertexLayout layout = mGeometry.getLayout();
+            int stride = layout.getStride();
+            int baseAddress = mGeometry.getBatchBase(batch) * stride;
+            for (int i = 0; i < mAttributes.length; i++) {
+                bindAttribute(mAttributes[i], layout.getAttribute(i), stride, baseAddress);
+            }
+            // Every batch starts after the padding of its first point, so this stays in the buffer
+            int neighbourOffset = LineGeometry.NEIGHBOUR_VERTICES * stride;
+            VertexLayout.Attribute position = layout.getAttribute("position");
+            bindAttribute(mPreviousAttribute, position, stride, baseAddress - neighbourOffset);
+            bindAttribute(mNextAttribute, position, stride, baseAddress + neighbourOffset);
+            mGeometry.getBatchPositionTransform(batch, mPositionTransform);
+            mGl.glUniform4fv(mPositionTransformUniform, 1, mPositionTransform, 0);
+        }
+        int indexSize = mGeometry.getIndexSize();
+        int indexType = indexSize == LineGeometry.BYTES_PER_INT ? GLES20.GL_UNSIGNED_INT : GLES20.GL_UNSIGNED_SHORT;
+        mGl.glDrawElements(GLES20.GL_TRIANGLE_STRIP, end - first, indexType, first * indexSize);
+    }
 
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    private void bindAttribute(int location, VertexLayout.Attribute attribute, int stride,
+                                      int baseAddress) {
+        boolean quantized = attribute.type == VertexLayout.TYPE_NORMALIZED_SHORT;
+        mGl.glVertexAttribPointer(location, attribute.size,
+                quantized ? GLES20.GL_SHORT : GLES20.GL_FLOAT, quantized, stride,
+                baseAddress + attribute.getByteOffset());
+    }
 
-        ShaderUtil.checkGLError(TAG, "Draw");
+    /**
+     * @return the number of indices drawn in the last draw, after culling and level of detail
+     */
+    public int getDrawnIndices() {
+        return mDrawnIndices;
     }
 
+    /**
+     * @return the number of vertices of the geometry being drawn
+     */
+    public int getNumVertices() {
+        return mGeometry.getNumVertices();
+    }
 
     /**
-     * A helper function to allocate a FloatBuffer the size of our float[] and copy the float[] into
-     * the newly created FloatBuffer.
-     * @param data
-     * @return
+     * @return the number of pages that passed frustum culling in the last draw
      */
-    private FloatBuffer toFloatBuffer(float[] data) {
-        FloatBuffer buff;
-        ByteBuffer bb = ByteBuffer.allocateDirect(data.length * BYTES_PER_FLOAT);
-        bb.order(ByteOrder.nativeOrder());
-        buff = bb.asFloatBuffer();
-        buff.put(data);
-        buff.position(0);
-        return buff;
+    public int getVisiblePages() {
+        return mVisiblePages;
     }
 
 }
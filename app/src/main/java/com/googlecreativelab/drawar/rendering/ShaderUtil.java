@@ -30,24 +30,25 @@ public class ShaderUtil {
     /**
      * Converts a raw text file, saved as a resource, into an OpenGL ES shader.
      *
+     * @param gl The GlBackend the shader is created with.
      * @param type The type of shader we will be creating.
      * @param resId The resource ID of the raw text file about to be turned into a shader.
      * @return The shader object handler.
      */
-    public static int loadGLShader(String tag, Context context, int type, int resId) {
+    public static int loadGLShader(GlBackend gl, String tag, Context context, int type, int resId) {
         String code = readRawTextFile(context, resId);
-        int shader = GLES20.glCreateShader(type);
-        GLES20.glShaderSource(shader, code);
-        GLES20.glCompileShader(shader);
+        int shader = gl.glCreateShader(type);
+        gl.glShaderSource(shader, code);
+        gl.glCompileShader(shader);
 
         // Get the compilation status.
         final int[] compileStatus = new int[1];
-        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compileStatus, 0);
+        gl.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compileStatus, 0);
 
         // If the compilation failed, delete the shader.
         if (compileStatus[0] == 0) {
-            Log.e(tag, "Error compiling shader: " + GLES20.glGetShaderInfoLog(shader));
-            GLES20.glDeleteShader(shader);
+            Log.e(tag, "Error compiling shader: " + gl.glGetShaderInfoLog(shader));
+            gl.glDeleteShader(shader);
             shader = 0;
         }
 
@@ -61,12 +62,13 @@ public class ShaderUtil {
     /**
      * Checks if we've had an error inside of OpenGL ES, and if so what that error is.
      *
+     * @param gl The GlBackend to check.
      * @param label Label to report in case of error.
      * @throws RuntimeException If an OpenGL error is detected.
      */
-    public static void checkGLError(String tag, String label) {
+    public static void checkGLError(GlBackend gl, String tag, String label) {
         int error;
-        while ((error = GLES20.glGetError()) != GLES20.GL_NO_ERROR) {
+        while ((error = gl.glGetError()) != GLES20.GL_NO_ERROR) {
             Log.e(tag, label + ": glError " + error);
             throw new RuntimeException(label + ": glError " + error);
         }
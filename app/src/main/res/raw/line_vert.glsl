@@ -3,9 +3,7 @@ precision mediump float;
 attribute vec3 position;
 attribute vec3 previous;
 attribute vec3 next;
-attribute float side;
-attribute float width;
-attribute float counters;
+attribute vec3 params; // x: side, y: width relative to lineWidth, z: counters
 
 uniform mat4 projectionMatrix;
 uniform mat4 modelViewMatrix;
@@ -17,6 +15,7 @@ uniform float opacity;
 uniform float near;
 uniform float far;
 uniform float sizeAttenuation;
+uniform vec4 positionTransform; // xyz: origin, w: scale of the position attributes
 
 varying vec4 vColor;
 varying float vCounters;
@@ -25,7 +24,7 @@ varying float depth;
 vec2 fix( vec4 i, float aspect ) {
     vec2 res = i.xy / i.w;
     res.x *= aspect;
-	vCounters = counters;
+	vCounters = params.z;
     return res;
 }
 
@@ -36,15 +35,18 @@ float map(float value, float inMin, float inMax, float outMin, float outMax) {
 
 void main() {
 
+    float side = params.x;
+    float width = params.y;
+
     float aspect = resolution.x / resolution.y;
 	 float pixelWidthRatio = 1. / (resolution.x * projectionMatrix[0][0]);
 
     vColor = vec4( color, opacity );
 
     mat4 m = projectionMatrix * modelViewMatrix;
-    vec4 finalPosition = m * vec4( position, 1.0 );
-    vec4 prevPos = m * vec4( previous, 1.0 );
-    vec4 nextPos = m * vec4( next, 1.0 );
+    vec4 finalPosition = m * vec4( positionTransform.xyz + position * positionTransform.w, 1.0 );
+    vec4 prevPos = m * vec4( positionTransform.xyz + previous * positionTransform.w, 1.0 );
+    vec4 nextPos = m * vec4( positionTransform.xyz + next * positionTransform.w, 1.0 );
 
     vec2 currentP = fix( finalPosition, aspect );
     vec2 prevP = fix( prevPos, aspect );
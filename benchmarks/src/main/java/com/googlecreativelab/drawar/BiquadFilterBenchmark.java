@@ -0,0 +1,80 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.vecmath.Vector3f;
+
+
+/**
+ * Smoothing the points of a drawing with the BiquadFilter, one point at a time the way touches
+ * arrive and as a run of points
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class BiquadFilterBenchmark {
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    public int points;
+
+    private float[] mPoints;
+    private float[] mFiltered;
+    private final BiquadFilter mFilter = new BiquadFilter(0.1);
+    private final Vector3f mIn = new Vector3f();
+    private final Vector3f mOut = new Vector3f();
+
+    @Setup
+    public void setup() {
+        mPoints = SyntheticStrokes.generate(points, 1).getPoints();
+        mFiltered = new float[points * StrokeStore.FLOATS_PER_POINT];
+    }
+
+    @Benchmark
+    public Vector3f filterPoints() {
+        mIn.set(mPoints[0], mPoints[1], mPoints[2]);
+        mFilter.reset(mIn);
+        for (int i = 0; i < points; i++) {
+            mIn.set(mPoints[i * 3], mPoints[i * 3 + 1], mPoints[i * 3 + 2]);
+            mFilter.update(mIn, mOut);
+        }
+        return mOut;
+    }
+
+    @Benchmark
+    public float[] filterRun() {
+        mIn.set(mPoints[0], mPoints[1], mPoints[2]);
+        mFilter.reset(mIn);
+        mFilter.process(mPoints, mFiltered, points);
+        return mFiltered;
+    }
+}
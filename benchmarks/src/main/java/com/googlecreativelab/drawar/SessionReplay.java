@@ -0,0 +1,176 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar;
+
+import com.googlecreativelab.drawar.rendering.GeometryWorker;
+import com.googlecreativelab.drawar.rendering.LineBuffers;
+import com.googlecreativelab.drawar.rendering.LineGeometry;
+import com.googlecreativelab.drawar.rendering.RecordingGlBackend;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.Executor;
+
+
+/**
+ * SessionReplay feeds a SessionTrace through the drawing pipeline of the app on a plain JVM: the
+ * trace stands in for the ARCore Session, StrokeInput turns its touches into strokes, the
+ * GeometryWorker builds the line geometry and LineBuffers uploads it to a RecordingGlBackend.
+ * Everything runs on the calling thread, the simplifier and the geometry worker included, so a
+ * replay is deterministic and gives the same drawing every time.  The phases are timed into a
+ * FrameStats like on the device, except that PHASE_UPDATE_STROKES includes building the geometry,
+ * which the app does on the worker thread.
+ *
+ * Run it on a trace pulled from a device, or on a synthetic session without arguments, with
+ *   ./gradlew :benchmarks:replay -Ptrace=session.trace
+ */
+public class SessionReplay {
+    private static final Executor IN_PLACE = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final SessionTrace mTrace;
+    private final SessionFrame mFrame = new SessionFrame(SyntheticSession.TOUCH_CAPACITY);
+    private final StrokeStore mStrokes = new StrokeStore();
+    private final StrokeInput mInput;
+    private final GeometryWorker mWorker = new GeometryWorker();
+    private final RecordingGlBackend mGl = new RecordingGlBackend("GL_OES_element_index_uint");
+    private final LineBuffers mBuffers;
+    private final FrameStats mStats = new FrameStats();
+    private final int mIndexSize;
+    private final boolean mQuantized;
+    private int mFrameCount = 0;
+
+    /**
+     * @param trace
+     * @param indexSize LineGeometry.BYTES_PER_SHORT or BYTES_PER_INT
+     * @param quantized quantize the positions, see LineGeometry.setQuantized
+     */
+    public SessionReplay(SessionTrace trace, int indexSize, boolean quantized) {
+        mTrace = trace;
+        mIndexSize = indexSize;
+        mQuantized = quantized;
+        mInput = new StrokeInput(mStrokes, new StrokeBvh(),
+                new StrokeSimplifier(AppSettings.getSimplifyTolerance(), IN_PLACE),
+                trace.getSmoothing(), mFrame.getTouchCapacity());
+        mBuffers = new LineBuffers(mGl, mWorker.getFront().getLods().getNumLevels());
+        mBuffers.create();
+        trace.rewind();
+    }
+
+    /**
+     * Replays the next frame of the trace
+     * @return false at the end of the trace
+     * @throws IOException if the trace is corrupt
+     */
+    public boolean step() throws IOException {
+        long frameStart = System.nanoTime();
+        if (!mTrace.update(mFrame)) {
+            return false;
+        }
+        long t = mStats.mark(FrameStats.PHASE_SESSION_UPDATE, frameStart);
+
+        int change = mInput.update(mFrame);
+        t = mStats.mark(FrameStats.PHASE_INPUT, t);
+
+        if (change != StrokeInput.CHANGE_NONE) {
+            mWorker.submit(mStrokes, mIndexSize, mQuantized, change == StrokeInput.CHANGE_REBUILD);
+            mWorker.build();
+        }
+        t = mStats.mark(FrameStats.PHASE_UPDATE_STROKES, t);
+
+        mGl.beginFrame();
+        LineGeometry geometry = mWorker.acquire();
+        if (geometry != null) {
+            mBuffers.upload(geometry);
+            mStats.addCounter(FrameStats.COUNTER_UPLOADED_BYTES, mBuffers.getUploadedBytes());
+        }
+        mStats.mark(FrameStats.PHASE_UPLOAD, t);
+
+        mStats.setCounter(FrameStats.COUNTER_STROKES, mStrokes.getStrokeCount());
+        mStats.setCounter(FrameStats.COUNTER_POINTS, mStrokes.getPointCount());
+        mStats.setCounter(FrameStats.COUNTER_VERTICES, mWorker.getFront().getNumVertices());
+        mStats.mark(FrameStats.PHASE_FRAME, frameStart);
+        mFrameCount++;
+        return true;
+    }
+
+    /**
+     * Replays every remaining frame
+     * @return the number of frames replayed in total
+     * @throws IOException if the trace is corrupt
+     */
+    public int run() throws IOException {
+        while (step()) {
+        }
+        return mFrameCount;
+    }
+
+    public StrokeStore getStrokes() {
+        return mStrokes;
+    }
+
+    public FrameStats getStats() {
+        return mStats;
+    }
+
+    public RecordingGlBackend getGl() {
+        return mGl;
+    }
+
+    /**
+     * @return a hash of every point of the drawing, equal for replays that drew the same strokes
+     */
+    public int getDrawingHash() {
+        int hash = mStrokes.getStrokeCount();
+        float[] points = mStrokes.getPoints();
+        for (int i = 0; i < mStrokes.getPointCount() * StrokeStore.FLOATS_PER_POINT; i++) {
+            hash = 31 * hash + Float.floatToIntBits(points[i]);
+        }
+        return hash;
+    }
+
+    /**
+     * Replays the trace given as the first argument, or a synthetic session of a minute, and
+     * prints the frame stats, the GL traffic and a hash of the resulting drawing
+     * @param args
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        File file;
+        if (args.length > 0) {
+            file = new File(args[0]);
+        } else {
+            file = File.createTempFile("synthetic", ".trace");
+            file.deleteOnExit();
+            SyntheticSession.write(file, 3600, 1);
+        }
+        SessionReplay replay = new SessionReplay(SessionTrace.open(file),
+                LineGeometry.BYTES_PER_INT, AppSettings.getQuantizePositions());
+        int frames = replay.run();
+
+        Writer out = new OutputStreamWriter(System.out);
+        replay.getStats().dump(out, "replay of " + frames + " frames of " + file);
+        out.write("gl\t" + replay.getGl().getTotalCounts() + "\n");
+        out.write("drawing_hash\t" + Integer.toHexString(replay.getDrawingHash()) + "\n");
+        out.flush();
+    }
+}
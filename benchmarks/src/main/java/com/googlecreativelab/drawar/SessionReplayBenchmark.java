@@ -0,0 +1,79 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar;
+
+import com.googlecreativelab.drawar.rendering.LineGeometry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Replaying a whole drawing session through the pipeline, see SessionReplay.  Pass a trace
+ * recorded on a device with -p trace=path, without it a synthetic session of a minute is replayed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionReplayBenchmark {
+    @Param("")
+    public String trace;
+
+    private File mFile;
+    private SessionTrace mTrace;
+
+    @Setup
+    public void setup() throws IOException {
+        if (trace.isEmpty()) {
+            mFile = File.createTempFile("synthetic", ".trace");
+            SyntheticSession.write(mFile, 3600, 1);
+        } else {
+            mFile = new File(trace);
+        }
+        mTrace = SessionTrace.open(mFile);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (trace.isEmpty()) {
+            mFile.delete();
+        }
+    }
+
+    @Benchmark
+    public StrokeStore replay() throws IOException {
+        SessionReplay replay = new SessionReplay(mTrace, LineGeometry.BYTES_PER_INT, false);
+        replay.run();
+        return replay.getStrokes();
+    }
+}
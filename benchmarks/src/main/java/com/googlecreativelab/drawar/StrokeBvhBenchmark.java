@@ -0,0 +1,138 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Raycasts and sphere queries against the StrokeBvh of a drawing of a given size, and keeping the
+ * tree up to date while a stroke is drawn and undone
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class StrokeBvhBenchmark {
+    private static final int NUM_QUERIES = 1024;
+
+    // The radius a ray or sphere hits a stroke within, about the width of a line
+    private static final float RADIUS = 0.005f;
+
+    @Param({"1000", "100000", "1000000"})
+    public int points;
+
+    private StrokeStore mStrokes;
+    private StrokeBvh mBvh;
+    private float[] mStroke;
+    private final int[] mHits = new int[64];
+
+    // Ray origins and normalized directions, and sphere centers on the strokes
+    private final float[] mRays = new float[NUM_QUERIES * 6];
+    private final float[] mCenters = new float[NUM_QUERIES * 3];
+    private int mQuery = 0;
+
+    @Setup
+    public void setup() {
+        mStrokes = SyntheticStrokes.generate(points, 1);
+        mBvh = new StrokeBvh();
+        mBvh.update(mStrokes);
+        mStroke = new float[SyntheticStrokes.POINTS_PER_STROKE * StrokeStore.FLOATS_PER_POINT];
+        new SyntheticStrokes(2).generateStroke(mStroke, SyntheticStrokes.POINTS_PER_STROKE);
+
+        // Rays from where a user would stand at the edge of the room, through points of the
+        // drawing so about half of them hit something, and spheres around points of the drawing
+        Random random = new Random(3);
+        float[] drawing = mStrokes.getPoints();
+        for (int q = 0; q < NUM_QUERIES; q++) {
+            int p = random.nextInt(points) * 3;
+            float ox = (random.nextFloat() - 0.5f) * 3f, oy = 1.5f, oz = 2f;
+            float dx = drawing[p] - ox + (random.nextFloat() - 0.5f) * 0.02f;
+            float dy = drawing[p + 1] - oy;
+            float dz = drawing[p + 2] - oz;
+            float length = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+            mRays[q * 6] = ox;
+            mRays[q * 6 + 1] = oy;
+            mRays[q * 6 + 2] = oz;
+            mRays[q * 6 + 3] = dx / length;
+            mRays[q * 6 + 4] = dy / length;
+            mRays[q * 6 + 5] = dz / length;
+            mCenters[q * 3] = drawing[p];
+            mCenters[q * 3 + 1] = drawing[p + 1];
+            mCenters[q * 3 + 2] = drawing[p + 2];
+        }
+    }
+
+    /**
+     * Casts a ray through the drawing, as picking a stroke to erase does
+     */
+    @Benchmark
+    public int raycast() {
+        int r = (mQuery++ % NUM_QUERIES) * 6;
+        return mBvh.raycast(mStrokes, mRays[r], mRays[r + 1], mRays[r + 2], mRays[r + 3],
+                mRays[r + 4], mRays[r + 5], RADIUS, 10f);
+    }
+
+    /**
+     * Finds the strokes around a point of the drawing
+     */
+    @Benchmark
+    public int querySphere() {
+        int c = (mQuery++ % NUM_QUERIES) * 3;
+        return mBvh.querySphere(mStrokes, mCenters[c], mCenters[c + 1], mCenters[c + 2], RADIUS,
+                mHits);
+    }
+
+    /**
+     * Draws one more stroke, updating the tree after every point as the GL thread does once a
+     * frame, and undoes it
+     */
+    @Benchmark
+    public int appendAndUndoStroke() {
+        mStrokes.beginStroke();
+        for (int i = 0; i < SyntheticStrokes.POINTS_PER_STROKE; i++) {
+            mStrokes.appendPoint(mStroke[i * 3], mStroke[i * 3 + 1], mStroke[i * 3 + 2]);
+            mBvh.update(mStrokes);
+        }
+        mStrokes.popStroke();
+        mBvh.update(mStrokes);
+        return mBvh.getLeafCount();
+    }
+
+    /**
+     * Builds the tree of the whole drawing from scratch, as loading a drawing does
+     */
+    @Benchmark
+    public int rebuild() {
+        mBvh.rebuild(mStrokes);
+        return mBvh.getLeafCount();
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Appending points to a StrokeStore, and undoing a stroke of a drawing of a given size
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class StrokeStoreBenchmark {
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    public int points;
+
+    private float[] mPoints;
+    private StrokeStore mStrokes;
+    private float[] mStroke;
+
+    @Setup
+    public void setup() {
+        mStrokes = SyntheticStrokes.generate(points, 1);
+        mPoints = mStrokes.getPoints();
+        mStroke = new float[SyntheticStrokes.POINTS_PER_STROKE * StrokeStore.FLOATS_PER_POINT];
+        new SyntheticStrokes(2).generateStroke(mStroke, SyntheticStrokes.POINTS_PER_STROKE);
+    }
+
+    /**
+     * Appends every point of the drawing one at a time to an empty store, growing its arrays
+     */
+    @Benchmark
+    public StrokeStore appendDrawing() {
+        StrokeStore strokes = new StrokeStore();
+        for (int i = 0; i < points; i++) {
+            if (i % SyntheticStrokes.POINTS_PER_STROKE == 0) {
+                strokes.beginStroke();
+            }
+            strokes.appendPoint(mPoints[i * 3], mPoints[i * 3 + 1], mPoints[i * 3 + 2]);
+        }
+        return strokes;
+    }
+
+    /**
+     * Draws one more stroke on the drawing and undoes it
+     */
+    @Benchmark
+    public int appendAndUndoStroke() {
+        mStrokes.beginStroke();
+        for (int i = 0; i < SyntheticStrokes.POINTS_PER_STROKE; i++) {
+            mStrokes.appendPoint(mStroke[i * 3], mStroke[i * 3 + 1], mStroke[i * 3 + 2]);
+        }
+        mStrokes.popStroke();
+        return mStrokes.getPointCount();
+    }
+
+    /**
+     * Erases the first stroke of the drawing and draws it again at the end
+     */
+    @Benchmark
+    public int eraseFirstStroke() {
+        mStrokes.removeStroke(0);
+        mStrokes.beginStroke();
+        for (int i = 0; i < SyntheticStrokes.POINTS_PER_STROKE; i++) {
+            mStrokes.appendPoint(mStroke[i * 3], mStroke[i * 3 + 1], mStroke[i * 3 + 2]);
+        }
+        return mStrokes.getPointCount();
+    }
+}
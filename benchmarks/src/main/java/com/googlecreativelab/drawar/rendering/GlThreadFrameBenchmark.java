@@ -0,0 +1,143 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar.rendering;
+
+import com.googlecreativelab.drawar.StrokeStore;
+import com.googlecreativelab.drawar.SyntheticStrokes;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * The work the GL thread does for the geometry in a frame, on drawings of a given size: uploading
+ * the geometry the worker built last to a RecordingGlBackend, and submitting the next change of
+ * the strokes to the worker.  The worker builds the geometry between invocations, outside of the
+ * measurement, like it does on its own thread in the app.  None of it should grow with the size
+ * of the drawing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class GlThreadFrameBenchmark {
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    public int points;
+
+    private StrokeStore mStrokes;
+    private GeometryWorker mWorker;
+    private LineBuffers mBuffers;
+    private SyntheticStrokes mGenerator;
+    private float[] mStroke;
+    private int mStrokePoint;
+    private boolean mUndone;
+
+    @Setup
+    public void setup() {
+        mStrokes = SyntheticStrokes.generate(points, 1);
+        mWorker = new GeometryWorker();
+        mBuffers = new LineBuffers(new RecordingGlBackend("GL_OES_element_index_uint"),
+                mWorker.getFront().getLods().getNumLevels());
+        mBuffers.create();
+        mWorker.submit(mStrokes, LineGeometry.BYTES_PER_INT, false, true);
+        mWorker.build();
+        mGenerator = new SyntheticStrokes(2);
+        mStroke = new float[SyntheticStrokes.POINTS_PER_STROKE * StrokeStore.FLOATS_PER_POINT];
+    }
+
+    /**
+     * Removes the strokes drawPoint added in the last iteration, so the drawing stays the same size
+     */
+    @Setup(Level.Iteration)
+    public void restore() {
+        if (mUndone) {
+            mStrokes.redoStroke();
+            mUndone = false;
+        }
+        while (mStrokes.getPointCount() > points) {
+            mStrokes.popStroke();
+        }
+        mWorker.submit(mStrokes, LineGeometry.BYTES_PER_INT, false, false);
+        mWorker.build();
+        mStrokePoint = SyntheticStrokes.POINTS_PER_STROKE;
+    }
+
+    /**
+     * Builds the geometry on the calling thread, as the worker would between frames
+     */
+    @TearDown(Level.Invocation)
+    public void build() {
+        mWorker.build();
+    }
+
+    /**
+     * Uploads the last geometry and submits the next point of the active stroke
+     */
+    @Benchmark
+    public long drawPoint() {
+        long uploaded = upload();
+        if (mStrokePoint == SyntheticStrokes.POINTS_PER_STROKE) {
+            mGenerator.generateStroke(mStroke, SyntheticStrokes.POINTS_PER_STROKE);
+            mStrokes.beginStroke();
+            mStrokePoint = 0;
+        }
+        int i = mStrokePoint++;
+        mStrokes.appendPoint(mStroke[i * 3], mStroke[i * 3 + 1], mStroke[i * 3 + 2]);
+        mWorker.submit(mStrokes, LineGeometry.BYTES_PER_INT, false, false);
+        return uploaded;
+    }
+
+    /**
+     * Uploads the last geometry and submits an undo of the last stroke, or a redo of it
+     */
+    @Benchmark
+    public long undoRedo() {
+        long uploaded = upload();
+        if (mUndone) {
+            mStrokes.redoStroke();
+        } else {
+            mStrokes.popStroke();
+        }
+        mUndone = !mUndone;
+        mWorker.submit(mStrokes, LineGeometry.BYTES_PER_INT, false, false);
+        return uploaded;
+    }
+
+    private long upload() {
+        LineGeometry geometry = mWorker.acquire();
+        if (geometry == null) {
+            return 0;
+        }
+        mBuffers.upload(geometry);
+        return mBuffers.getUploadedBytes();
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar.rendering;
+
+import com.googlecreativelab.drawar.StrokeStore;
+import com.googlecreativelab.drawar.SyntheticStrokes;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Generating the LineGeometry of a drawing: a full rebuild, drawing the next point of a stroke,
+ * and undoing and redoing the last stroke
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class LineGeometryBenchmark {
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    public int points;
+
+    @Param({"false", "true"})
+    public boolean quantized;
+
+    private StrokeStore mStrokes;
+    private LineGeometry mGeometry;
+    private SyntheticStrokes mGenerator;
+    private float[] mStroke;
+    private int mStrokePoint;
+    private float[] mUndone;
+
+    @Setup
+    public void setup() {
+        mStrokes = SyntheticStrokes.generate(points, 1);
+        mGeometry = new LineGeometry(LineGeometry.BYTES_PER_SHORT);
+        mGeometry.setQuantized(quantized);
+        mGeometry.update(mStrokes, true);
+        mGenerator = new SyntheticStrokes(2);
+        mStroke = new float[SyntheticStrokes.POINTS_PER_STROKE * StrokeStore.FLOATS_PER_POINT];
+        mUndone = new float[mStroke.length];
+    }
+
+    /**
+     * Removes the strokes drawPoint added in the last iteration, so the drawing stays the same size
+     */
+    @Setup(Level.Iteration)
+    public void restore() {
+        while (mStrokes.getPointCount() > points) {
+            mStrokes.popStroke();
+        }
+        mGeometry.update(mStrokes, false);
+        mStrokePoint = SyntheticStrokes.POINTS_PER_STROKE;
+    }
+
+    @Benchmark
+    public LineGeometry rebuild() {
+        mGeometry.update(mStrokes, true);
+        return mGeometry;
+    }
+
+    /**
+     * Appends a point to the active stroke and updates the geometry incrementally, as the
+     * GeometryWorker does while drawing
+     */
+    @Benchmark
+    public LineGeometry drawPoint() {
+        if (mStrokePoint == SyntheticStrokes.POINTS_PER_STROKE) {
+            mGenerator.generateStroke(mStroke, SyntheticStrokes.POINTS_PER_STROKE);
+            mStrokes.beginStroke();
+            mStrokePoint = 0;
+        }
+        int i = mStrokePoint++;
+        mStrokes.appendPoint(mStroke[i * 3], mStroke[i * 3 + 1], mStroke[i * 3 + 2]);
+        mGeometry.update(mStrokes, false);
+        return mGeometry;
+    }
+
+    /**
+     * Pops the last stroke and redoes it, updating the geometry after both
+     */
+    @Benchmark
+    public LineGeometry undoRedo() {
+        mStrokes.popStroke();
+        mGeometry.update(mStrokes, false);
+        mStrokes.redoStroke();
+        mGeometry.update(mStrokes, false);
+        return mGeometry;
+    }
+
+    /**
+     * Pops the last stroke and draws it again, which generates its geometry again
+     */
+    @Benchmark
+    public LineGeometry undoRedraw() {
+        int stroke = mStrokes.getStrokeCount() - 1;
+        int start = mStrokes.getStrokeStart(stroke);
+        int count = mStrokes.getStrokeSize(stroke);
+        System.arraycopy(mStrokes.getPoints(), start * StrokeStore.FLOATS_PER_POINT, mUndone, 0,
+                count * StrokeStore.FLOATS_PER_POINT);
+        mStrokes.popStroke();
+        mGeometry.update(mStrokes, false);
+
+        mStrokes.beginStroke();
+        for (int i = 0; i < count; i++) {
+            mStrokes.appendPoint(mUndone[i * 3], mUndone[i * 3 + 1], mUndone[i * 3 + 2]);
+        }
+        mGeometry.update(mStrokes, false);
+        return mGeometry;
+    }
+}
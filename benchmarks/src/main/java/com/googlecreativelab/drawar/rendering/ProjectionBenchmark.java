@@ -0,0 +1,158 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar.rendering;
+
+import com.googlecreativelab.drawar.AppSettings;
+import com.googlecreativelab.drawar.StrokeSampler;
+import com.googlecreativelab.drawar.StrokeStore;
+import com.googlecreativelab.drawar.SyntheticStrokes;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.vecmath.Vector2f;
+import javax.vecmath.Vector3f;
+
+
+/**
+ * Turning touches into world positions, with the per point LineUtils methods and with a
+ * ScreenProjector, and the minimum distance check or the StrokeSampler every new point goes
+ * through
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ProjectionBenchmark {
+    private static final float SCREEN_WIDTH = 1080;
+    private static final float SCREEN_HEIGHT = 1920;
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    public int points;
+
+    private final float[] mProjection = new float[16];
+    private final float[] mView = new float[16];
+    private float[] mTouches;
+    private float[] mWorld;
+    private float[] mPoints;
+    private final ScreenProjector mProjector = new ScreenProjector();
+    private final Vector3f mPoint = new Vector3f();
+    private final Vector3f mLastPoint = new Vector3f();
+    private final StrokeStore mSampled = new StrokeStore();
+    private final StrokeSampler mSampler = new StrokeSampler(mSampled,
+            AppSettings.getMinDistance(), AppSettings.getMaxDistance(),
+            AppSettings.getSampleAngle(), AppSettings.getSampleChordError());
+
+    @Setup
+    public void setup() {
+        mTouches = new float[points * 2];
+        new SyntheticStrokes(1).generateTouches(mTouches, points, SCREEN_WIDTH, SCREEN_HEIGHT);
+        mWorld = new float[points * StrokeStore.FLOATS_PER_POINT];
+        mPoints = SyntheticStrokes.generate(points, 1).getPoints();
+
+        // A perspective projection with a 60 degree vertical field of view, and a camera 1.5 m
+        // above the ground looking down the z axis
+        float near = AppSettings.getNearClip();
+        float far = AppSettings.getFarClip();
+        float f = (float) (1 / Math.tan(Math.toRadians(30)));
+        mProjection[0] = f * SCREEN_HEIGHT / SCREEN_WIDTH;
+        mProjection[5] = f;
+        mProjection[10] = (far + near) / (near - far);
+        mProjection[11] = -1;
+        mProjection[14] = 2 * far * near / (near - far);
+        mView[0] = 1;
+        mView[5] = 1;
+        mView[10] = 1;
+        mView[13] = -1.5f;
+        mView[15] = 1;
+    }
+
+    /**
+     * Projects every touch on its own, inverting the matrices for each one
+     */
+    @Benchmark
+    public Vector3f lineUtilsWorldCoords() {
+        Vector3f result = null;
+        for (int i = 0; i < points; i++) {
+            result = LineUtils.GetWorldCoords(new Vector2f(mTouches[i * 2], mTouches[i * 2 + 1]),
+                    SCREEN_WIDTH, SCREEN_HEIGHT, mProjection, mView);
+        }
+        return result;
+    }
+
+    /**
+     * Inverts the matrices once and projects the touches as a batch
+     */
+    @Benchmark
+    public float[] screenProjectorUnproject() {
+        mProjector.update(mProjection, mView, SCREEN_WIDTH, SCREEN_HEIGHT);
+        mProjector.unproject(mTouches, points, AppSettings.getStrokeDrawDistance(), mWorld);
+        return mWorld;
+    }
+
+    /**
+     * Runs the minimum distance check between consecutive points of the drawing
+     */
+    @Benchmark
+    public int distanceCheck() {
+        int accepted = 0;
+        mLastPoint.set(mPoints[0], mPoints[1], mPoints[2]);
+        for (int i = 1; i < points; i++) {
+            mPoint.set(mPoints[i * 3], mPoints[i * 3 + 1], mPoints[i * 3 + 2]);
+            if (LineUtils.distanceCheck(mPoint, mLastPoint)) {
+                mLastPoint.set(mPoint);
+                accepted++;
+            }
+        }
+        return accepted;
+    }
+
+    /**
+     * Samples the points of the drawing as a single stroke with the StrokeSampler, which only
+     * appends the points the stroke turns at.  The stroke is popped again, so the StrokeStore
+     * keeps its arrays
+     */
+    @Benchmark
+    public int sample() {
+        mPoint.set(mPoints[0], mPoints[1], mPoints[2]);
+        mSampled.beginStroke();
+        mSampled.appendPoint(mPoint);
+        mSampler.begin(mPoint);
+        for (int i = 1; i < points; i++) {
+            mPoint.set(mPoints[i * 3], mPoints[i * 3 + 1], mPoints[i * 3 + 2]);
+            if (mSampler.isSpaced(mPoint)) {
+                mSampler.add(mPoint);
+            }
+        }
+        mSampler.finish();
+        int accepted = mSampled.getPointCount();
+        mSampled.popStroke();
+        return accepted;
+    }
+}
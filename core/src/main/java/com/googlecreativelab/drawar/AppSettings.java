@@ -19,10 +19,16 @@ import javax.vecmath.Vector3f;
 
 public class AppSettings {
     private static final Vector3f color = new Vector3f(1f, 1f, 1f);
+    private static final float opacity = 1f;
     private static final float strokeDrawDistance = 0.125f;
     private static final float minDistance = 0.000625f;
+    private static final float maxDistance = 0.004f;
+    private static final float sampleAngle = 10f;
+    private static final float sampleChordError = 0.0001f;
     private static final float nearClip = 0.001f;
     private static final float farClip = 100.0f;
+    private static final float simplifyTolerance = 0.0002f;
+    private static final boolean quantizePositions = false;
 
 
     public static float getStrokeDrawDistance() {
@@ -33,10 +39,36 @@ public class AppSettings {
         return color;
     }
 
+    /**
+     * The alpha of the strokes, applied by the shader like the color
+     */
+    public static float getOpacity() {
+        return opacity;
+    }
+
     public static float getMinDistance() {
         return minDistance;
     }
 
+    /**
+     * The longest segment a straight run of a stroke is sampled with, see StrokeSampler
+     */
+    public static float getMaxDistance() {
+        return maxDistance;
+    }
+
+    /**
+     * The largest turn in degrees and the furthest distance from the course of a stroke the
+     * StrokeSampler skips points over
+     */
+    public static float getSampleAngle() {
+        return sampleAngle;
+    }
+
+    public static float getSampleChordError() {
+        return sampleChordError;
+    }
+
     public static float getNearClip(){
         return nearClip;
     }
@@ -44,4 +76,16 @@ public class AppSettings {
         return farClip;
     }
 
+    public static float getSimplifyTolerance() {
+        return simplifyTolerance;
+    }
+
+    /**
+     * Quantize the stroke positions on the GPU and in saved drawings, see
+     * LineGeometry.QUANTIZED_LINE_LAYOUT and DrawingFile.ENCODING_DELTA16
+     */
+    public static boolean getQuantizePositions() {
+        return quantizePositions;
+    }
+
 }
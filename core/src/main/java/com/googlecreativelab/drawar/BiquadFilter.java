@@ -0,0 +1,128 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+ 
+package com.googlecreativelab.drawar;
+
+import javax.vecmath.Vector3f;
+
+
+/**
+ * BiquadFilter is a object for easily lowpass filtering incomming values.  A filter is reused for
+ * every stroke, reset primes it with the stroke's first point so it starts settled.
+ */
+public class BiquadFilter {
+    private BiquadFilterInstance[] inst = new BiquadFilterInstance[3];
+
+    BiquadFilter(double Fc){
+        for(int i=0;i<3;i++){
+            inst[i] = new BiquadFilterInstance(Fc);
+        }
+    }
+
+    /**
+     * Changes the cutoff frequency, the filter state is kept
+     * @param Fc
+     */
+    void setCutoff(double Fc){
+        for(int i=0;i<3;i++){
+            inst[i].setCutoff(Fc);
+        }
+    }
+
+    /**
+     * Puts the filter in the steady state of a constant input, as if it had been filtering in
+     * forever
+     * @param in
+     */
+    void reset(Vector3f in){
+        inst[0].reset(in.x);
+        inst[1].reset(in.y);
+        inst[2].reset(in.z);
+    }
+
+    /**
+     * Filters a single point
+     * @param in
+     * @param out receives the filtered point, may be in
+     */
+    void update(Vector3f in, Vector3f out){
+        out.x = (float) inst[0].process(in.x);
+        out.y = (float) inst[1].process(in.y);
+        out.z = (float) inst[2].process(in.z);
+    }
+
+    /**
+     * Filters a run of points
+     * @param in interleaved x, y, z
+     * @param out receives the filtered points interleaved the same way, may be in
+     * @param count number of points
+     */
+    void process(float[] in, float[] out, int count){
+        BiquadFilterInstance x = inst[0], y = inst[1], z = inst[2];
+        for(int i=0;i<count*3;i+=3){
+            out[i] = (float) x.process(in[i]);
+            out[i+1] = (float) y.process(in[i+1]);
+            out[i+2] = (float) z.process(in[i+2]);
+        }
+    }
+
+    private class BiquadFilterInstance {
+        double a0, a1, a2, b1, b2;
+        double Fc=0.5,Q=0.707, peakGain=0.0;
+        double z1=0.0, z2=0.0;
+
+        BiquadFilterInstance(double fc){
+            Fc = fc;
+            calcBiquad();
+        }
+
+        void setCutoff(double fc){
+            if(fc != Fc){
+                Fc = fc;
+                calcBiquad();
+            }
+        }
+
+        double process(double in){
+            double out = in * a0 + z1;
+            z1 = in * a1 + z2 - b1 * out;
+            z2 = in * a2 - b2 * out;
+            return out;
+        }
+
+        /**
+         * Solves process for a constant input, where out is the input times the DC gain and the
+         * state no longer changes
+         */
+        void reset(double in){
+            double out = in * (a0 + a1 + a2) / (1 + b1 + b2);
+            z2 = in * a2 - b2 * out;
+            z1 = in * a1 + z2 - b1 * out;
+        }
+
+        void calcBiquad() {
+            double norm;
+            double K = Math.tan(Math.PI * Fc);
+            norm = 1 / (1 + K / Q + K * K);
+            a0 = K * K * norm;
+            a1 = 2 * a0;
+            a2 = a0;
+            b1 = 2 * (K * K - 1) * norm;
+            b2 = (1 - K / Q + K * K) * norm;
+        }
+    }
+}
+
+
@@ -0,0 +1,364 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import javax.vecmath.Vector3f;
+
+
+/**
+ * DrawingFile is the binary file format drawings are saved in.  All values are little endian:
+ *
+ * header         magic, version, encoding, stroke count, point count, stroke table offset,
+ *                payload offset
+ * stroke table   per stroke: first point, point count, width, red, green, blue, and for delta
+ *                encoded files the origin x, y, z and the quantization step of the stroke
+ * payload        ENCODING_FLOAT: x, y, z floats of every point, stroke after stroke
+ *                ENCODING_DELTA16: x, y, z shorts of every point, the distance from the previous
+ *                point of the stroke (from the origin for the first one) in quantization steps
+ *
+ * Files are memory mapped in both directions.  write puts the points of a StrokeStore straight
+ * into the mapped file, and open only checks the header and the stroke table.  The payload of a
+ * float file is read by the OS on demand and can be handed to StrokeStore.appendStroke without
+ * parsing.  Delta encoded files are half the size and are decoded point by point instead.
+ * Version 1 files, which have no encoding field, are float files.
+ */
+public class DrawingFile {
+    public static final int ENCODING_FLOAT = 0;
+    public static final int ENCODING_DELTA16 = 1;
+
+    private static final int MAGIC = 0x52414452;    // The bytes "RDAR" in a little endian int
+    private static final int VERSION = 2;
+
+    private static final int HEADER_BYTES_V1 = 6 * 4;
+    private static final int HEADER_BYTES = 7 * 4;
+    private static final int STROKE_BYTES_FLOAT = 6 * 4;
+    private static final int STROKE_BYTES_DELTA16 = 10 * 4;
+
+    // Offsets of the fields in a stroke table entry
+    private static final int STROKE_FIRST = 0;
+    private static final int STROKE_COUNT = 4;
+    private static final int STROKE_WIDTH = 8;
+    private static final int STROKE_COLOR = 12;
+    private static final int STROKE_ORIGIN = 24;
+    private static final int STROKE_STEP = 36;
+
+    // The largest delta the step of a stroke is chosen for.  It leaves room for the rounding
+    // errors the encoder carries from point to point, which are at most half a step
+    private static final int MAX_DELTA = 32000;
+
+    private final MappedByteBuffer mBuffer;
+    private final int mEncoding;
+    private final FloatBuffer mPoints;
+    private final int mStrokeCount;
+    private final int mPointCount;
+    private final int mStrokeTable;
+    private final int mStrokeBytes;
+    private final int mPayload;
+
+    private DrawingFile(MappedByteBuffer buffer, int encoding, int strokeCount, int pointCount,
+                        int strokeTable, int payload) {
+        mBuffer = buffer;
+        mEncoding = encoding;
+        mStrokeCount = strokeCount;
+        mPointCount = pointCount;
+        mStrokeTable = strokeTable;
+        mStrokeBytes = getStrokeBytes(encoding);
+        mPayload = payload;
+        if (encoding == ENCODING_FLOAT) {
+            buffer.position(payload);
+            mPoints = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+            buffer.position(0);
+        } else {
+            mPoints = null;
+        }
+    }
+
+    /**
+     * Memory maps a drawing file for reading
+     * @param file
+     * @return
+     * @throws IOException if the file can not be read or is not a valid drawing file
+     */
+    public static DrawingFile open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size < HEADER_BYTES_V1 || size > Integer.MAX_VALUE) {
+                throw new IOException("Not a drawing file: " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not a drawing file: " + file);
+            }
+            int version = buffer.getInt(4);
+            int encoding;
+            int counts;
+            if (version == 1) {
+                encoding = ENCODING_FLOAT;
+                counts = 8;
+            } else if (version == VERSION && size >= HEADER_BYTES) {
+                encoding = buffer.getInt(8);
+                counts = 12;
+            } else {
+                throw new IOException("Unsupported drawing file version " + version);
+            }
+            if (encoding != ENCODING_FLOAT && encoding != ENCODING_DELTA16) {
+                throw new IOException("Unsupported drawing file encoding " + encoding);
+            }
+            int strokeCount = buffer.getInt(counts);
+            int pointCount = buffer.getInt(counts + 4);
+            int strokeTable = buffer.getInt(counts + 8);
+            int payload = buffer.getInt(counts + 12);
+            int strokeBytes = getStrokeBytes(encoding);
+            if (strokeCount < 0 || pointCount < 0 || strokeTable < counts + 16
+                    || (long) strokeTable + (long) strokeCount * strokeBytes > payload
+                    || (long) payload + (long) pointCount * getBytesPerPoint(encoding) > size) {
+                throw new IOException("Corrupt drawing file: " + file);
+            }
+            for (int i = 0; i < strokeCount; i++) {
+                int entry = strokeTable + i * strokeBytes;
+                int first = buffer.getInt(entry + STROKE_FIRST);
+                int count = buffer.getInt(entry + STROKE_COUNT);
+                if (first < 0 || count < 0 || (long) first + count > pointCount) {
+                    throw new IOException("Corrupt drawing file: " + file);
+                }
+            }
+            return new DrawingFile(buffer, encoding, strokeCount, pointCount, strokeTable, payload);
+        } finally {
+            // The mapping stays valid after the channel is closed
+            raf.close();
+        }
+    }
+
+    /**
+     * Writes every stroke of a StrokeStore to a file, replacing it.  The file is written next to
+     * the destination and renamed over it, so an interrupted save leaves the old drawing intact.
+     * @param file
+     * @param strokes
+     * @param width the width stored with every stroke
+     * @param color the color stored with every stroke
+     * @param encoding ENCODING_FLOAT or ENCODING_DELTA16
+     * @throws IOException
+     */
+    public static void write(File file, StrokeStore strokes, float width, Vector3f color,
+                             int encoding) throws IOException {
+        write(file, strokes, strokes.getStrokeCount(), strokes.getPointCount(), width, color,
+                encoding);
+    }
+
+    /**
+     * Writes the first strokes of a StrokeStore to a file, replacing it.  The counts are taken
+     * on the thread that owns the StrokeStore, which must not change those strokes until the
+     * write returns, so the write can run on another thread.
+     * @param file
+     * @param strokes
+     * @param strokeCount the number of strokes to write
+     * @param pointCount the number of points in those strokes
+     * @param width the width stored with every stroke
+     * @param color the color stored with every stroke
+     * @param encoding ENCODING_FLOAT or ENCODING_DELTA16
+     * @throws IOException
+     */
+    public static void write(File file, StrokeStore strokes, int strokeCount, int pointCount,
+                             float width, Vector3f color, int encoding) throws IOException {
+        int strokeBytes = getStrokeBytes(encoding);
+        int strokeTable = HEADER_BYTES;
+        int payload = strokeTable + strokeCount * strokeBytes;
+        long size = payload + (long) pointCount * getBytesPerPoint(encoding);
+
+        File temp = new File(file.getPath() + ".tmp");
+        RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+        try {
+            raf.setLength(size);
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, encoding);
+            buffer.putInt(12, strokeCount);
+            buffer.putInt(16, pointCount);
+            buffer.putInt(20, strokeTable);
+            buffer.putInt(24, payload);
+
+            for (int i = 0; i < strokeCount; i++) {
+                int entry = strokeTable + i * strokeBytes;
+                int start = strokes.getStrokeStart(i);
+                int end = i + 1 < strokeCount ? strokes.getStrokeStart(i + 1) : pointCount;
+                buffer.putInt(entry + STROKE_FIRST, start);
+                buffer.putInt(entry + STROKE_COUNT, end - start);
+                buffer.putFloat(entry + STROKE_WIDTH, width);
+                buffer.putFloat(entry + STROKE_COLOR, color.x);
+                buffer.putFloat(entry + STROKE_COLOR + 4, color.y);
+                buffer.putFloat(entry + STROKE_COLOR + 8, color.z);
+                if (encoding == ENCODING_DELTA16) {
+                    writeDeltas(buffer, entry, payload, strokes.getPoints(), start, end);
+                }
+            }
+
+            if (encoding == ENCODING_FLOAT) {
+                buffer.position(payload);
+                buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer()
+                        .put(strokes.getPoints(), 0, pointCount * StrokeStore.FLOATS_PER_POINT);
+            }
+            buffer.force();
+        } finally {
+            raf.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    /**
+     * Writes the origin and step of a stroke into its table entry and the deltas of its points
+     * into the payload.  The deltas are taken from the decoded previous point rather than the
+     * original one, so the rounding errors do not add up along the stroke.
+     */
+    private static void writeDeltas(MappedByteBuffer buffer, int entry, int payload,
+                                    float[] points, int start, int end) {
+
+        float maxDelta = 0;
+        for (int p = start + 1; p < end; p++) {
+            for (int axis = 0; axis < StrokeStore.FLOATS_PER_POINT; axis++) {
+                int v = p * StrokeStore.FLOATS_PER_POINT + axis;
+                maxDelta = Math.max(maxDelta,
+                        Math.abs(points[v] - points[v - StrokeStore.FLOATS_PER_POINT]));
+            }
+        }
+        float step = maxDelta > 0 ? maxDelta / MAX_DELTA : 1f;
+
+        int origin = start * StrokeStore.FLOATS_PER_POINT;
+        for (int axis = 0; axis < StrokeStore.FLOATS_PER_POINT; axis++) {
+            buffer.putFloat(entry + STROKE_ORIGIN + axis * 4,
+                    end > start ? points[origin + axis] : 0);
+        }
+        buffer.putFloat(entry + STROKE_STEP, step);
+
+        for (int axis = 0; axis < StrokeStore.FLOATS_PER_POINT; axis++) {
+            float decoded = end > start ? points[origin + axis] : 0;
+            for (int p = start; p < end; p++) {
+                float value = points[p * StrokeStore.FLOATS_PER_POINT + axis];
+                int delta = Math.round((value - decoded) / step);
+                delta = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, delta));
+                buffer.putShort(payload + (p * StrokeStore.FLOATS_PER_POINT + axis) * 2,
+                        (short) delta);
+                decoded += delta * step;
+            }
+        }
+    }
+
+    /**
+     * Appends every stroke of the file to a StrokeStore.  Float files are copied with a bulk copy
+     * per stroke, delta encoded files are decoded.
+     * @param strokes
+     */
+    public void readInto(StrokeStore strokes) {
+        for (int i = 0; i < mStrokeCount; i++) {
+            int first = getStrokeStart(i);
+            int count = getStrokeSize(i);
+            if (mEncoding == ENCODING_FLOAT) {
+                strokes.appendStroke(mPoints, first, count);
+                continue;
+            }
+
+            int entry = mStrokeTable + i * mStrokeBytes;
+            float step = mBuffer.getFloat(entry + STROKE_STEP);
+            float x = mBuffer.getFloat(entry + STROKE_ORIGIN);
+            float y = mBuffer.getFloat(entry + STROKE_ORIGIN + 4);
+            float z = mBuffer.getFloat(entry + STROKE_ORIGIN + 8);
+            strokes.beginStroke();
+            for (int p = first; p < first + count; p++) {
+                int delta = mPayload + p * StrokeStore.FLOATS_PER_POINT * 2;
+                x += mBuffer.getShort(delta) * step;
+                y += mBuffer.getShort(delta + 2) * step;
+                z += mBuffer.getShort(delta + 4) * step;
+                strokes.appendPoint(x, y, z);
+            }
+        }
+    }
+
+    public int getEncoding() {
+        return mEncoding;
+    }
+
+    public int getStrokeCount() {
+        return mStrokeCount;
+    }
+
+    public int getPointCount() {
+        return mPointCount;
+    }
+
+    /**
+     * @param stroke
+     * @return the index of the first point of the stroke in the payload
+     */
+    public int getStrokeStart(int stroke) {
+        return mBuffer.getInt(mStrokeTable + stroke * mStrokeBytes + STROKE_FIRST);
+    }
+
+    /**
+     * @param stroke
+     * @return the number of points in the stroke
+     */
+    public int getStrokeSize(int stroke) {
+        return mBuffer.getInt(mStrokeTable + stroke * mStrokeBytes + STROKE_COUNT);
+    }
+
+    public float getStrokeWidth(int stroke) {
+        return mBuffer.getFloat(mStrokeTable + stroke * mStrokeBytes + STROKE_WIDTH);
+    }
+
+    /**
+     * Copies the color of a stroke into out
+     * @param stroke
+     * @param out
+     */
+    public void getStrokeColor(int stroke, Vector3f out) {
+        int color = mStrokeTable + stroke * mStrokeBytes + STROKE_COLOR;
+        out.set(mBuffer.getFloat(color), mBuffer.getFloat(color + 4), mBuffer.getFloat(color + 8));
+    }
+
+    /**
+     * The payload of a float file as a view of the mapped file, packed x, y, z values of
+     * getPointCount() points.  Nothing is read from the file until the values are accessed.
+     * @return the payload, or null if the file is delta encoded
+     */
+    public FloatBuffer getPoints() {
+        return mPoints;
+    }
+
+    private static int getStrokeBytes(int encoding) {
+        return encoding == ENCODING_DELTA16 ? STROKE_BYTES_DELTA16 : STROKE_BYTES_FLOAT;
+    }
+
+    private static int getBytesPerPoint(int encoding) {
+        return StrokeStore.FLOATS_PER_POINT * (encoding == ENCODING_DELTA16 ? 2 : 4);
+    }
+}
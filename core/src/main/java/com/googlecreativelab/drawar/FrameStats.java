@@ -0,0 +1,182 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * FrameStats times the phases of every frame into a LatencyHistogram per phase, and keeps the
+ * counters describing the scene the frame drew.  The GL Thread chains the spans with mark, which
+ * records the time since the previous mark and returns the current time:
+ *
+ *     long t = System.nanoTime();
+ *     ...
+ *     t = stats.mark(FrameStats.PHASE_SESSION_UPDATE, t);
+ *
+ * Nothing is allocated while recording, and the histograms and counters can be read from another
+ * thread, for the debug overlay or to dump them to a file.
+ */
+public class FrameStats {
+    public static final int PHASE_SESSION_UPDATE = 0;    // Session.update, waiting on the camera
+    public static final int PHASE_INPUT = 1;             // Touch samples, strokes, undo and erase
+    public static final int PHASE_UPDATE_STROKES = 2;    // Handing the strokes to the geometry worker
+    public static final int PHASE_UPLOAD = 3;            // Streaming the geometry into the buffers
+    public static final int PHASE_BACKGROUND = 4;        // Drawing the camera image
+    public static final int PHASE_LINES = 5;             // Culling and drawing the lines
+    public static final int PHASE_FRAME = 6;             // The whole of onDrawFrame
+    public static final int NUM_PHASES = 7;
+
+    private static final String[] PHASE_NAMES = {
+            "session_update", "input", "update_strokes", "upload", "background", "lines", "frame"
+    };
+
+    public static final int COUNTER_STROKES = 0;
+    public static final int COUNTER_POINTS = 1;
+    public static final int COUNTER_VERTICES = 2;
+    public static final int COUNTER_UPLOADED_BYTES = 3;  // Accumulated since the last reset
+    public static final int NUM_COUNTERS = 4;
+
+    private static final String[] COUNTER_NAMES = {
+            "strokes", "points", "vertices", "uploaded_bytes"
+    };
+
+    private final LatencyHistogram[] mPhases = new LatencyHistogram[NUM_PHASES];
+    private final AtomicLongArray mCounters = new AtomicLongArray(NUM_COUNTERS);
+
+    public FrameStats() {
+        for (int p = 0; p < NUM_PHASES; p++) {
+            mPhases[p] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Records the span of a phase that started at start
+     * @param phase one of the PHASE constants
+     * @param start System.nanoTime() when the phase started
+     * @return System.nanoTime() now, the start of the next phase
+     */
+    public long mark(int phase, long start) {
+        long now = System.nanoTime();
+        mPhases[phase].record(now - start);
+        return now;
+    }
+
+    /**
+     * @param counter one of the COUNTER constants
+     * @param value
+     */
+    public void setCounter(int counter, long value) {
+        mCounters.set(counter, value);
+    }
+
+    /**
+     * @param counter one of the COUNTER constants
+     * @param delta
+     */
+    public void addCounter(int counter, long delta) {
+        mCounters.addAndGet(counter, delta);
+    }
+
+    public long getCounter(int counter) {
+        return mCounters.get(counter);
+    }
+
+    public LatencyHistogram getPhase(int phase) {
+        return mPhases[phase];
+    }
+
+    public static String getPhaseName(int phase) {
+        return PHASE_NAMES[phase];
+    }
+
+    public static String getCounterName(int counter) {
+        return COUNTER_NAMES[counter];
+    }
+
+    /**
+     * Zeroes the histograms and the accumulated counters, to start a new measurement
+     */
+    public void reset() {
+        for (LatencyHistogram phase : mPhases) {
+            phase.reset();
+        }
+        mCounters.set(COUNTER_UPLOADED_BYTES, 0);
+    }
+
+    /**
+     * @return a few lines for the debug overlay: p50 / p99 / max of every phase in milliseconds
+     * and the counters
+     */
+    public String getSummary() {
+        StringBuilder summary = new StringBuilder();
+        for (int p = 0; p < NUM_PHASES; p++) {
+            LatencyHistogram phase = mPhases[p];
+            summary.append(String.format(Locale.US, "%-15s %6.2f %6.2f %6.2f ms\n",
+                    PHASE_NAMES[p], phase.getValueAtPercentile(50) / 1e6,
+                    phase.getValueAtPercentile(99) / 1e6, phase.getMax() / 1e6));
+        }
+        for (int c = 0; c < NUM_COUNTERS; c++) {
+            summary.append(COUNTER_NAMES[c]).append(' ').append(mCounters.get(c));
+            summary.append(c + 1 < NUM_COUNTERS ? ", " : "");
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Writes the histograms and counters as tab separated text, one phase per line with its
+     * percentiles in microseconds, so runs on different devices and builds can be compared
+     * @param writer
+     * @param label identifies the run, for example the device and build
+     * @throws IOException
+     */
+    public void dump(Writer writer, String label) throws IOException {
+        writer.write("# " + label + "\n");
+        writer.write("phase\tcount\tp50_us\tp90_us\tp99_us\tp999_us\tmax_us\n");
+        for (int p = 0; p < NUM_PHASES; p++) {
+            LatencyHistogram phase = mPhases[p];
+            writer.write(String.format(Locale.US, "%s\t%d\t%.1f\t%.1f\t%.1f\t%.1f\t%.1f\n",
+                    PHASE_NAMES[p], phase.getTotalCount(),
+                    phase.getValueAtPercentile(50) / 1e3, phase.getValueAtPercentile(90) / 1e3,
+                    phase.getValueAtPercentile(99) / 1e3, phase.getValueAtPercentile(99.9) / 1e3,
+                    phase.getMax() / 1e3));
+        }
+        writer.write("counter\tvalue\n");
+        for (int c = 0; c < NUM_COUNTERS; c++) {
+            writer.write(COUNTER_NAMES[c] + "\t" + mCounters.get(c) + "\n");
+        }
+    }
+
+    /**
+     * Dumps the stats into a file, replacing it
+     * @param file
+     * @param label identifies the run, for example the device and build
+     * @throws IOException
+     */
+    public void dump(File file, String label) throws IOException {
+        Writer writer = new FileWriter(file);
+        try {
+            dump(writer, label);
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * LatencyHistogram counts durations in nanoseconds in log-linear buckets, like an HDR histogram:
+ * every power of two is split into SUB_BUCKETS buckets, so a value is known to within
+ * 1 / SUB_BUCKETS of itself from 1 ns up to MAX_VALUE.  The buckets are allocated up front and
+ * recording only increments them atomically, it takes no lock and allocates nothing, so one
+ * thread can record while another reads percentiles.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    // Longer values are counted as MAX_VALUE, about 68 seconds
+    public static final long MAX_VALUE = (1L << 36) - 1;
+
+    private static final int NUM_BUCKETS = getBucket(MAX_VALUE) + 1;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(NUM_BUCKETS);
+    private final AtomicLong mTotalCount = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * Values below 2 * SUB_BUCKETS have a bucket each, above that the shift grows by one every
+     * power of two and the top SUB_BUCKET_BITS + 1 bits select the bucket
+     * @param value
+     * @return
+     */
+    static int getBucket(long value) {
+        int shift = 63 - Long.numberOfLeadingZeros(value | SUB_BUCKETS) - SUB_BUCKET_BITS;
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    /**
+     * @param bucket
+     * @return the smallest value counted in the bucket
+     */
+    static long getBucketStart(int bucket) {
+        int shift = Math.max(0, (bucket >> SUB_BUCKET_BITS) - 1);
+        return (long) (bucket - (shift << SUB_BUCKET_BITS)) << shift;
+    }
+
+    /**
+     * Counts a duration
+     * @param nanos
+     */
+    public void record(long nanos) {
+        long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+        mCounts.incrementAndGet(getBucket(value));
+        mTotalCount.incrementAndGet();
+        long max;
+        while (value > (max = mMax.get()) && !mMax.compareAndSet(max, value)) {
+        }
+    }
+
+    public long getTotalCount() {
+        return mTotalCount.get();
+    }
+
+    /**
+     * @return the longest duration recorded in nanoseconds
+     */
+    public long getMax() {
+        return mMax.get();
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the middle of the bucket holding the percentile in nanoseconds, or 0 if nothing was
+     * recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = mTotalCount.get();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int b = 0; b < NUM_BUCKETS; b++) {
+            seen += mCounts.get(b);
+            if (seen >= rank) {
+                long start = getBucketStart(b);
+                long end = b + 1 < NUM_BUCKETS ? getBucketStart(b + 1) : MAX_VALUE + 1;
+                return Math.min((start + end - 1) / 2, mMax.get());
+            }
+        }
+        return mMax.get();
+    }
+
+    /**
+     * Zeroes the counts.  Values recorded concurrently with a reset may be partly lost.
+     */
+    public void reset() {
+        for (int b = 0; b < NUM_BUCKETS; b++) {
+            mCounts.set(b, 0);
+        }
+        mTotalCount.set(0);
+        mMax.set(0);
+    }
+}
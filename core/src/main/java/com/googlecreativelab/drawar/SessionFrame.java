@@ -0,0 +1,89 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar;
+
+
+/**
+ * SessionFrame holds everything the drawing pipeline takes from a frame: what DrawAR reads from
+ * the ARCore Frame and Camera, the touch samples queued since the previous frame and the buttons
+ * that were pressed.  On the device it is filled from ARCore every frame, when replaying it is
+ * read from a SessionTrace, so StrokeInput runs the same either way.
+ */
+public class SessionFrame {
+    public static final int TRACKING = 0;
+    public static final int PAUSED = 1;
+    public static final int STOPPED = 2;
+
+    public static final int FLAG_ERASE_MODE = 1;    // Touches erase strokes instead of drawing
+    public static final int FLAG_UNDO = 2;          // The last stroke is removed
+    public static final int FLAG_CLEAR = 4;         // Every stroke is removed
+    public static final int FLAG_REDO = 8;          // The last undone stroke is brought back
+
+    public long timestamp;                  // Of the camera image, in nanoseconds
+    public int trackingState = TRACKING;
+    public int flags;
+    public float screenWidth;
+    public float screenHeight;
+    public final float[] view = new float[16];          // Including the zero calibration
+    public final float[] projection = new float[16];
+    public final float[] position = new float[3];       // Of the camera, in world space
+
+    public int touchCount;
+    public final int[] touchActions;                    // TouchSampleQueue.ACTION_*
+    public final float[] touchScreen;                   // x, y of every sample in pixels
+    public final long[] touchTimes;                     // In milliseconds of uptime
+
+    /**
+     * @param touchCapacity the most touch samples a frame holds
+     */
+    public SessionFrame(int touchCapacity) {
+        touchActions = new int[touchCapacity];
+        touchScreen = new float[touchCapacity * 2];
+        touchTimes = new long[touchCapacity];
+    }
+
+    public int getTouchCapacity() {
+        return touchActions.length;
+    }
+
+    /**
+     * Takes the samples from a queue into the frame, as many as it holds.  The rest stay in the
+     * queue for the next frame, so no sample is lost
+     * @param queue
+     * @param sample reused to poll the queue
+     */
+    public void pollTouches(TouchSampleQueue queue, TouchSampleQueue.Sample sample) {
+        touchCount = 0;
+        while (touchCount < touchActions.length && queue.poll(sample)) {
+            touchActions[touchCount] = sample.action;
+            touchScreen[touchCount * 2] = sample.x;
+            touchScreen[touchCount * 2 + 1] = sample.y;
+            touchTimes[touchCount] = sample.eventTime;
+            touchCount++;
+        }
+    }
+
+    /**
+     * Sets the camera position from the view matrix, the inverse of its rotation times its
+     * translation, so no Pose has to be created for it
+     * @param view the view matrix of the camera, without the zero calibration
+     */
+    public void setPosition(float[] view) {
+        position[0] = -(view[0] * view[12] + view[1] * view[13] + view[2] * view[14]);
+        position[1] = -(view[4] * view[12] + view[5] * view[13] + view[6] * view[14]);
+        position[2] = -(view[8] * view[12] + view[9] * view[13] + view[10] * view[14]);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+
+/**
+ * SessionRecorder writes the SessionFrames of a drawing session into a SessionTrace file.  Frames
+ * are put into a direct buffer that is written to the file when it is full, so recording a frame
+ * usually only copies it.  Must be used from one thread, the GL Thread in the app.
+ */
+public class SessionRecorder {
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private final FileOutputStream mStream;
+    private final FileChannel mChannel;
+    private final ByteBuffer mBuffer;
+
+    private final float[] mProjection = new float[16];
+    private float mScreenWidth = -1;
+    private float mScreenHeight = -1;
+
+    /**
+     * Creates the trace file, replacing it
+     * @param file
+     * @param smoothing the smoothing the session starts with
+     * @param lineWidth the line width the session starts with
+     * @param touchCapacity the most touch samples a recorded frame holds
+     * @throws IOException
+     */
+    public SessionRecorder(File file, float smoothing, float lineWidth, int touchCapacity)
+            throws IOException {
+        mStream = new FileOutputStream(file);
+        mChannel = mStream.getChannel();
+        mBuffer = ByteBuffer.allocateDirect(Math.max(BUFFER_BYTES, SessionTrace.FRAME_BYTES
+                + SessionTrace.PROJECTION_BYTES + touchCapacity * SessionTrace.TOUCH_BYTES));
+        mBuffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        mBuffer.putInt(SessionTrace.MAGIC);
+        mBuffer.putInt(SessionTrace.VERSION);
+        mBuffer.putFloat(smoothing);
+        mBuffer.putFloat(lineWidth);
+    }
+
+    /**
+     * Appends a frame to the trace
+     * @param frame
+     * @throws IOException
+     */
+    public void write(SessionFrame frame) throws IOException {
+        boolean projection = frame.screenWidth != mScreenWidth
+                || frame.screenHeight != mScreenHeight
+                || !Arrays.equals(frame.projection, mProjection);
+        int size = SessionTrace.FRAME_BYTES + frame.touchCount * SessionTrace.TOUCH_BYTES
+                + (projection ? SessionTrace.PROJECTION_BYTES : 0);
+        if (mBuffer.remaining() < size) {
+            flush();
+        }
+
+        ByteBuffer buffer = mBuffer;
+        buffer.putLong(frame.timestamp);
+        buffer.put((byte) frame.trackingState);
+        buffer.put((byte) (frame.flags | (projection ? SessionTrace.RECORD_PROJECTION : 0)));
+        buffer.putShort((short) frame.touchCount);
+        if (projection) {
+            mScreenWidth = frame.screenWidth;
+            mScreenHeight = frame.screenHeight;
+            System.arraycopy(frame.projection, 0, mProjection, 0, 16);
+            buffer.putFloat(frame.screenWidth);
+            buffer.putFloat(frame.screenHeight);
+            putFloats(buffer, frame.projection);
+        }
+        putFloats(buffer, frame.view);
+        putFloats(buffer, frame.position);
+        for (int i = 0; i < frame.touchCount; i++) {
+            buffer.put((byte) frame.touchActions[i]);
+            buffer.putFloat(frame.touchScreen[i * 2]);
+            buffer.putFloat(frame.touchScreen[i * 2 + 1]);
+            buffer.putLong(frame.touchTimes[i]);
+        }
+    }
+
+    /**
+     * Writes the buffered frames to the file
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+        mBuffer.flip();
+        while (mBuffer.hasRemaining()) {
+            mChannel.write(mBuffer);
+        }
+        mBuffer.clear();
+    }
+
+    /**
+     * Writes the buffered frames and closes the file
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            mStream.close();
+        }
+    }
+
+    private static void putFloats(ByteBuffer buffer, float[] values) {
+        for (float value : values) {
+            buffer.putFloat(value);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * SessionTrace is a recording of a drawing session, written by SessionRecorder, that stands in for
+ * the ARCore Session when replaying it: update fills a SessionFrame with the next recorded frame
+ * instead of the camera.  All values are little endian:
+ *
+ * header   magic, version, smoothing, line width
+ * frames   per frame: timestamp, tracking state (byte), flags (byte), touch count (short), the
+ *          screen size and projection matrix if they changed since the previous frame, the view
+ *          matrix, the camera position, and per touch sample: action (byte), x, y, event time
+ *
+ * Frames take 88 bytes plus 17 per touch sample, about 5 KB a second at 60 frames per second.
+ * A trace that was cut off, because the app was killed while recording, ends at its last whole
+ * frame.
+ */
+public class SessionTrace {
+    static final int MAGIC = 0x52414454;     // The bytes "TDAR" in a little endian int
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 4 * 4;
+
+    // Set in the flags of a frame when the screen size and projection matrix follow
+    static final int RECORD_PROJECTION = 0x80;
+
+    static final int FRAME_BYTES = 8 + 4 + (16 + 3) * 4;
+    static final int PROJECTION_BYTES = (2 + 16) * 4;
+    static final int TOUCH_BYTES = 1 + 2 * 4 + 8;
+
+    private final MappedByteBuffer mBuffer;
+    private final float mSmoothing;
+    private final float mLineWidth;
+
+    private SessionTrace(MappedByteBuffer buffer, float smoothing, float lineWidth) {
+        mBuffer = buffer;
+        mSmoothing = smoothing;
+        mLineWidth = lineWidth;
+        rewind();
+    }
+
+    /**
+     * Memory maps a trace for reading
+     * @param file
+     * @return
+     * @throws IOException if the file can not be read or is not a trace
+     */
+    public static SessionTrace open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+                throw new IOException("Not a session trace: " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not a session trace: " + file);
+            }
+            int version = buffer.getInt(4);
+            if (version != VERSION) {
+                throw new IOException("Unsupported session trace version " + version);
+            }
+            return new SessionTrace(buffer, buffer.getFloat(8), buffer.getFloat(12));
+        } finally {
+            // The mapping stays valid after the channel is closed
+            raf.close();
+        }
+    }
+
+    /**
+     * @return the smoothing the session started with
+     */
+    public float getSmoothing() {
+        return mSmoothing;
+    }
+
+    /**
+     * @return the line width the session started with
+     */
+    public float getLineWidth() {
+        return mLineWidth;
+    }
+
+    /**
+     * Starts reading again from the first frame
+     */
+    public void rewind() {
+        mBuffer.position(HEADER_BYTES);
+    }
+
+    /**
+     * Reads the next frame, like Session.update.  The screen size and projection are only
+     * recorded when they change, frame keeps them from the previous call otherwise, so the same
+     * frame should be passed to every call after a rewind.
+     * @param frame receives the frame
+     * @return false at the end of the trace
+     * @throws IOException if the frame has more touch samples than frame can hold
+     */
+    public boolean update(SessionFrame frame) throws IOException {
+        MappedByteBuffer buffer = mBuffer;
+        if (buffer.remaining() < FRAME_BYTES) {
+            return false;
+        }
+        int start = buffer.position();
+        long timestamp = buffer.getLong();
+        int trackingState = buffer.get();
+        int flags = buffer.get() & 0xff;
+        int touchCount = buffer.getShort() & 0xffff;
+        if (touchCount > frame.getTouchCapacity()) {
+            throw new IOException("Frame with " + touchCount + " touch samples, more than "
+                    + frame.getTouchCapacity());
+        }
+        int size = FRAME_BYTES + touchCount * TOUCH_BYTES
+                + ((flags & RECORD_PROJECTION) != 0 ? PROJECTION_BYTES : 0);
+        if (buffer.remaining() < size - 12) {
+            buffer.position(start);
+            return false;
+        }
+
+        frame.timestamp = timestamp;
+        frame.trackingState = trackingState;
+        frame.flags = flags & ~RECORD_PROJECTION;
+        if ((flags & RECORD_PROJECTION) != 0) {
+            frame.screenWidth = buffer.getFloat();
+            frame.screenHeight = buffer.getFloat();
+            getFloats(buffer, frame.projection);
+        }
+        getFloats(buffer, frame.view);
+        getFloats(buffer, frame.position);
+        frame.touchCount = touchCount;
+        for (int i = 0; i < touchCount; i++) {
+            frame.touchActions[i] = buffer.get();
+            frame.touchScreen[i * 2] = buffer.getFloat();
+            frame.touchScreen[i * 2 + 1] = buffer.getFloat();
+            frame.touchTimes[i] = buffer.getLong();
+        }
+        return true;
+    }
+
+    private static void getFloats(MappedByteBuffer buffer, float[] out) {
+        for (int i = 0; i < out.length; i++) {
+            out[i] = buffer.getFloat();
+        }
+    }
+}
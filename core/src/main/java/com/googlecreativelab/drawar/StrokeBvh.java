@@ -0,0 +1,710 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar;
+
+import java.util.Arrays;
+
+
+/**
+ * StrokeBvh is a bounding volume hierarchy over the segments of a StrokeStore, used to pick
+ * strokes with a ray or a sphere without scanning every point.
+ *
+ * The leaves hold runs of up to SEGMENTS_PER_LEAF consecutive segments of one stroke.  The tree is
+ * a dynamic AABB tree (as in Box2D): new leaves are inserted next to the sibling that grows the
+ * surface area the least and the tree is rebalanced with rotations, so it stays O(log n) deep while
+ * it is built one point at a time.  Appending a point grows the last leaf of the stroke and refits
+ * its ancestors, or inserts a new leaf once it is full.
+ *
+ * All of the nodes live in primitive arrays, queries allocate nothing.
+ */
+public class StrokeBvh {
+    private static final int SEGMENTS_PER_LEAF = 16;
+    private static final int NULL_NODE = -1;
+    private static final int FLOATS_PER_BOUNDS = 6;
+
+    // Node pool
+    private float[] mBounds = new float[256 * FLOATS_PER_BOUNDS];
+    private int[] mParent = new int[256];
+    private int[] mChild1 = new int[256];
+    private int[] mChild2 = new int[256];
+    private int[] mHeight = new int[256];
+    // Leaf payload, mLeafStroke is -1 for internal nodes
+    private int[] mLeafStroke = new int[256];
+    private int[] mLeafFirst = new int[256];
+    private int[] mLeafCount = new int[256];
+    private int mNodeCount = 0;
+    private int mFreeList = NULL_NODE;
+    private int mRoot = NULL_NODE;
+
+    // Leaves in the order they were created, which is the order of the strokes and points
+    private int[] mLeaves = new int[128];
+    private int mNumLeaves = 0;
+    // The leaves after a replaced stroke, set aside by replaceStroke
+    private int[] mLeavesAfter = new int[128];
+
+    private int mSyncedStrokes = 0;
+    private int mSyncedPoints = 0;
+
+    private int[] mStack = new int[64];
+    private int[] mStrokeStamp = new int[64];
+    private int mStamp = 0;
+
+    private int mHitPoint = -1;
+    private float mHitDistance = 0;
+
+    /**
+     * Removes every leaf
+     */
+    public void clear() {
+        mNodeCount = 0;
+        mFreeList = NULL_NODE;
+        mRoot = NULL_NODE;
+        mNumLeaves = 0;
+        mSyncedStrokes = 0;
+        mSyncedPoints = 0;
+    }
+
+    /**
+     * Inserts the segments appended to the StrokeStore since the last update, and removes the
+     * leaves of strokes that were popped off its end.  Strokes removed from the middle of the
+     * StrokeStore have to be reported with removeStroke instead.
+     * @param strokes
+     */
+    public void update(StrokeStore strokes) {
+        int strokeCount = strokes.getStrokeCount();
+        while (mSyncedStrokes > strokeCount) {
+            removeLastStroke();
+        }
+        if (mSyncedStrokes == strokeCount && mSyncedPoints == strokes.getPointCount()) {
+            return;
+        }
+
+        float[] points = strokes.getPoints();
+        for (int s = Math.max(mSyncedStrokes - 1, 0); s < strokeCount; s++) {
+            // Continue after the last segment already in the tree for this stroke.  Every point
+            // after the first adds the segment that ends in it
+            int next = strokes.getStrokeStart(s) + 1;
+            if (mNumLeaves > 0) {
+                int leaf = mLeaves[mNumLeaves - 1];
+                if (mLeafStroke[leaf] == s) {
+                    next = mLeafFirst[leaf] + mLeafCount[leaf];
+                }
+            }
+            int end = strokes.getStrokeEnd(s);
+            for (int p = next; p < end; p++) {
+                addSegment(points, s, p - 1);
+            }
+        }
+        mSyncedStrokes = strokeCount;
+        mSyncedPoints = strokes.getPointCount();
+    }
+
+    /**
+     * Clears the tree and inserts every segment of the StrokeStore again
+     * @param strokes
+     */
+    public void rebuild(StrokeStore strokes) {
+        clear();
+        update(strokes);
+    }
+
+    /**
+     * Removes the leaves of a stroke that was removed from the StrokeStore with
+     * StrokeStore.removeStroke, and shifts the stroke and point indices of the leaves after it.
+     * @param stroke the index the stroke had
+     * @param pointCount the number of points the stroke had
+     */
+    public void removeStroke(int stroke, int pointCount) {
+        removeStrokeLeaves(stroke, -1, -pointCount);
+        mSyncedStrokes--;
+        mSyncedPoints = -1;
+    }
+
+    /**
+     * Rebuilds the leaves of a stroke whose points were replaced with StrokeStore.replaceStroke,
+     * and shifts the point indices of the leaves after it.  The tree has to be up to date with
+     * the StrokeStore from before the replacement.
+     * @param strokes
+     * @param stroke
+     * @param pointCount the number of points the stroke had before it was replaced
+     */
+    public void replaceStroke(StrokeStore strokes, int stroke, int pointCount) {
+        int start = strokes.getStrokeStart(stroke);
+        int end = strokes.getStrokeEnd(stroke);
+        int first = removeStrokeLeaves(stroke, 0, end - start - pointCount);
+
+        // Set the leaves after the stroke aside so the new leaves keep their place in mLeaves
+        int after = mNumLeaves - first;
+        if (after > mLeavesAfter.length) {
+            mLeavesAfter = new int[Math.max(after, mLeavesAfter.length * 2)];
+        }
+        System.arraycopy(mLeaves, first, mLeavesAfter, 0, after);
+        mNumLeaves = first;
+        float[] points = strokes.getPoints();
+        for (int p = start + 1; p < end; p++) {
+            addSegment(points, stroke, p - 1);
+        }
+        if (mNumLeaves + after > mLeaves.length) {
+            mLeaves = Arrays.copyOf(mLeaves, Math.max(mNumLeaves + after, mLeaves.length * 2));
+        }
+        System.arraycopy(mLeavesAfter, 0, mLeaves, mNumLeaves, after);
+        mNumLeaves += after;
+        mSyncedPoints = -1;
+    }
+
+    /**
+     * Casts a ray with a radius through the strokes.
+     * @param strokes
+     * @param ox ray origin
+     * @param oy
+     * @param oz
+     * @param dx normalized ray direction
+     * @param dy
+     * @param dz
+     * @param radius the distance from the ray a segment counts as hit
+     * @param maxDistance the length of the ray
+     * @return the stroke with the hit closest to the origin, or -1.  getHitPoint and getHitDistance
+     * describe the hit segment.
+     */
+    public int raycast(StrokeStore strokes, float ox, float oy, float oz, float dx, float dy, float dz,
+                       float radius, float maxDistance) {
+        mHitPoint = -1;
+        mHitDistance = maxDistance;
+        if (mRoot == NULL_NODE) {
+            return -1;
+        }
+        float[] points = strokes.getPoints();
+        int hitStroke = -1;
+
+        float invX = 1f / dx, invY = 1f / dy, invZ = 1f / dz;
+        int top = 0;
+        mStack[top++] = mRoot;
+        while (top > 0) {
+            int node = mStack[--top];
+            if (!rayHitsBounds(node, ox, oy, oz, invX, invY, invZ, radius, mHitDistance)) {
+                continue;
+            }
+            if (mLeafStroke[node] >= 0) {
+                int end = mLeafFirst[node] + mLeafCount[node] - 1;
+                for (int p = mLeafFirst[node]; p < end; p++) {
+                    float t = raySegmentDistance(points, p, ox, oy, oz, dx, dy, dz, radius);
+                    if (t >= 0 && t < mHitDistance) {
+                        mHitDistance = t;
+                        mHitPoint = p;
+                        hitStroke = mLeafStroke[node];
+                    }
+                }
+            } else {
+                top = push(top, mChild1[node]);
+                top = push(top, mChild2[node]);
+            }
+        }
+        return hitStroke;
+    }
+
+    /**
+     * Finds every stroke with a segment inside a sphere
+     * @param strokes
+     * @param cx sphere center
+     * @param cy
+     * @param cz
+     * @param radius
+     * @param out receives the hit strokes, each stroke once
+     * @return the number of strokes written to out, at most out.length
+     */
+    public int querySphere(StrokeStore strokes, float cx, float cy, float cz, float radius, int[] out) {
+        if (mRoot == NULL_NODE) {
+            return 0;
+        }
+        float[] points = strokes.getPoints();
+        if (mStrokeStamp.length < mSyncedStrokes) {
+            mStrokeStamp = new int[Math.max(mSyncedStrokes, mStrokeStamp.length * 2)];
+        }
+        if (++mStamp == Integer.MAX_VALUE) {
+            Arrays.fill(mStrokeStamp, 0);
+            mStamp = 1;
+        }
+
+        float r2 = radius * radius;
+        int count = 0;
+        int top = 0;
+        mStack[top++] = mRoot;
+        while (top > 0 && count < out.length) {
+            int node = mStack[--top];
+            if (!sphereHitsBounds(node, cx, cy, cz, r2)) {
+                continue;
+            }
+            int stroke = mLeafStroke[node];
+            if (stroke >= 0) {
+                if (mStrokeStamp[stroke] == mStamp) {
+                    continue;
+                }
+                int end = mLeafFirst[node] + mLeafCount[node] - 1;
+                for (int p = mLeafFirst[node]; p < end; p++) {
+                    if (pointSegmentDistanceSquared(points, p, cx, cy, cz) <= r2) {
+                        mStrokeStamp[stroke] = mStamp;
+                        out[count++] = stroke;
+                        break;
+                    }
+                }
+            } else {
+                top = push(top, mChild1[node]);
+                top = push(top, mChild2[node]);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the first point of the segment hit by the last raycast, or -1
+     */
+    public int getHitPoint() {
+        return mHitPoint;
+    }
+
+    /**
+     * @return the distance along the ray of the last raycast hit
+     */
+    public float getHitDistance() {
+        return mHitDistance;
+    }
+
+    public int getLeafCount() {
+        return mNumLeaves;
+    }
+
+    /**
+     * @return the height of the tree, 0 when it is empty
+     */
+    public int getHeight() {
+        return mRoot == NULL_NODE ? 0 : mHeight[mRoot] + 1;
+    }
+
+    // ------- Building
+
+    /**
+     * Adds the segment from point p to p + 1 of a stroke, growing the last leaf of the stroke if it
+     * has room.
+     */
+    private void addSegment(float[] points, int stroke, int p) {
+        if (mNumLeaves > 0) {
+            int leaf = mLeaves[mNumLeaves - 1];
+            if (mLeafStroke[leaf] == stroke && mLeafCount[leaf] <= SEGMENTS_PER_LEAF
+                    && mLeafFirst[leaf] + mLeafCount[leaf] - 1 == p) {
+                mLeafCount[leaf]++;
+                growBounds(leaf, points, p + 1);
+                refit(mParent[leaf]);
+                return;
+            }
+        }
+
+        int leaf = allocateNode();
+        mLeafStroke[leaf] = stroke;
+        mLeafFirst[leaf] = p;
+        mLeafCount[leaf] = 2;
+        int b = leaf * FLOATS_PER_BOUNDS;
+        int i = p * StrokeStore.FLOATS_PER_POINT;
+        mBounds[b] = mBounds[b + 3] = points[i];
+        mBounds[b + 1] = mBounds[b + 4] = points[i + 1];
+        mBounds[b + 2] = mBounds[b + 5] = points[i + 2];
+        growBounds(leaf, points, p + 1);
+        insertLeaf(leaf);
+
+        if (mNumLeaves == mLeaves.length) {
+            mLeaves = Arrays.copyOf(mLeaves, mNumLeaves * 2);
+        }
+        mLeaves[mNumLeaves++] = leaf;
+    }
+
+    /**
+     * Removes the leaves of a stroke from the tree and mLeaves, and shifts the indices of the
+     * leaves after it
+     * @return the position in mLeaves the leaves of the stroke started at
+     */
+    private int removeStrokeLeaves(int stroke, int strokeShift, int pointShift) {
+        int first = 0;
+        while (first < mNumLeaves && mLeafStroke[mLeaves[first]] < stroke) {
+            first++;
+        }
+        int last = first;
+        while (last < mNumLeaves && mLeafStroke[mLeaves[last]] == stroke) {
+            removeLeaf(mLeaves[last]);
+            freeNode(mLeaves[last]);
+            last++;
+        }
+        for (int i = last; i < mNumLeaves; i++) {
+            int leaf = mLeaves[i];
+            mLeafStroke[leaf] += strokeShift;
+            mLeafFirst[leaf] += pointShift;
+        }
+        System.arraycopy(mLeaves, last, mLeaves, first, mNumLeaves - last);
+        mNumLeaves -= last - first;
+        return first;
+    }
+
+    private void removeLastStroke() {
+        int stroke = mSyncedStrokes - 1;
+        while (mNumLeaves > 0 && mLeafStroke[mLeaves[mNumLeaves - 1]] == stroke) {
+            int leaf = mLeaves[--mNumLeaves];
+            removeLeaf(leaf);
+            freeNode(leaf);
+        }
+        mSyncedStrokes--;
+        mSyncedPoints = -1;
+    }
+
+    private void growBounds(int node, float[] points, int p) {
+        int b = node * FLOATS_PER_BOUNDS;
+        int i = p * StrokeStore.FLOATS_PER_POINT;
+        float x = points[i], y = points[i + 1], z = points[i + 2];
+        if (x < mBounds[b]) mBounds[b] = x;
+        if (y < mBounds[b + 1]) mBounds[b + 1] = y;
+        if (z < mBounds[b + 2]) mBounds[b + 2] = z;
+        if (x > mBounds[b + 3]) mBounds[b + 3] = x;
+        if (y > mBounds[b + 4]) mBounds[b + 4] = y;
+        if (z > mBounds[b + 5]) mBounds[b + 5] = z;
+    }
+
+    /**
+     * Recomputes the bounds of node and its ancestors from their children
+     */
+    private void refit(int node) {
+        while (node != NULL_NODE) {
+            setUnion(node, mChild1[node], mChild2[node]);
+            node = mParent[node];
+        }
+    }
+
+    private void insertLeaf(int leaf) {
+        if (mRoot == NULL_NODE) {
+            mRoot = leaf;
+            mParent[leaf] = NULL_NODE;
+            return;
+        }
+
+        // Find the best sibling by the surface area heuristic
+        int index = mRoot;
+        while (mLeafStroke[index] < 0) {
+            int child1 = mChild1[index];
+            int child2 = mChild2[index];
+
+            float area = perimeter(index);
+            float combinedArea = unionPerimeter(index, leaf);
+
+            // Cost of creating a new parent for this node and the new leaf
+            float cost = 2f * combinedArea;
+            // Minimum cost of pushing the leaf further down the tree
+            float inheritanceCost = 2f * (combinedArea - area);
+
+            float cost1 = descendCost(child1, leaf) + inheritanceCost;
+            float cost2 = descendCost(child2, leaf) + inheritanceCost;
+
+            if (cost < cost1 && cost < cost2) {
+                break;
+            }
+            index = cost1 < cost2 ? child1 : child2;
+        }
+        int sibling = index;
+
+        int oldParent = mParent[sibling];
+        int newParent = allocateNode();
+        mParent[newParent] = oldParent;
+        mLeafStroke[newParent] = -1;
+        setUnion(newParent, leaf, sibling);
+        mHeight[newParent] = mHeight[sibling] + 1;
+
+        if (oldParent != NULL_NODE) {
+            if (mChild1[oldParent] == sibling) {
+                mChild1[oldParent] = newParent;
+            } else {
+                mChild2[oldParent] = newParent;
+            }
+        } else {
+            mRoot = newParent;
+        }
+        mChild1[newParent] = sibling;
+        mChild2[newParent] = leaf;
+        mParent[sibling] = newParent;
+        mParent[leaf] = newParent;
+
+        fixUpwards(mParent[leaf]);
+    }
+
+    private void removeLeaf(int leaf) {
+        if (leaf == mRoot) {
+            mRoot = NULL_NODE;
+            return;
+        }
+
+        int parent = mParent[leaf];
+        int grandParent = mParent[parent];
+        int sibling = mChild1[parent] == leaf ? mChild2[parent] : mChild1[parent];
+
+        if (grandParent != NULL_NODE) {
+            if (mChild1[grandParent] == parent) {
+                mChild1[grandParent] = sibling;
+            } else {
+                mChild2[grandParent] = sibling;
+            }
+            mParent[sibling] = grandParent;
+            freeNode(parent);
+            fixUpwards(grandParent);
+        } else {
+            mRoot = sibling;
+            mParent[sibling] = NULL_NODE;
+            freeNode(parent);
+        }
+    }
+
+    /**
+     * Rebalances and refits the nodes from index up to the root
+     */
+    private void fixUpwards(int index) {
+        while (index != NULL_NODE) {
+            index = balance(index);
+            int child1 = mChild1[index];
+            int child2 = mChild2[index];
+            mHeight[index] = 1 + Math.max(mHeight[child1], mHeight[child2]);
+            setUnion(index, child1, child2);
+            index = mParent[index];
+        }
+    }
+
+    /**
+     * Performs a left or right rotation if node A is imbalanced
+     * @return the new root of the subtree
+     */
+    private int balance(int a) {
+        if (mLeafStroke[a] >= 0 || mHeight[a] < 2) {
+            return a;
+        }
+
+        int b = mChild1[a];
+        int c = mChild2[a];
+        int difference = mHeight[c] - mHeight[b];
+
+        if (difference > 1) {
+            return rotate(a, c, b, true);
+        }
+        if (difference < -1) {
+            return rotate(a, b, c, false);
+        }
+        return a;
+    }
+
+    /**
+     * Promotes the taller child up over a
+     * @param a the imbalanced node
+     * @param up the taller child of a, which takes the place of a
+     * @param other the other child of a
+     * @param upIsChild2 whether up was the second child of a
+     * @return up
+     */
+    private int rotate(int a, int up, int other, boolean upIsChild2) {
+        int f = mChild1[up];
+        int g = mChild2[up];
+
+        // Swap a and up
+        mChild1[up] = a;
+        mParent[up] = mParent[a];
+        mParent[a] = up;
+
+        if (mParent[up] != NULL_NODE) {
+            if (mChild1[mParent[up]] == a) {
+                mChild1[mParent[up]] = up;
+            } else {
+                mChild2[mParent[up]] = up;
+            }
+        } else {
+            mRoot = up;
+        }
+
+        // Keep the taller grandchild under up, and hand the shorter one to a
+        int keep = mHeight[f] > mHeight[g] ? f : g;
+        int give = keep == f ? g : f;
+        mChild2[up] = keep;
+        if (upIsChild2) {
+            mChild2[a] = give;
+        } else {
+            mChild1[a] = give;
+        }
+        mParent[give] = a;
+
+        setUnion(a, other, give);
+        setUnion(up, a, keep);
+        mHeight[a] = 1 + Math.max(mHeight[other], mHeight[give]);
+        mHeight[up] = 1 + Math.max(mHeight[a], mHeight[keep]);
+        return up;
+    }
+
+    private int allocateNode() {
+        int node;
+        if (mFreeList != NULL_NODE) {
+            node = mFreeList;
+            mFreeList = mParent[node];
+        } else {
+            if (mNodeCount == mParent.length) {
+                int capacity = mNodeCount * 2;
+                mBounds = Arrays.copyOf(mBounds, capacity * FLOATS_PER_BOUNDS);
+                mParent = Arrays.copyOf(mParent, capacity);
+                mChild1 = Arrays.copyOf(mChild1, capacity);
+                mChild2 = Arrays.copyOf(mChild2, capacity);
+                mHeight = Arrays.copyOf(mHeight, capacity);
+                mLeafStroke = Arrays.copyOf(mLeafStroke, capacity);
+                mLeafFirst = Arrays.copyOf(mLeafFirst, capacity);
+                mLeafCount = Arrays.copyOf(mLeafCount, capacity);
+            }
+            node = mNodeCount++;
+        }
+        mParent[node] = NULL_NODE;
+        mChild1[node] = NULL_NODE;
+        mChild2[node] = NULL_NODE;
+        mHeight[node] = 0;
+        mLeafStroke[node] = -1;
+        return node;
+    }
+
+    private void freeNode(int node) {
+        mParent[node] = mFreeList;
+        mLeafStroke[node] = -1;
+        mFreeList = node;
+    }
+
+    // ------- Bounds helpers
+
+    private void setUnion(int node, int a, int b) {
+        int n = node * FLOATS_PER_BOUNDS, i = a * FLOATS_PER_BOUNDS, j = b * FLOATS_PER_BOUNDS;
+        for (int k = 0; k < 3; k++) {
+            mBounds[n + k] = Math.min(mBounds[i + k], mBounds[j + k]);
+            mBounds[n + 3 + k] = Math.max(mBounds[i + 3 + k], mBounds[j + 3 + k]);
+        }
+    }
+
+    private float perimeter(int node) {
+        int n = node * FLOATS_PER_BOUNDS;
+        float wx = mBounds[n + 3] - mBounds[n];
+        float wy = mBounds[n + 4] - mBounds[n + 1];
+        float wz = mBounds[n + 5] - mBounds[n + 2];
+        return 2f * (wx * wy + wy * wz + wz * wx);
+    }
+
+    private float unionPerimeter(int a, int b) {
+        int i = a * FLOATS_PER_BOUNDS, j = b * FLOATS_PER_BOUNDS;
+        float wx = Math.max(mBounds[i + 3], mBounds[j + 3]) - Math.min(mBounds[i], mBounds[j]);
+        float wy = Math.max(mBounds[i + 4], mBounds[j + 4]) - Math.min(mBounds[i + 1], mBounds[j + 1]);
+        float wz = Math.max(mBounds[i + 5], mBounds[j + 5]) - Math.min(mBounds[i + 2], mBounds[j + 2]);
+        return 2f * (wx * wy + wy * wz + wz * wx);
+    }
+
+    private float descendCost(int child, int leaf) {
+        if (mLeafStroke[child] >= 0) {
+            return unionPerimeter(child, leaf);
+        }
+        return unionPerimeter(child, leaf) - perimeter(child);
+    }
+
+    private int push(int top, int node) {
+        if (top == mStack.length) {
+            mStack = Arrays.copyOf(mStack, top * 2);
+        }
+        mStack[top] = node;
+        return top + 1;
+    }
+
+    /**
+     * Slab test of the ray against the bounds of a node grown by radius
+     */
+    private boolean rayHitsBounds(int node, float ox, float oy, float oz, float invX, float invY,
+                                  float invZ, float radius, float maxDistance) {
+        int n = node * FLOATS_PER_BOUNDS;
+        float t1 = (mBounds[n] - radius - ox) * invX;
+        float t2 = (mBounds[n + 3] + radius - ox) * invX;
+        float tMin = Math.min(t1, t2);
+        float tMax = Math.max(t1, t2);
+
+        t1 = (mBounds[n + 1] - radius - oy) * invY;
+        t2 = (mBounds[n + 4] + radius - oy) * invY;
+        tMin = Math.max(tMin, Math.min(t1, t2));
+        tMax = Math.min(tMax, Math.max(t1, t2));
+
+        t1 = (mBounds[n + 2] - radius - oz) * invZ;
+        t2 = (mBounds[n + 5] + radius - oz) * invZ;
+        tMin = Math.max(tMin, Math.min(t1, t2));
+        tMax = Math.min(tMax, Math.max(t1, t2));
+
+        return tMax >= Math.max(tMin, 0f) && tMin <= maxDistance;
+    }
+
+    private boolean sphereHitsBounds(int node, float cx, float cy, float cz, float r2) {
+        int n = node * FLOATS_PER_BOUNDS;
+        float dx = Math.max(Math.max(mBounds[n] - cx, 0f), cx - mBounds[n + 3]);
+        float dy = Math.max(Math.max(mBounds[n + 1] - cy, 0f), cy - mBounds[n + 4]);
+        float dz = Math.max(Math.max(mBounds[n + 2] - cz, 0f), cz - mBounds[n + 5]);
+        return dx * dx + dy * dy + dz * dz <= r2;
+    }
+
+    /**
+     * Closest approach of a ray and the segment from point p to p + 1
+     * @return the distance along the ray of the closest approach if the segment is within radius
+     * of the ray, otherwise -1
+     */
+    private static float raySegmentDistance(float[] points, int p, float ox, float oy, float oz,
+                                            float dx, float dy, float dz, float radius) {
+        int i = p * StrokeStore.FLOATS_PER_POINT;
+        float ax = points[i], ay = points[i + 1], az = points[i + 2];
+        float ux = points[i + 3] - ax, uy = points[i + 4] - ay, uz = points[i + 5] - az;
+        float wx = ox - ax, wy = oy - ay, wz = oz - az;
+
+        float b = dx * ux + dy * uy + dz * uz;
+        float c = ux * ux + uy * uy + uz * uz;
+        float d = dx * wx + dy * wy + dz * wz;
+        float e = ux * wx + uy * wy + uz * wz;
+        // The ray direction is normalized, so a = 1
+        float denominator = c - b * b;
+
+        float s;
+        if (c <= 0f) {
+            s = 0f;
+        } else if (denominator > 1e-12f) {
+            s = (e - b * d) / denominator;
+            s = Math.min(Math.max(s, 0f), 1f);
+        } else {
+            s = 0f;
+        }
+        // Closest point on the ray to the point on the segment
+        float t = Math.max((ax + s * ux - ox) * dx + (ay + s * uy - oy) * dy + (az + s * uz - oz) * dz, 0f);
+
+        float qx = ox + t * dx - (ax + s * ux);
+        float qy = oy + t * dy - (ay + s * uy);
+        float qz = oz + t * dz - (az + s * uz);
+        if (qx * qx + qy * qy + qz * qz > radius * radius) {
+            return -1f;
+        }
+        return t;
+    }
+
+    private static float pointSegmentDistanceSquared(float[] points, int p, float cx, float cy, float cz) {
+        int i = p * StrokeStore.FLOATS_PER_POINT;
+        float ax = points[i], ay = points[i + 1], az = points[i + 2];
+        float ux = points[i + 3] - ax, uy = points[i + 4] - ay, uz = points[i + 5] - az;
+        float wx = cx - ax, wy = cy - ay, wz = cz - az;
+        float c = ux * ux + uy * uy + uz * uz;
+        float s = c > 0f ? (wx * ux + wy * uy + wz * uz) / c : 0f;
+        s = Math.min(Math.max(s, 0f), 1f);
+        float qx = wx - s * ux, qy = wy - s * uy, qz = wz - s * uz;
+        return qx * qx + qy * qy + qz * qz;
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar;
+
+import com.googlecreativelab.drawar.rendering.ScreenProjector;
+
+import javax.vecmath.Vector3f;
+
+
+/**
+ * StrokeInput turns the touch samples of every frame into strokes.  The samples are unprojected
+ * into world space in front of the camera, low pass filtered and sampled into the StrokeStore by
+ * the StrokeSampler, or in erase mode the stroke under them is removed.  Finished strokes are
+ * handed to the StrokeSimplifier and swapped for their simplified version when it is ready.  All
+ * of it runs on the thread that owns the StrokeStore, the GL Thread in the app.
+ */
+public class StrokeInput {
+    public static final int CHANGE_NONE = 0;
+    // Strokes were added, undone, redone or replaced
+    public static final int CHANGE_APPENDED = 1;
+    // Strokes were removed
+    public static final int CHANGE_REBUILD = 2;
+
+    // Distance in meters from the touch ray within which a stroke is erased
+    private static final float ERASER_RADIUS = 0.01f;
+
+    // Distance in meters the camera may move in one frame before the stroke is ended, so no line is
+    // drawn abruptly through the air
+    private static final float MAX_CAMERA_STEP = 0.15f;
+
+    private final StrokeStore mStrokes;
+    private final StrokeBvh mStrokeBvh;
+    private final StrokeSimplifier mStrokeSimplifier;
+
+    private final BiquadFilter mFilter;
+    private final StrokeSampler mSampler;
+    private volatile float mSmoothing;
+    private final Vector3f mLastPoint = new Vector3f();
+    private final Vector3f mTouchPoint = new Vector3f();
+
+    private final ScreenProjector mScreenProjector = new ScreenProjector();
+    private final float[] mTouchWorld;
+    private final float[] mTouchRay = new float[6];
+
+    private boolean mTouchDown = false;
+    // The id of the stroke the current touch began, or -1 if it did not begin one
+    private int mTouchStrokeId = -1;
+    private boolean mTracking = true;
+    private final float[] mLastPosition = new float[3];
+    private boolean mHasLastPosition = false;
+
+    private int mChange;
+    private SimplifyListener mSimplifyListener;
+
+    /**
+     * @param strokes
+     * @param bvh kept up to date with the strokes
+     * @param simplifier
+     * @param smoothing the cutoff of the filter, see BiquadFilter
+     * @param touchCapacity the most touch samples a SessionFrame holds
+     */
+    public StrokeInput(StrokeStore strokes, StrokeBvh bvh, StrokeSimplifier simplifier,
+                       float smoothing, int touchCapacity) {
+        mStrokes = strokes;
+        mStrokeBvh = bvh;
+        mStrokeSimplifier = simplifier;
+        mSmoothing = smoothing;
+        mFilter = new BiquadFilter(smoothing);
+        mSampler = new StrokeSampler(strokes, AppSettings.getMinDistance(),
+                AppSettings.getMaxDistance(), AppSettings.getSampleAngle(),
+                AppSettings.getSampleChordError());
+        mTouchWorld = new float[touchCapacity * 3];
+    }
+
+    /**
+     * Changes the cutoff of the filter from the next stroke on.  May be called from any thread.
+     * @param smoothing
+     */
+    public void setSmoothing(float smoothing) {
+        mSmoothing = smoothing;
+    }
+
+    /**
+     * @param listener told about every simplified stroke that is swapped in, or null
+     */
+    public void setSimplifyListener(SimplifyListener listener) {
+        mSimplifyListener = listener;
+    }
+
+    /**
+     * Applies the touches and buttons of a frame and the strokes that finished simplifying
+     * @param frame
+     * @return CHANGE_NONE, CHANGE_APPENDED or CHANGE_REBUILD
+     */
+    public int update(SessionFrame frame) {
+        mChange = CHANGE_NONE;
+
+        // Stop drawing when tracking is lost or the camera jumped
+        if (frame.trackingState == SessionFrame.TRACKING) {
+            mTracking = true;
+        } else if (frame.trackingState == SessionFrame.STOPPED && mTracking) {
+            mTracking = false;
+            endStroke();
+        }
+        float[] position = frame.position;
+        if (mHasLastPosition) {
+            float dx = position[0] - mLastPosition[0];
+            float dy = position[1] - mLastPosition[1];
+            float dz = position[2] - mLastPosition[2];
+            if (dx * dx + dy * dy + dz * dz > MAX_CAMERA_STEP * MAX_CAMERA_STEP) {
+                endStroke();
+            }
+        }
+        System.arraycopy(position, 0, mLastPosition, 0, 3);
+        mHasLastPosition = true;
+
+        // Project every touch sample since the last frame, not only the latest one.  The inverse
+        // view-projection is computed once, and all samples are unprojected together.  Without
+        // one the touches can not be placed, so the stroke ends and only the ups are handled
+        boolean projected = mScreenProjector.update(frame.projection, frame.view,
+                frame.screenWidth, frame.screenHeight);
+        if (projected) {
+            mScreenProjector.unproject(frame.touchScreen, frame.touchCount,
+                    AppSettings.getStrokeDrawDistance(), mTouchWorld);
+        } else {
+            endStroke();
+        }
+        boolean erase = (frame.flags & SessionFrame.FLAG_ERASE_MODE) != 0;
+        for (int i = 0; i < frame.touchCount; i++) {
+            if (projected || frame.touchActions[i] == TouchSampleQueue.ACTION_UP) {
+                handleTouchSample(frame, i, erase);
+            }
+        }
+
+        StrokeSimplifier.Result simplified;
+        while ((simplified = mStrokeSimplifier.poll()) != null) {
+            applySimplifiedStroke(simplified);
+        }
+
+        if ((frame.flags & SessionFrame.FLAG_CLEAR) != 0) {
+            clear();
+            mChange = CHANGE_REBUILD;
+        }
+        // Undo and redo only move the end of the strokes, the geometry keeps the undone strokes
+        // around to bring them back.  The point the sampler held back goes first, as if it had
+        // been appended right away
+        if ((frame.flags & (SessionFrame.FLAG_UNDO | SessionFrame.FLAG_REDO)) != 0
+                && mSampler.finish()) {
+            mChange = Math.max(mChange, CHANGE_APPENDED);
+        }
+        if ((frame.flags & SessionFrame.FLAG_UNDO) != 0 && mStrokes.popStroke()) {
+            mChange = Math.max(mChange, CHANGE_APPENDED);
+        }
+        if ((frame.flags & SessionFrame.FLAG_REDO) != 0 && mStrokes.redoStroke()) {
+            mChange = Math.max(mChange, CHANGE_APPENDED);
+        }
+        mStrokeBvh.update(mStrokes);
+        return mChange;
+    }
+
+    /**
+     * Removes every stroke
+     */
+    public void clear() {
+        mStrokes.clear();
+        mStrokeBvh.clear();
+        mSampler.reset();
+        mTouchDown = false;
+        mTouchStrokeId = -1;
+    }
+
+    /**
+     * handleTouchSample starts, extends or finishes a stroke, or erases strokes in erase mode
+     *
+     * @param frame
+     * @param i the index of the sample in the touch arrays of the frame
+     * @param erase
+     */
+    private void handleTouchSample(SessionFrame frame, int i, boolean erase) {
+        mTouchPoint.set(mTouchWorld[i * 3], mTouchWorld[i * 3 + 1], mTouchWorld[i * 3 + 2]);
+        float x = frame.touchScreen[i * 2];
+        float y = frame.touchScreen[i * 2 + 1];
+        switch (frame.touchActions[i]) {
+            case TouchSampleQueue.ACTION_DOWN:
+                mTouchDown = true;
+                mTouchStrokeId = -1;
+                if (erase) {
+                    eraseStrokes(x, y);
+                } else {
+                    addStroke(mTouchPoint);
+                }
+                break;
+            case TouchSampleQueue.ACTION_MOVE:
+                if (!mTouchDown) {
+                    break;
+                }
+                if (erase) {
+                    eraseStrokes(x, y);
+                } else {
+                    addPoint(mTouchPoint);
+                }
+                break;
+            case TouchSampleQueue.ACTION_UP:
+                endStroke();
+                // Only simplify the stroke this touch began, it may have begun none or been
+                // erased in the meantime
+                int stroke = mStrokes.indexOfStroke(mTouchStrokeId);
+                if (stroke >= 0) {
+                    mStrokeSimplifier.submit(mStrokes, stroke);
+                }
+                mTouchStrokeId = -1;
+                break;
+        }
+    }
+
+    /**
+     * addStroke creates a new stroke
+     *
+     * @param newPoint a 3D point in world space
+     */
+    private void addStroke(Vector3f newPoint) {
+        mSampler.finish();
+        mFilter.setCutoff(mSmoothing);
+        mFilter.reset(newPoint);
+        mFilter.update(newPoint, mLastPoint);
+        mStrokes.beginStroke();
+        mStrokes.appendPoint(mLastPoint);
+        mSampler.begin(mLastPoint);
+        mTouchStrokeId = mStrokes.getStrokeId(mStrokes.getStrokeCount() - 1);
+        mChange = Math.max(mChange, CHANGE_APPENDED);
+    }
+
+    /**
+     * endStroke stops extending the current stroke, appending the point the sampler held back so
+     * the stroke ends where the touch did
+     */
+    private void endStroke() {
+        mTouchDown = false;
+        if (mSampler.finish()) {
+            mChange = Math.max(mChange, CHANGE_APPENDED);
+        }
+    }
+
+    /**
+     * addPoint filters a point and hands it to the sampler, which appends it to the current stroke
+     * unless it lies on the course of the stroke
+     *
+     * @param newPoint a 3D point in world space
+     */
+    private void addPoint(Vector3f newPoint) {
+        if (mSampler.isSpaced(newPoint)) {
+            mFilter.update(newPoint, mLastPoint);
+            if (mSampler.add(mLastPoint)) {
+                mChange = Math.max(mChange, CHANGE_APPENDED);
+            }
+        }
+    }
+
+    /**
+     * applySimplifiedStroke swaps a stroke simplified by the StrokeSimplifier into the drawing,
+     * unless the stroke was removed or changed while it was being simplified.  The geometry is
+     * regenerated from the swapped stroke on, which is usually the last stroke or the one before
+     * the stroke being drawn, so nothing needs a rebuild.
+     */
+    private void applySimplifiedStroke(StrokeSimplifier.Result result) {
+        int stroke = mStrokes.indexOfStroke(result.strokeId);
+        if (stroke < 0 || mStrokes.getStrokeSize(stroke) != result.originalCount) {
+            return;
+        }
+        mStrokeBvh.update(mStrokes);
+        mStrokes.replaceStroke(stroke, result.points, result.count);
+        mStrokeBvh.replaceStroke(mStrokes, stroke, result.originalCount);
+        mChange = Math.max(mChange, CHANGE_APPENDED);
+        if (mSimplifyListener != null) {
+            mSimplifyListener.onStrokeSimplified(stroke, result.originalCount, result.count);
+        }
+    }
+
+    /**
+     * eraseStrokes removes the stroke closest to the camera under a touch point
+     *
+     * @param x screen position of the touch, cast as a ray into 3D world space
+     * @param y
+     */
+    private void eraseStrokes(float x, float y) {
+        if (mSampler.finish()) {
+            mChange = Math.max(mChange, CHANGE_APPENDED);
+        }
+        mStrokeBvh.update(mStrokes);
+        float[] ray = mTouchRay;
+        mScreenProjector.getRay(x, y, ray, 0);
+        int stroke = mStrokeBvh.raycast(mStrokes, ray[0], ray[1], ray[2], ray[3], ray[4], ray[5],
+                ERASER_RADIUS, AppSettings.getFarClip());
+        if (stroke >= 0) {
+            int size = mStrokes.getStrokeSize(stroke);
+            mStrokes.removeStroke(stroke);
+            mStrokeBvh.removeStroke(stroke, size);
+            mChange = CHANGE_REBUILD;
+        }
+    }
+
+    /**
+     * Reports the strokes the StrokeSimplifier made smaller
+     */
+    public interface SimplifyListener {
+        /**
+         * Called on the thread that updates the StrokeInput, after the stroke was swapped in
+         * @param stroke
+         * @param originalCount the number of points the stroke had
+         * @param count the number of points it has now
+         */
+        void onStrokeSimplified(int stroke, int originalCount, int count);
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar;
+
+import javax.vecmath.Vector3f;
+
+
+/**
+ * StrokeSampler picks which of the filtered points of a stroke are appended to the StrokeStore.
+ * A point is held back while it lies on the course of the last appended segment, and appended
+ * once a later point turns away from that course by more than the max angle, strays more than the
+ * chord error from it, or is further than the max spacing from the last appended point.  The held
+ * back point before the turn is appended first, so corners are kept.  Straight runs get few
+ * points, tight curves keep all of theirs.  Every test works on squared lengths and dot products,
+ * so there is no sqrt and nothing is allocated.
+ */
+public class StrokeSampler {
+    private final StrokeStore mStrokes;
+    private final float mMinSpacingSq;
+    private final float mMaxSpacingSq;
+    private final float mCosAngleSq;
+    private final float mChordErrorSq;
+
+    // The last appended point, and the last appended segment, the course of the stroke
+    private float mX, mY, mZ;
+    private float mDirX, mDirY, mDirZ;
+    private boolean mHasDirection = false;
+
+    // The last point given to the sampler, held back while mPending
+    private float mLastX, mLastY, mLastZ;
+    private boolean mPending = false;
+
+    /**
+     * @param strokes the points are appended to the last stroke
+     * @param minSpacing in meters, closer points are dropped
+     * @param maxSpacing in meters, the longest segment a straight run is sampled with
+     * @param maxAngle in degrees, the largest turn from the course of the stroke a held back point
+     *                 may take
+     * @param chordError in meters, the furthest a held back point may stray from the course
+     */
+    public StrokeSampler(StrokeStore strokes, float minSpacing, float maxSpacing, float maxAngle,
+                         float chordError) {
+        mStrokes = strokes;
+        mMinSpacingSq = minSpacing * minSpacing;
+        mMaxSpacingSq = maxSpacing * maxSpacing;
+        float cos = (float) Math.cos(Math.toRadians(maxAngle));
+        mCosAngleSq = cos * cos;
+        mChordErrorSq = chordError * chordError;
+    }
+
+    /**
+     * Starts sampling a stroke
+     * @param point the first point of the stroke, already appended to the StrokeStore
+     */
+    public void begin(Vector3f point) {
+        mX = mLastX = point.x;
+        mY = mLastY = point.y;
+        mZ = mLastZ = point.z;
+        mHasDirection = false;
+        mPending = false;
+    }
+
+    /**
+     * @param point
+     * @return true if the point is at least the min spacing away from the last point given to the
+     * sampler
+     */
+    public boolean isSpaced(Vector3f point) {
+        float dx = point.x - mLastX;
+        float dy = point.y - mLastY;
+        float dz = point.z - mLastZ;
+        return dx * dx + dy * dy + dz * dz > mMinSpacingSq;
+    }
+
+    /**
+     * Gives the next point of the stroke to the sampler, which appends it, the held back point
+     * before it, both or neither
+     * @param point
+     * @return true if any point was appended
+     */
+    public boolean add(Vector3f point) {
+        boolean appended = false;
+        if (mPending && !isOnCourse(point.x, point.y, point.z)) {
+            append(mLastX, mLastY, mLastZ);
+            appended = true;
+        }
+        mLastX = point.x;
+        mLastY = point.y;
+        mLastZ = point.z;
+        if (!mHasDirection) {
+            // The first point after the start sets the course
+            mDirX = mLastX - mX;
+            mDirY = mLastY - mY;
+            mDirZ = mLastZ - mZ;
+            mHasDirection = true;
+            mPending = true;
+        } else if (isOnCourse(mLastX, mLastY, mLastZ)) {
+            mPending = true;
+        } else {
+            append(mLastX, mLastY, mLastZ);
+            appended = true;
+        }
+        return appended;
+    }
+
+    /**
+     * Appends the held back point, so the stroke ends where the input did
+     * @return true if a point was appended
+     */
+    public boolean finish() {
+        if (!mPending) {
+            return false;
+        }
+        append(mLastX, mLastY, mLastZ);
+        return true;
+    }
+
+    /**
+     * Drops the held back point, when the stroke it belongs to is gone
+     */
+    public void reset() {
+        mPending = false;
+        mHasDirection = false;
+    }
+
+    /**
+     * @return true if the point can be held back, it is within the max spacing of the last
+     * appended point and within the max angle and the chord error of the course
+     */
+    private boolean isOnCourse(float x, float y, float z) {
+        float vx = x - mX;
+        float vy = y - mY;
+        float vz = z - mZ;
+        float vv = vx * vx + vy * vy + vz * vz;
+        if (vv > mMaxSpacingSq) {
+            return false;
+        }
+        float ve = vx * mDirX + vy * mDirY + vz * mDirZ;
+        if (ve <= 0) {
+            return false;
+        }
+        // cos^2 of the angle to the course is ve^2 / (vv * ee), and the squared distance from the
+        // course is vv - ve^2 / ee
+        float ee = mDirX * mDirX + mDirY * mDirY + mDirZ * mDirZ;
+        float veve = ve * ve;
+        return veve >= mCosAngleSq * vv * ee && vv * ee - veve <= mChordErrorSq * ee;
+    }
+
+    private void append(float x, float y, float z) {
+        mStrokes.appendPoint(x, y, z);
+        mDirX = x - mX;
+        mDirY = y - mY;
+        mDirZ = z - mZ;
+        mX = x;
+        mY = y;
+        mZ = z;
+        mPending = false;
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * StrokeSimplifier removes the points of finished strokes that do not change their shape by more
+ * than a tolerance, using the Ramer-Douglas-Peucker algorithm in 3D.  Strokes are copied when they
+ * are submitted and simplified on a worker thread.  The results are queued until the owner of the
+ * StrokeStore polls them and swaps them in, so the StrokeStore is only ever touched by one thread.
+ *
+ * Submitted strokes go through a ring of CAPACITY reused slots, each with its own point buffer,
+ * from the owner to the worker and back, and the worker is always handed the same Runnable, so
+ * once the buffers fit the longest stroke nothing is allocated.  When every slot is taken, finished
+ * strokes are kept as they were drawn.
+ */
+public class StrokeSimplifier {
+    private static final String TAG = StrokeSimplifier.class.getSimpleName();
+
+    // The most strokes waiting to be simplified or swapped in, a power of two
+    static final int CAPACITY = 8;
+
+    private final Executor mExecutor;
+    private final Result[] mSlots = new Result[CAPACITY];
+
+    // The slots from mPolled up to mSimplified are simplified and wait to be polled, the ones from
+    // there up to mSubmitted wait for the worker.  mSubmitted is only written by the owner and
+    // mSimplified only by the worker, writing them with lazySet publishes the slots written before
+    private final AtomicInteger mSubmitted = new AtomicInteger();
+    private final AtomicInteger mSimplified = new AtomicInteger();
+    private int mPolled = 0;
+    // The slot last returned by poll is released by the next poll
+    private boolean mHeld = false;
+
+    // Scratch space of the worker
+    private boolean[] mKeep = new boolean[256];
+    private int[] mStack = new int[64];
+
+    private volatile float mTolerance;
+
+    // Simplifies every submitted stroke, run by the executor
+    private final Runnable mSimplify = new Runnable() {
+        @Override
+        public void run() {
+            int simplified = mSimplified.get();
+            while (simplified != mSubmitted.get()) {
+                Result slot = mSlots[simplified & (CAPACITY - 1)];
+                int count = slot.originalCount;
+                if (mKeep.length < count) {
+                    mKeep = new boolean[Math.max(count, mKeep.length * 2)];
+                }
+                mStack = markKept(slot.points, count, slot.tolerance, mKeep, mStack);
+                slot.count = compact(slot.points, count, mKeep, slot.points);
+                mSimplified.lazySet(++simplified);
+            }
+        }
+    };
+
+    /**
+     * @param tolerance the maximum distance in meters a removed point may lie from the simplified
+     *                  stroke
+     */
+    public StrokeSimplifier(float tolerance) {
+        this(tolerance, new WorkerExecutor());
+    }
+
+    /**
+     * @param tolerance
+     * @param executor runs the simplification, one run at a time.  An executor that runs it in
+     *                 place makes the results ready for the next poll, as the replay of a
+     *                 SessionTrace needs
+     */
+    public StrokeSimplifier(float tolerance, Executor executor) {
+        mTolerance = tolerance;
+        mExecutor = executor;
+        for (int i = 0; i < CAPACITY; i++) {
+            mSlots[i] = new Result();
+        }
+    }
+
+    public void setTolerance(float tolerance) {
+        mTolerance = tolerance;
+    }
+
+    public float getTolerance() {
+        return mTolerance;
+    }
+
+    /**
+     * Copies a stroke and queues it to be simplified.  Must be called on the thread that owns the
+     * StrokeStore.
+     * @param strokes
+     * @param stroke
+     */
+    public void submit(StrokeStore strokes, int stroke) {
+        int count = strokes.getStrokeSize(stroke);
+        int submitted = mSubmitted.get();
+        if (count < 3 || submitted - mPolled == CAPACITY) {
+            return;
+        }
+        Result slot = mSlots[submitted & (CAPACITY - 1)];
+        slot.strokeId = strokes.getStrokeId(stroke);
+        slot.originalCount = count;
+        slot.tolerance = mTolerance;
+        int length = count * StrokeStore.FLOATS_PER_POINT;
+        if (slot.points.length < length) {
+            // Every slot grows at once, so a stroke no longer than one before fits any of them
+            int capacity = Math.max(length, slot.points.length * 2);
+            for (int i = 0; i < CAPACITY; i++) {
+                Result free = mSlots[(submitted + i) & (CAPACITY - 1)];
+                if (i == 0 || submitted + i - CAPACITY < mPolled) {
+                    free.points = new float[capacity];
+                }
+            }
+        }
+        System.arraycopy(strokes.getPoints(), strokes.getStrokeStart(stroke)
+                * StrokeStore.FLOATS_PER_POINT, slot.points, 0, length);
+        mSubmitted.lazySet(submitted + 1);
+        mExecutor.execute(mSimplify);
+    }
+
+    /**
+     * Must be called on the thread that owns the StrokeStore.  The result stays valid until the
+     * next poll.
+     * @return the next stroke the simplification made smaller, or null if none is ready
+     */
+    public Result poll() {
+        if (mHeld) {
+            mPolled++;
+            mHeld = false;
+        }
+        int simplified = mSimplified.get();
+        while (mPolled != simplified) {
+            Result slot = mSlots[mPolled & (CAPACITY - 1)];
+            if (slot.count < slot.originalCount) {
+                mHeld = true;
+                return slot;
+            }
+            mPolled++;
+        }
+        return null;
+    }
+
+    /**
+     * Stops the worker thread, strokes that are still queued are not simplified
+     */
+    public void shutdown() {
+        if (mExecutor instanceof WorkerExecutor) {
+            ((WorkerExecutor) mExecutor).shutdown();
+        }
+    }
+
+    /**
+     * Simplifies a polyline with the Ramer-Douglas-Peucker algorithm.  The first and last points are
+     * always kept.
+     * @param points packed x, y, z values
+     * @param count the number of points
+     * @param tolerance the maximum distance of a removed point from the segment that replaces it
+     * @param out receives the kept points, may be the points array itself
+     * @return the number of points written to out
+     */
+    public static int simplify(float[] points, int count, float tolerance, float[] out) {
+        if (count < 3) {
+            System.arraycopy(points, 0, out, 0, count * StrokeStore.FLOATS_PER_POINT);
+            return count;
+        }
+
+        boolean[] keep = new boolean[count];
+        markKept(points, count, tolerance, keep);
+        return compact(points, count, keep, out);
+    }
+
+    /**
+     * Copies the kept points to the start of out
+     * @param points packed x, y, z values
+     * @param count the number of points
+     * @param keep true for every kept point
+     * @param out receives the kept points, may be the points array itself
+     * @return the number of points written to out
+     */
+    private static int compact(float[] points, int count, boolean[] keep, float[] out) {
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            if (keep[i]) {
+                System.arraycopy(points, i * StrokeStore.FLOATS_PER_POINT, out,
+                        kept * StrokeStore.FLOATS_PER_POINT, StrokeStore.FLOATS_PER_POINT);
+                kept++;
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Marks the points the Ramer-Douglas-Peucker algorithm keeps, without moving them
+     * @param points packed x, y, z values
+     * @param count the number of points
+     * @param tolerance the maximum distance of a removed point from the segment that replaces it
+     * @param keep receives true for every kept point, must hold count values
+     */
+    public static void markKept(float[] points, int count, float tolerance, boolean[] keep) {
+        markKept(points, count, tolerance, keep, new int[64]);
+    }
+
+    /**
+     * markKept with a reused stack
+     * @param stack the explicit stack of (first, last) ranges, long strokes would overflow a
+     *              recursive version
+     * @return the stack, a larger one if it had to grow
+     */
+    private static int[] markKept(float[] points, int count, float tolerance, boolean[] keep,
+                                  int[] stack) {
+        Arrays.fill(keep, 0, count, false);
+        if (count == 0) {
+            return stack;
+        }
+        keep[0] = true;
+        keep[count - 1] = true;
+
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = count - 1;
+        float tolerance2 = tolerance * tolerance;
+
+        while (top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+
+            float maxDistance = -1;
+            int index = -1;
+            for (int i = first + 1; i < last; i++) {
+                float d = segmentDistanceSquared(points, i, first, last);
+                if (d > maxDistance) {
+                    maxDistance = d;
+                    index = i;
+                }
+            }
+
+            if (maxDistance > tolerance2) {
+                keep[index] = true;
+                if (top + 4 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                if (index - first > 1) {
+                    stack[top++] = first;
+                    stack[top++] = index;
+                }
+                if (last - index > 1) {
+                    stack[top++] = index;
+                    stack[top++] = last;
+                }
+            }
+        }
+        return stack;
+    }
+
+    /**
+     * @return the squared distance from point p to the segment between points a and b
+     */
+    private static float segmentDistanceSquared(float[] points, int p, int a, int b) {
+        int pi = p * StrokeStore.FLOATS_PER_POINT;
+        int ai = a * StrokeStore.FLOATS_PER_POINT;
+        int bi = b * StrokeStore.FLOATS_PER_POINT;
+        float ux = points[bi] - points[ai];
+        float uy = points[bi + 1] - points[ai + 1];
+        float uz = points[bi + 2] - points[ai + 2];
+        float wx = points[pi] - points[ai];
+        float wy = points[pi + 1] - points[ai + 1];
+        float wz = points[pi + 2] - points[ai + 2];
+
+        float length2 = ux * ux + uy * uy + uz * uz;
+        float t = length2 > 0 ? (wx * ux + wy * uy + wz * uz) / length2 : 0;
+        t = Math.max(0, Math.min(1, t));
+        float dx = wx - t * ux;
+        float dy = wy - t * uy;
+        float dz = wz - t * uz;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * A simplified stroke waiting to be swapped into the StrokeStore, the slot is reused after the
+     * next poll
+     */
+    public static class Result {
+        public int strokeId;
+        public int originalCount;
+        public float[] points = new float[256 * StrokeStore.FLOATS_PER_POINT];
+        public int count;
+
+        float tolerance;
+    }
+
+    /**
+     * Runs the simplification on a thread of its own.  It is handed the same Runnable every time,
+     * so a run that is already pending takes in the next one as well and nothing is queued.
+     */
+    private static class WorkerExecutor implements Executor {
+        private final Thread mThread;
+        private volatile Runnable mCommand;
+        private final AtomicBoolean bPending = new AtomicBoolean(false);
+        private volatile boolean bRunning = true;
+
+        WorkerExecutor() {
+            mThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (bRunning) {
+                        if (bPending.getAndSet(false)) {
+                            mCommand.run();
+                        } else {
+                            LockSupport.park(WorkerExecutor.this);
+                        }
+                    }
+                }
+            }, TAG);
+            mThread.setDaemon(true);
+            mThread.start();
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            mCommand = command;
+            bPending.set(true);
+            LockSupport.unpark(mThread);
+        }
+
+        void shutdown() {
+            bRunning = false;
+            LockSupport.unpark(mThread);
+        }
+    }
+}
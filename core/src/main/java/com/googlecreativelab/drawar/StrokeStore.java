@@ -0,0 +1,308 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+import javax.vecmath.Vector3f;
+
+
+/**
+ * StrokeStore holds every stroke of the drawing in primitive arrays.  The points of all strokes
+ * are packed one after another as x, y, z floats, and the index of the first point of each stroke
+ * is kept in a separate int array.  Appending a point, beginning a stroke and popping the last
+ * stroke are all O(1) (amortized when the arrays grow) and allocate no per point objects.
+ *
+ * Popped strokes stay in the arrays and can be brought back with redoStroke, in the reverse order
+ * they were popped, until a stroke is begun, extended or removed.
+ */
+public class StrokeStore {
+    public static final int FLOATS_PER_POINT = 3;  // X,Y,Z.
+
+    private static final int INITIAL_POINTS = 1024;
+    private static final int INITIAL_STROKES = 64;
+
+    private float[] mPoints = new float[INITIAL_POINTS * FLOATS_PER_POINT];
+    private int mPointCount = 0;
+
+    private int[] mStrokeStarts = new int[INITIAL_STROKES];
+    private int[] mStrokeIds = new int[INITIAL_STROKES];
+    private int mStrokeCount = 0;
+    private int mNextStrokeId = 0;
+
+    // The point count before each popped stroke was removed, the last one is redone first.  The
+    // starts and ids of the popped strokes are still in mStrokeStarts and mStrokeIds
+    private int[] mRedoEnds = new int[INITIAL_STROKES];
+    private int mRedoCount = 0;
+
+    /**
+     * Begins a new, empty stroke.  The following points are appended to it.
+     */
+    public void beginStroke() {
+        mRedoCount = 0;
+        if (mStrokeCount == mStrokeStarts.length) {
+            mStrokeStarts = Arrays.copyOf(mStrokeStarts, mStrokeStarts.length * 2);
+            mStrokeIds = Arrays.copyOf(mStrokeIds, mStrokeStarts.length);
+        }
+        mStrokeIds[mStrokeCount] = mNextStrokeId++;
+        mStrokeStarts[mStrokeCount++] = mPointCount;
+    }
+
+    /**
+     * Appends a point to the last stroke
+     */
+    public void appendPoint(float x, float y, float z) {
+        if (mStrokeCount == 0) {
+            throw new IllegalStateException("appendPoint called before beginStroke");
+        }
+        mRedoCount = 0;
+        int index = mPointCount * FLOATS_PER_POINT;
+        if (index + FLOATS_PER_POINT > mPoints.length) {
+            mPoints = Arrays.copyOf(mPoints, mPoints.length * 2);
+        }
+        mPoints[index] = x;
+        mPoints[index + 1] = y;
+        mPoints[index + 2] = z;
+        mPointCount++;
+    }
+
+    /**
+     * Appends a point to the last stroke
+     * @param point a 3D point in world space, it is copied and not retained
+     */
+    public void appendPoint(Vector3f point) {
+        appendPoint(point.x, point.y, point.z);
+    }
+
+    /**
+     * Begins a new stroke and copies its points from a buffer in a single bulk get
+     * @param points packed x, y, z values, for example a memory mapped DrawingFile payload
+     * @param first the index of the first point of the stroke in points
+     * @param count the number of points in the stroke
+     */
+    public void appendStroke(FloatBuffer points, int first, int count) {
+        beginStroke();
+        int required = (mPointCount + count) * FLOATS_PER_POINT;
+        if (required > mPoints.length) {
+            mPoints = Arrays.copyOf(mPoints, Math.max(required, mPoints.length * 2));
+        }
+        points.position(first * FLOATS_PER_POINT);
+        points.get(mPoints, mPointCount * FLOATS_PER_POINT, count * FLOATS_PER_POINT);
+        mPointCount += count;
+    }
+
+    /**
+     * Removes the last stroke and its points.  They are kept so redoStroke can bring them back.
+     * @return false if there was no stroke to remove
+     */
+    public boolean popStroke() {
+        if (mStrokeCount == 0) {
+            return false;
+        }
+        if (mRedoCount == mRedoEnds.length) {
+            mRedoEnds = Arrays.copyOf(mRedoEnds, mRedoCount * 2);
+        }
+        mRedoEnds[mRedoCount++] = mPointCount;
+        mPointCount = mStrokeStarts[--mStrokeCount];
+        return true;
+    }
+
+    /**
+     * Brings back the stroke popped last, with the same id and points.  This is O(1), the points
+     * never left the arrays.
+     * @return false if there was no popped stroke to bring back, or the strokes changed since
+     */
+    public boolean redoStroke() {
+        if (mRedoCount == 0) {
+            return false;
+        }
+        mStrokeCount++;
+        mPointCount = mRedoEnds[--mRedoCount];
+        return true;
+    }
+
+    /**
+     * @return the number of popped strokes redoStroke can bring back
+     */
+    public int getRedoCount() {
+        return mRedoCount;
+    }
+
+    /**
+     * Removes a stroke from anywhere in the drawing.  The points and strokes after it are moved
+     * down, so this is O(points after the stroke).
+     * @param stroke
+     */
+    public void removeStroke(int stroke) {
+        mRedoCount = 0;
+        int start = mStrokeStarts[stroke];
+        int end = getStrokeEnd(stroke);
+        int removed = end - start;
+
+        System.arraycopy(mPoints, end * FLOATS_PER_POINT, mPoints, start * FLOATS_PER_POINT,
+                (mPointCount - end) * FLOATS_PER_POINT);
+        mPointCount -= removed;
+
+        for (int i = stroke + 1; i < mStrokeCount; i++) {
+            mStrokeStarts[i - 1] = mStrokeStarts[i] - removed;
+            mStrokeIds[i - 1] = mStrokeIds[i];
+        }
+        mStrokeCount--;
+    }
+
+    /**
+     * Replaces the points of a stroke, moving the points of the strokes after it.  This is
+     * O(points after the stroke).  The stroke gets a new id, so whatever was derived from its old
+     * points is known to be stale.  Popped strokes are moved along with the rest and can still be
+     * redone.
+     * @param stroke
+     * @param points packed x, y, z values of the new points
+     * @param count the number of points to copy from points
+     */
+    public void replaceStroke(int stroke, float[] points, int count) {
+        int start = mStrokeStarts[stroke];
+        int end = getStrokeEnd(stroke);
+        int shift = count - (end - start);
+
+        // The points of the popped strokes end where the first one popped did
+        int storedCount = mRedoCount > 0 ? mRedoEnds[0] : mPointCount;
+        int required = (storedCount + shift) * FLOATS_PER_POINT;
+        if (required > mPoints.length) {
+            mPoints = Arrays.copyOf(mPoints, Math.max(required, mPoints.length * 2));
+        }
+        System.arraycopy(mPoints, end * FLOATS_PER_POINT, mPoints, (end + shift) * FLOATS_PER_POINT,
+                (storedCount - end) * FLOATS_PER_POINT);
+        System.arraycopy(points, 0, mPoints, start * FLOATS_PER_POINT, count * FLOATS_PER_POINT);
+        mPointCount += shift;
+
+        for (int i = stroke + 1; i < mStrokeCount + mRedoCount; i++) {
+            mStrokeStarts[i] += shift;
+        }
+        for (int i = 0; i < mRedoCount; i++) {
+            mRedoEnds[i] += shift;
+        }
+        mStrokeIds[stroke] = mNextStrokeId++;
+    }
+
+    /**
+     * Removes every stroke and shrinks the arrays back to their initial size
+     */
+    public void clear() {
+        mStrokeCount = 0;
+        mPointCount = 0;
+        mRedoCount = 0;
+        if (mPoints.length > INITIAL_POINTS * FLOATS_PER_POINT) {
+            mPoints = new float[INITIAL_POINTS * FLOATS_PER_POINT];
+        }
+        if (mStrokeStarts.length > INITIAL_STROKES) {
+            mStrokeStarts = new int[INITIAL_STROKES];
+            mStrokeIds = new int[INITIAL_STROKES];
+        }
+    }
+
+    public int getStrokeCount() {
+        return mStrokeCount;
+    }
+
+    public int getPointCount() {
+        return mPointCount;
+    }
+
+    /**
+     * @param stroke
+     * @return the index of the first point of the stroke
+     */
+    public int getStrokeStart(int stroke) {
+        return mStrokeStarts[stroke];
+    }
+
+    /**
+     * @param stroke
+     * @return the index one past the last point of the stroke
+     */
+    public int getStrokeEnd(int stroke) {
+        return stroke + 1 < mStrokeCount ? mStrokeStarts[stroke + 1] : mPointCount;
+    }
+
+    /**
+     * Ids are never reused, so they identify a stroke across removals that shift its index
+     * @param stroke
+     * @return the id given to the stroke when it was begun, or when its points were replaced
+     */
+    public int getStrokeId(int stroke) {
+        return mStrokeIds[stroke];
+    }
+
+    /**
+     * @return the id the next begun or replaced stroke gets, every id below it was given out
+     */
+    public int getNextStrokeId() {
+        return mNextStrokeId;
+    }
+
+    /**
+     * @param id
+     * @return the index of the stroke with the given id, or -1 if it was removed
+     */
+    public int indexOfStroke(int id) {
+        for (int i = mStrokeCount - 1; i >= 0; i--) {
+            if (mStrokeIds[i] == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param stroke
+     * @return the number of points in the stroke
+     */
+    public int getStrokeSize(int stroke) {
+        return getStrokeEnd(stroke) - mStrokeStarts[stroke];
+    }
+
+    public float getX(int point) {
+        return mPoints[point * FLOATS_PER_POINT];
+    }
+
+    public float getY(int point) {
+        return mPoints[point * FLOATS_PER_POINT + 1];
+    }
+
+    public float getZ(int point) {
+        return mPoints[point * FLOATS_PER_POINT + 2];
+    }
+
+    /**
+     * Copies a point into out
+     * @param point
+     * @param out
+     */
+    public void getPoint(int point, Vector3f out) {
+        int index = point * FLOATS_PER_POINT;
+        out.set(mPoints[index], mPoints[index + 1], mPoints[index + 2]);
+    }
+
+    /**
+     * Direct access to the packed x, y, z values.  Only the first getPointCount() points are valid
+     * and the array is replaced when it grows, so it should not be held on to across appends.
+     * @return
+     */
+    public float[] getPoints() {
+        return mPoints;
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+
+/**
+ * SyntheticSession records a made up drawing session into a SessionTrace, for replaying when no
+ * trace recorded on a device is at hand.  The camera circles the origin at head height while the
+ * touch draws smooth random strokes across a portrait screen, two samples a frame like a 120 Hz
+ * touch screen.  Now and then a stroke is undone and sometimes redone, or erases instead of
+ * drawing.
+ */
+public class SyntheticSession {
+    public static final int TOUCH_CAPACITY = 1024;
+
+    private static final float SCREEN_WIDTH = 1080;
+    private static final float SCREEN_HEIGHT = 1920;
+    private static final float FRAME_NANOS = 1e9f / 60;
+    private static final int SAMPLES_PER_FRAME = 2;
+
+    private static final float CAMERA_RADIUS = 1.0f;
+    private static final float CAMERA_HEIGHT = 1.5f;
+    private static final float CAMERA_SPEED = 0.002f;    // Radians per frame
+
+    private final Random mRandom;
+    private final SessionFrame mFrame = new SessionFrame(TOUCH_CAPACITY);
+    private int mFrameIndex = 0;
+
+    private int mStrokeFrames = 0;      // Frames left in the stroke, or in the pause before it
+    private boolean mDrawing = false;
+    private int mStrokeCount = 0;
+    private float mX;
+    private float mY;
+    private double mHeading;
+
+    /**
+     * @param seed the same seed gives the same session
+     */
+    public SyntheticSession(long seed) {
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * Records a session into a trace file
+     * @param file
+     * @param frames the number of frames, 60 a second
+     * @param seed
+     * @throws IOException
+     */
+    public static void write(File file, int frames, long seed) throws IOException {
+        SyntheticSession session = new SyntheticSession(seed);
+        SessionRecorder recorder = new SessionRecorder(file, 0.1f, 0.5f, TOUCH_CAPACITY);
+        try {
+            for (int i = 0; i < frames; i++) {
+                recorder.write(session.next());
+            }
+        } finally {
+            recorder.close();
+        }
+    }
+
+    /**
+     * @return the next frame, the same object every call
+     */
+    public SessionFrame next() {
+        SessionFrame frame = mFrame;
+        frame.timestamp = (long) (mFrameIndex * FRAME_NANOS);
+        frame.trackingState = SessionFrame.TRACKING;
+        frame.screenWidth = SCREEN_WIDTH;
+        frame.screenHeight = SCREEN_HEIGHT;
+        setPerspective(frame.projection, 60, SCREEN_WIDTH / SCREEN_HEIGHT,
+                AppSettings.getNearClip(), AppSettings.getFarClip());
+
+        double angle = mFrameIndex * CAMERA_SPEED;
+        setLookAt(frame.view, (float) Math.sin(angle) * CAMERA_RADIUS, CAMERA_HEIGHT,
+                (float) Math.cos(angle) * CAMERA_RADIUS, 0, CAMERA_HEIGHT - 0.2f, 0);
+        frame.setPosition(frame.view);
+
+        frame.flags = mStrokeCount % 7 == 6 ? SessionFrame.FLAG_ERASE_MODE : 0;
+        frame.touchCount = 0;
+        if (mStrokeFrames == 0) {
+            if (mDrawing) {
+                addTouch(TouchSampleQueue.ACTION_UP);
+                if (mStrokeCount % 10 == 9) {
+                    frame.flags |= SessionFrame.FLAG_UNDO;
+                }
+                mStrokeCount++;
+                mStrokeFrames = 10 + mRandom.nextInt(30);
+            } else {
+                mX = SCREEN_WIDTH * (0.2f + 0.6f * mRandom.nextFloat());
+                mY = SCREEN_HEIGHT * (0.2f + 0.6f * mRandom.nextFloat());
+                mHeading = mRandom.nextDouble() * Math.PI * 2;
+                addTouch(TouchSampleQueue.ACTION_DOWN);
+                mStrokeFrames = 60 + mRandom.nextInt(180);
+            }
+            mDrawing = !mDrawing;
+        } else if (mDrawing) {
+            for (int s = 0; s < SAMPLES_PER_FRAME; s++) {
+                // A smooth random walk, turned back towards the middle near the edges
+                mHeading += mRandom.nextGaussian() * 0.15;
+                mX += (float) Math.cos(mHeading) * 12;
+                mY += (float) Math.sin(mHeading) * 12;
+                if (mX < 0 || mX > SCREEN_WIDTH || mY < 0 || mY > SCREEN_HEIGHT) {
+                    mHeading = Math.atan2(SCREEN_HEIGHT / 2 - mY, SCREEN_WIDTH / 2 - mX);
+                }
+                addTouch(TouchSampleQueue.ACTION_MOVE);
+            }
+        } else if (mStrokeFrames == 5 && mStrokeCount % 20 == 10) {
+            // Every other undone stroke is brought back before the next one
+            frame.flags |= SessionFrame.FLAG_REDO;
+        }
+        mStrokeFrames--;
+        mFrameIndex++;
+        return frame;
+    }
+
+    private void addTouch(int action) {
+        SessionFrame frame = mFrame;
+        int i = frame.touchCount++;
+        frame.touchActions[i] = action;
+        frame.touchScreen[i * 2] = mX;
+        frame.touchScreen[i * 2 + 1] = mY;
+        frame.touchTimes[i] = (long) (mFrameIndex * FRAME_NANOS / 1e6f);
+    }
+
+    /**
+     * A view matrix like android.opengl.Matrix.setLookAtM, with the y axis up
+     */
+    private static void setLookAt(float[] m, float eyeX, float eyeY, float eyeZ,
+                                  float centerX, float centerY, float centerZ) {
+        float fx = centerX - eyeX;
+        float fy = centerY - eyeY;
+        float fz = centerZ - eyeZ;
+        float length = (float) Math.sqrt(fx * fx + fy * fy + fz * fz);
+        fx /= length;
+        fy /= length;
+        fz /= length;
+
+        // s = f x up, u = s x f
+        float sx = -fz;
+        float sy = 0;
+        float sz = fx;
+        length = (float) Math.sqrt(sx * sx + sz * sz);
+        sx /= length;
+        sz /= length;
+        float ux = sy * fz - sz * fy;
+        float uy = sz * fx - sx * fz;
+        float uz = sx * fy - sy * fx;
+
+        m[0] = sx;
+        m[1] = ux;
+        m[2] = -fx;
+        m[3] = 0;
+        m[4] = sy;
+        m[5] = uy;
+        m[6] = -fy;
+        m[7] = 0;
+        m[8] = sz;
+        m[9] = uz;
+        m[10] = -fz;
+        m[11] = 0;
+        m[12] = -(sx * eyeX + sy * eyeY + sz * eyeZ);
+        m[13] = -(ux * eyeX + uy * eyeY + uz * eyeZ);
+        m[14] = fx * eyeX + fy * eyeY + fz * eyeZ;
+        m[15] = 1;
+    }
+
+    /**
+     * A projection matrix like android.opengl.Matrix.perspectiveM
+     */
+    private static void setPerspective(float[] m, float fovY, float aspect, float near, float far) {
+        float f = 1f / (float) Math.tan(Math.toRadians(fovY) / 2);
+        float depth = 1f / (near - far);
+        for (int i = 0; i < 16; i++) {
+            m[i] = 0;
+        }
+        m[0] = f / aspect;
+        m[5] = f;
+        m[10] = (far + near) * depth;
+        m[11] = -1;
+        m[14] = 2 * far * near * depth;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar;
+
+import java.util.Random;
+
+
+/**
+ * SyntheticStrokes generates drawings for the benchmarks and tests.  Strokes are smooth random
+ * walks with the point spacing of AppSettings.getMinDistance(), started at random places in a
+ * room sized volume, so they look like hand drawn strokes to the filters and the geometry.
+ */
+public class SyntheticStrokes {
+    public static final int POINTS_PER_STROKE = 500;
+
+    // The strokes start within a box this many meters wide, centered above the origin
+    private static final float ROOM_SIZE = 3f;
+
+    private final Random mRandom;
+    private double mHeading;
+    private double mPitch;
+    private float mX;
+    private float mY;
+    private float mZ;
+
+    /**
+     * @param seed the same seed gives the same strokes
+     */
+    public SyntheticStrokes(long seed) {
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * @param points the number of points
+     * @param seed
+     * @return a StrokeStore with strokes of POINTS_PER_STROKE points, the last one may be shorter
+     */
+    public static StrokeStore generate(int points, long seed) {
+        SyntheticStrokes generator = new SyntheticStrokes(seed);
+        StrokeStore strokes = new StrokeStore();
+        while (strokes.getPointCount() < points) {
+            generator.appendStroke(strokes, Math.min(POINTS_PER_STROKE, points - strokes.getPointCount()));
+        }
+        return strokes;
+    }
+
+    /**
+     * Begins a new stroke somewhere in the room and appends its points
+     * @param strokes
+     * @param count the number of points
+     */
+    public void appendStroke(StrokeStore strokes, int count) {
+        beginStroke();
+        strokes.beginStroke();
+        for (int i = 0; i < count; i++) {
+            next();
+            strokes.appendPoint(mX, mY, mZ);
+        }
+    }
+
+    /**
+     * Generates a stroke into an array
+     * @param out receives count packed x, y, z points
+     * @param count
+     */
+    public void generateStroke(float[] out, int count) {
+        beginStroke();
+        for (int i = 0; i < count; i++) {
+            next();
+            out[i * 3] = mX;
+            out[i * 3 + 1] = mY;
+            out[i * 3 + 2] = mZ;
+        }
+    }
+
+    /**
+     * Generates touch positions on a screen, as continuous swipes
+     * @param out receives count packed x, y screen positions in pixels
+     * @param count
+     * @param width the screen size in pixels
+     * @param height
+     */
+    public void generateTouches(float[] out, int count, float width, float height) {
+        float x = width / 2, y = height / 2;
+        for (int i = 0; i < count; i++) {
+            mHeading += mRandom.nextGaussian() * 0.1;
+            x = Math.max(0, Math.min(width, x + (float) Math.cos(mHeading) * 4f));
+            y = Math.max(0, Math.min(height, y + (float) Math.sin(mHeading) * 4f));
+            out[i * 2] = x;
+            out[i * 2 + 1] = y;
+        }
+    }
+
+    private void beginStroke() {
+        mX = (mRandom.nextFloat() - 0.5f) * ROOM_SIZE;
+        mY = mRandom.nextFloat() * ROOM_SIZE * 0.5f;
+        mZ = (mRandom.nextFloat() - 0.5f) * ROOM_SIZE;
+        mHeading = mRandom.nextDouble() * Math.PI * 2;
+        mPitch = 0;
+    }
+
+    private void next() {
+        float spacing = AppSettings.getMinDistance();
+        mHeading += mRandom.nextGaussian() * 0.08;
+        mPitch = Math.max(-1.2, Math.min(1.2, mPitch + mRandom.nextGaussian() * 0.05));
+        mX += (float) (spacing * Math.cos(mHeading) * Math.cos(mPitch));
+        mY += (float) (spacing * Math.sin(mPitch));
+        mZ += (float) (spacing * Math.sin(mHeading) * Math.cos(mPitch));
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * TouchSampleQueue is a lock-free single producer, single consumer ring buffer of touch samples.
+ * The UI thread offers every sample of a MotionEvent, including its historical samples, and the GL
+ * thread polls them all once per frame.  The samples are stored in primitive arrays, so neither
+ * side allocates.
+ *
+ * When the consumer falls behind, the stroke state it sees stays consistent.  Move samples are
+ * dropped once fewer than RESERVED_SLOTS are free, which only loses detail of a stroke, so the
+ * reserved slots are left for down and up samples and the up of a touch always fits once its down
+ * did.  Only when not even the down of a touch fits is the whole touch, up to its up, dropped.
+ * Dropped samples are counted.
+ */
+public class TouchSampleQueue {
+    public static final int ACTION_DOWN = 0;
+    public static final int ACTION_MOVE = 1;
+    public static final int ACTION_UP = 2;
+
+    // Free slots move samples leave for the down and up samples of this many taps
+    static final int RESERVED_SLOTS = 16;
+
+    private final int mMask;
+    private final int[] mAction;
+    private final float[] mX;
+    private final float[] mY;
+    private final long[] mEventTime;
+    private final int[] mPointerId;
+
+    // mHead is only written by the consumer and mTail only by the producer.  Writing them with
+    // lazySet publishes the sample arrays written before them to the other thread
+    private final AtomicInteger mHead = new AtomicInteger();
+    private final AtomicInteger mTail = new AtomicInteger();
+    private final AtomicInteger mDropped = new AtomicInteger();
+
+    // Producer state, set from a down that did not fit until the up of its touch
+    private boolean mSkippingTouch = false;
+
+    /**
+     * @param capacity the number of samples the queue holds, rounded up to a power of two, more
+     *                 than RESERVED_SLOTS
+     */
+    public TouchSampleQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        if (size <= RESERVED_SLOTS) {
+            throw new IllegalArgumentException("Capacity " + capacity + " leaves no room for moves");
+        }
+        mMask = size - 1;
+        mAction = new int[size];
+        mX = new float[size];
+        mY = new float[size];
+        mEventTime = new long[size];
+        mPointerId = new int[size];
+    }
+
+    /**
+     * Appends a sample, or drops it as described above.  Must only be called from the producer
+     * thread.
+     * @param action ACTION_DOWN, ACTION_MOVE or ACTION_UP
+     * @param x screen position in pixels
+     * @param y
+     * @param eventTime the time of the sample in the uptimeMillis time base
+     * @param pointerId
+     * @return false if the sample was dropped
+     */
+    public boolean offer(int action, float x, float y, long eventTime, int pointerId) {
+        int tail = mTail.get();
+        int free = mMask + 1 - (tail - mHead.get());
+        boolean fits;
+        if (action == ACTION_DOWN) {
+            // Room for the down and its up
+            fits = free >= 2;
+            mSkippingTouch = !fits;
+        } else if (mSkippingTouch) {
+            fits = false;
+            mSkippingTouch = action != ACTION_UP;
+        } else if (action == ACTION_UP) {
+            // Moves always leave a slot for it
+            fits = free >= 1;
+        } else {
+            fits = free > RESERVED_SLOTS;
+        }
+        if (!fits) {
+            mDropped.incrementAndGet();
+            return false;
+        }
+        int i = tail & mMask;
+        mAction[i] = action;
+        mX[i] = x;
+        mY[i] = y;
+        mEventTime[i] = eventTime;
+        mPointerId[i] = pointerId;
+        mTail.lazySet(tail + 1);
+        return true;
+    }
+
+    /**
+     * Removes the oldest sample.  Must only be called from the consumer thread.
+     * @param out receives the sample
+     * @return false if the queue was empty
+     */
+    public boolean poll(Sample out) {
+        int head = mHead.get();
+        if (head == mTail.get()) {
+            return false;
+        }
+        int i = head & mMask;
+        out.action = mAction[i];
+        out.x = mX[i];
+        out.y = mY[i];
+        out.eventTime = mEventTime[i];
+        out.pointerId = mPointerId[i];
+        mHead.lazySet(head + 1);
+        return true;
+    }
+
+    /**
+     * @return the number of samples dropped because the queue was full, may be called from any
+     * thread
+     */
+    public int getDroppedCount() {
+        return mDropped.get();
+    }
+
+    /**
+     * A single touch sample, reused by the consumer for every poll
+     */
+    public static class Sample {
+        public int action;
+        public float x;
+        public float y;
+        public long eventTime;
+        public int pointerId;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar.rendering;
+
+
+/**
+ * CapacityManager decides the element capacity of a growable buffer.  The capacity doubles when it
+ * is exceeded so appending n elements only reallocates O(log n) times, and it halves again once
+ * the content fits in a quarter of it, so a cleared drawing gives its memory back without
+ * thrashing when the size hovers around a boundary.
+ */
+public class CapacityManager {
+    private final int mMinCapacity;
+    private int mCapacity;
+
+    /**
+     * @param minCapacity the capacity the buffer starts with and never shrinks below
+     */
+    public CapacityManager(int minCapacity) {
+        mMinCapacity = minCapacity;
+        mCapacity = minCapacity;
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Grows the capacity geometrically until it holds required elements
+     * @param required
+     * @return true if the capacity changed
+     */
+    public boolean ensureCapacity(int required) {
+        if (required <= mCapacity) {
+            return false;
+        }
+        int capacity = mCapacity;
+        while (capacity < required) {
+            capacity *= 2;
+        }
+        mCapacity = capacity;
+        return true;
+    }
+
+    /**
+     * Halves the capacity while required elements fit in a quarter of it
+     * @param required
+     * @return true if the capacity changed
+     */
+    public boolean trimToSize(int required) {
+        int capacity = mCapacity;
+        while (capacity / 2 >= mMinCapacity && required <= capacity / 4) {
+            capacity /= 2;
+        }
+        if (capacity == mCapacity) {
+            return false;
+        }
+        mCapacity = capacity;
+        return true;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar.rendering;
+
+
+/**
+ * FrustumCuller tests world space bounding boxes against the view frustum.  The six planes are
+ * extracted from a column major view projection matrix (Gribb and Hartmann), so it only needs
+ * plain float math and no GL context.
+ */
+public class FrustumCuller {
+    private final float[] mPlanes = new float[6 * 4];
+
+    /**
+     * Extracts and normalizes the frustum planes
+     * @param viewProjection a column major projection * view matrix, as used by android.opengl.Matrix
+     */
+    public void setViewProjection(float[] viewProjection) {
+        float[] m = viewProjection;
+        for (int i = 0; i < 3; i++) {
+            for (int sign = 0; sign < 2; sign++) {
+                int p = (i * 2 + sign) * 4;
+                float s = sign == 0 ? 1f : -1f;
+                // row 3 +/- row i
+                mPlanes[p] = m[3] + s * m[i];
+                mPlanes[p + 1] = m[7] + s * m[4 + i];
+                mPlanes[p + 2] = m[11] + s * m[8 + i];
+                mPlanes[p + 3] = m[15] + s * m[12 + i];
+
+                float length = (float) Math.sqrt(mPlanes[p] * mPlanes[p]
+                        + mPlanes[p + 1] * mPlanes[p + 1] + mPlanes[p + 2] * mPlanes[p + 2]);
+                if (length > 0) {
+                    mPlanes[p] /= length;
+                    mPlanes[p + 1] /= length;
+                    mPlanes[p + 2] /= length;
+                    mPlanes[p + 3] /= length;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param bounds minX, minY, minZ, maxX, maxY, maxZ starting at offset
+     * @param offset
+     * @param margin distance the box is grown by in every direction before testing
+     * @return false if the box is completely outside of at least one frustum plane
+     */
+    public boolean isVisible(float[] bounds, int offset, float margin) {
+        float minX = bounds[offset], minY = bounds[offset + 1], minZ = bounds[offset + 2];
+        float maxX = bounds[offset + 3], maxY = bounds[offset + 4], maxZ = bounds[offset + 5];
+        if (minX > maxX) {
+            // Empty box
+            return false;
+        }
+        for (int p = 0; p < mPlanes.length; p += 4) {
+            float a = mPlanes[p], b = mPlanes[p + 1], c = mPlanes[p + 2], d = mPlanes[p + 3];
+            // The corner of the box furthest along the plane normal
+            float x = a >= 0 ? maxX : minX;
+            float y = b >= 0 ? maxY : minY;
+            float z = c >= 0 ? maxZ : minZ;
+            if (a * x + b * y + c * z + d < -margin) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,386 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar.rendering;
+
+import com.googlecreativelab.drawar.StrokeStore;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+
+/**
+ * GeometryWorker builds the LineGeometry of the strokes on its own thread, so the GL thread only
+ * has to upload what is ready.
+ *
+ * The GL thread submits the changes to its StrokeStore since the last submit, which the worker
+ * applies to a copy of the strokes it owns.  Changes are collected in one of two reused deltas
+ * under a short lock and the worker swaps them, so a steady stream of submits does not
+ * allocate.  The geometry is triple buffered: the GL thread
+ * uploads and draws the front geometry, the worker writes into the back geometry, and finished
+ * geometry is published by swapping it with the middle one in a single atomic operation, so
+ * neither thread ever waits for the other.  Each geometry catches up with every change since it
+ * was last built, and keeps track of what changed since it was last uploaded.
+ *
+ * Undo and redo are sent as the number of strokes to pop from the worker's copy and the number of
+ * popped strokes to bring back, so neither resends any points, and the geometry brings back the
+ * vertices it still has of a redone stroke instead of generating them again.
+ */
+public class GeometryWorker {
+    private static final String TAG = GeometryWorker.class.getSimpleName();
+
+    // Set in mMiddle when the middle geometry was published and not taken by the GL thread yet
+    private static final int FRESH = 4;
+    private static final int INDEX_MASK = 3;
+
+    private final LineGeometry[] mGeometry = new LineGeometry[3];
+    private final AtomicInteger mMiddle = new AtomicInteger(1);
+    private int mFront = 0;     // Only used by the GL thread
+    private int mBack = 2;      // Only used by the worker thread
+
+    // The changes submitted and not taken by the worker yet, guarded by mDeltaLock.  The worker
+    // swaps mPending with mApplying and applies it outside of the lock
+    private final Object mDeltaLock = new Object();
+    private StrokeDelta mPending = new StrokeDelta();
+    private StrokeDelta mApplying = new StrokeDelta();
+    private volatile boolean bRunning = false;
+    private Thread mThread;
+
+    // Worker thread state.  The worker's copy of the strokes, and the generation of the strokes
+    // each geometry was built from, which changes whenever the strokes are reset
+    private final StrokeStore mStrokes = new StrokeStore();
+    private final int[] mBuiltGeneration = new int[3];
+    private int mGeneration = 0;
+    private int mIndexSize = LineGeometry.BYTES_PER_SHORT;
+    private boolean mQuantized = false;
+
+    // GL thread state.  How much of the GL thread's StrokeStore has been submitted, and the ids
+    // and starts of the submitted strokes including the ones popped from the worker's copy that
+    // it can still redo
+    private int mSubmittedStrokes = 0;
+    private int mSubmittedPoints = 0;
+    private int mSubmittedNextId = 0;
+    private int[] mSubmittedIds = new int[64];
+    private int[] mSubmittedStarts = new int[64];
+    private int mResidentStrokes = 0;
+    private int mResidentPoints = 0;
+
+    public GeometryWorker() {
+        for (int i = 0; i < mGeometry.length; i++) {
+            mGeometry[i] = new LineGeometry(mIndexSize);
+            mBuiltGeneration[i] = -1;
+        }
+    }
+
+    /**
+     * Starts the worker thread
+     */
+    public synchronized void start() {
+        if (bRunning) {
+            return;
+        }
+        bRunning = true;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runWorker();
+            }
+        }, TAG);
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Stops the worker thread and waits for it to finish the geometry it is building
+     */
+    public synchronized void stop() {
+        if (!bRunning) {
+            return;
+        }
+        bRunning = false;
+        LockSupport.unpark(mThread);
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mThread = null;
+    }
+
+    /**
+     * Sends the changes to the strokes since the last submit to the worker.  Must be called on the
+     * GL thread, it only copies the points that were added.  Strokes popped from the end are
+     * popped from the worker's copy too, and strokes brought back with StrokeStore.redoStroke are
+     * brought back there without copying them again.  A stroke replaced with
+     * StrokeStore.replaceStroke is sent again along with the strokes after it.  Changes the worker has not taken yet are
+     * merged with the new ones.
+     * @param strokes
+     * @param indexSize the size of the indices, LineGeometry.BYTES_PER_SHORT or BYTES_PER_INT
+     * @param quantized quantize the positions, see LineGeometry.setQuantized
+     * @param reset send all of the strokes again, because strokes were removed
+     */
+    public void submit(StrokeStore strokes, int indexSize, boolean quantized, boolean reset) {
+        int strokeCount = strokes.getStrokeCount();
+        int pointCount = strokes.getPointCount();
+
+        // The submitted strokes that are still there, then the popped ones that were brought back.
+        // Popping and redoing only changes the strokes at the end, but a replaced stroke gets a
+        // new id anywhere, so the strokes are only searched from the start when ids were given out
+        int kept = Math.min(strokeCount, mSubmittedStrokes);
+        while (kept > 0 && strokes.getStrokeId(kept - 1) != mSubmittedIds[kept - 1]) {
+            kept--;
+        }
+        if (strokes.getNextStrokeId() != mSubmittedNextId) {
+            for (int i = 0; i < kept; i++) {
+                if (strokes.getStrokeId(i) != mSubmittedIds[i]) {
+                    kept = i;
+                    break;
+                }
+            }
+        }
+        int redone = kept;
+        if (kept == mSubmittedStrokes) {
+            while (redone < strokeCount && redone < mResidentStrokes
+                    && strokes.getStrokeId(redone) == mSubmittedIds[redone]
+                    && strokes.getStrokeSize(redone)
+                            >= getResidentEnd(redone) - mSubmittedStarts[redone]) {
+                redone++;
+            }
+        }
+
+        synchronized (mDeltaLock) {
+            StrokeDelta delta = mPending;
+            if (!delta.changed) {
+                delta.keepStrokes = mSubmittedStrokes;
+                delta.redoStrokes = 0;
+            }
+            // A pop or redo can not be applied after points that were added before it in the same
+            // delta, so that sends everything again
+            boolean moved = kept < mSubmittedStrokes || redone > kept;
+            if (moved && (delta.reset || delta.numPoints > 0 || delta.numStrokeStarts > 0)) {
+                reset = true;
+            }
+            if (reset) {
+                delta.clear();
+                delta.reset = true;
+                kept = 0;
+                redone = 0;
+                mResidentStrokes = 0;
+            } else if (kept < mSubmittedStrokes) {
+                if (kept <= delta.keepStrokes) {
+                    delta.keepStrokes = kept;
+                    delta.redoStrokes = 0;
+                } else {
+                    delta.redoStrokes = kept - delta.keepStrokes;
+                }
+            } else {
+                delta.redoStrokes += redone - kept;
+            }
+
+            // The number of points in the worker's copy once it popped and redid the strokes
+            int firstPoint;
+            if (reset) {
+                firstPoint = 0;
+            } else if (kept < mSubmittedStrokes) {
+                firstPoint = mSubmittedStarts[kept];
+            } else if (redone > kept) {
+                firstPoint = getResidentEnd(redone - 1);
+            } else {
+                firstPoint = mSubmittedPoints;
+            }
+
+            if (delta.numPoints == 0) {
+                delta.firstPoint = firstPoint;
+            }
+            delta.changed = true;
+            delta.indexSize = indexSize;
+            delta.quantized = quantized;
+            delta.addPoints(strokes.getPoints(), firstPoint, pointCount - firstPoint);
+            for (int i = redone; i < strokeCount; i++) {
+                delta.addStrokeStart(strokes.getStrokeStart(i));
+            }
+
+            // Anything added replaces the strokes the worker could still redo
+            if (redone < strokeCount || pointCount > firstPoint) {
+                if (strokeCount > mSubmittedIds.length) {
+                    mSubmittedIds = Arrays.copyOf(mSubmittedIds,
+                            Math.max(strokeCount, mSubmittedIds.length * 2));
+                    mSubmittedStarts = Arrays.copyOf(mSubmittedStarts, mSubmittedIds.length);
+                }
+                for (int i = redone; i < strokeCount; i++) {
+                    mSubmittedIds[i] = strokes.getStrokeId(i);
+                    mSubmittedStarts[i] = strokes.getStrokeStart(i);
+                }
+                mResidentStrokes = strokeCount;
+                mResidentPoints = pointCount;
+            }
+        }
+        mSubmittedStrokes = strokeCount;
+        mSubmittedPoints = pointCount;
+        mSubmittedNextId = strokes.getNextStrokeId();
+
+        if (mThread != null) {
+            LockSupport.unpark(mThread);
+        }
+    }
+
+    /**
+     * @param stroke a submitted stroke, or one the worker can redo
+     * @return the number of points in the worker's copy up to the end of the stroke
+     */
+    private int getResidentEnd(int stroke) {
+        return stroke + 1 < mResidentStrokes ? mSubmittedStarts[stroke + 1] : mResidentPoints;
+    }
+
+    /**
+     * Takes the most recently published geometry.  Must be called on the GL thread, the returned
+     * geometry stays untouched by the worker until the next call that returns a new one.
+     * @return the new front geometry, or null if nothing was published since the last call
+     */
+    public LineGeometry acquire() {
+        if ((mMiddle.get() & FRESH) == 0) {
+            return null;
+        }
+        mFront = mMiddle.getAndSet(mFront) & INDEX_MASK;
+        return mGeometry[mFront];
+    }
+
+    /**
+     * @return the geometry last returned by acquire, for the GL thread to draw
+     */
+    public LineGeometry getFront() {
+        return mGeometry[mFront];
+    }
+
+    /**
+     * Applies every queued change and builds the back geometry.  Called by the worker thread, or
+     * directly when no worker thread was started.
+     * @return false if there was nothing to build
+     */
+    public boolean build() {
+        StrokeDelta delta;
+        synchronized (mDeltaLock) {
+            if (!mPending.changed) {
+                return false;
+            }
+            delta = mPending;
+            mPending = mApplying;
+            mApplying = delta;
+        }
+        apply(delta);
+        delta.clear();
+
+        LineGeometry geometry = mGeometry[mBack];
+        if (geometry.getIndexSize() != mIndexSize) {
+            geometry.setIndexSize(mIndexSize);
+        }
+        if (geometry.isQuantized() != mQuantized) {
+            geometry.setQuantized(mQuantized);
+        }
+        geometry.update(mStrokes, mBuiltGeneration[mBack] != mGeneration);
+        mBuiltGeneration[mBack] = mGeneration;
+
+        mBack = mMiddle.getAndSet(mBack | FRESH) & INDEX_MASK;
+        return true;
+    }
+
+    private void runWorker() {
+        while (bRunning) {
+            if (!build()) {
+                LockSupport.park(this);
+            }
+        }
+    }
+
+    private void apply(StrokeDelta delta) {
+        if (delta.reset) {
+            mStrokes.clear();
+            mGeneration++;
+        } else {
+            while (mStrokes.getStrokeCount() > delta.keepStrokes) {
+                mStrokes.popStroke();
+            }
+            for (int i = 0; i < delta.redoStrokes; i++) {
+                mStrokes.redoStroke();
+            }
+        }
+        if (delta.indexSize != mIndexSize || delta.quantized != mQuantized) {
+            mIndexSize = delta.indexSize;
+            mQuantized = delta.quantized;
+            mGeneration++;
+        }
+
+        int[] starts = delta.strokeStarts;
+        int numStarts = delta.numStrokeStarts;
+        int nextStart = 0;
+        for (int i = 0; i < delta.numPoints; i++) {
+            int point = delta.firstPoint + i;
+            while (nextStart < numStarts && starts[nextStart] == point) {
+                mStrokes.beginStroke();
+                nextStart++;
+            }
+            int p = i * StrokeStore.FLOATS_PER_POINT;
+            mStrokes.appendPoint(delta.points[p], delta.points[p + 1], delta.points[p + 2]);
+        }
+        while (nextStart < numStarts) {
+            mStrokes.beginStroke();
+            nextStart++;
+        }
+    }
+
+    /**
+     * The points and strokes added to the GL thread's StrokeStore since the worker last took the
+     * changes, after popping the worker's copy down to keepStrokes and redoing redoStrokes of the
+     * popped ones.  Its arrays only grow, so it is reused without allocating.
+     */
+    private static class StrokeDelta {
+        boolean changed;
+        boolean reset;
+        int keepStrokes;
+        int redoStrokes;
+        int indexSize;
+        boolean quantized;
+        int firstPoint;
+        float[] points = new float[256 * StrokeStore.FLOATS_PER_POINT];
+        int numPoints;
+        int[] strokeStarts = new int[16];
+        int numStrokeStarts;
+
+        void addPoints(float[] source, int first, int count) {
+            int required = (numPoints + count) * StrokeStore.FLOATS_PER_POINT;
+            if (required > points.length) {
+                points = Arrays.copyOf(points, Math.max(required, points.length * 2));
+            }
+            System.arraycopy(source, first * StrokeStore.FLOATS_PER_POINT, points,
+                    numPoints * StrokeStore.FLOATS_PER_POINT, count * StrokeStore.FLOATS_PER_POINT);
+            numPoints += count;
+        }
+
+        void addStrokeStart(int start) {
+            if (numStrokeStarts == strokeStarts.length) {
+                strokeStarts = Arrays.copyOf(strokeStarts, strokeStarts.length * 2);
+            }
+            strokeStarts[numStrokeStarts++] = start;
+        }
+
+        void clear() {
+            changed = false;
+            reset = false;
+            numPoints = 0;
+            numStrokeStarts = 0;
+        }
+    }
+}
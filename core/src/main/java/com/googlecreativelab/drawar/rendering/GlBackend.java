@@ -0,0 +1,116 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar.rendering;
+
+import java.nio.Buffer;
+
+
+/**
+ * GlBackend is the subset of OpenGL ES 2.0 the renderers use.  The renderers make every GL call
+ * through it instead of the GLES20 statics, so the app passes the GLES20 implementation while
+ * a RecordingGlBackend can stand in on a plain JVM to count what a frame uploads and draws.
+ * The methods have the names and arguments of their GLES20 counterparts.
+ */
+public interface GlBackend {
+    // The values of the GLES20 constants the pipeline code in this module needs
+    int GL_NO_ERROR = 0;
+    int GL_ARRAY_BUFFER = 0x8892;
+    int GL_ELEMENT_ARRAY_BUFFER = 0x8893;
+    int GL_DYNAMIC_DRAW = 0x88E8;
+
+    void glGenBuffers(int n, int[] buffers, int offset);
+
+    void glBindBuffer(int target, int buffer);
+
+    void glBufferData(int target, int size, Buffer data, int usage);
+
+    void glBufferSubData(int target, int offset, int size, Buffer data);
+
+    void glGenTextures(int n, int[] textures, int offset);
+
+    void glBindTexture(int target, int texture);
+
+    void glTexParameteri(int target, int pname, int param);
+
+    int glCreateShader(int type);
+
+    void glShaderSource(int shader, String string);
+
+    void glCompileShader(int shader);
+
+    void glGetShaderiv(int shader, int pname, int[] params, int offset);
+
+    String glGetShaderInfoLog(int shader);
+
+    void glDeleteShader(int shader);
+
+    int glCreateProgram();
+
+    void glAttachShader(int program, int shader);
+
+    void glLinkProgram(int program);
+
+    void glUseProgram(int program);
+
+    int glGetAttribLocation(int program, String name);
+
+    int glGetUniformLocation(int program, String name);
+
+    void glUniform1f(int location, float x);
+
+    void glUniform2f(int location, float x, float y);
+
+    void glUniform3f(int location, float x, float y, float z);
+
+    void glUniform4fv(int location, int count, float[] v, int offset);
+
+    void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset);
+
+    void glEnableVertexAttribArray(int index);
+
+    void glDisableVertexAttribArray(int index);
+
+    /**
+     * Points an attribute at the bound GL_ARRAY_BUFFER
+     * @param offset in bytes from the start of the buffer
+     */
+    void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride,
+                               int offset);
+
+    /**
+     * Points an attribute at a client side array
+     */
+    void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride,
+                               Buffer pointer);
+
+    void glDrawArrays(int mode, int first, int count);
+
+    /**
+     * Draws from the bound GL_ELEMENT_ARRAY_BUFFER
+     * @param offset in bytes from the start of the buffer
+     */
+    void glDrawElements(int mode, int count, int type, int offset);
+
+    void glEnable(int cap);
+
+    void glDisable(int cap);
+
+    void glDepthMask(boolean flag);
+
+    String glGetString(int name);
+
+    int glGetError();
+}
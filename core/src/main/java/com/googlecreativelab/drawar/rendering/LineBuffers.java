@@ -0,0 +1,210 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar.rendering;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+
+
+/**
+ * LineBuffers holds the GL buffers a LineGeometry is drawn from: the vertex buffer, the index
+ * buffer and an index buffer per coarser level of detail.  Uploading a geometry only streams what
+ * changed since it was last uploaded with glBufferSubData, the storage of a buffer is only
+ * reallocated with glBufferData when its staging buffer outgrew it, or shrank and was written again
+ * from the start, in which case all of its contents are uploaded again.
+ *
+ * The buffers are shared by the triple buffered geometries, which keep the strokes that were undone
+ * in their staging buffers and skip uploading them again when they are redone.  A geometry that
+ * was not uploaded since the last reallocation uploads all of its contents, as what it uploaded
+ * before is gone, and strokes it had undone until then are uploaded again when redone.  A staging
+ * buffer that shrank without being written again from the start keeps using the larger storage, so
+ * geometries of different sizes do not take turns reallocating.
+ */
+public class LineBuffers {
+    private final GlBackend mGl;
+
+    private int mVbo = 0;
+    private int mVboCapacity = 0;     // In bytes, the stride changes with the layout
+    private int mIbo = 0;
+    private int mIboCapacity = 0;
+    private final int[] mLodIbo;
+    private final int[] mLodIboCapacity;
+    private long mUploadedBytes = 0;
+
+    // The geometries uploaded since the storage of a buffer was last reallocated
+    private final ArrayList<LineGeometry> mCurrent = new ArrayList<>();
+
+    /**
+     * @param gl
+     * @param numLevels the number of coarser levels of detail, see LineLods
+     */
+    public LineBuffers(GlBackend gl, int numLevels) {
+        mGl = gl;
+        mLodIbo = new int[numLevels];
+        mLodIboCapacity = new int[numLevels];
+    }
+
+    /**
+     * Generates the buffers with empty storage.  Must be called on the GL thread, and again when
+     * the GL context was recreated.
+     */
+    public void create() {
+        int buffers[] = new int[2 + mLodIbo.length];
+        mGl.glGenBuffers(buffers.length, buffers, 0);
+        mVbo = buffers[0];
+        mIbo = buffers[1];
+        for (int l = 0; l < mLodIbo.length; l++) {
+            mLodIbo[l] = buffers[2 + l];
+            mLodIboCapacity[l] = -1;
+        }
+        mGl.glBindBuffer(GlBackend.GL_ARRAY_BUFFER, mVbo);
+        mVboCapacity = 0;
+        mGl.glBufferData(GlBackend.GL_ARRAY_BUFFER, 0, null, GlBackend.GL_DYNAMIC_DRAW);
+        mGl.glBindBuffer(GlBackend.GL_ARRAY_BUFFER, 0);
+        mGl.glBindBuffer(GlBackend.GL_ELEMENT_ARRAY_BUFFER, mIbo);
+        mIboCapacity = 0;
+        mGl.glBufferData(GlBackend.GL_ELEMENT_ARRAY_BUFFER, 0, null, GlBackend.GL_DYNAMIC_DRAW);
+        mGl.glBindBuffer(GlBackend.GL_ELEMENT_ARRAY_BUFFER, 0);
+        mCurrent.clear();
+    }
+
+    /**
+     * Uploads what changed in the geometry since it was last uploaded, and marks it uploaded.
+     * @param geometry
+     * @return true if the vertex buffer storage was reallocated
+     */
+    public boolean upload(LineGeometry geometry) {
+        VertexLayout layout = geometry.getLayout();
+        int stride = layout.getStride();
+        int indexSize = geometry.getIndexSize();
+        LineLods lods = geometry.getLods();
+        mUploadedBytes = 0;
+
+        // Any reallocation uploads everything up to the current counts, so the buffers never hold
+        // undone strokes of this geometry on top of what another geometry uploaded later
+        boolean reallocated = needsRealloc(mVboCapacity, geometry.getVertexCapacity() * stride,
+                geometry.getDirtyStart());
+        boolean indicesReallocated = needsRealloc(mIboCapacity,
+                geometry.getIndexCapacity() * indexSize, geometry.getIndexDirtyStart());
+        boolean anyReallocated = reallocated || indicesReallocated;
+        for (int l = 0; l < mLodIbo.length; l++) {
+            anyReallocated |= needsRealloc(mLodIboCapacity[l], lods.getCapacity(l) * indexSize,
+                    lods.getDirtyStart(l));
+        }
+        boolean all = anyReallocated || !mCurrent.contains(geometry);
+
+        mGl.glBindBuffer(GlBackend.GL_ARRAY_BUFFER, mVbo);
+        if (reallocated) {
+            mVboCapacity = geometry.getVertexCapacity() * stride;
+            mGl.glBufferData(GlBackend.GL_ARRAY_BUFFER, mVboCapacity, null,
+                    GlBackend.GL_DYNAMIC_DRAW);
+        }
+        int dirtyStart = all ? 0 : geometry.getDirtyStart();
+        int count = geometry.getNumVertices() - dirtyStart;
+        if (count > 0) {
+            FloatBuffer vertices = geometry.getVertices();
+            vertices.position(dirtyStart * layout.getFloatsPerVertex());
+            mGl.glBufferSubData(GlBackend.GL_ARRAY_BUFFER, dirtyStart * stride, count * stride,
+                    vertices);
+            mUploadedBytes += count * stride;
+            vertices.position(0);
+        }
+        mGl.glBindBuffer(GlBackend.GL_ARRAY_BUFFER, 0);
+
+        mGl.glBindBuffer(GlBackend.GL_ELEMENT_ARRAY_BUFFER, mIbo);
+        if (indicesReallocated) {
+            mIboCapacity = geometry.getIndexCapacity() * indexSize;
+            mGl.glBufferData(GlBackend.GL_ELEMENT_ARRAY_BUFFER, mIboCapacity, null,
+                    GlBackend.GL_DYNAMIC_DRAW);
+        }
+        uploadIndices(geometry.getIndices(), indexSize,
+                all ? 0 : geometry.getIndexDirtyStart(), geometry.getNumIndices());
+
+        for (int l = 0; l < mLodIbo.length; l++) {
+            mGl.glBindBuffer(GlBackend.GL_ELEMENT_ARRAY_BUFFER, mLodIbo[l]);
+            if (needsRealloc(mLodIboCapacity[l], lods.getCapacity(l) * indexSize,
+                    lods.getDirtyStart(l))) {
+                mLodIboCapacity[l] = lods.getCapacity(l) * indexSize;
+                mGl.glBufferData(GlBackend.GL_ELEMENT_ARRAY_BUFFER, mLodIboCapacity[l], null,
+                        GlBackend.GL_DYNAMIC_DRAW);
+            }
+            uploadIndices(lods.getIndices(l), indexSize, all ? 0 : lods.getDirtyStart(l),
+                    lods.getNumIndices(l));
+        }
+        mGl.glBindBuffer(GlBackend.GL_ELEMENT_ARRAY_BUFFER, 0);
+
+        geometry.markUploaded(all);
+        if (anyReallocated) {
+            mCurrent.clear();
+        }
+        if (all) {
+            mCurrent.add(geometry);
+        }
+        return reallocated;
+    }
+
+    /**
+     * Streams a range of indices into the bound element array buffer
+     * @param indices
+     * @param indexSize
+     * @param start the first index to upload
+     * @param end one past the last index to upload
+     */
+    private void uploadIndices(ByteBuffer indices, int indexSize, int start, int end) {
+        int count = end - start;
+        if (count > 0) {
+            indices.position(start * indexSize);
+            mGl.glBufferSubData(GlBackend.GL_ELEMENT_ARRAY_BUFFER, start * indexSize,
+                    count * indexSize, indices);
+            mUploadedBytes += count * indexSize;
+            indices.position(0);
+        }
+    }
+
+    /**
+     * @param capacity the size of the storage of the buffer in bytes
+     * @param required the size of the staging buffer in bytes
+     * @param dirtyStart the first element of the staging buffer that changed
+     * @return true if the storage has to be reallocated
+     */
+    private static boolean needsRealloc(int capacity, int required, int dirtyStart) {
+        return required > capacity || (required < capacity && dirtyStart == 0);
+    }
+
+    /**
+     * @return the number of bytes the last upload streamed into the buffers
+     */
+    public long getUploadedBytes() {
+        return mUploadedBytes;
+    }
+
+    public int getVbo() {
+        return mVbo;
+    }
+
+    public int getIbo() {
+        return mIbo;
+    }
+
+    /**
+     * @param level 0 for the full resolution indices, or the coarser level + 1
+     * @return the index buffer of the level
+     */
+    public int getIbo(int level) {
+        return level > 0 ? mLodIbo[level - 1] : mIbo;
+    }
+}
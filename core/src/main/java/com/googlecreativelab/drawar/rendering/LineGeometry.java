@@ -0,0 +1,848 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar.rendering;
+
+import com.googlecreativelab.drawar.StrokeStore;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+
+
+/**
+ * LineGeometry generates the vertices and indices the LineShaderRenderer draws the strokes with,
+ * in direct staging buffers that can be handed to glBufferSubData.  It does not make any GL calls,
+ * so it can be updated on a worker thread while the GL thread uploads and draws another instance.
+ * Every point is two vertices of the interleaved LINE_LAYOUT, and the strokes are stitched into a
+ * single triangle strip with repeated indices.  The previous and next positions the shader needs
+ * are not stored, the renderer reads them from the position of the point NEIGHBOUR_VERTICES before
+ * and after, so every run of points is written with a padding point on either side.  The index
+ * buffer is split into culling pages and draw batches, and the finished pages get coarser levels
+ * of detail.
+ *
+ * Positions can optionally be quantized to normalized shorts relative to an origin per draw
+ * batch, which the renderer passes to the shader as a uniform.  A new batch is started whenever a
+ * point is too far from the origin of the current one.
+ *
+ * The counts at the start of every stroke are kept as checkpoints, so when strokes are popped the
+ * geometry is truncated to the checkpoint in O(1), and when they are redone before anything else
+ * is added their vertices and indices are still there, generated and uploaded.
+ */
+public class LineGeometry {
+    public static final int BYTES_PER_SHORT = 2;
+    public static final int BYTES_PER_INT = 4;
+
+    // Without GL_OES_element_index_uint the indices are unsigned shorts, so every draw batch can
+    // only address this many vertices from its base
+    private static final int MAX_SHORT_INDEX_VERTICES = 65536;
+
+    // Number of indices per culling page, roughly 512 points of a stroke
+    private static final int PAGE_SIZE = 1024;
+
+    // Simplification tolerances in meters of the coarser levels of detail
+    private static final float[] LOD_TOLERANCES = {0.002f, 0.008f, 0.032f};
+
+    /**
+     * The interleaved vertex format of the line.  params packs the side of the line the vertex is
+     * extruded to, the width relative to the lineWidth uniform and the position of the point along
+     * the stroke.
+     */
+    public static final VertexLayout LINE_LAYOUT = new VertexLayout()
+            .add("position", 3)
+            .add("params", 3);
+
+    /**
+     * LINE_LAYOUT with the position quantized to normalized shorts, 20 instead of 24 bytes
+     */
+    public static final VertexLayout QUANTIZED_LINE_LAYOUT = new VertexLayout()
+            .addNormalizedShort("position", 3)
+            .add("params", 3);
+
+    // The previous and next attributes are the position attribute offset by this many vertices,
+    // one point of the strip
+    public static final int NEIGHBOUR_VERTICES = 2;
+
+    // Quantized positions cover this many meters on either side of the origin of their batch.
+    // A batch ends at the first point within QUANTIZED_MARGIN of the edge, so the previous and
+    // next positions of its points fit too.  The step between two values is about 0.06 mm
+    public static final float QUANTIZED_RANGE = 2f;
+
+    // The width written into every vertex, a multiplier of the lineWidth uniform.  The global line
+    // style is only applied by the shader, so changing it never touches the geometry
+    private static final float RELATIVE_WIDTH = 1f;
+    private static final float QUANTIZED_MARGIN = 0.25f;
+
+    // The vertex of the old triangle strip: position, previous, next, side, width and counter
+    static final int LEGACY_STRIP_STRIDE = 12 * 4;
+
+    // The fields of a checkpoint, the state of the geometry right before a stroke was added
+    private static final int CHECKPOINT_VERTICES = 0;
+    private static final int CHECKPOINT_INDICES = 1;
+    private static final int CHECKPOINT_BATCHES = 2;
+    private static final int CHECKPOINT_PAGES = 3;
+    private static final int CHECKPOINT_DRAWN_STROKES = 4;
+    private static final int CHECKPOINT_ACTIVE_START = 5;
+    private static final int CHECKPOINT_ACTIVE_POINTS = 6;
+    private static final int CHECKPOINT_ACTIVE_LAST_VERTEX = 7;
+    private static final int CHECKPOINT_STROKE_ID = 8;     // Of the stroke before, or -1
+    private static final int CHECKPOINT_INTS = 9;
+
+    // Direct staging buffer the geometry is written into and uploaded from, with float and short
+    // views of it.  It is only reallocated when mCapacity changes
+    private FloatBuffer mVertices;
+    private ShortBuffer mVertexShorts;
+    private CapacityManager mCapacity = new CapacityManager(1024);
+
+    private boolean mQuantized = false;
+    private VertexLayout mLayout;
+    private int mFloatsPerVertex;
+    private int mPositionOffset;
+    private int mParamsOffset;
+
+    // Index staging buffer.  Every point is two vertices, and the strokes are stitched into a
+    // triangle strip by repeating the first and last index of each stroke
+    private ByteBuffer mIndices;
+    private CapacityManager mIndexCapacity = new CapacityManager(2048);
+    private int mIndexSize;
+    private int mMaxBatchVertices;
+
+    // Draw batches.  The attributes of each batch are offset to its base vertex so the indices of
+    // the batch stay below mMaxBatchVertices
+    private int[] mBatchBase = new int[16];
+    private int[] mBatchFirstIndex = new int[16];
+    private float[] mBatchOrigin = new float[16 * StrokeStore.FLOATS_PER_POINT];
+    private int mNumBatches = 0;
+
+    // Pages of the index buffer with their world space bounds, and coarser versions of the
+    // finished pages
+    private LinePages mPages = new LinePages(PAGE_SIZE);
+    private LineLods mLods = new LineLods(LOD_TOLERANCES);
+    private final VertexPositions mVertexPositions = new VertexPositions();
+
+    private int mNumPoints = 0;
+    private int mNumVertices = 0;
+    private int mNumIndices = 0;
+    private int mNumDrawnStrokes = 0;
+
+    // Incremental update bookkeeping. Finished strokes keep their generated vertices, only the
+    // tail of the active (last) stroke is regenerated.  The vertices from mDirtyStart and the
+    // indices from mIndexDirtyStart changed since the last markUploaded
+    private int mSyncedStrokes = 0;
+    private int mActiveStrokeStart = 0;
+    private int mActiveStrokePoints = 0;
+    private int mActiveStrokeLastVertex = 0;
+    private int mDirtyStart = 0;
+    private int mIndexDirtyStart = 0;
+
+    // Checkpoint i is the state before stroke i was added, the last one the state after the last
+    // update.  The ones after mSyncedStrokes belong to popped strokes that can still be redone
+    private int[] mCheckpoints = new int[64 * CHECKPOINT_INTS];
+    private int mNumCheckpoints = 0;
+
+    private boolean mNeedsRebuild = true;
+
+    /**
+     * @param indexSize the size of the indices, BYTES_PER_SHORT or BYTES_PER_INT
+     */
+    public LineGeometry(int indexSize) {
+        setIndexSize(indexSize);
+        setQuantized(false);
+    }
+
+    /**
+     * Changes the size of the indices.  The next update rebuilds all of the geometry.
+     * @param indexSize BYTES_PER_SHORT or BYTES_PER_INT
+     */
+    public void setIndexSize(int indexSize) {
+        mIndexSize = indexSize;
+        mMaxBatchVertices = indexSize == BYTES_PER_INT ? Integer.MAX_VALUE
+                : MAX_SHORT_INDEX_VERTICES;
+        mIndices = null;
+        mLods.setIndexSize(indexSize);
+        mNeedsRebuild = true;
+    }
+
+    public int getIndexSize() {
+        return mIndexSize;
+    }
+
+    /**
+     * Switches between float and quantized positions.  The next update rebuilds all of the
+     * geometry.
+     * @param quantized use QUANTIZED_LINE_LAYOUT instead of LINE_LAYOUT
+     */
+    public void setQuantized(boolean quantized) {
+        mQuantized = quantized;
+        mLayout = quantized ? QUANTIZED_LINE_LAYOUT : LINE_LAYOUT;
+        mFloatsPerVertex = mLayout.getFloatsPerVertex();
+        mPositionOffset = mLayout.getAttribute("position").offset;
+        mParamsOffset = mLayout.getAttribute("params").offset;
+        mVertices = null;
+        mNeedsRebuild = true;
+    }
+
+    public boolean isQuantized() {
+        return mQuantized;
+    }
+
+    /**
+     * @return the layout of the vertices, LINE_LAYOUT or QUANTIZED_LINE_LAYOUT
+     */
+    public VertexLayout getLayout() {
+        return mLayout;
+    }
+
+    /**
+     * This updates the geometry data to be rendered. Strokes that were already generated keep their
+     * vertices, only the points added to the active (last) stroke and any new strokes are written.
+     * Popped strokes are cut off at their checkpoint, and redone ones brought back from it.  If
+     * strokes were removed or changed, all of the geometry has to be rebuilt.
+     * @param strokes the StrokeStore holding the points of every stroke in world space
+     * @param rebuild regenerate all of the geometry
+     */
+    public void update(StrokeStore strokes, boolean rebuild) {
+        int strokeCount = strokes.getStrokeCount();
+        if (rebuild || mNeedsRebuild) {
+            mNeedsRebuild = false;
+            rebuildStrokes(strokes);
+            return;
+        }
+
+        int checkpoint = findCheckpoint(strokes, strokeCount);
+        if (checkpoint != mSyncedStrokes) {
+            restoreCheckpoint(checkpoint);
+        }
+        if (strokeCount == mSyncedStrokes && (strokeCount == 0
+                || strokes.getStrokeSize(strokeCount - 1) == mActiveStrokePoints)) {
+            return;
+        }
+
+        int firstStroke = Math.max(mSyncedStrokes - 1, 0);
+        mNumPoints = mActiveStrokeStart;
+        for (int i = firstStroke; i < strokeCount; i++) {
+            mNumPoints += getVertexCount(strokes.getStrokeSize(i));
+        }
+
+        ensureCapacity(mNumPoints, true);
+
+        int offset = mActiveStrokeStart;
+        int firstPoint = mActiveStrokePoints;
+        for (int i = firstStroke; i < strokeCount; i++) {
+            if (i >= mSyncedStrokes) {
+                mNumVertices = offset;
+                setCheckpoint(strokes, i);
+            }
+            mActiveStrokeStart = offset;
+            mActiveStrokePoints = strokes.getStrokeSize(i);
+            offset = addLine(strokes, i, offset, firstPoint);
+            firstPoint = 0;
+        }
+        mSyncedStrokes = strokeCount;
+        mNumVertices = offset;
+        buildLods();
+        setCheckpoint(strokes, strokeCount);
+    }
+
+    /**
+     * Regenerates the geometry of every stroke and marks the whole buffer for upload.
+     * @param strokes
+     */
+    private void rebuildStrokes(StrokeStore strokes) {
+        int strokeCount = strokes.getStrokeCount();
+        mNumPoints = 0;
+        for (int i = 0; i < strokeCount; i++) {
+            mNumPoints += getVertexCount(strokes.getStrokeSize(i));
+        }
+
+        ensureCapacity(mNumPoints, false);
+        ensureIndexCapacity(mNumPoints + strokeCount * 2, false);
+
+        mNumVertices = 0;
+        mNumIndices = 0;
+        mNumDrawnStrokes = 0;
+        mNumBatches = 0;
+        mPages.clear();
+        mLods.clear();
+        beginBatch(0, strokes.getPoints(), getFirstDrawnPoint(strokes));
+
+        int offset = 0;
+        mActiveStrokeStart = 0;
+        mActiveStrokePoints = 0;
+        for (int i = 0; i < strokeCount; i++) {
+            mNumVertices = offset;
+            setCheckpoint(strokes, i);
+            mActiveStrokeStart = offset;
+            mActiveStrokePoints = strokes.getStrokeSize(i);
+            offset = addLine(strokes, i, offset, 0);
+        }
+        mSyncedStrokes = strokeCount;
+        mNumVertices = offset;
+        mDirtyStart = 0;
+        mIndexDirtyStart = 0;
+        buildLods();
+        setCheckpoint(strokes, strokeCount);
+    }
+
+    /**
+     * Records the current state as the checkpoint before a stroke, and drops the checkpoints
+     * after it
+     * @param strokes
+     * @param stroke
+     */
+    private void setCheckpoint(StrokeStore strokes, int stroke) {
+        int c = stroke * CHECKPOINT_INTS;
+        if (c + CHECKPOINT_INTS > mCheckpoints.length) {
+            mCheckpoints = Arrays.copyOf(mCheckpoints, Math.max(c + CHECKPOINT_INTS,
+                    mCheckpoints.length * 2));
+        }
+        mCheckpoints[c + CHECKPOINT_VERTICES] = mNumVertices;
+        mCheckpoints[c + CHECKPOINT_INDICES] = mNumIndices;
+        mCheckpoints[c + CHECKPOINT_BATCHES] = mNumBatches;
+        mCheckpoints[c + CHECKPOINT_PAGES] = mPages.getNumPages();
+        mCheckpoints[c + CHECKPOINT_DRAWN_STROKES] = mNumDrawnStrokes;
+        mCheckpoints[c + CHECKPOINT_ACTIVE_START] = mActiveStrokeStart;
+        mCheckpoints[c + CHECKPOINT_ACTIVE_POINTS] = mActiveStrokePoints;
+        mCheckpoints[c + CHECKPOINT_ACTIVE_LAST_VERTEX] = mActiveStrokeLastVertex;
+        mCheckpoints[c + CHECKPOINT_STROKE_ID] = stroke > 0 ? strokes.getStrokeId(stroke - 1) : -1;
+        mNumCheckpoints = stroke + 1;
+    }
+
+    /**
+     * Finds the last checkpoint the strokes still go through.  Strokes are only popped, redone
+     * and appended between rebuilds, so if the stroke before a checkpoint is still there, so are
+     * all of the strokes before it.  While drawing, undoing and redoing that is the first one
+     * tried.
+     * @param strokes
+     * @param strokeCount
+     * @return the checkpoint, at most strokeCount
+     */
+    private int findCheckpoint(StrokeStore strokes, int strokeCount) {
+        int checkpoint = Math.min(strokeCount, mNumCheckpoints - 1);
+        while (checkpoint > 0 && mCheckpoints[checkpoint * CHECKPOINT_INTS + CHECKPOINT_STROKE_ID]
+                != strokes.getStrokeId(checkpoint - 1)) {
+            checkpoint--;
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Truncates the geometry to a checkpoint, or brings back the geometry after it that is still
+     * in the staging buffers.  Nothing is written, so nothing has to be uploaded again.
+     * @param stroke
+     */
+    private void restoreCheckpoint(int stroke) {
+        int c = stroke * CHECKPOINT_INTS;
+        mNumVertices = mCheckpoints[c + CHECKPOINT_VERTICES];
+        mNumIndices = mCheckpoints[c + CHECKPOINT_INDICES];
+        mNumBatches = mCheckpoints[c + CHECKPOINT_BATCHES];
+        mNumDrawnStrokes = mCheckpoints[c + CHECKPOINT_DRAWN_STROKES];
+        mActiveStrokeStart = mCheckpoints[c + CHECKPOINT_ACTIVE_START];
+        mActiveStrokePoints = mCheckpoints[c + CHECKPOINT_ACTIVE_POINTS];
+        mActiveStrokeLastVertex = mCheckpoints[c + CHECKPOINT_ACTIVE_LAST_VERTEX];
+        mSyncedStrokes = stroke;
+
+        // The pages before the last one are finished and the same as when their coarser versions
+        // were built
+        int numPages = mCheckpoints[c + CHECKPOINT_PAGES];
+        mPages.setNumPages(numPages);
+        mLods.setNumPages(Math.max(0, Math.min(mLods.getBuiltPages(), numPages - 1)));
+    }
+
+    /**
+     * Builds the levels of detail of the pages that were finished since the last call.  The last
+     * page is still being written to, so it is always drawn at full resolution.
+     */
+    private void buildLods() {
+        while (mLods.getNumPages() < mPages.getNumPages() - 1) {
+            int page = mLods.getNumPages();
+            int batch = mPages.getBatch(page);
+            int first = mPages.getFirstIndex(page);
+            if (first - 2 >= mBatchFirstIndex[batch]) {
+                first -= 2;
+            }
+            mVertexPositions.mBatch = batch;
+            mLods.addPage(mIndices, first, mPages.getFirstIndex(page + 1), mBatchBase[batch],
+                    mVertexPositions);
+        }
+    }
+
+    /**
+     * @param strokes
+     * @return the index in the packed points of the first point of the first stroke that is
+     * drawn, or -1 if there is none
+     */
+    private static int getFirstDrawnPoint(StrokeStore strokes) {
+        for (int i = 0; i < strokes.getStrokeCount(); i++) {
+            if (strokes.getStrokeSize(i) >= 2) {
+                return strokes.getStrokeStart(i) * StrokeStore.FLOATS_PER_POINT;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Number of vertices addLine generates for a stroke with the given number of points, if it
+     * does not continue in another batch
+     * @param lineSize
+     * @return
+     */
+    private static int getVertexCount(int lineSize) {
+        return lineSize < 2 ? 0 : (lineSize + 2) * 2;
+    }
+
+    /**
+     * This ensures the capacity of the interleaved staging buffer that holds the information bound
+     * to the Vertex Attributes needed to render the line with the Vertex and Fragment shader.  The
+     * buffer grows geometrically, and shrinks again when it is rebuilt with much less geometry,
+     * for example after the drawing is cleared.
+     * @param numPoints
+     * @param keepContents copy the vertices generated so far into the new buffer when it grows
+     */
+    private void ensureCapacity(int numPoints, boolean keepContents){
+        boolean resized = mCapacity.ensureCapacity(numPoints);
+        if (!keepContents) {
+            resized |= mCapacity.trimToSize(numPoints);
+        }
+
+        if(mVertices == null || resized) {
+            ByteBuffer bytes =
+                    ByteBuffer.allocateDirect(mCapacity.getCapacity() * mLayout.getStride());
+            bytes.order(ByteOrder.nativeOrder());
+            FloatBuffer vertices = bytes.asFloatBuffer();
+            if (mVertices != null && keepContents) {
+                // Copy all of it, the buffer can grow while a stroke is being written
+                FloatBuffer old = mVertices.duplicate();
+                old.position(0);
+                old.limit(Math.min(old.capacity(), vertices.capacity()));
+                vertices.put(old);
+                vertices.position(0);
+            }
+            mVertices = vertices;
+            mVertexShorts = bytes.asShortBuffer();
+        }
+    }
+
+    /**
+     * The index counterpart of ensureCapacity
+     * @param numIndices
+     * @param keepContents copy the indices generated so far into the new buffer when it grows
+     */
+    private void ensureIndexCapacity(int numIndices, boolean keepContents) {
+        boolean resized = mIndexCapacity.ensureCapacity(numIndices);
+        if (!keepContents) {
+            resized |= mIndexCapacity.trimToSize(numIndices);
+        }
+
+        if (mIndices == null || resized) {
+            ByteBuffer indices =
+                    ByteBuffer.allocateDirect(mIndexCapacity.getCapacity() * mIndexSize);
+            indices.order(ByteOrder.nativeOrder());
+            if (mIndices != null && keepContents) {
+                ByteBuffer old = mIndices.duplicate();
+                old.position(0);
+                old.limit(mNumIndices * mIndexSize);
+                indices.put(old);
+                indices.position(0);
+            }
+            mIndices = indices;
+        }
+    }
+
+    /**
+     * AddLine takes in the 3D positions adds to the buffers to create the stroke, and the indices
+     * with the degenerate faces needed so the lines render properly.  The first and last point are
+     * repeated as padding before and after the stroke, so they are their own previous and next
+     * position.  Only the points from firstPoint onwards are written, along with the point before
+     * it whose counter has changed, and the padding after the last point moves along.  Indices of
+     * points that were already generated stay valid, only the repeated index closing the stroke
+     * is replaced.
+     * @param strokes
+     * @param stroke the index of the stroke in strokes
+     * @param offset the first vertex of the stroke
+     * @param firstPoint the first point of the line that has not been generated yet
+     * @return
+     */
+    private int addLine(StrokeStore strokes, int stroke, int offset, int firstPoint) {
+        int lineSize = strokes.getStrokeSize(stroke);
+        if (lineSize < 2)
+            return offset;
+
+        float[] points = strokes.getPoints();
+        int lineStart = strokes.getStrokeStart(stroke);
+
+        int start = firstPoint < 2 ? 0 : firstPoint - 1;
+        int firstNewPoint = firstPoint < 2 ? 0 : firstPoint;
+
+        int ii;
+        if (start > 0) {
+            // Drop the repeated index that closed the stroke, it is added again at the end
+            mNumIndices--;
+            ii = mActiveStrokeLastVertex;
+        } else {
+            mNumDrawnStrokes++;
+            ii = offset + NEIGHBOUR_VERTICES;
+        }
+        mIndexDirtyStart = Math.min(mIndexDirtyStart, mNumIndices);
+        mDirtyStart = Math.min(mDirtyStart, ii - NEIGHBOUR_VERTICES);
+
+        for (int i = start; i < lineSize; i++) {
+            float c = ((float) i / lineSize);
+            int current = (lineStart + i) * StrokeStore.FLOATS_PER_POINT;
+
+            if (i >= firstNewPoint) {
+                int previous = (lineStart + Math.max(i - 1, 0)) * StrokeStore.FLOATS_PER_POINT;
+                int previous2 = (lineStart + Math.max(i - 2, 0)) * StrokeStore.FLOATS_PER_POINT;
+                ii = addPoint(ii, points, current, previous, previous2, (float) (i - 1) / lineSize,
+                        i == 0);
+            }
+            ensureCapacity(ii + 2 + NEIGHBOUR_VERTICES, true);
+            setPoint(ii, points, current, c);
+            ii += 2;
+        }
+        mActiveStrokeLastVertex = ii - 2;
+        setPoint(ii, points, (lineStart + lineSize - 1) * StrokeStore.FLOATS_PER_POINT, 1f);
+        ii += NEIGHBOUR_VERTICES;
+        addIndex(mActiveStrokeLastVertex + 1);
+        return ii;
+    }
+
+    /**
+     * Adds the indices of the two vertices of a point to the strip, starting a new batch when
+     * they can not be addressed from the base of the current one, and a new page when the current
+     * one is full.  The point is added to the bounds of the page.  The first point of a stroke
+     * gets its padding here, once the batch its position is relative to is known.
+     * @param vertex the first of the two vertices of the point
+     * @param points the packed x, y, z values of the StrokeStore
+     * @param pos the index of the position of the point in points
+     * @param prev the index of the previous position in points
+     * @param prev2 the index of the position before prev in points
+     * @param prevCounter the counter of the previous point
+     * @param firstOfStroke repeats the first index to disconnect the stroke from the previous one
+     * @return the first vertex of the point, after vertex if the stroke continues in a new batch
+     */
+    private int addPoint(int vertex, float[] points, int pos, int prev, int prev2,
+                         float prevCounter, boolean firstOfStroke) {
+        boolean newPage = false;
+        if (firstOfStroke && mNumIndices == mBatchFirstIndex[mNumBatches - 1]) {
+            // Nothing was drawn in the current batch yet, for example when the geometry was built
+            // before any stroke had two points, so it can start at this point instead
+            setBatchOrigin(mNumBatches - 1, points, pos);
+            mBatchBase[mNumBatches - 1] = vertex;
+        }
+        if (vertex + 1 - mBatchBase[mNumBatches - 1] >= mMaxBatchVertices
+                || (mQuantized && !isInBatchRange(points, pos))) {
+            if (firstOfStroke) {
+                beginBatch(vertex, points, pos);
+            } else {
+                // End the stroke in the current batch with this point as the padding after the
+                // previous one, and continue it in the new batch from the previous point, with the
+                // point before that as its padding.  The new batch does not read any vertex the
+                // old one wrote, so both can be relative to their own origin.
+                ensureCapacity(vertex + 4 + NEIGHBOUR_VERTICES * 3, true);
+                setPoint(vertex, points, pos, prevCounter);
+                vertex += NEIGHBOUR_VERTICES * 2 + 2;
+                beginBatch(vertex - 2, points, pos);
+                setPoint(vertex - 2 - NEIGHBOUR_VERTICES, points, prev2, prevCounter);
+                setPoint(vertex - 2, points, prev, prevCounter);
+                addIndex(vertex - 2);
+                addIndex(vertex - 2);
+                addIndex(vertex - 1);
+            }
+            newPage = true;
+        } else if (mPages.isFull(mNumIndices)) {
+            mPages.beginPage(mNumIndices, mNumBatches - 1);
+            newPage = true;
+        }
+        if (newPage && !firstOfStroke) {
+            // The segment from the previous point is drawn as part of this page
+            mPages.extend(points[prev], points[prev + 1], points[prev + 2]);
+        }
+        mPages.extend(points[pos], points[pos + 1], points[pos + 2]);
+
+        if (firstOfStroke) {
+            setPoint(vertex - NEIGHBOUR_VERTICES, points, pos, 0f);
+            addIndex(vertex);
+        }
+        addIndex(vertex);
+        addIndex(vertex + 1);
+        return vertex;
+    }
+
+    /**
+     * @return true if the point is close enough to the origin of the current batch to be quantized
+     * relative to it, along with its neighbours
+     */
+    private boolean isInBatchRange(float[] points, int pos) {
+        int origin = (mNumBatches - 1) * StrokeStore.FLOATS_PER_POINT;
+        float limit = QUANTIZED_RANGE - QUANTIZED_MARGIN;
+        return Math.abs(points[pos] - mBatchOrigin[origin]) <= limit
+                && Math.abs(points[pos + 1] - mBatchOrigin[origin + 1]) <= limit
+                && Math.abs(points[pos + 2] - mBatchOrigin[origin + 2]) <= limit;
+    }
+
+    /**
+     * Starts a new draw batch whose indices are relative to base, and a new page for it
+     * @param base
+     * @param points the packed x, y, z values of the StrokeStore
+     * @param origin the index in points of the origin of the quantized positions of the batch,
+     *               or -1 for the world origin
+     */
+    private void beginBatch(int base, float[] points, int origin) {
+        if (mNumBatches == mBatchBase.length) {
+            mBatchBase = Arrays.copyOf(mBatchBase, mNumBatches * 2);
+            mBatchFirstIndex = Arrays.copyOf(mBatchFirstIndex, mNumBatches * 2);
+            mBatchOrigin = Arrays.copyOf(mBatchOrigin,
+                    mNumBatches * 2 * StrokeStore.FLOATS_PER_POINT);
+        }
+        setBatchOrigin(mNumBatches, points, origin);
+        mBatchBase[mNumBatches] = base;
+        mBatchFirstIndex[mNumBatches] = mNumIndices;
+        mPages.beginPage(mNumIndices, mNumBatches);
+        mNumBatches++;
+    }
+
+    private void setBatchOrigin(int batch, float[] points, int origin) {
+        for (int i = 0; i < StrokeStore.FLOATS_PER_POINT; i++) {
+            mBatchOrigin[batch * StrokeStore.FLOATS_PER_POINT + i] =
+                    origin < 0 ? 0 : points[origin + i];
+        }
+    }
+
+    /**
+     * Appends the index of a vertex, relative to the base of the current batch
+     * @param vertex
+     */
+    private void addIndex(int vertex) {
+        ensureIndexCapacity(mNumIndices + 1, true);
+        int index = vertex - mBatchBase[mNumBatches - 1];
+        if (mIndexSize == BYTES_PER_INT) {
+            mIndices.putInt(mNumIndices * BYTES_PER_INT, index);
+        } else {
+            mIndices.putShort(mNumIndices * BYTES_PER_SHORT, (short) index);
+        }
+        mNumIndices++;
+    }
+
+    /**
+     * Writes the two vertices of a point straight into the interleaved staging buffer, with the
+     * position relative to the origin of the current batch when it is quantized
+     * @param vertex the first of the two vertices
+     * @param points the packed x, y, z values of the StrokeStore
+     * @param pos the index of the position in points
+     * @param counter
+     */
+    private void setPoint(int vertex, float[] points, int pos, float counter) {
+        setMemory(vertex, points, pos, counter, RELATIVE_WIDTH, 1f);
+        setMemory(vertex + 1, points, pos, counter, RELATIVE_WIDTH, -1f);
+    }
+
+    /**
+     *
+     * setMemory is a helper method used to write the stroke data straight into the interleaved
+     * staging buffer
+     * @param index
+     * @param points the packed x, y, z values of the StrokeStore
+     * @param pos the index of the position in points
+     * @param counter
+     * @param width
+     * @param side
+     */
+    private void setMemory(int index, float[] points, int pos, float counter, float width,
+                           float side){
+        int base = index * mFloatsPerVertex;
+
+        if (mQuantized) {
+            putQuantized(base + mPositionOffset, points, pos,
+                    (mNumBatches - 1) * StrokeStore.FLOATS_PER_POINT);
+        } else {
+            mVertices.put(base + mPositionOffset, points[pos]);
+            mVertices.put(base + mPositionOffset + 1, points[pos + 1]);
+            mVertices.put(base + mPositionOffset + 2, points[pos + 2]);
+        }
+
+        mVertices.put(base + mParamsOffset, side);
+        mVertices.put(base + mParamsOffset + 1, width);
+        mVertices.put(base + mParamsOffset + 2, counter);
+    }
+
+    /**
+     * Writes a position as three normalized shorts relative to the origin of the current batch.
+     * GLES 2.0 converts a normalized short c to (2c + 1) / 65535, so that is what is inverted.
+     * @param word the offset in the vertex buffer in 4 byte words
+     * @param points
+     * @param pos the index of the position in points
+     * @param origin the index of the batch origin in mBatchOrigin
+     */
+    private void putQuantized(int word, float[] points, int pos, int origin) {
+        int index = word * 2;
+        for (int i = 0; i < StrokeStore.FLOATS_PER_POINT; i++) {
+            float value = (points[pos + i] - mBatchOrigin[origin + i]) / QUANTIZED_RANGE;
+            int c = Math.round((value * 65535f - 1f) * 0.5f);
+            mVertexShorts.put(index + i,
+                    (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, c)));
+        }
+    }
+
+    /**
+     * Decodes a normalized short written by putQuantized
+     */
+    private static float dequantize(short c, float origin) {
+        return origin + (2 * c + 1) / 65535f * QUANTIZED_RANGE;
+    }
+
+    /**
+     * Marks everything generated so far as uploaded, including the levels of detail.  What was
+     * uploaded before and cut off by popping strokes stays uploaded, so redoing the strokes does
+     * not upload them again.
+     * @param all true if everything was uploaded from the start into buffers that hold nothing
+     *            after it
+     */
+    public void markUploaded(boolean all) {
+        mDirtyStart = all ? mNumVertices : Math.max(mDirtyStart, mNumVertices);
+        mIndexDirtyStart = all ? mNumIndices : Math.max(mIndexDirtyStart, mNumIndices);
+        for (int l = 0; l < mLods.getNumLevels(); l++) {
+            mLods.markUploaded(l, all);
+        }
+    }
+
+    public FloatBuffer getVertices() {
+        return mVertices;
+    }
+
+    public int getNumVertices() {
+        return mNumVertices;
+    }
+
+    /**
+     * @return the capacity of the vertex staging buffer in vertices
+     */
+    public int getVertexCapacity() {
+        return mCapacity.getCapacity();
+    }
+
+    /**
+     * @return the first vertex that changed since the last markUploaded
+     */
+    public int getDirtyStart() {
+        return mDirtyStart;
+    }
+
+    public ByteBuffer getIndices() {
+        return mIndices;
+    }
+
+    public int getNumIndices() {
+        return mNumIndices;
+    }
+
+    /**
+     * @return the capacity of the index staging buffer in indices
+     */
+    public int getIndexCapacity() {
+        return mIndexCapacity.getCapacity();
+    }
+
+    /**
+     * @return the first index that changed since the last markUploaded
+     */
+    public int getIndexDirtyStart() {
+        return mIndexDirtyStart;
+    }
+
+    public int getNumBatches() {
+        return mNumBatches;
+    }
+
+    /**
+     * @param batch
+     * @return the vertex the indices of the batch are relative to
+     */
+    public int getBatchBase(int batch) {
+        return mBatchBase[batch];
+    }
+
+    public int getBatchFirstIndex(int batch) {
+        return mBatchFirstIndex[batch];
+    }
+
+    /**
+     * The shader computes the world position as origin + position * scale
+     * @param batch
+     * @param out receives the x, y, z of the origin and the scale
+     */
+    public void getBatchPositionTransform(int batch, float[] out) {
+        if (mQuantized) {
+            System.arraycopy(mBatchOrigin, batch * StrokeStore.FLOATS_PER_POINT, out, 0,
+                    StrokeStore.FLOATS_PER_POINT);
+            out[3] = QUANTIZED_RANGE;
+        } else {
+            out[0] = 0;
+            out[1] = 0;
+            out[2] = 0;
+            out[3] = 1;
+        }
+    }
+
+    public LinePages getPages() {
+        return mPages;
+    }
+
+    public LineLods getLods() {
+        return mLods;
+    }
+
+    /**
+     * Compares the indexed geometry in the buffers with the triangle strip of duplicated vertices
+     * the renderer used before, which needed an extra vertex at the start and end of every stroke.
+     * @return a summary of the vertex and byte counts of both
+     */
+    public String getGeometryStats() {
+        // The padding points take the place of the extra vertices at either end of a stroke
+        int stripVertices = mNumVertices - mNumDrawnStrokes * 2;
+        int indexedBytes = mNumVertices * mLayout.getStride() + mNumIndices * mIndexSize;
+        return String.format(Locale.US,
+                "strip: %d vertices, %d bytes; "
+                        + "indexed: %d vertices, %d indices, %d batches, %d bytes",
+                stripVertices, stripVertices * LEGACY_STRIP_STRIDE, mNumVertices, mNumIndices,
+                mNumBatches, indexedBytes);
+    }
+
+    /**
+     * Reads the world space positions of the vertices of a batch for the levels of detail
+     */
+    private class VertexPositions implements LineLods.Positions {
+        int mBatch;
+
+        @Override
+        public void getPosition(int vertex, float[] out, int offset) {
+            int base = vertex * mFloatsPerVertex + mPositionOffset;
+            if (mQuantized) {
+                int origin = mBatch * StrokeStore.FLOATS_PER_POINT;
+                for (int i = 0; i < StrokeStore.FLOATS_PER_POINT; i++) {
+                    out[offset + i] = dequantize(mVertexShorts.get(base * 2 + i),
+                            mBatchOrigin[origin + i]);
+                }
+            } else {
+                out[offset] = mVertices.get(base);
+                out[offset + 1] = mVertices.get(base + 1);
+                out[offset + 2] = mVertices.get(base + 2);
+            }
+        }
+    }
+}
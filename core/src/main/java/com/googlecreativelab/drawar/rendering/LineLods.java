@@ -0,0 +1,303 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar.rendering;
+
+import com.googlecreativelab.drawar.StrokeSimplifier;
+import com.googlecreativelab.drawar.StrokeStore;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+
+/**
+ * LineLods holds coarser versions of the finished pages of the line renderer's index buffer.  Each
+ * level is a separate index buffer into the same vertices, built by simplifying every run of
+ * points of a page with the Ramer-Douglas-Peucker algorithm at the tolerance of the level.  The
+ * page of a level is a self contained triangle strip, so consecutive pages of a level can be drawn
+ * with a single call just like the full resolution pages.
+ */
+public class LineLods {
+    private static final int BYTES_PER_SHORT = 2;
+    private static final int BYTES_PER_INT = 4;
+
+    private final float[] mTolerances;
+    private int mIndexSize = BYTES_PER_SHORT;
+
+    private final ByteBuffer[] mIndices;
+    private final CapacityManager[] mCapacity;
+    private final int[] mNumIndices;
+    private final int[] mDirtyStart;
+
+    // First index of every page in each level, with one extra entry for the end of the last page
+    private int[][] mPageFirst;
+    private int mNumPages = 0;
+
+    // Pages built since the last clear, including the ones dropped with setNumPages whose indices
+    // are still in the buffers
+    private int mBuiltPages = 0;
+
+    // Scratch space for the run of points being simplified
+    private int[] mRunVertices = new int[256];
+    private float[] mRunPoints = new float[256 * StrokeStore.FLOATS_PER_POINT];
+    private boolean[] mRunKeep = new boolean[256];
+
+    /**
+     * @param tolerances the simplification tolerance in meters of each coarser level, increasing
+     */
+    public LineLods(float... tolerances) {
+        mTolerances = tolerances.clone();
+        int levels = tolerances.length;
+        mIndices = new ByteBuffer[levels];
+        mCapacity = new CapacityManager[levels];
+        mNumIndices = new int[levels];
+        mDirtyStart = new int[levels];
+        mPageFirst = new int[levels][65];
+        for (int l = 0; l < levels; l++) {
+            mCapacity[l] = new CapacityManager(512);
+        }
+    }
+
+    /**
+     * Sets the size of the indices and clears every level
+     * @param indexSize 2 or 4 bytes
+     */
+    public void setIndexSize(int indexSize) {
+        if (indexSize != mIndexSize) {
+            mIndexSize = indexSize;
+            Arrays.fill(mIndices, null);
+        }
+        clear();
+    }
+
+    /**
+     * Removes every page, and shrinks the levels that have become much larger than needed
+     */
+    public void clear() {
+        mNumPages = 0;
+        mBuiltPages = 0;
+        for (int l = 0; l < mTolerances.length; l++) {
+            if (mCapacity[l].trimToSize(mNumIndices[l])) {
+                mIndices[l] = null;
+            }
+            mNumIndices[l] = 0;
+            mDirtyStart[l] = 0;
+        }
+    }
+
+    public int getNumLevels() {
+        return mTolerances.length;
+    }
+
+    public float getTolerance(int level) {
+        return mTolerances[level];
+    }
+
+    /**
+     * @return the number of pages that have coarser versions
+     */
+    public int getNumPages() {
+        return mNumPages;
+    }
+
+    /**
+     * Drops the coarser versions of the pages from numPages on, or brings back ones dropped
+     * before.  Their indices stay in the buffers until a page is added.
+     * @param numPages at most the number of pages built since the last clear
+     */
+    public void setNumPages(int numPages) {
+        mNumPages = numPages;
+        for (int l = 0; l < mTolerances.length; l++) {
+            mNumIndices[l] = mPageFirst[l][numPages];
+        }
+    }
+
+    /**
+     * @return the number of pages setNumPages can bring back
+     */
+    public int getBuiltPages() {
+        return mBuiltPages;
+    }
+
+    public int getFirstIndex(int level, int page) {
+        return mPageFirst[level][page];
+    }
+
+    public int getEndIndex(int level, int page) {
+        return mPageFirst[level][page + 1];
+    }
+
+    public int getNumIndices(int level) {
+        return mNumIndices[level];
+    }
+
+    public ByteBuffer getIndices(int level) {
+        return mIndices[level];
+    }
+
+    /**
+     * @return the first index of the level that changed since the last markUploaded
+     */
+    public int getDirtyStart(int level) {
+        return mDirtyStart[level];
+    }
+
+    /**
+     * Marks the indices of the level up to getNumIndices as uploaded.  Dropped indices that were
+     * uploaded before stay uploaded.
+     * @param level
+     * @param all true if the level was uploaded from the start into a buffer that holds nothing
+     *            after it
+     */
+    public void markUploaded(int level, boolean all) {
+        mDirtyStart[level] = all ? mNumIndices[level]
+                : Math.max(mDirtyStart[level], mNumIndices[level]);
+    }
+
+    /**
+     * @return the capacity of the level in indices
+     */
+    public int getCapacity(int level) {
+        return mCapacity[level].getCapacity();
+    }
+
+    /**
+     * Builds the coarser versions of the next page.  Pages have to be added in order, and only once
+     * none of their indices can change any more.
+     * @param indices the full resolution indices
+     * @param first the first index of the page, two earlier if the page continues a run of the
+     *              previous one
+     * @param end one past the last index of the page
+     * @param base the vertex the indices of the page are relative to
+     * @param positions the world space positions of the vertices
+     */
+    public void addPage(ByteBuffer indices, int first, int end, int base, Positions positions) {
+        if (mNumPages + 1 == mPageFirst[0].length) {
+            for (int l = 0; l < mPageFirst.length; l++) {
+                mPageFirst[l] = Arrays.copyOf(mPageFirst[l], mPageFirst[l].length * 2);
+            }
+        }
+        for (int l = 0; l < mTolerances.length; l++) {
+            mPageFirst[l][mNumPages] = mNumIndices[l];
+            mDirtyStart[l] = Math.min(mDirtyStart[l], mNumIndices[l]);
+        }
+
+        // Every point is a pair of indices (v, v + 1) with v even, consecutive points of a stroke
+        // follow each other, and anything else is a repeated index that joins two runs
+        int runLength = 0;
+        int i = first;
+        while (i + 1 < end) {
+            int a = getIndex(indices, i);
+            int b = getIndex(indices, i + 1);
+            if ((a & 1) == 0 && b == a + 1) {
+                if (runLength > 0 && a != mRunVertices[runLength - 1] + 2) {
+                    addRun(runLength);
+                    runLength = 0;
+                }
+                addRunPoint(runLength++, a, base, positions);
+                i += 2;
+            } else {
+                if (runLength > 0) {
+                    addRun(runLength);
+                    runLength = 0;
+                }
+                i++;
+            }
+        }
+        if (runLength > 0) {
+            addRun(runLength);
+        }
+
+        mNumPages++;
+        mBuiltPages = mNumPages;
+        for (int l = 0; l < mTolerances.length; l++) {
+            mPageFirst[l][mNumPages] = mNumIndices[l];
+        }
+    }
+
+    private void addRunPoint(int index, int vertex, int base, Positions positions) {
+        if (index == mRunVertices.length) {
+            mRunVertices = Arrays.copyOf(mRunVertices, index * 2);
+            mRunPoints = Arrays.copyOf(mRunPoints, index * 2 * StrokeStore.FLOATS_PER_POINT);
+            mRunKeep = new boolean[index * 2];
+        }
+        mRunVertices[index] = vertex;
+        positions.getPosition(base + vertex, mRunPoints, index * StrokeStore.FLOATS_PER_POINT);
+    }
+
+    /**
+     * Appends the simplified run to every level, disconnected from the rest of the strip by
+     * repeating its first and last index
+     */
+    private void addRun(int runLength) {
+        if (runLength < 2) {
+            return;
+        }
+        for (int l = 0; l < mTolerances.length; l++) {
+            StrokeSimplifier.markKept(mRunPoints, runLength, mTolerances[l], mRunKeep);
+            addIndex(l, mRunVertices[0]);
+            for (int i = 0; i < runLength; i++) {
+                if (mRunKeep[i]) {
+                    addIndex(l, mRunVertices[i]);
+                    addIndex(l, mRunVertices[i] + 1);
+                }
+            }
+            addIndex(l, mRunVertices[runLength - 1] + 1);
+        }
+    }
+
+    private void addIndex(int level, int index) {
+        int count = mNumIndices[level];
+        if (mCapacity[level].ensureCapacity(count + 1) || mIndices[level] == null) {
+            ByteBuffer indices = ByteBuffer.allocateDirect(mCapacity[level].getCapacity() * mIndexSize);
+            indices.order(ByteOrder.nativeOrder());
+            if (mIndices[level] != null) {
+                ByteBuffer old = mIndices[level].duplicate();
+                old.position(0);
+                old.limit(count * mIndexSize);
+                indices.put(old);
+                indices.position(0);
+            }
+            mIndices[level] = indices;
+        }
+        if (mIndexSize == BYTES_PER_INT) {
+            mIndices[level].putInt(count * BYTES_PER_INT, index);
+        } else {
+            mIndices[level].putShort(count * BYTES_PER_SHORT, (short) index);
+        }
+        mNumIndices[level] = count + 1;
+    }
+
+    private int getIndex(ByteBuffer indices, int i) {
+        if (mIndexSize == BYTES_PER_INT) {
+            return indices.getInt(i * BYTES_PER_INT);
+        }
+        return indices.getShort(i * BYTES_PER_SHORT) & 0xffff;
+    }
+
+    /**
+     * Where the positions of the vertices are read from, so they can be stored in any format
+     */
+    public interface Positions {
+        /**
+         * Copies the world space position of a vertex into out
+         * @param vertex
+         * @param out
+         * @param offset
+         */
+        void getPosition(int vertex, float[] out, int offset);
+    }
+}
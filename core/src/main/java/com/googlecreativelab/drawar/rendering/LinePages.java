@@ -0,0 +1,115 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar.rendering;
+
+import java.util.Arrays;
+
+
+/**
+ * LinePages splits the index buffer of the line renderer into pages of a fixed number of indices.
+ * Every page remembers the draw batch it belongs to and the world space bounding box of the points
+ * it covers, so the renderer can skip the pages that are outside of the view frustum.
+ */
+public class LinePages {
+    public static final int FLOATS_PER_BOUNDS = 6;  // minX, minY, minZ, maxX, maxY, maxZ
+
+    private final int mPageSize;
+
+    private int[] mFirstIndex = new int[64];
+    private int[] mBatch = new int[64];
+    private float[] mBounds = new float[64 * FLOATS_PER_BOUNDS];
+    private int mNumPages = 0;
+
+    /**
+     * @param pageSize the number of indices after which a new page is started
+     */
+    public LinePages(int pageSize) {
+        mPageSize = pageSize;
+    }
+
+    public void clear() {
+        mNumPages = 0;
+    }
+
+    /**
+     * Drops the pages from numPages on, or brings back pages dropped before as long as no page
+     * was begun since.  The bounds of the new last page are kept, they still contain its points.
+     * @param numPages
+     */
+    public void setNumPages(int numPages) {
+        mNumPages = numPages;
+    }
+
+    /**
+     * Starts a new page with an empty bounding box
+     * @param firstIndex the first index of the page
+     * @param batch the draw batch the indices of the page belong to
+     */
+    public void beginPage(int firstIndex, int batch) {
+        if (mNumPages == mFirstIndex.length) {
+            mFirstIndex = Arrays.copyOf(mFirstIndex, mNumPages * 2);
+            mBatch = Arrays.copyOf(mBatch, mNumPages * 2);
+            mBounds = Arrays.copyOf(mBounds, mNumPages * 2 * FLOATS_PER_BOUNDS);
+        }
+        mFirstIndex[mNumPages] = firstIndex;
+        mBatch[mNumPages] = batch;
+        int b = mNumPages * FLOATS_PER_BOUNDS;
+        mBounds[b] = mBounds[b + 1] = mBounds[b + 2] = Float.MAX_VALUE;
+        mBounds[b + 3] = mBounds[b + 4] = mBounds[b + 5] = -Float.MAX_VALUE;
+        mNumPages++;
+    }
+
+    /**
+     * @param numIndices the current number of indices
+     * @return true if the last page holds pageSize indices or more
+     */
+    public boolean isFull(int numIndices) {
+        return mNumPages == 0 || numIndices - mFirstIndex[mNumPages - 1] >= mPageSize;
+    }
+
+    /**
+     * Grows the bounding box of the last page to contain the point
+     */
+    public void extend(float x, float y, float z) {
+        int b = (mNumPages - 1) * FLOATS_PER_BOUNDS;
+        if (x < mBounds[b]) mBounds[b] = x;
+        if (y < mBounds[b + 1]) mBounds[b + 1] = y;
+        if (z < mBounds[b + 2]) mBounds[b + 2] = z;
+        if (x > mBounds[b + 3]) mBounds[b + 3] = x;
+        if (y > mBounds[b + 4]) mBounds[b + 4] = y;
+        if (z > mBounds[b + 5]) mBounds[b + 5] = z;
+    }
+
+    public int getNumPages() {
+        return mNumPages;
+    }
+
+    public int getFirstIndex(int page) {
+        return mFirstIndex[page];
+    }
+
+    public int getBatch(int page) {
+        return mBatch[page];
+    }
+
+    /**
+     * The bounding boxes of all pages, FLOATS_PER_BOUNDS floats per page
+     * @return
+     */
+    public float[] getBounds() {
+        return mBounds;
+    }
+}
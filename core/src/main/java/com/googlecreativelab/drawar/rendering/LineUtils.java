@@ -15,11 +15,12 @@
  
  package com.googlecreativelab.drawar.rendering;
 
-import android.opengl.Matrix;
 import com.googlecreativelab.drawar.AppSettings;
 import javax.vecmath.Vector2f;
 import javax.vecmath.Vector3f;
 
+import java.util.Arrays;
+
 public class LineUtils {
 
     /**
@@ -72,24 +73,30 @@ public class LineUtils {
     }
 
     /**
+     * Inverts the view-projection matrix for every call, use a ScreenProjector to unproject many
+     * points with the same matrices
      * @param point
      * @param viewportSize
      * @param viewProjMtx
      * @return
      */
     public static Ray screenPointToRay(Vector2f point, Vector2f viewportSize, float[] viewProjMtx) {
-        point.y = viewportSize.y - point.y;
         float x = point.x * 2.0F / viewportSize.x - 1.0F;
-        float y = point.y * 2.0F / viewportSize.y - 1.0F;
+        float y = (viewportSize.y - point.y) * 2.0F / viewportSize.y - 1.0F;
         float[] farScreenPoint = new float[]{x, y, 1.0F, 1.0F};
         float[] nearScreenPoint = new float[]{x, y, -1.0F, 1.0F};
         float[] nearPlanePoint = new float[4];
         float[] farPlanePoint = new float[4];
         float[] invertedProjectionMatrix = new float[16];
-        Matrix.setIdentityM(invertedProjectionMatrix, 0);
-        Matrix.invertM(invertedProjectionMatrix, 0, viewProjMtx, 0);
-        Matrix.multiplyMV(nearPlanePoint, 0, invertedProjectionMatrix, 0, nearScreenPoint, 0);
-        Matrix.multiplyMV(farPlanePoint, 0, invertedProjectionMatrix, 0, farScreenPoint, 0);
+        if (!ScreenProjector.invert(invertedProjectionMatrix, viewProjMtx)) {
+            // Fall back to the identity for a singular matrix, like android.opengl.Matrix did
+            Arrays.fill(invertedProjectionMatrix, 0);
+            for (int i = 0; i < 16; i += 5) {
+                invertedProjectionMatrix[i] = 1;
+            }
+        }
+        ScreenProjector.multiplyVector(nearPlanePoint, invertedProjectionMatrix, nearScreenPoint);
+        ScreenProjector.multiplyVector(farPlanePoint, invertedProjectionMatrix, farScreenPoint);
         Vector3f direction = new Vector3f(farPlanePoint[0] / farPlanePoint[3], farPlanePoint[1] / farPlanePoint[3], farPlanePoint[2] / farPlanePoint[3]);
         Vector3f origin = new Vector3f(new Vector3f(nearPlanePoint[0] / nearPlanePoint[3], nearPlanePoint[1] / nearPlanePoint[3], nearPlanePoint[2] / nearPlanePoint[3]));
         direction.sub(origin);
@@ -107,7 +114,7 @@ public class LineUtils {
      */
     public static Ray projectRay(Vector2f touchPoint, float screenWidth, float screenHeight, float[] projectionMatrix, float[] viewMatrix) {
         float[] viewProjMtx = new float[16];
-        Matrix.multiplyMM(viewProjMtx, 0, projectionMatrix, 0, viewMatrix, 0);
+        ScreenProjector.multiply(viewProjMtx, projectionMatrix, viewMatrix);
         return screenPointToRay(touchPoint, new Vector2f(screenWidth, screenHeight), viewProjMtx);
     }
 
@@ -118,11 +125,10 @@ public class LineUtils {
      * @return
      */
     public static boolean distanceCheck(Vector3f newPoint, Vector3f lastPoint) {
-        Vector3f temp = new Vector3f();
-        temp.sub(newPoint, lastPoint);
-        if (temp.length() > AppSettings.getMinDistance()) {
-            return true;
-        }
-        return false;
+        float dx = newPoint.x - lastPoint.x;
+        float dy = newPoint.y - lastPoint.y;
+        float dz = newPoint.z - lastPoint.z;
+        float minDistance = AppSettings.getMinDistance();
+        return dx * dx + dy * dy + dz * dz > minDistance * minDistance;
     }
 }
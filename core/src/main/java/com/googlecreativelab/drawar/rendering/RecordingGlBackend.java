@@ -0,0 +1,373 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar.rendering;
+
+import java.nio.Buffer;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * RecordingGlBackend is a GlBackend without a GPU, for running the renderers on a plain JVM.  It
+ * hands out buffer, texture, shader and program names, remembers the size of every buffer and
+ * counts the traffic a frame would cause: bytes uploaded, buffer reallocations, draw calls,
+ * vertices submitted, state changes and uniform updates.  The counts are kept for the current
+ * frame, which beginFrame starts, and in total.  Uploading outside of the storage of the bound
+ * buffer is reported by glGetError as GL_INVALID_VALUE, like GL would.
+ */
+public class RecordingGlBackend implements GlBackend {
+    public static final int GL_INVALID_VALUE = 0x0501;
+    public static final int GL_INVALID_OPERATION = 0x0502;
+
+    /**
+     * The traffic counted over a frame or in total
+     */
+    public static class Counts {
+        public long uploadedBytes;
+        public int bufferAllocations;
+        public int drawCalls;
+        public long vertices;
+        public int stateChanges;
+        public int uniformUpdates;
+
+        void clear() {
+            uploadedBytes = 0;
+            bufferAllocations = 0;
+            drawCalls = 0;
+            vertices = 0;
+            stateChanges = 0;
+            uniformUpdates = 0;
+        }
+
+        @Override
+        public String toString() {
+            return "uploaded " + uploadedBytes + " bytes, " + bufferAllocations + " allocations, "
+                    + drawCalls + " draws, " + vertices + " vertices, " + stateChanges
+                    + " state changes, " + uniformUpdates + " uniform updates";
+        }
+    }
+
+    private final Counts mFrame = new Counts();
+    private final Counts mTotal = new Counts();
+
+    private final String mExtensions;
+    private int mNextName = 1;
+    private final Map<Integer, Integer> mBufferSizes = new HashMap<>();
+    private final Map<String, Integer> mLocations = new HashMap<>();
+    private int mArrayBuffer = 0;
+    private int mElementArrayBuffer = 0;
+    private int mError = GL_NO_ERROR;
+
+    /**
+     * @param extensions what glGetString returns for GL_EXTENSIONS, for example
+     *                   "GL_OES_element_index_uint" to get 32 bit indices
+     */
+    public RecordingGlBackend(String extensions) {
+        mExtensions = extensions;
+    }
+
+    public RecordingGlBackend() {
+        this("");
+    }
+
+    /**
+     * Starts counting a new frame
+     */
+    public void beginFrame() {
+        mFrame.clear();
+    }
+
+    /**
+     * @return the counts since the last beginFrame
+     */
+    public Counts getFrameCounts() {
+        return mFrame;
+    }
+
+    /**
+     * @return the counts since the backend was created
+     */
+    public Counts getTotalCounts() {
+        return mTotal;
+    }
+
+    /**
+     * @param buffer
+     * @return the size of the storage of a buffer in bytes, or -1 if no storage was allocated
+     */
+    public int getBufferSize(int buffer) {
+        Integer size = mBufferSizes.get(buffer);
+        return size == null ? -1 : size;
+    }
+
+    private void stateChange() {
+        mFrame.stateChanges++;
+        mTotal.stateChanges++;
+    }
+
+    private void uniformUpdate() {
+        mFrame.uniformUpdates++;
+        mTotal.uniformUpdates++;
+    }
+
+    private void upload(int bytes) {
+        mFrame.uploadedBytes += bytes;
+        mTotal.uploadedBytes += bytes;
+    }
+
+    private void draw(int vertices) {
+        mFrame.drawCalls++;
+        mTotal.drawCalls++;
+        mFrame.vertices += vertices;
+        mTotal.vertices += vertices;
+    }
+
+    private void setError(int error) {
+        if (mError == GL_NO_ERROR) {
+            mError = error;
+        }
+    }
+
+    private int getBound(int target) {
+        return target == GL_ELEMENT_ARRAY_BUFFER ? mElementArrayBuffer : mArrayBuffer;
+    }
+
+    private void genNames(int n, int[] names, int offset) {
+        for (int i = 0; i < n; i++) {
+            names[offset + i] = mNextName++;
+        }
+    }
+
+    @Override
+    public void glGenBuffers(int n, int[] buffers, int offset) {
+        genNames(n, buffers, offset);
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        if (target == GL_ELEMENT_ARRAY_BUFFER) {
+            mElementArrayBuffer = buffer;
+        } else {
+            mArrayBuffer = buffer;
+        }
+        stateChange();
+    }
+
+    @Override
+    public void glBufferData(int target, int size, Buffer data, int usage) {
+        int buffer = getBound(target);
+        if (buffer == 0 || size < 0) {
+            setError(buffer == 0 ? GL_INVALID_OPERATION : GL_INVALID_VALUE);
+            return;
+        }
+        mBufferSizes.put(buffer, size);
+        mFrame.bufferAllocations++;
+        mTotal.bufferAllocations++;
+        if (data != null) {
+            upload(size);
+        }
+    }
+
+    @Override
+    public void glBufferSubData(int target, int offset, int size, Buffer data) {
+        int buffer = getBound(target);
+        if (buffer == 0) {
+            setError(GL_INVALID_OPERATION);
+            return;
+        }
+        if (offset < 0 || size < 0 || offset + size > getBufferSize(buffer)) {
+            setError(GL_INVALID_VALUE);
+            return;
+        }
+        upload(size);
+    }
+
+    @Override
+    public void glGenTextures(int n, int[] textures, int offset) {
+        genNames(n, textures, offset);
+    }
+
+    @Override
+    public void glBindTexture(int target, int texture) {
+        stateChange();
+    }
+
+    @Override
+    public void glTexParameteri(int target, int pname, int param) {
+        stateChange();
+    }
+
+    @Override
+    public int glCreateShader(int type) {
+        return mNextName++;
+    }
+
+    @Override
+    public void glShaderSource(int shader, String string) {
+    }
+
+    @Override
+    public void glCompileShader(int shader) {
+    }
+
+    @Override
+    public void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+        // Every query the renderers make is a status, which succeeded
+        params[offset] = 1;
+    }
+
+    @Override
+    public String glGetShaderInfoLog(int shader) {
+        return "";
+    }
+
+    @Override
+    public void glDeleteShader(int shader) {
+    }
+
+    @Override
+    public int glCreateProgram() {
+        return mNextName++;
+    }
+
+    @Override
+    public void glAttachShader(int program, int shader) {
+    }
+
+    @Override
+    public void glLinkProgram(int program) {
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        stateChange();
+    }
+
+    @Override
+    public int glGetAttribLocation(int program, String name) {
+        return getLocation(program, name);
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, String name) {
+        return getLocation(program, name);
+    }
+
+    /**
+     * Gives every name of a program its own location
+     */
+    private int getLocation(int program, String name) {
+        String key = program + ":" + name;
+        Integer location = mLocations.get(key);
+        if (location == null) {
+            location = mLocations.size();
+            mLocations.put(key, location);
+        }
+        return location;
+    }
+
+    @Override
+    public void glUniform1f(int location, float x) {
+        uniformUpdate();
+    }
+
+    @Override
+    public void glUniform2f(int location, float x, float y) {
+        uniformUpdate();
+    }
+
+    @Override
+    public void glUniform3f(int location, float x, float y, float z) {
+        uniformUpdate();
+    }
+
+    @Override
+    public void glUniform4fv(int location, int count, float[] v, int offset) {
+        uniformUpdate();
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value,
+                                   int offset) {
+        uniformUpdate();
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        stateChange();
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index) {
+        stateChange();
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized,
+                                      int stride, int offset) {
+        if (offset < 0) {
+            setError(GL_INVALID_VALUE);
+        }
+        stateChange();
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized,
+                                      int stride, Buffer pointer) {
+        stateChange();
+    }
+
+    @Override
+    public void glDrawArrays(int mode, int first, int count) {
+        draw(count);
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, int offset) {
+        if (mElementArrayBuffer == 0) {
+            setError(GL_INVALID_OPERATION);
+            return;
+        }
+        draw(count);
+    }
+
+    @Override
+    public void glEnable(int cap) {
+        stateChange();
+    }
+
+    @Override
+    public void glDisable(int cap) {
+        stateChange();
+    }
+
+    @Override
+    public void glDepthMask(boolean flag) {
+        stateChange();
+    }
+
+    @Override
+    public String glGetString(int name) {
+        return mExtensions;
+    }
+
+    @Override
+    public int glGetError() {
+        int error = mError;
+        mError = GL_NO_ERROR;
+        return error;
+    }
+}
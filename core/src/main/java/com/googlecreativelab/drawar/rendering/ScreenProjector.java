@@ -0,0 +1,214 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar.rendering;
+
+import java.util.Arrays;
+
+import javax.vecmath.Vector3f;
+
+
+/**
+ * ScreenProjector turns screen points into world space rays and positions.  The inverse
+ * view-projection matrix is computed once per frame in update, after which points can be
+ * unprojected one at a time or in batches into caller supplied arrays without allocating.
+ * The matrix math is done here rather than with android.opengl.Matrix so it runs on any JVM.
+ */
+public class ScreenProjector {
+
+    private final float[] mViewProjection = new float[16];
+    // The identity until a view-projection could be inverted, and again after one could not, like
+    // LineUtils.screenPointToRay
+    private final float[] mInverse = {1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1};
+    private float mScreenWidth = 1;
+    private float mScreenHeight = 1;
+    private boolean mValid = false;
+
+    // Scratch space for a single ray
+    private final float[] mRay = new float[6];
+
+    /**
+     * Caches the inverse of projection * view for the frame.  Matrices are column major like the
+     * ones ARCore and android.opengl.Matrix use.
+     * @param projection
+     * @param view
+     * @param screenWidth
+     * @param screenHeight
+     * @return false if the view-projection matrix can not be inverted, the points are then
+     * projected with the identity and meaningless
+     */
+    public boolean update(float[] projection, float[] view, float screenWidth, float screenHeight) {
+        multiply(mViewProjection, projection, view);
+        mScreenWidth = screenWidth;
+        mScreenHeight = screenHeight;
+        mValid = invert(mInverse, mViewProjection);
+        if (!mValid) {
+            Arrays.fill(mInverse, 0);
+            for (int i = 0; i < 16; i += 5) {
+                mInverse[i] = 1;
+            }
+        }
+        return mValid;
+    }
+
+    public boolean isValid() {
+        return mValid;
+    }
+
+    /**
+     * Computes the ray through a screen point, from the near plane into the scene
+     * @param x screen position in pixels, from the left
+     * @param y screen position in pixels, from the top
+     * @param out receives the origin and the normalized direction, 6 floats
+     * @param offset
+     */
+    public void getRay(float x, float y, float[] out, int offset) {
+        float nx = x * 2f / mScreenWidth - 1f;
+        float ny = (mScreenHeight - y) * 2f / mScreenHeight - 1f;
+        float[] m = mInverse;
+
+        // The inverse times (nx, ny, z, 1) for z = -1 and z = 1, sharing the terms without z
+        float bx = m[0] * nx + m[4] * ny + m[12];
+        float by = m[1] * nx + m[5] * ny + m[13];
+        float bz = m[2] * nx + m[6] * ny + m[14];
+        float bw = m[3] * nx + m[7] * ny + m[15];
+
+        float nearW = 1f / (bw - m[11]);
+        float nearX = (bx - m[8]) * nearW;
+        float nearY = (by - m[9]) * nearW;
+        float nearZ = (bz - m[10]) * nearW;
+
+        float farW = 1f / (bw + m[11]);
+        float dx = (bx + m[8]) * farW - nearX;
+        float dy = (by + m[9]) * farW - nearY;
+        float dz = (bz + m[10]) * farW - nearZ;
+        float length = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+        if (length > 0) {
+            dx /= length;
+            dy /= length;
+            dz /= length;
+        }
+
+        out[offset] = nearX;
+        out[offset + 1] = nearY;
+        out[offset + 2] = nearZ;
+        out[offset + 3] = dx;
+        out[offset + 4] = dy;
+        out[offset + 5] = dz;
+    }
+
+    /**
+     * Projects a screen point to the world position at a distance along its ray
+     * @param x screen position in pixels, from the left
+     * @param y screen position in pixels, from the top
+     * @param distance distance from the near plane in meters
+     * @param out
+     */
+    public void getWorldCoords(float x, float y, float distance, Vector3f out) {
+        getRay(x, y, mRay, 0);
+        out.set(mRay[0] + mRay[3] * distance, mRay[1] + mRay[4] * distance,
+                mRay[2] + mRay[5] * distance);
+    }
+
+    /**
+     * Projects a batch of screen points to the world positions at a distance along their rays
+     * @param screen packed x, y screen positions in pixels
+     * @param count the number of points
+     * @param distance distance from the near plane in meters
+     * @param out receives packed x, y, z world positions, 3 * count floats
+     */
+    public void unproject(float[] screen, int count, float distance, float[] out) {
+        float[] ray = mRay;
+        for (int i = 0; i < count; i++) {
+            getRay(screen[i * 2], screen[i * 2 + 1], ray, 0);
+            int o = i * 3;
+            out[o] = ray[0] + ray[3] * distance;
+            out[o + 1] = ray[1] + ray[4] * distance;
+            out[o + 2] = ray[2] + ray[5] * distance;
+        }
+    }
+
+    /**
+     * result = a * b for column major 4x4 matrices, result must not be a or b
+     */
+    static void multiply(float[] result, float[] a, float[] b) {
+        for (int col = 0; col < 4; col++) {
+            for (int row = 0; row < 4; row++) {
+                result[col * 4 + row] = a[row] * b[col * 4]
+                        + a[4 + row] * b[col * 4 + 1]
+                        + a[8 + row] * b[col * 4 + 2]
+                        + a[12 + row] * b[col * 4 + 3];
+            }
+        }
+    }
+
+    /**
+     * result = m * v for a column major 4x4 matrix, result must not be v
+     */
+    static void multiplyVector(float[] result, float[] m, float[] v) {
+        for (int row = 0; row < 4; row++) {
+            result[row] = m[row] * v[0] + m[4 + row] * v[1] + m[8 + row] * v[2] + m[12 + row] * v[3];
+        }
+    }
+
+    /**
+     * Inverts a 4x4 matrix with cofactors
+     * @return false if the matrix is singular
+     */
+    static boolean invert(float[] inv, float[] m) {
+        inv[0] = m[5] * m[10] * m[15] - m[5] * m[11] * m[14] - m[9] * m[6] * m[15]
+                + m[9] * m[7] * m[14] + m[13] * m[6] * m[11] - m[13] * m[7] * m[10];
+        inv[4] = -m[4] * m[10] * m[15] + m[4] * m[11] * m[14] + m[8] * m[6] * m[15]
+                - m[8] * m[7] * m[14] - m[12] * m[6] * m[11] + m[12] * m[7] * m[10];
+        inv[8] = m[4] * m[9] * m[15] - m[4] * m[11] * m[13] - m[8] * m[5] * m[15]
+                + m[8] * m[7] * m[13] + m[12] * m[5] * m[11] - m[12] * m[7] * m[9];
+        inv[12] = -m[4] * m[9] * m[14] + m[4] * m[10] * m[13] + m[8] * m[5] * m[14]
+                - m[8] * m[6] * m[13] - m[12] * m[5] * m[10] + m[12] * m[6] * m[9];
+        inv[1] = -m[1] * m[10] * m[15] + m[1] * m[11] * m[14] + m[9] * m[2] * m[15]
+                - m[9] * m[3] * m[14] - m[13] * m[2] * m[11] + m[13] * m[3] * m[10];
+        inv[5] = m[0] * m[10] * m[15] - m[0] * m[11] * m[14] - m[8] * m[2] * m[15]
+                + m[8] * m[3] * m[14] + m[12] * m[2] * m[11] - m[12] * m[3] * m[10];
+        inv[9] = -m[0] * m[9] * m[15] + m[0] * m[11] * m[13] + m[8] * m[1] * m[15]
+                - m[8] * m[3] * m[13] - m[12] * m[1] * m[11] + m[12] * m[3] * m[9];
+        inv[13] = m[0] * m[9] * m[14] - m[0] * m[10] * m[13] - m[8] * m[1] * m[14]
+                + m[8] * m[2] * m[13] + m[12] * m[1] * m[10] - m[12] * m[2] * m[9];
+        inv[2] = m[1] * m[6] * m[15] - m[1] * m[7] * m[14] - m[5] * m[2] * m[15]
+                + m[5] * m[3] * m[14] + m[13] * m[2] * m[7] - m[13] * m[3] * m[6];
+        inv[6] = -m[0] * m[6] * m[15] + m[0] * m[7] * m[14] + m[4] * m[2] * m[15]
+                - m[4] * m[3] * m[14] - m[12] * m[2] * m[7] + m[12] * m[3] * m[6];
+        inv[10] = m[0] * m[5] * m[15] - m[0] * m[7] * m[13] - m[4] * m[1] * m[15]
+                + m[4] * m[3] * m[13] + m[12] * m[1] * m[7] - m[12] * m[3] * m[5];
+        inv[14] = -m[0] * m[5] * m[14] + m[0] * m[6] * m[13] + m[4] * m[1] * m[14]
+                - m[4] * m[2] * m[13] - m[12] * m[1] * m[6] + m[12] * m[2] * m[5];
+        inv[3] = -m[1] * m[6] * m[11] + m[1] * m[7] * m[10] + m[5] * m[2] * m[11]
+                - m[5] * m[3] * m[10] - m[9] * m[2] * m[7] + m[9] * m[3] * m[6];
+        inv[7] = m[0] * m[6] * m[11] - m[0] * m[7] * m[10] - m[4] * m[2] * m[11]
+                + m[4] * m[3] * m[10] + m[8] * m[2] * m[7] - m[8] * m[3] * m[6];
+        inv[11] = -m[0] * m[5] * m[11] + m[0] * m[7] * m[9] + m[4] * m[1] * m[11]
+                - m[4] * m[3] * m[9] - m[8] * m[1] * m[7] + m[8] * m[3] * m[5];
+        inv[15] = m[0] * m[5] * m[10] - m[0] * m[6] * m[9] - m[4] * m[1] * m[10]
+                + m[4] * m[2] * m[9] + m[8] * m[1] * m[6] - m[8] * m[2] * m[5];
+
+        float det = m[0] * inv[0] + m[1] * inv[4] + m[2] * inv[8] + m[3] * inv[12];
+        if (det == 0) {
+            return false;
+        }
+        float invDet = 1f / det;
+        for (int i = 0; i < 16; i++) {
+            inv[i] *= invDet;
+        }
+        return true;
+    }
+}
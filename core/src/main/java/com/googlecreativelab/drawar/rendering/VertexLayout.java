@@ -0,0 +1,124 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar.rendering;
+
+import java.util.ArrayList;
+
+/**
+ * VertexLayout describes an interleaved vertex format.  Attributes are added in the order they
+ * are packed into each vertex, and the layout computes their offsets and the stride so the
+ * renderer can bind them with glVertexAttribPointer without hand computed addresses.  Offsets are
+ * counted in 4 byte words, the size of a float, and short attributes are padded to a whole word.
+ */
+public class VertexLayout {
+    public static final int BYTES_PER_FLOAT = 4;
+    public static final int BYTES_PER_SHORT = 2;
+
+    public static final int TYPE_FLOAT = 0;
+    public static final int TYPE_NORMALIZED_SHORT = 1;
+
+    private final ArrayList<Attribute> mAttributes = new ArrayList<>();
+    private int mFloatsPerVertex = 0;
+
+    /**
+     * Appends a float attribute to the end of the vertex.
+     * @param name the attribute name in the vertex shader
+     * @param size the number of floats in the attribute (1 to 4)
+     * @return this layout so calls can be chained
+     */
+    public VertexLayout add(String name, int size) {
+        if (size < 1 || size > 4) {
+            throw new IllegalArgumentException("Attribute size must be between 1 and 4: " + name);
+        }
+        mAttributes.add(new Attribute(name, size, TYPE_FLOAT, mFloatsPerVertex));
+        mFloatsPerVertex += size;
+        return this;
+    }
+
+    /**
+     * Appends an attribute of signed shorts the shader reads normalized to [-1, 1].
+     * @param name the attribute name in the vertex shader
+     * @param size the number of shorts in the attribute (1 to 4)
+     * @return this layout so calls can be chained
+     */
+    public VertexLayout addNormalizedShort(String name, int size) {
+        if (size < 1 || size > 4) {
+            throw new IllegalArgumentException("Attribute size must be between 1 and 4: " + name);
+        }
+        mAttributes.add(new Attribute(name, size, TYPE_NORMALIZED_SHORT, mFloatsPerVertex));
+        mFloatsPerVertex += (size + 1) / 2;
+        return this;
+    }
+
+    public int getAttributeCount() {
+        return mAttributes.size();
+    }
+
+    public Attribute getAttribute(int index) {
+        return mAttributes.get(index);
+    }
+
+    /**
+     * @param name
+     * @return the attribute with the given name
+     */
+    public Attribute getAttribute(String name) {
+        for (Attribute attribute : mAttributes) {
+            if (attribute.name.equals(name)) {
+                return attribute;
+            }
+        }
+        throw new IllegalArgumentException("No attribute named " + name);
+    }
+
+    /**
+     * @return the size of a vertex in 4 byte words
+     */
+    public int getFloatsPerVertex() {
+        return mFloatsPerVertex;
+    }
+
+    /**
+     * @return the number of bytes between the start of two consecutive vertices
+     */
+    public int getStride() {
+        return mFloatsPerVertex * BYTES_PER_FLOAT;
+    }
+
+    /**
+     * A single attribute within the vertex
+     */
+    public static class Attribute {
+        public final String name;
+        public final int size;
+        public final int type;
+        public final int offset;
+
+        Attribute(String name, int size, int type, int offset) {
+            this.name = name;
+            this.size = size;
+            this.type = type;
+            this.offset = offset;
+        }
+
+        /**
+         * @return the offset of the attribute from the start of the vertex in bytes
+         */
+        public int getByteOffset() {
+            return offset * BYTES_PER_FLOAT;
+        }
+    }
+}
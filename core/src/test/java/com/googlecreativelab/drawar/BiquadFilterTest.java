@@ -0,0 +1,116 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import javax.vecmath.Vector3f;
+
+import static org.junit.Assert.assertEquals;
+
+
+/**
+ * Priming the filter with reset, and filtering runs of points
+ */
+public class BiquadFilterTest {
+    private static final double[] CUTOFFS = {0.02, 0.07, 0.2, 0.45};
+
+    // Enough points of a constant input for the lowest cutoff to settle
+    private static final int SETTLE_STEPS = 1500;
+
+    @Test
+    public void resetIsSteadyState() {
+        Vector3f point = new Vector3f(1.25f, -0.5f, 3f);
+        Vector3f out = new Vector3f();
+        for (double cutoff : CUTOFFS) {
+            BiquadFilter filter = new BiquadFilter(cutoff);
+            filter.reset(point);
+            for (int i = 0; i < 10; i++) {
+                filter.update(point, out);
+                assertEquals(point.x, out.x, 1e-6f);
+                assertEquals(point.y, out.y, 1e-6f);
+                assertEquals(point.z, out.z, 1e-6f);
+            }
+        }
+    }
+
+    @Test
+    public void resetMatchesSettledFilter() {
+        Vector3f point = new Vector3f(1.25f, -0.5f, 3f);
+        Vector3f primedOut = new Vector3f();
+        Vector3f settledOut = new Vector3f();
+        Random random = new Random(1);
+        for (double cutoff : CUTOFFS) {
+            BiquadFilter primed = new BiquadFilter(cutoff);
+            primed.reset(point);
+            BiquadFilter settled = new BiquadFilter(cutoff);
+            for (int i = 0; i < SETTLE_STEPS; i++) {
+                settled.update(point, settledOut);
+            }
+
+            // Both respond the same to the rest of a stroke
+            Vector3f in = new Vector3f(point);
+            for (int i = 0; i < 200; i++) {
+                in.x += (random.nextFloat() - 0.5f) * 0.01f;
+                in.y += (random.nextFloat() - 0.5f) * 0.01f;
+                in.z += (random.nextFloat() - 0.5f) * 0.01f;
+                primed.update(in, primedOut);
+                settled.update(in, settledOut);
+                assertEquals(settledOut.x, primedOut.x, 1e-5f);
+                assertEquals(settledOut.y, primedOut.y, 1e-5f);
+                assertEquals(settledOut.z, primedOut.z, 1e-5f);
+            }
+        }
+    }
+
+    @Test
+    public void processMatchesUpdate() {
+        int count = 1000;
+        float[] points = new float[count * 3];
+        Random random = new Random(2);
+        for (int i = 0; i < points.length; i++) {
+            points[i] = random.nextFloat();
+        }
+        Vector3f first = new Vector3f(points[0], points[1], points[2]);
+
+        BiquadFilter batch = new BiquadFilter(0.07);
+        batch.reset(first);
+        float[] filtered = new float[points.length];
+        batch.process(points, filtered, count);
+
+        BiquadFilter single = new BiquadFilter(0.07);
+        single.reset(first);
+        Vector3f in = new Vector3f();
+        Vector3f out = new Vector3f();
+        for (int i = 0; i < count; i++) {
+            in.set(points[i * 3], points[i * 3 + 1], points[i * 3 + 2]);
+            single.update(in, out);
+            assertEquals(out.x, filtered[i * 3], 0);
+            assertEquals(out.y, filtered[i * 3 + 1], 0);
+            assertEquals(out.z, filtered[i * 3 + 2], 0);
+        }
+
+        // In place gives the same points
+        BiquadFilter inPlace = new BiquadFilter(0.07);
+        inPlace.reset(first);
+        inPlace.process(points, points, count);
+        for (int i = 0; i < points.length; i++) {
+            assertEquals(filtered[i], points[i], 0);
+        }
+    }
+}
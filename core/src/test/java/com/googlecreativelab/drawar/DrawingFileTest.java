@@ -0,0 +1,220 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import javax.vecmath.Vector3f;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+
+/**
+ * Writing and reading drawings in both encodings, and rejecting files that are not drawings
+ */
+public class DrawingFileTest {
+    private static final Vector3f COLOR = new Vector3f(0.25f, 0.5f, 1f);
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("drawing", ".bin");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void floatRoundTrip() throws IOException {
+        StrokeStore strokes = SyntheticStrokes.generate(5 * SyntheticStrokes.POINTS_PER_STROKE, 1);
+        DrawingFile.write(mFile, strokes, 0.5f, COLOR, DrawingFile.ENCODING_FLOAT);
+
+        DrawingFile drawing = DrawingFile.open(mFile);
+        assertEquals(DrawingFile.ENCODING_FLOAT, drawing.getEncoding());
+        assertEquals(0.5f, drawing.getStrokeWidth(0), 0);
+        Vector3f color = new Vector3f();
+        drawing.getStrokeColor(4, color);
+        assertEquals(COLOR, color);
+
+        StrokeStore read = new StrokeStore();
+        drawing.readInto(read);
+        assertStrokes(strokes, strokes.getStrokeCount(), read, 0);
+    }
+
+    @Test
+    public void delta16RoundTrip() throws IOException {
+        StrokeStore strokes = SyntheticStrokes.generate(5 * SyntheticStrokes.POINTS_PER_STROKE, 2);
+        // A stroke of one point, and one with a jump much longer than its other steps
+        strokes.beginStroke();
+        strokes.appendPoint(1, 2, 3);
+        strokes.beginStroke();
+        strokes.appendPoint(0, 0, 0);
+        strokes.appendPoint(0.001f, 0, 0);
+        strokes.appendPoint(2, -1, 0.5f);
+        DrawingFile.write(mFile, strokes, 0.5f, COLOR, DrawingFile.ENCODING_DELTA16);
+
+        DrawingFile drawing = DrawingFile.open(mFile);
+        assertEquals(DrawingFile.ENCODING_DELTA16, drawing.getEncoding());
+        StrokeStore read = new StrokeStore();
+        drawing.readInto(read);
+        // Half a quantization step of the stroke with the longest step, 2.2 m / 32000 / 2
+        assertStrokes(strokes, strokes.getStrokeCount(), read, 4e-5f);
+
+        // The file holds 3 shorts per point instead of 3 floats
+        StrokeStore large = SyntheticStrokes.generate(100000, 3);
+        DrawingFile.write(mFile, large, 0.5f, COLOR, DrawingFile.ENCODING_DELTA16);
+        long deltaSize = mFile.length();
+        DrawingFile.write(mFile, large, 0.5f, COLOR, DrawingFile.ENCODING_FLOAT);
+        assertEquals(0.5, (double) deltaSize / mFile.length(), 0.01);
+    }
+
+    @Test
+    public void writeFirstStrokes() throws IOException {
+        StrokeStore strokes = SyntheticStrokes.generate(5 * SyntheticStrokes.POINTS_PER_STROKE, 1);
+        int strokeCount = 3;
+        int pointCount = strokes.getStrokeEnd(strokeCount - 1);
+        // Drawn after the counts were taken
+        strokes.appendPoint(0, 0, 0);
+        strokes.beginStroke();
+        strokes.appendPoint(1, 1, 1);
+
+        for (int encoding : new int[] {DrawingFile.ENCODING_FLOAT, DrawingFile.ENCODING_DELTA16}) {
+            DrawingFile.write(mFile, strokes, strokeCount, pointCount, 0.5f, COLOR, encoding);
+            DrawingFile drawing = DrawingFile.open(mFile);
+            assertEquals(strokeCount, drawing.getStrokeCount());
+            assertEquals(pointCount, drawing.getPointCount());
+            StrokeStore read = new StrokeStore();
+            drawing.readInto(read);
+            assertStrokes(strokes, strokeCount, read, 1e-4f);
+        }
+    }
+
+    @Test
+    public void emptyDrawing() throws IOException {
+        for (int encoding : new int[] {DrawingFile.ENCODING_FLOAT, DrawingFile.ENCODING_DELTA16}) {
+            DrawingFile.write(mFile, new StrokeStore(), 0.5f, COLOR, encoding);
+            DrawingFile drawing = DrawingFile.open(mFile);
+            assertEquals(0, drawing.getStrokeCount());
+            assertEquals(0, drawing.getPointCount());
+            StrokeStore read = new StrokeStore();
+            drawing.readInto(read);
+            assertEquals(0, read.getStrokeCount());
+        }
+    }
+
+    @Test
+    public void replacesTheFile() throws IOException {
+        DrawingFile.write(mFile, SyntheticStrokes.generate(2000, 1), 0.5f, COLOR,
+                DrawingFile.ENCODING_FLOAT);
+        DrawingFile.write(mFile, SyntheticStrokes.generate(100, 1), 0.5f, COLOR,
+                DrawingFile.ENCODING_FLOAT);
+        assertEquals(100, DrawingFile.open(mFile).getPointCount());
+        assertFalse(new File(mFile.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void rejectsCorruptHeaders() throws IOException {
+        StrokeStore strokes = SyntheticStrokes.generate(1000, 1);
+
+        // Header: magic, version, encoding, stroke count, point count, stroke table, payload
+        int[][] corruptions = {
+                {0, 0x12345678},    // Magic
+                {4, 3},             // Version
+                {8, 2},             // Encoding
+                {12, -1},           // Stroke count
+                {12, 1000},         // Stroke count past the payload
+                {16, 1001},         // Point count past the end of the file
+                {20, 4},            // Stroke table inside the header
+                {24, 1 << 30},      // Payload past the end of the file
+        };
+        for (int[] corruption : corruptions) {
+            DrawingFile.write(mFile, strokes, 0.5f, COLOR, DrawingFile.ENCODING_DELTA16);
+            RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+            try {
+                raf.seek(corruption[0]);
+                raf.writeInt(Integer.reverseBytes(corruption[1]));
+            } finally {
+                raf.close();
+            }
+            assertRejected("Header value at " + corruption[0]);
+        }
+
+        // A stroke that ends past the points, and a truncated file
+        DrawingFile.write(mFile, strokes, 0.5f, COLOR, DrawingFile.ENCODING_FLOAT);
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        try {
+            raf.seek(7 * 4 + 4);
+            raf.writeInt(Integer.reverseBytes(1001));
+        } finally {
+            raf.close();
+        }
+        assertRejected("Stroke size");
+
+        DrawingFile.write(mFile, strokes, 0.5f, COLOR, DrawingFile.ENCODING_FLOAT);
+        raf = new RandomAccessFile(mFile, "rw");
+        try {
+            raf.setLength(mFile.length() - 1);
+        } finally {
+            raf.close();
+        }
+        assertRejected("Truncated payload");
+
+        raf = new RandomAccessFile(mFile, "rw");
+        try {
+            raf.setLength(10);
+        } finally {
+            raf.close();
+        }
+        assertRejected("Truncated header");
+    }
+
+    private void assertRejected(String message) {
+        try {
+            DrawingFile.open(mFile);
+            fail(message + " was not rejected");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Checks that read holds the first strokeCount strokes of expected
+     */
+    private static void assertStrokes(StrokeStore expected, int strokeCount, StrokeStore read,
+                                      float tolerance) {
+        assertEquals(strokeCount, read.getStrokeCount());
+        float[] expectedPoints = expected.getPoints();
+        float[] readPoints = read.getPoints();
+        for (int s = 0; s < strokeCount; s++) {
+            assertEquals(expected.getStrokeStart(s), read.getStrokeStart(s));
+            assertEquals(expected.getStrokeSize(s), read.getStrokeSize(s));
+        }
+        for (int i = 0; i < read.getPointCount() * StrokeStore.FLOATS_PER_POINT; i++) {
+            assertEquals("Value " + i, expectedPoints[i], readPoints[i], tolerance);
+        }
+    }
+}
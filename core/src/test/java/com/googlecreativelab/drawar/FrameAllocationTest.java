@@ -0,0 +1,203 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar;
+
+import com.googlecreativelab.drawar.rendering.FrustumCuller;
+import com.googlecreativelab.drawar.rendering.GeometryWorker;
+import com.googlecreativelab.drawar.rendering.LineBuffers;
+import com.googlecreativelab.drawar.rendering.LineGeometry;
+import com.googlecreativelab.drawar.rendering.LineLods;
+import com.googlecreativelab.drawar.rendering.LinePages;
+import com.googlecreativelab.drawar.rendering.RecordingGlBackend;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Replays a synthetic session through what the GL thread does every frame, StrokeInput with the
+ * StrokeSimplifier, GeometryWorker.submit and acquire, LineBuffers.upload and the culling and
+ * level of detail pass of the draw, and checks that none of it allocates once the drawing reached
+ * its size.  The session is replayed once to grow the buffers, every stroke is undone, and the
+ * same session is replayed again while the bytes allocated by the thread are measured every frame.
+ *
+ * The geometry is built on the same thread between frames, outside of the measurement, so the
+ * replay is deterministic.  The GL calls of LineShaderRenderer.draw are not replayed, as it lives
+ * in the app and needs android.opengl.Matrix.
+ */
+public class FrameAllocationTest {
+    private static final int FRAMES = 3600;
+
+    // Runs the simplifier during the frame that finished the stroke
+    private static final Executor IN_PLACE = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private File mFile;
+    private com.sun.management.ThreadMXBean mThreads;
+    private long mThreadId;
+
+    @Before
+    public void setUp() throws IOException {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        mThreads = (com.sun.management.ThreadMXBean) threads;
+        Assume.assumeTrue(mThreads.isThreadAllocatedMemorySupported());
+        mThreads.setThreadAllocatedMemoryEnabled(true);
+        mThreadId = Thread.currentThread().getId();
+
+        mFile = File.createTempFile("allocation", ".trace");
+        SyntheticSession.write(mFile, FRAMES, 1);
+    }
+
+    @After
+    public void tearDown() {
+        if (mFile != null) {
+            mFile.delete();
+        }
+    }
+
+    @Test
+    public void steadyStateFramesDoNotAllocate() throws IOException {
+        SessionTrace trace = SessionTrace.open(mFile);
+        SessionFrame frame = new SessionFrame(SyntheticSession.TOUCH_CAPACITY);
+        StrokeStore strokes = new StrokeStore();
+        StrokeInput input = new StrokeInput(strokes, new StrokeBvh(),
+                new StrokeSimplifier(AppSettings.getSimplifyTolerance(), IN_PLACE),
+                trace.getSmoothing(), frame.getTouchCapacity());
+        GeometryWorker worker = new GeometryWorker();
+        FrustumCuller culler = new FrustumCuller();
+        float[] viewProjection = new float[16];
+        LineBuffers buffers = new LineBuffers(new RecordingGlBackend("GL_OES_element_index_uint"),
+                worker.getFront().getLods().getNumLevels());
+        buffers.create();
+
+        replay(trace, frame, input, strokes, worker, buffers, culler, viewProjection, false);
+        int strokeCount = strokes.getStrokeCount();
+        assertTrue(strokeCount > 0);
+        frame.touchCount = 0;
+        frame.flags = SessionFrame.FLAG_UNDO;
+        while (strokes.getStrokeCount() > 0) {
+            step(frame, input, strokes, worker, buffers, culler, viewProjection);
+        }
+
+        trace.rewind();
+        int drawn = replay(trace, frame, input, strokes, worker, buffers, culler, viewProjection,
+                true);
+        assertEquals(strokeCount, strokes.getStrokeCount());
+        assertTrue(drawn > 0);
+    }
+
+    /**
+     * Replays every frame of the trace
+     * @return the number of indices drawn over all frames
+     */
+    private int replay(SessionTrace trace, SessionFrame frame, StrokeInput input,
+                       StrokeStore strokes, GeometryWorker worker, LineBuffers buffers,
+                       FrustumCuller culler, float[] viewProjection, boolean measure)
+            throws IOException {
+        // What reading the allocated bytes allocates itself
+        long overhead = allocatedBytes();
+        overhead = allocatedBytes() - overhead;
+
+        int drawn = 0;
+        int index = 0;
+        while (trace.update(frame)) {
+            long start = allocatedBytes();
+            drawn += step(frame, input, strokes, worker, buffers, culler, viewProjection);
+            long allocated = allocatedBytes() - start - overhead;
+            if (measure) {
+                assertEquals("Bytes allocated in frame " + index, 0, allocated);
+            }
+            worker.build();
+            index++;
+        }
+        return drawn;
+    }
+
+    /**
+     * The GL thread part of DrawAR.update and the page selection of LineShaderRenderer.draw
+     * @return the number of indices drawn
+     */
+    private static int step(SessionFrame frame, StrokeInput input, StrokeStore strokes,
+                            GeometryWorker worker, LineBuffers buffers, FrustumCuller culler,
+                            float[] viewProjection) {
+        int change = input.update(frame);
+        if (change != StrokeInput.CHANGE_NONE) {
+            worker.submit(strokes, LineGeometry.BYTES_PER_INT, false,
+                    change == StrokeInput.CHANGE_REBUILD);
+        }
+        LineGeometry geometry = worker.acquire();
+        if (geometry != null) {
+            buffers.upload(geometry);
+        }
+        return cull(frame, worker.getFront(), culler, viewProjection);
+    }
+
+    /**
+     * Picks the visible pages and their index ranges the way LineShaderRenderer.draw does, at the coarsest
+     * level of detail that is built
+     * @return the number of indices drawn
+     */
+    private static int cull(SessionFrame frame, LineGeometry geometry, FrustumCuller culler,
+                            float[] viewProjection) {
+        for (int column = 0; column < 4; column++) {
+            for (int row = 0; row < 4; row++) {
+                float sum = 0;
+                for (int k = 0; k < 4; k++) {
+                    sum += frame.projection[k * 4 + row] * frame.view[column * 4 + k];
+                }
+                viewProjection[column * 4 + row] = sum;
+            }
+        }
+        culler.setViewProjection(viewProjection);
+
+        LinePages pages = geometry.getPages();
+        LineLods lods = geometry.getLods();
+        int numPages = pages.getNumPages();
+        int indices = 0;
+        for (int p = 0; p < numPages; p++) {
+            if (!culler.isVisible(pages.getBounds(), p * LinePages.FLOATS_PER_BOUNDS, 0.01f)) {
+                continue;
+            }
+            if (p < lods.getNumPages()) {
+                int level = lods.getNumLevels() - 1;
+                indices += lods.getEndIndex(level, p) - lods.getFirstIndex(level, p);
+            } else {
+                int end = p + 1 < numPages ? pages.getFirstIndex(p + 1) : geometry.getNumIndices();
+                indices += end - pages.getFirstIndex(p);
+            }
+        }
+        return indices;
+    }
+
+    private long allocatedBytes() {
+        return mThreads.getThreadAllocatedBytes(mThreadId);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Bucketing and percentiles of LatencyHistogram against the exact percentiles of the values
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsCoverEveryValueOnce() {
+        // Consecutive buckets start where the previous one ends, and a value falls in the bucket
+        // whose range holds it
+        int last = LatencyHistogram.getBucket(LatencyHistogram.MAX_VALUE);
+        for (int b = 0; b < last; b++) {
+            long start = LatencyHistogram.getBucketStart(b);
+            long next = LatencyHistogram.getBucketStart(b + 1);
+            assertTrue("Bucket " + b, next > start);
+            assertEquals(b, LatencyHistogram.getBucket(start));
+            assertEquals(b, LatencyHistogram.getBucket(next - 1));
+            // No bucket is wider than 1 / SUB_BUCKETS of the values in it
+            long width = next - start;
+            assertTrue("Bucket " + b, width == 1 || width * LatencyHistogram.SUB_BUCKETS <= start);
+        }
+    }
+
+    @Test
+    public void percentilesWithinBucketResolution() {
+        // Frame times: around 8 ms with a long tail up to 100 ms
+        Random random = new Random(1);
+        int count = 100000;
+        long[] values = new long[count];
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < count; i++) {
+            double millis = 8 * Math.exp(random.nextGaussian() * 0.5);
+            values[i] = (long) (Math.min(millis, 100) * 1e6);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        assertEquals(count, histogram.getTotalCount());
+        assertEquals(values[count - 1], histogram.getMax());
+        for (double percentile : new double[] {1, 50, 90, 99, 99.9, 100}) {
+            long exact = values[(int) Math.ceil(percentile / 100 * count) - 1];
+            long estimate = histogram.getValueAtPercentile(percentile);
+            assertEquals("p" + percentile, exact, estimate,
+                    exact / (double) LatencyHistogram.SUB_BUCKETS);
+        }
+    }
+
+    @Test
+    public void clampsAndResets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getValueAtPercentile(50));
+
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(LatencyHistogram.MAX_VALUE, histogram.getValueAtPercentile(100),
+                LatencyHistogram.MAX_VALUE / LatencyHistogram.SUB_BUCKETS);
+        assertEquals(LatencyHistogram.MAX_VALUE, histogram.getMax());
+
+        histogram.reset();
+        assertEquals(0, histogram.getTotalCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void recordsFromSeveralThreads() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final long value = (t + 1) * 1000000L;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 100000; i++) {
+                        histogram.record(value);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(400000, histogram.getTotalCount());
+        assertEquals(4000000, histogram.getMax());
+    }
+}
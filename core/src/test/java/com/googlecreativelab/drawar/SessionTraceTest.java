@@ -0,0 +1,212 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+/**
+ * Recording sessions with SessionRecorder, reading them back with SessionTrace, and replaying
+ * them deterministically
+ */
+public class SessionTraceTest {
+    private static final int FRAMES = 600;
+
+    private static final Executor IN_PLACE = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("session", ".trace");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        SyntheticSession session = new SyntheticSession(1);
+        SessionRecorder recorder = new SessionRecorder(mFile, 0.2f, 0.4f,
+                SyntheticSession.TOUCH_CAPACITY);
+        SessionFrame[] frames = new SessionFrame[FRAMES];
+        try {
+            for (int i = 0; i < FRAMES; i++) {
+                frames[i] = copy(session.next());
+                recorder.write(frames[i]);
+            }
+        } finally {
+            recorder.close();
+        }
+
+        SessionTrace trace = SessionTrace.open(mFile);
+        assertEquals(0.2f, trace.getSmoothing(), 0);
+        assertEquals(0.4f, trace.getLineWidth(), 0);
+        SessionFrame frame = new SessionFrame(SyntheticSession.TOUCH_CAPACITY);
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < FRAMES; i++) {
+                assertTrue(trace.update(frame));
+                assertFrame("Frame " + i, frames[i], frame);
+            }
+            assertFalse(trace.update(frame));
+            trace.rewind();
+        }
+    }
+
+    @Test
+    public void truncatedFrameEndsTheTrace() throws IOException {
+        SyntheticSession.write(mFile, FRAMES, 1);
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        try {
+            raf.setLength(raf.length() - 3);
+        } finally {
+            raf.close();
+        }
+        SessionTrace trace = SessionTrace.open(mFile);
+        SessionFrame frame = new SessionFrame(SyntheticSession.TOUCH_CAPACITY);
+        int frames = 0;
+        while (trace.update(frame)) {
+            frames++;
+        }
+        assertEquals(FRAMES - 1, frames);
+    }
+
+    @Test
+    public void rejectsOtherFiles() throws IOException {
+        SyntheticSession.write(mFile, 10, 1);
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        try {
+            raf.seek(4);
+            raf.writeInt(Integer.reverseBytes(SessionTrace.VERSION + 1));
+        } finally {
+            raf.close();
+        }
+        assertRejected();
+
+        raf = new RandomAccessFile(mFile, "rw");
+        try {
+            raf.seek(0);
+            raf.writeInt(0);
+        } finally {
+            raf.close();
+        }
+        assertRejected();
+
+        // A trace with more touch samples in a frame than the frame can hold
+        SyntheticSession.write(mFile, 100, 1);
+        SessionTrace trace = SessionTrace.open(mFile);
+        SessionFrame small = new SessionFrame(1);
+        try {
+            while (trace.update(small)) {
+            }
+            fail("A frame with too many touch samples was read");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void replayIsDeterministic() throws IOException {
+        SyntheticSession.write(mFile, 3600, 1);
+        StrokeStore first = replay();
+        StrokeStore second = replay();
+        assertTrue(first.getStrokeCount() > 0);
+        assertEquals(first.getStrokeCount(), second.getStrokeCount());
+        assertEquals(first.getPointCount(), second.getPointCount());
+        int values = first.getPointCount() * StrokeStore.FLOATS_PER_POINT;
+        assertArrayEquals(Arrays.copyOf(first.getPoints(), values),
+                Arrays.copyOf(second.getPoints(), values), 0);
+    }
+
+    private StrokeStore replay() throws IOException {
+        SessionTrace trace = SessionTrace.open(mFile);
+        SessionFrame frame = new SessionFrame(SyntheticSession.TOUCH_CAPACITY);
+        StrokeStore strokes = new StrokeStore();
+        StrokeInput input = new StrokeInput(strokes, new StrokeBvh(),
+                new StrokeSimplifier(AppSettings.getSimplifyTolerance(), IN_PLACE),
+                trace.getSmoothing(), frame.getTouchCapacity());
+        while (trace.update(frame)) {
+            input.update(frame);
+        }
+        return strokes;
+    }
+
+    private void assertRejected() {
+        try {
+            SessionTrace.open(mFile);
+            fail("Not a trace, but opened");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    private static SessionFrame copy(SessionFrame frame) {
+        SessionFrame copy = new SessionFrame(frame.getTouchCapacity());
+        copy.timestamp = frame.timestamp;
+        copy.trackingState = frame.trackingState;
+        copy.flags = frame.flags;
+        copy.screenWidth = frame.screenWidth;
+        copy.screenHeight = frame.screenHeight;
+        System.arraycopy(frame.view, 0, copy.view, 0, 16);
+        System.arraycopy(frame.projection, 0, copy.projection, 0, 16);
+        System.arraycopy(frame.position, 0, copy.position, 0, 3);
+        copy.touchCount = frame.touchCount;
+        System.arraycopy(frame.touchActions, 0, copy.touchActions, 0, frame.touchCount);
+        System.arraycopy(frame.touchScreen, 0, copy.touchScreen, 0, frame.touchCount * 2);
+        System.arraycopy(frame.touchTimes, 0, copy.touchTimes, 0, frame.touchCount);
+        return copy;
+    }
+
+    private static void assertFrame(String message, SessionFrame expected, SessionFrame actual) {
+        assertEquals(message, expected.timestamp, actual.timestamp);
+        assertEquals(message, expected.trackingState, actual.trackingState);
+        assertEquals(message, expected.flags, actual.flags);
+        assertEquals(message, expected.screenWidth, actual.screenWidth, 0);
+        assertEquals(message, expected.screenHeight, actual.screenHeight, 0);
+        assertArrayEquals(message, expected.view, actual.view, 0);
+        assertArrayEquals(message, expected.projection, actual.projection, 0);
+        assertArrayEquals(message, expected.position, actual.position, 0);
+        assertEquals(message, expected.touchCount, actual.touchCount);
+        for (int i = 0; i < expected.touchCount; i++) {
+            assertEquals(message, expected.touchActions[i], actual.touchActions[i]);
+            assertEquals(message, expected.touchScreen[i * 2], actual.touchScreen[i * 2], 0);
+            assertEquals(message, expected.touchScreen[i * 2 + 1], actual.touchScreen[i * 2 + 1],
+                    0);
+            assertEquals(message, expected.touchTimes[i], actual.touchTimes[i]);
+        }
+    }
+}
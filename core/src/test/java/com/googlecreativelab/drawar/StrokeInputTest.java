@@ -0,0 +1,212 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Strokes drawn with touches, and how the simplified strokes are swapped in
+ */
+public class StrokeInputTest {
+    private static final int TOUCH_CAPACITY = 64;
+    private static final float SCREEN_SIZE = 1000f;
+
+    // Runs the simplifier jobs when the test says so
+    private final ArrayList<Runnable> mQueued = new ArrayList<>();
+    private final Executor mExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            mQueued.add(command);
+        }
+    };
+
+    private final StrokeStore mStrokes = new StrokeStore();
+    private final SessionFrame mFrame = new SessionFrame(TOUCH_CAPACITY);
+    private StrokeInput mInput;
+    private int mSimplifiedStroke = -1;
+    private int mSimplifiedFrom;
+    private int mSimplifiedTo;
+
+    @Before
+    public void setUp() {
+        mInput = new StrokeInput(mStrokes, new StrokeBvh(),
+                new StrokeSimplifier(AppSettings.getSimplifyTolerance(), mExecutor), 0.1f,
+                TOUCH_CAPACITY);
+        mInput.setSimplifyListener(new StrokeInput.SimplifyListener() {
+            @Override
+            public void onStrokeSimplified(int stroke, int originalCount, int count) {
+                mSimplifiedStroke = stroke;
+                mSimplifiedFrom = originalCount;
+                mSimplifiedTo = count;
+            }
+        });
+
+        // The camera at the origin looking down -z, with a 90 degree field of view
+        float near = 0.1f, far = 100f;
+        mFrame.view[0] = mFrame.view[5] = mFrame.view[10] = mFrame.view[15] = 1;
+        mFrame.projection[0] = 1;
+        mFrame.projection[5] = 1;
+        mFrame.projection[10] = (far + near) / (near - far);
+        mFrame.projection[11] = -1;
+        mFrame.projection[14] = 2 * far * near / (near - far);
+        mFrame.screenWidth = SCREEN_SIZE;
+        mFrame.screenHeight = SCREEN_SIZE;
+    }
+
+    @Test
+    public void simplifiedLastStrokeIsAppended() {
+        drawLine(100, TouchSampleQueue.ACTION_DOWN, TouchSampleQueue.ACTION_UP);
+        int id = mStrokes.getStrokeId(0);
+        int size = mStrokes.getStrokeSize(0);
+        assertEquals(1, mQueued.size());
+
+        runQueued();
+        assertEquals(StrokeInput.CHANGE_APPENDED, update());
+        assertEquals(1, mStrokes.getStrokeCount());
+        assertTrue(mStrokes.getStrokeSize(0) < size);
+        assertNotEquals(id, mStrokes.getStrokeId(0));
+        assertEquals(0, mSimplifiedStroke);
+        assertEquals(size, mSimplifiedFrom);
+        assertEquals(mStrokes.getStrokeSize(0), mSimplifiedTo);
+    }
+
+    @Test
+    public void simplifiedEarlierStrokeIsAppended() {
+        drawLine(100, TouchSampleQueue.ACTION_DOWN, TouchSampleQueue.ACTION_UP);
+        drawLine(200, TouchSampleQueue.ACTION_DOWN, TouchSampleQueue.ACTION_MOVE);
+
+        // Only the first stroke was finished when its simplified version arrives
+        assertEquals(1, mQueued.size());
+        runQueued();
+        assertEquals(StrokeInput.CHANGE_APPENDED, update());
+        assertEquals(2, mStrokes.getStrokeCount());
+    }
+
+    @Test
+    public void simplifiedStrokeKeepsRedo() {
+        drawLine(100, TouchSampleQueue.ACTION_DOWN, TouchSampleQueue.ACTION_UP);
+        drawLine(200, TouchSampleQueue.ACTION_DOWN, TouchSampleQueue.ACTION_UP);
+        int size = mStrokes.getStrokeSize(0);
+        int redoneId = mStrokes.getStrokeId(1);
+        float[] redone = Arrays.copyOfRange(mStrokes.getPoints(),
+                mStrokes.getStrokeStart(1) * StrokeStore.FLOATS_PER_POINT,
+                mStrokes.getPointCount() * StrokeStore.FLOATS_PER_POINT);
+
+        // The first stroke is swapped in while the second one is undone
+        mFrame.flags = SessionFrame.FLAG_UNDO;
+        update();
+        mFrame.flags = 0;
+        runQueued();
+        update();
+        assertEquals(1, mStrokes.getStrokeCount());
+        assertTrue(mStrokes.getStrokeSize(0) < size);
+        assertEquals(1, mStrokes.getRedoCount());
+
+        mFrame.flags = SessionFrame.FLAG_REDO;
+        assertEquals(StrokeInput.CHANGE_APPENDED, update());
+        mFrame.flags = 0;
+        assertEquals(2, mStrokes.getStrokeCount());
+        assertEquals(redoneId, mStrokes.getStrokeId(1));
+        assertArrayEquals(redone, Arrays.copyOfRange(mStrokes.getPoints(),
+                mStrokes.getStrokeStart(1) * StrokeStore.FLOATS_PER_POINT,
+                mStrokes.getPointCount() * StrokeStore.FLOATS_PER_POINT), 0f);
+    }
+
+    @Test
+    public void upWithoutStrokeSimplifiesNothing() {
+        drawLine(100, TouchSampleQueue.ACTION_DOWN, TouchSampleQueue.ACTION_UP);
+        runQueued();
+        update();
+        int id = mStrokes.getStrokeId(0);
+
+        // A touch whose down was dropped, and one whose stroke was undone before it ended
+        drawLine(200, TouchSampleQueue.ACTION_MOVE, TouchSampleQueue.ACTION_UP);
+        drawLine(300, TouchSampleQueue.ACTION_DOWN, TouchSampleQueue.ACTION_MOVE);
+        mFrame.flags = SessionFrame.FLAG_UNDO;
+        update();
+        mFrame.flags = 0;
+        drawLine(300, TouchSampleQueue.ACTION_MOVE, TouchSampleQueue.ACTION_UP);
+
+        assertEquals(0, mQueued.size());
+        assertEquals(1, mStrokes.getStrokeCount());
+        assertEquals(id, mStrokes.getStrokeId(0));
+    }
+
+    @Test
+    public void singularFrameEndsTheStroke() {
+        drawLine(100, TouchSampleQueue.ACTION_DOWN, TouchSampleQueue.ACTION_MOVE);
+        int points = mStrokes.getPointCount();
+
+        // No touch can be placed without a view-projection, but the up still finishes the stroke
+        float[] projection = mFrame.projection.clone();
+        Arrays.fill(mFrame.projection, 0);
+        drawLine(200, TouchSampleQueue.ACTION_MOVE, TouchSampleQueue.ACTION_UP);
+        System.arraycopy(projection, 0, mFrame.projection, 0, 16);
+        assertEquals(1, mStrokes.getStrokeCount());
+        assertEquals(1, mQueued.size());
+        for (int i = 0; i < mStrokes.getPointCount() * StrokeStore.FLOATS_PER_POINT; i++) {
+            assertFalse(Float.isNaN(mStrokes.getPoints()[i]));
+        }
+        // At most the point the sampler held back was appended
+        assertTrue(mStrokes.getPointCount() <= points + 1);
+
+        // The stroke was ended, so moves without a down do not extend it
+        points = mStrokes.getPointCount();
+        drawLine(300, TouchSampleQueue.ACTION_MOVE, TouchSampleQueue.ACTION_MOVE);
+        assertEquals(points, mStrokes.getPointCount());
+    }
+
+    /**
+     * Touches a horizontal line across the screen in one frame
+     * @param y
+     * @param first the action of the first sample
+     * @param last the action of the last sample
+     */
+    private void drawLine(float y, int first, int last) {
+        mFrame.touchCount = TOUCH_CAPACITY;
+        for (int i = 0; i < TOUCH_CAPACITY; i++) {
+            mFrame.touchActions[i] = i == 0 ? first
+                    : i == TOUCH_CAPACITY - 1 ? last : TouchSampleQueue.ACTION_MOVE;
+            mFrame.touchScreen[i * 2] = 100 + i * 10;
+            mFrame.touchScreen[i * 2 + 1] = y;
+        }
+        mInput.update(mFrame);
+        mFrame.touchCount = 0;
+    }
+
+    private int update() {
+        return mInput.update(mFrame);
+    }
+
+    private void runQueued() {
+        for (Runnable command : mQueued) {
+            command.run();
+        }
+        mQueued.clear();
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar;
+
+import org.junit.Test;
+
+import javax.vecmath.Vector3f;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Sampled strokes against the dense strokes the sampler was given
+ */
+public class StrokeSamplerTest {
+    private static final float MIN_SPACING = AppSettings.getMinDistance();
+    private static final float MAX_SPACING = AppSettings.getMaxDistance();
+    private static final float CHORD_ERROR = AppSettings.getSampleChordError();
+
+    // A dropped point is within the chord error of the course it was held back on, and the point
+    // that ends the segment may be as far off it again
+    private static final float MAX_DEVIATION = 2 * CHORD_ERROR;
+
+    private final StrokeStore mSampled = new StrokeStore();
+    private final StrokeSampler mSampler = new StrokeSampler(mSampled, MIN_SPACING, MAX_SPACING,
+            AppSettings.getSampleAngle(), CHORD_ERROR);
+
+    @Test
+    public void sampledStrokesFollowTheDenseStrokes() {
+        SyntheticStrokes generator = new SyntheticStrokes(7);
+        float[] stroke = new float[SyntheticStrokes.POINTS_PER_STROKE * 3];
+        int denseCount = 0;
+        for (int s = 0; s < 50; s++) {
+            generator.generateStroke(stroke, SyntheticStrokes.POINTS_PER_STROKE);
+            float[] dense = sample(stroke, SyntheticStrokes.POINTS_PER_STROKE);
+            denseCount += dense.length / 3;
+            assertFollows(dense, mSampled.getStrokeCount() - 1);
+        }
+        // The random walks turn a little at every point, so most points are kept
+        assertTrue(mSampled.getPointCount() < denseCount);
+    }
+
+    @Test
+    public void straightRunGetsFewPoints() {
+        int count = 1000;
+        float[] stroke = new float[count * 3];
+        for (int i = 0; i < count; i++) {
+            stroke[i * 3] = i * MIN_SPACING * 1.5f;
+            stroke[i * 3 + 1] = 1f;
+            stroke[i * 3 + 2] = -i * MIN_SPACING * 0.5f;
+        }
+        float[] dense = sample(stroke, count);
+        assertEquals(count, dense.length / 3);
+        assertFollows(dense, 0);
+
+        // Every segment is as long as the max spacing allows
+        float length = (float) Math.sqrt(2.5) * MIN_SPACING * (count - 1);
+        int segments = mSampled.getStrokeSize(0) - 1;
+        assertTrue(segments <= Math.ceil(length / (MAX_SPACING - MIN_SPACING * 1.6f)));
+        assertTrue(segments >= Math.ceil(length / MAX_SPACING));
+    }
+
+    @Test
+    public void cornerIsKept() {
+        int count = 200;
+        float[] stroke = new float[count * 3];
+        for (int i = 0; i < count; i++) {
+            int along = Math.min(i, count / 2);
+            int across = Math.max(i - count / 2, 0);
+            stroke[i * 3] = along * MIN_SPACING * 1.5f;
+            stroke[i * 3 + 1] = across * MIN_SPACING * 1.5f;
+        }
+        float[] dense = sample(stroke, count);
+        assertFollows(dense, 0);
+
+        int corner = (count / 2) * 3;
+        boolean kept = false;
+        for (int p = mSampled.getStrokeStart(0); p < mSampled.getStrokeEnd(0); p++) {
+            int i = p * StrokeStore.FLOATS_PER_POINT;
+            kept |= mSampled.getPoints()[i] == stroke[corner]
+                    && mSampled.getPoints()[i + 1] == stroke[corner + 1];
+        }
+        assertTrue(kept);
+    }
+
+    @Test
+    public void resetDropsTheHeldBackPoint() {
+        Vector3f point = new Vector3f(0, 0, 0);
+        mSampled.beginStroke();
+        mSampled.appendPoint(point.x, point.y, point.z);
+        mSampler.begin(point);
+        point.x = MIN_SPACING * 2;
+        mSampler.add(point);
+        mSampler.reset();
+        assertEquals(false, mSampler.finish());
+        assertEquals(1, mSampled.getPointCount());
+    }
+
+    /**
+     * Samples a stroke into a new stroke of mSampled, the way StrokeInput does
+     * @param stroke packed x, y, z points
+     * @param count
+     * @return the packed points the sampler was given, those at least the min spacing apart
+     */
+    private float[] sample(float[] stroke, int count) {
+        float[] dense = new float[count * 3];
+        int denseCount = 0;
+        Vector3f point = new Vector3f(stroke[0], stroke[1], stroke[2]);
+        mSampled.beginStroke();
+        mSampled.appendPoint(point.x, point.y, point.z);
+        mSampler.begin(point);
+        System.arraycopy(stroke, 0, dense, denseCount++ * 3, 3);
+        for (int i = 1; i < count; i++) {
+            point.set(stroke[i * 3], stroke[i * 3 + 1], stroke[i * 3 + 2]);
+            if (mSampler.isSpaced(point)) {
+                mSampler.add(point);
+                System.arraycopy(stroke, i * 3, dense, denseCount++ * 3, 3);
+            }
+        }
+        mSampler.finish();
+        float[] out = new float[denseCount * 3];
+        System.arraycopy(dense, 0, out, 0, out.length);
+        return out;
+    }
+
+    /**
+     * Asserts the sampled stroke is made of dense points in order, starts and ends where the dense
+     * stroke does, and passes within MAX_DEVIATION of every dense point
+     * @param dense packed x, y, z points
+     * @param stroke the sampled stroke in mSampled
+     */
+    private void assertFollows(float[] dense, int stroke) {
+        float[] sampled = mSampled.getPoints();
+        int start = mSampled.getStrokeStart(stroke);
+        int end = mSampled.getStrokeEnd(stroke);
+        int denseCount = dense.length / 3;
+        assertTrue(end - start >= Math.min(denseCount, 2));
+        assertTrue(end - start <= denseCount);
+
+        // Each dense point lies on the segment of the sampled points around it
+        int d = 0;
+        for (int p = start; p < end; p++) {
+            int i = p * StrokeStore.FLOATS_PER_POINT;
+            int first = d;
+            while (d < denseCount && (dense[d * 3] != sampled[i]
+                    || dense[d * 3 + 1] != sampled[i + 1] || dense[d * 3 + 2] != sampled[i + 2])) {
+                d++;
+            }
+            assertTrue("Sampled point " + (p - start) + " is not a dense point", d < denseCount);
+            if (p == start) {
+                assertEquals(0, d);
+            }
+            for (int k = first; k < d; k++) {
+                float deviation = distanceToSegment(dense, k * 3, sampled, i - 3, i);
+                assertTrue("Dense point " + k + " is " + deviation + " m off",
+                        deviation <= MAX_DEVIATION);
+            }
+            d++;
+        }
+        assertEquals(denseCount, d);
+    }
+
+    private static float distanceToSegment(float[] points, int point, float[] segment, int a,
+                                           int b) {
+        float ex = segment[b] - segment[a];
+        float ey = segment[b + 1] - segment[a + 1];
+        float ez = segment[b + 2] - segment[a + 2];
+        float vx = points[point] - segment[a];
+        float vy = points[point + 1] - segment[a + 1];
+        float vz = points[point + 2] - segment[a + 2];
+        float ee = ex * ex + ey * ey + ez * ez;
+        float t = ee > 0 ? Math.max(0, Math.min(1, (vx * ex + vy * ey + vz * ez) / ee)) : 0;
+        float dx = vx - t * ex;
+        float dy = vy - t * ey;
+        float dz = vz - t * ez;
+        return (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+
+/**
+ * What the ring of strokes between the owner and the worker keeps when it is full, and the
+ * simplification on the worker thread
+ */
+public class StrokeSimplifierTest {
+    private static final int POINTS = 100;
+    private static final float TOLERANCE = 0.001f;
+
+    private final StrokeStore mStrokes = new StrokeStore();
+
+    @Test
+    public void fullRingKeepsStrokesAsDrawn() {
+        final List<Runnable> pending = new ArrayList<>();
+        StrokeSimplifier simplifier = new StrokeSimplifier(TOLERANCE, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                pending.add(command);
+            }
+        });
+
+        int strokes = StrokeSimplifier.CAPACITY + 3;
+        for (int s = 0; s < strokes; s++) {
+            addLine(s);
+            simplifier.submit(mStrokes, s);
+        }
+        assertNull(simplifier.poll());
+        assertEquals(StrokeSimplifier.CAPACITY, pending.size());
+        pending.get(0).run();
+
+        // The strokes that did not fit are not simplified, and each result stays valid until the
+        // next poll
+        for (int s = 0; s < StrokeSimplifier.CAPACITY; s++) {
+            StrokeSimplifier.Result result = simplifier.poll();
+            assertEquals(mStrokes.getStrokeId(s), result.strokeId);
+            assertEquals(POINTS, result.originalCount);
+            assertEquals(2, result.count);
+            assertEquals(s, result.points[StrokeStore.FLOATS_PER_POINT + 1], 0);
+        }
+        assertNull(simplifier.poll());
+
+        // Once polled, the slots are free again
+        addLine(strokes);
+        simplifier.submit(mStrokes, strokes);
+        pending.get(pending.size() - 1).run();
+        assertEquals(mStrokes.getStrokeId(strokes), simplifier.poll().strokeId);
+    }
+
+    @Test
+    public void workerSimplifiesEveryStroke() throws InterruptedException {
+        StrokeSimplifier simplifier = new StrokeSimplifier(TOLERANCE);
+        try {
+            int polled = 0;
+            for (int s = 0; s < 100; s++) {
+                addLine(s);
+                simplifier.submit(mStrokes, s);
+                // Poll while the worker may still be simplifying
+                while (simplifier.poll() != null) {
+                    polled++;
+                }
+                if (s % StrokeSimplifier.CAPACITY == StrokeSimplifier.CAPACITY - 1) {
+                    for (int wait = 0; wait < 1000 && polled <= s; wait++) {
+                        StrokeSimplifier.Result result = simplifier.poll();
+                        if (result == null) {
+                            Thread.sleep(1);
+                        } else {
+                            assertEquals(2, result.count);
+                            polled++;
+                        }
+                    }
+                    assertEquals(s + 1, polled);
+                }
+            }
+        } finally {
+            simplifier.shutdown();
+        }
+    }
+
+    /**
+     * Adds a straight stroke at height y, which simplifies down to its end points
+     * @param y
+     */
+    private void addLine(float y) {
+        mStrokes.beginStroke();
+        for (int i = 0; i < POINTS; i++) {
+            mStrokes.appendPoint(i * 0.01f, y, 0);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar;
+
+import org.junit.Test;
+
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * What a full queue drops, and the strokes drawn from what it kept
+ */
+public class TouchSampleQueueTest {
+    private static final int CAPACITY = 64;
+    private static final int TAPS = 10;
+
+    private final TouchSampleQueue mQueue = new TouchSampleQueue(CAPACITY);
+    private final TouchSampleQueue.Sample mSample = new TouchSampleQueue.Sample();
+    private int mTime = 0;
+
+    @Test
+    public void fullQueueKeepsDownsAndUps() {
+        fill();
+
+        // The long touch fills the queue up to the reserved slots, and every tap after it that
+        // fits is kept whole
+        int kept = (TouchSampleQueue.RESERVED_SLOTS - 1) / 2;
+        int expected = CAPACITY - TouchSampleQueue.RESERVED_SLOTS + 1 + kept * 2;
+        int count = 0;
+        int downs = 0;
+        boolean down = false;
+        while (mQueue.poll(mSample)) {
+            count++;
+            if (mSample.action == TouchSampleQueue.ACTION_DOWN) {
+                assertFalse(down);
+                down = true;
+                downs++;
+            } else {
+                assertTrue(down);
+                down = mSample.action == TouchSampleQueue.ACTION_MOVE;
+            }
+        }
+        assertFalse(down);
+        assertEquals(expected, count);
+        assertEquals(1 + kept, downs);
+        assertEquals(1 + 200 + 1 + TAPS * 3 - expected, mQueue.getDroppedCount());
+
+        // Once polled, the samples fit again
+        assertTrue(mQueue.offer(TouchSampleQueue.ACTION_DOWN, 0, 0, 0, 0));
+        for (int i = 0; i < CAPACITY - TouchSampleQueue.RESERVED_SLOTS - 1; i++) {
+            assertTrue(mQueue.offer(TouchSampleQueue.ACTION_MOVE, 0, 0, 0, 0));
+        }
+        assertFalse(mQueue.offer(TouchSampleQueue.ACTION_MOVE, 0, 0, 0, 0));
+        assertTrue(mQueue.offer(TouchSampleQueue.ACTION_UP, 0, 0, 0, 0));
+    }
+
+    @Test
+    public void fullQueueEndsEveryStroke() {
+        StrokeStore strokes = new StrokeStore();
+        final int[] submitted = new int[1];
+        StrokeInput input = new StrokeInput(strokes, new StrokeBvh(),
+                new StrokeSimplifier(AppSettings.getSimplifyTolerance(), new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        submitted[0]++;
+                    }
+                }), 0.1f, 16);
+        SessionFrame frame = new SessionFrame(16);
+        // The camera at the origin looking down -z, with a 90 degree field of view
+        float near = 0.1f, far = 100f;
+        frame.view[0] = frame.view[5] = frame.view[10] = frame.view[15] = 1;
+        frame.projection[0] = 1;
+        frame.projection[5] = 1;
+        frame.projection[10] = (far + near) / (near - far);
+        frame.projection[11] = -1;
+        frame.projection[14] = 2 * far * near / (near - far);
+        frame.screenWidth = 1000;
+        frame.screenHeight = 1000;
+
+        fill();
+        // The frames hold fewer samples than the queue, the rest waits for the next frame
+        do {
+            frame.pollTouches(mQueue, mSample);
+            input.update(frame);
+        } while (frame.touchCount > 0);
+
+        int kept = (TouchSampleQueue.RESERVED_SLOTS - 1) / 2;
+        assertEquals(1 + kept, strokes.getStrokeCount());
+        assertTrue(strokes.getStrokeSize(0) > 1);
+        for (int i = 1; i < strokes.getStrokeCount(); i++) {
+            assertEquals(1, strokes.getStrokeSize(i));
+        }
+        // The long stroke was finished and handed to the simplifier, the taps are too short
+        assertEquals(1, submitted[0]);
+
+        // Moves without a down do not extend the last stroke
+        int points = strokes.getPointCount();
+        for (int i = 0; i < 10; i++) {
+            mQueue.offer(TouchSampleQueue.ACTION_MOVE, 500 + i * 10, 500, mTime++, 0);
+        }
+        frame.pollTouches(mQueue, mSample);
+        input.update(frame);
+        assertEquals(points, strokes.getPointCount());
+    }
+
+    /**
+     * Offers a long touch and then taps while nothing is polled
+     */
+    private void fill() {
+        mQueue.offer(TouchSampleQueue.ACTION_DOWN, 100, 100, mTime++, 0);
+        for (int i = 0; i < 200; i++) {
+            mQueue.offer(TouchSampleQueue.ACTION_MOVE, 100 + i * 4, 100 + i, mTime++, 0);
+        }
+        mQueue.offer(TouchSampleQueue.ACTION_UP, 900, 300, mTime++, 0);
+        for (int t = 0; t < TAPS; t++) {
+            mQueue.offer(TouchSampleQueue.ACTION_DOWN, 100 + t * 50, 600, mTime++, 0);
+            mQueue.offer(TouchSampleQueue.ACTION_MOVE, 101 + t * 50, 600, mTime++, 0);
+            mQueue.offer(TouchSampleQueue.ACTION_UP, 101 + t * 50, 600, mTime++, 0);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar.rendering;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Boxes inside, outside and straddling a perspective frustum, and how the margin grows them
+ */
+public class FrustumCullerTest {
+    private static final float NEAR = 0.1f;
+    private static final float FAR = 100f;
+
+    // Half the width and height of the frustum one meter in front of the camera
+    private static final float HALF_SIZE = 1f;
+
+    private final FrustumCuller mCuller = new FrustumCuller();
+
+    @Before
+    public void setUp() {
+        // A square frustum with a 90 degree field of view, the camera at (0, 0, 1) looking down -z
+        float[] projection = new float[16];
+        projection[0] = 1f / HALF_SIZE;
+        projection[5] = 1f / HALF_SIZE;
+        projection[10] = (FAR + NEAR) / (NEAR - FAR);
+        projection[11] = -1;
+        projection[14] = 2 * FAR * NEAR / (NEAR - FAR);
+        float[] view = new float[16];
+        view[0] = view[5] = view[10] = view[15] = 1;
+        view[14] = -1;
+        float[] viewProjection = new float[16];
+        ScreenProjector.multiply(viewProjection, projection, view);
+        mCuller.setViewProjection(viewProjection);
+    }
+
+    private boolean isVisible(float minX, float minY, float minZ, float maxX, float maxY,
+                              float maxZ, float margin) {
+        return mCuller.isVisible(new float[] {0, 0, 0, minX, minY, minZ, maxX, maxY, maxZ}, 3,
+                margin);
+    }
+
+    @Test
+    public void inside() {
+        assertTrue(isVisible(-0.1f, -0.1f, -4.1f, 0.1f, 0.1f, -3.9f, 0));
+        // Around the camera, through the near plane
+        assertTrue(isVisible(-0.5f, -0.5f, 0.5f, 0.5f, 0.5f, 1.5f, 0));
+    }
+
+    @Test
+    public void outside() {
+        // Behind the camera
+        assertFalse(isVisible(-0.1f, -0.1f, 5f, 0.1f, 0.1f, 6f, 0));
+        // Beyond the far plane
+        assertFalse(isVisible(-0.1f, -0.1f, -200f, 0.1f, 0.1f, -150f, 0));
+        // Left, right, below and above the frustum, which is 10 m wide 5 m in front of the camera
+        assertFalse(isVisible(-20f, -0.1f, -4.1f, -10f, 0.1f, -3.9f, 0));
+        assertFalse(isVisible(10f, -0.1f, -4.1f, 20f, 0.1f, -3.9f, 0));
+        assertFalse(isVisible(-0.1f, -20f, -4.1f, 0.1f, -10f, -3.9f, 0));
+        assertFalse(isVisible(-0.1f, 10f, -4.1f, 0.1f, 20f, -3.9f, 0));
+    }
+
+    @Test
+    public void straddling() {
+        // Across the left plane, the far plane and all of the side planes at once
+        assertTrue(isVisible(-20f, -0.1f, -4.1f, 0f, 0.1f, -3.9f, 0));
+        assertTrue(isVisible(-0.1f, -0.1f, -200f, 0.1f, 0.1f, -50f, 0));
+        assertTrue(isVisible(-20f, -20f, -4.1f, 20f, 20f, -3.9f, 0));
+    }
+
+    @Test
+    public void empty() {
+        assertFalse(isVisible(1f, 0f, -4f, -1f, 0f, -4f, 1f));
+    }
+
+    @Test
+    public void marginGrowsTheBox() {
+        // 5 m in front of the camera the frustum ends at x = 5.  The right plane is at 45 degrees,
+        // so a box 0.1 m beyond it is 0.1 * cos(45) = 0.0707 m from the plane
+        float minX = 5f + 0.1f;
+        assertFalse(isVisible(minX, -0.1f, -4f, minX + 1f, 0.1f, -4f, 0));
+        assertFalse(isVisible(minX, -0.1f, -4f, minX + 1f, 0.1f, -4f, 0.06f));
+        assertTrue(isVisible(minX, -0.1f, -4f, minX + 1f, 0.1f, -4f, 0.08f));
+
+        // The same for the far plane, which is perpendicular to the view direction, 0.2 m away
+        float farZ = 1f - FAR;
+        assertFalse(isVisible(-0.1f, -0.1f, farZ - 0.5f, 0.1f, 0.1f, farZ - 0.2f, 0.1f));
+        assertTrue(isVisible(-0.1f, -0.1f, farZ - 0.5f, 0.1f, 0.1f, farZ - 0.2f, 0.3f));
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar.rendering;
+
+import com.googlecreativelab.drawar.StrokeStore;
+
+import org.junit.Test;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Fuzzes the incremental path from a StrokeStore to the GL buffers against a rebuild: random
+ * strokes are drawn, extended, undone, redone, removed and replaced, the changes are submitted to
+ * a GeometryWorker, sometimes merged over several submits, and the geometry it builds is uploaded
+ * with LineBuffers.  After every upload the geometry, and what the buffers hold, has to match a
+ * LineGeometry rebuilt from scratch.
+ */
+public class GeometryWorkerTest {
+    private static final int SEEDS = 60;
+    private static final int STEPS = 300;
+
+    /**
+     * Keeps a copy of what is uploaded to every buffer.  Reallocated storage is filled with
+     * garbage, as its contents are undefined in GL.
+     */
+    private static class ShadowGlBackend extends RecordingGlBackend {
+        private final Map<Integer, byte[]> mData = new HashMap<>();
+        private int mArrayBuffer;
+        private int mElementArrayBuffer;
+
+        @Override
+        public void glBindBuffer(int target, int buffer) {
+            super.glBindBuffer(target, buffer);
+            if (target == GL_ARRAY_BUFFER) {
+                mArrayBuffer = buffer;
+            } else {
+                mElementArrayBuffer = buffer;
+            }
+        }
+
+        @Override
+        public void glBufferData(int target, int size, Buffer data, int usage) {
+            super.glBufferData(target, size, data, usage);
+            byte[] storage = new byte[size];
+            Arrays.fill(storage, (byte) 0x5a);
+            mData.put(getBound(target), storage);
+        }
+
+        @Override
+        public void glBufferSubData(int target, int offset, int size, Buffer data) {
+            super.glBufferSubData(target, offset, size, data);
+            byte[] storage = mData.get(getBound(target));
+            if (data instanceof FloatBuffer) {
+                FloatBuffer floats = ((FloatBuffer) data).duplicate();
+                ByteBuffer bytes = ByteBuffer.wrap(storage, offset, size)
+                        .order(ByteOrder.nativeOrder());
+                for (int i = 0; i < size / 4; i++) {
+                    bytes.putFloat(floats.get());
+                }
+            } else {
+                ((ByteBuffer) data).duplicate().get(storage, offset, size);
+            }
+        }
+
+        private int getBound(int target) {
+            return target == GL_ARRAY_BUFFER ? mArrayBuffer : mElementArrayBuffer;
+        }
+
+        byte[] getData(int buffer, int size) {
+            return size == 0 ? new byte[0] : Arrays.copyOf(mData.get(buffer), size);
+        }
+    }
+
+    @Test
+    public void incrementalMatchesRebuild() {
+        for (int seed = 0; seed < SEEDS; seed++) {
+            fuzz(seed);
+        }
+    }
+
+    private void fuzz(int seed) {
+        Random random = new Random(seed);
+        boolean quantized = random.nextBoolean();
+        int indexSize = random.nextBoolean()
+                ? LineGeometry.BYTES_PER_INT : LineGeometry.BYTES_PER_SHORT;
+        StrokeStore strokes = new StrokeStore();
+        GeometryWorker worker = new GeometryWorker();
+        ShadowGlBackend gl = new ShadowGlBackend();
+        LineBuffers buffers = new LineBuffers(gl, worker.getFront().getLods().getNumLevels());
+        buffers.create();
+        float[] replacement = new float[300 * StrokeStore.FLOATS_PER_POINT];
+
+        boolean reset = true;
+        float x = 0, y = 0, z = 0;
+        for (int step = 0; step < STEPS; step++) {
+            int op = random.nextInt(100);
+            int strokeCount = strokes.getStrokeCount();
+            if (op < 30) {
+                // Draw a stroke, now and then far away from the last one
+                strokes.beginStroke();
+                if (random.nextInt(10) == 0) {
+                    x += (random.nextFloat() - 0.5f) * 8;
+                }
+                int count = random.nextInt(300);
+                for (int i = 0; i < count; i++) {
+                    x += (random.nextFloat() - 0.5f) * 0.02f;
+                    y += (random.nextFloat() - 0.5f) * 0.02f;
+                    z += 0.001f;
+                    strokes.appendPoint(x, y, z);
+                }
+            } else if (op < 45 && strokeCount > 0) {
+                int count = 1 + random.nextInt(50);
+                for (int i = 0; i < count; i++) {
+                    x += 0.003f;
+                    strokes.appendPoint(x, y, z);
+                }
+            } else if (op < 70) {
+                for (int i = random.nextInt(3); i >= 0; i--) {
+                    strokes.popStroke();
+                }
+            } else if (op < 90) {
+                for (int i = random.nextInt(3); i >= 0; i--) {
+                    strokes.redoStroke();
+                }
+            } else if (op < 94 && strokeCount > 1) {
+                strokes.removeStroke(random.nextInt(strokeCount));
+                reset = true;
+            } else if (op < 100 && strokeCount > 0) {
+                // Swap in a simplified stroke, as StrokeInput does, usually the last one
+                int stroke = random.nextInt(2) == 0
+                        ? strokeCount - 1 : random.nextInt(strokeCount);
+                int start = strokes.getStrokeStart(stroke);
+                int count = 0;
+                for (int p = start; p < strokes.getStrokeEnd(stroke); p += 2) {
+                    System.arraycopy(strokes.getPoints(), p * StrokeStore.FLOATS_PER_POINT,
+                            replacement, count++ * StrokeStore.FLOATS_PER_POINT,
+                            StrokeStore.FLOATS_PER_POINT);
+                }
+                strokes.replaceStroke(stroke, replacement, count);
+            }
+
+            worker.submit(strokes, indexSize, quantized, reset);
+            reset = false;
+            if (random.nextInt(3) == 0) {
+                // Leave the changes for the next submit to merge with
+                continue;
+            }
+            worker.build();
+            LineGeometry geometry = worker.acquire();
+            if (geometry == null) {
+                continue;
+            }
+            buffers.upload(geometry);
+            assertEquals(0, gl.glGetError());
+
+            LineGeometry rebuilt = new LineGeometry(indexSize);
+            rebuilt.setQuantized(quantized);
+            rebuilt.update(strokes, true);
+            assertGeometry("Seed " + seed + ", step " + step, rebuilt, geometry, gl, buffers);
+        }
+    }
+
+    private static void assertGeometry(String message, LineGeometry expected,
+                                       LineGeometry geometry, ShadowGlBackend gl,
+                                       LineBuffers buffers) {
+        assertEquals(message, expected.getNumVertices(), geometry.getNumVertices());
+        assertEquals(message, expected.getNumIndices(), geometry.getNumIndices());
+        assertEquals(message, expected.getNumBatches(), geometry.getNumBatches());
+        for (int b = 0; b < geometry.getNumBatches()
+                && geometry.getBatchFirstIndex(b) < geometry.getNumIndices(); b++) {
+            assertEquals(message, expected.getBatchBase(b), geometry.getBatchBase(b));
+            assertEquals(message, expected.getBatchFirstIndex(b), geometry.getBatchFirstIndex(b));
+        }
+
+        // Points keep the counter they got for the length of their stroke when they were
+        // appended, only a rebuild spreads them over the whole stroke, so counters are not compared
+        int stride = geometry.getLayout().getStride();
+        int vertexBytes = geometry.getNumVertices() * stride;
+        byte[] vertices = getVertexBytes(geometry.getVertices(), vertexBytes, stride);
+        assertArrayEquals(message, getVertexBytes(expected.getVertices(), vertexBytes, stride),
+                vertices);
+        assertArrayEquals(message, vertices,
+                clearCounters(gl.getData(buffers.getVbo(), vertexBytes), stride));
+
+        int indexBytes = geometry.getNumIndices() * geometry.getIndexSize();
+        byte[] indices = getBytes(geometry.getIndices(), indexBytes);
+        assertArrayEquals(message, getBytes(expected.getIndices(), indexBytes), indices);
+        assertArrayEquals(message, indices, gl.getData(buffers.getIbo(), indexBytes));
+
+        // Pages that were dropped and brought back may have grown larger than needed
+        LinePages pages = geometry.getPages();
+        LinePages expectedPages = expected.getPages();
+        assertEquals(message, expectedPages.getNumPages(), pages.getNumPages());
+        for (int p = 0; p < pages.getNumPages(); p++) {
+            assertEquals(message, expectedPages.getFirstIndex(p), pages.getFirstIndex(p));
+            assertEquals(message, expectedPages.getBatch(p), pages.getBatch(p));
+            int b = p * LinePages.FLOATS_PER_BOUNDS;
+            for (int axis = 0; axis < 3; axis++) {
+                assertTrue(message, pages.getBounds()[b + axis]
+                        <= expectedPages.getBounds()[b + axis]);
+                assertTrue(message, pages.getBounds()[b + 3 + axis]
+                        >= expectedPages.getBounds()[b + 3 + axis]);
+            }
+        }
+
+        LineLods lods = geometry.getLods();
+        LineLods expectedLods = expected.getLods();
+        assertEquals(message, expectedLods.getNumPages(), lods.getNumPages());
+        for (int l = 0; l < lods.getNumLevels(); l++) {
+            assertEquals(message, expectedLods.getNumIndices(l), lods.getNumIndices(l));
+            int bytes = lods.getNumIndices(l) * geometry.getIndexSize();
+            byte[] lodIndices = getBytes(lods.getIndices(l), bytes);
+            assertArrayEquals(message, getBytes(expectedLods.getIndices(l), bytes), lodIndices);
+            assertArrayEquals(message, lodIndices, gl.getData(buffers.getIbo(l + 1), bytes));
+        }
+    }
+
+    private static byte[] getVertexBytes(FloatBuffer vertices, int size, int stride) {
+        return clearCounters(getBytes(vertices, size), stride);
+    }
+
+    /**
+     * Zeroes the counter, the last float of every vertex
+     * @param vertices
+     * @param stride
+     * @return vertices
+     */
+    private static byte[] clearCounters(byte[] vertices, int stride) {
+        for (int v = stride; v <= vertices.length; v += stride) {
+            Arrays.fill(vertices, v - 4, v, (byte) 0);
+        }
+        return vertices;
+    }
+
+    private static byte[] getBytes(Buffer buffer, int size) {
+        if (size == 0) {
+            return new byte[0];
+        }
+        ByteBuffer out = ByteBuffer.allocate(size).order(ByteOrder.nativeOrder());
+        if (buffer instanceof FloatBuffer) {
+            FloatBuffer floats = ((FloatBuffer) buffer).duplicate();
+            floats.position(0);
+            for (int i = 0; i < size / 4; i++) {
+                out.putFloat(floats.get());
+            }
+        } else {
+            ByteBuffer bytes = ((ByteBuffer) buffer).duplicate();
+            bytes.position(0);
+            bytes.limit(size);
+            out.put(bytes);
+        }
+        return out.array();
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar.rendering;
+
+import com.googlecreativelab.drawar.AppSettings;
+import com.googlecreativelab.drawar.SessionFrame;
+import com.googlecreativelab.drawar.StrokeBvh;
+import com.googlecreativelab.drawar.StrokeInput;
+import com.googlecreativelab.drawar.StrokeSimplifier;
+import com.googlecreativelab.drawar.StrokeStore;
+import com.googlecreativelab.drawar.SyntheticStrokes;
+import com.googlecreativelab.drawar.TouchSampleQueue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * The GL traffic of keeping the buffers up to date with a drawing, on a RecordingGlBackend: what
+ * drawing, undoing and finishing a stroke uploads, and when the buffers are reallocated
+ */
+public class LineBuffersTest {
+    private static final int SMALL_DRAWING = 1000;
+    private static final int LARGE_DRAWING = 200000;
+    private static final int TOUCH_SAMPLES = 100;
+
+    // Runs the simplifier during the frame that finished the stroke
+    private static final Executor IN_PLACE = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private StrokeStore mStrokes;
+    private GeometryWorker mWorker;
+    private RecordingGlBackend mGl;
+    private LineBuffers mBuffers;
+    private float[] mStroke;
+
+    /**
+     * Builds and uploads a drawing, then draws a stroke and undoes it, so every geometry of the
+     * triple buffer uploaded everything once and the buffers have room for the stroke
+     */
+    private void setUp(int points) {
+        mStrokes = SyntheticStrokes.generate(points, 1);
+        mWorker = new GeometryWorker();
+        mGl = new RecordingGlBackend("GL_OES_element_index_uint");
+        mBuffers = new LineBuffers(mGl, mWorker.getFront().getLods().getNumLevels());
+        mBuffers.create();
+        frame(true);
+
+        mStroke = new float[SyntheticStrokes.POINTS_PER_STROKE * 3];
+        new SyntheticStrokes(2).generateStroke(mStroke, SyntheticStrokes.POINTS_PER_STROKE);
+        drawStroke(mStroke);
+        mStrokes.popStroke();
+        frame(false);
+    }
+
+    /**
+     * Submits the changes to the strokes, builds the geometry and uploads it, as a frame does
+     * @param reset rebuild the geometry
+     * @return the number of bytes uploaded
+     */
+    private long frame(boolean reset) {
+        mWorker.submit(mStrokes, LineGeometry.BYTES_PER_INT, false, reset);
+        mWorker.build();
+        LineGeometry geometry = mWorker.acquire();
+        if (geometry == null) {
+            return 0;
+        }
+        mBuffers.upload(geometry);
+        assertEquals(0, mGl.glGetError());
+        return mBuffers.getUploadedBytes();
+    }
+
+    /**
+     * Draws a stroke one point a frame
+     * @return the most bytes uploaded in a frame
+     */
+    private long drawStroke(float[] stroke) {
+        long max = 0;
+        mStrokes.beginStroke();
+        for (int i = 0; i < stroke.length / 3; i++) {
+            mStrokes.appendPoint(stroke[i * 3], stroke[i * 3 + 1], stroke[i * 3 + 2]);
+            max = Math.max(max, frame(false));
+        }
+        return max;
+    }
+
+    private long getDrawingBytes() {
+        LineGeometry geometry = mWorker.getFront();
+        return (long) geometry.getNumVertices() * geometry.getLayout().getStride()
+                + (long) geometry.getNumIndices() * geometry.getIndexSize();
+    }
+
+    @Test
+    public void appendUploadsTheSameBytesForAnyDrawingSize() {
+        long[] maxBytes = new long[2];
+        long[] drawingBytes = new long[2];
+        int[] sizes = {SMALL_DRAWING, LARGE_DRAWING};
+        for (int s = 0; s < sizes.length; s++) {
+            setUp(sizes[s]);
+            maxBytes[s] = drawStroke(mStroke);
+            drawingBytes[s] = getDrawingBytes();
+        }
+        // A few hundred bytes a point, whether the drawing takes 100 KB or 10 MB
+        assertTrue(drawingBytes[1] > 100 * drawingBytes[0]);
+        assertTrue(maxBytes[0] < 1024);
+        assertTrue(maxBytes[1] < 1024);
+    }
+
+    @Test
+    public void steadyStateDoesNotReallocate() {
+        setUp(LARGE_DRAWING);
+
+        // Drawing, undoing and redoing strokes no larger than before fit the buffers
+        int allocations = mGl.getTotalCounts().bufferAllocations;
+        for (int i = 0; i < 3; i++) {
+            drawStroke(mStroke);
+            mStrokes.popStroke();
+            assertTrue(frame(false) < 1024);
+            mStrokes.redoStroke();
+            assertTrue(frame(false) < 1024);
+            mStrokes.popStroke();
+            frame(false);
+        }
+        assertEquals(allocations, mGl.getTotalCounts().bufferAllocations);
+    }
+
+    @Test
+    public void fingerLiftDoesNotUploadTheDrawing() {
+        setUp(LARGE_DRAWING);
+        StrokeInput input = new StrokeInput(mStrokes, new StrokeBvh(),
+                new StrokeSimplifier(AppSettings.getSimplifyTolerance(), IN_PLACE), 0.1f, 2);
+        SessionFrame frame = createFrame();
+        long drawingBytes = getDrawingBytes();
+
+        // The simplified stroke is swapped in when the finger lifts, and the geometries of the
+        // triple buffer upload it in the next frames
+        int lifts = 0;
+        for (int s = 0; s < 5; s++) {
+            for (int i = 0; i < TOUCH_SAMPLES; i += 2) {
+                int size = mStrokes.getPointCount();
+                int change = touch(input, frame, s, i);
+                if (i + 2 == TOUCH_SAMPLES) {
+                    assertTrue(mStrokes.getPointCount() < size);
+                    lifts++;
+                }
+                assertTrue(frame(change == StrokeInput.CHANGE_REBUILD) < drawingBytes / 100);
+            }
+            frame.touchCount = 0;
+            for (int i = 0; i < 3; i++) {
+                int change = input.update(frame);
+                assertTrue(frame(change == StrokeInput.CHANGE_REBUILD) < drawingBytes / 100);
+            }
+        }
+        assertEquals(5, lifts);
+    }
+
+    @Test
+    public void lateSimplifiedStrokeDoesNotUploadTheDrawing() {
+        setUp(LARGE_DRAWING);
+        final ArrayList<Runnable> queued = new ArrayList<>();
+        StrokeInput input = new StrokeInput(mStrokes, new StrokeBvh(),
+                new StrokeSimplifier(AppSettings.getSimplifyTolerance(), new Executor() {
+                    @Override
+                    public void execute(Runnable command) {
+                        queued.add(command);
+                    }
+                }), 0.1f, 2);
+        SessionFrame frame = createFrame();
+        long drawingBytes = getDrawingBytes();
+
+        // Each stroke is simplified while the next one is drawn, so it is no longer the last
+        int swaps = 0;
+        for (int s = 0; s < 5; s++) {
+            for (int i = 0; i < TOUCH_SAMPLES; i += 2) {
+                if (i == TOUCH_SAMPLES / 2 && !queued.isEmpty()) {
+                    queued.remove(0).run();
+                    swaps++;
+                }
+                int change = touch(input, frame, s, i);
+                assertTrue(frame(change == StrokeInput.CHANGE_REBUILD) < drawingBytes / 100);
+            }
+        }
+        assertEquals(4, swaps);
+    }
+
+    /**
+     * @return a frame of two touch samples, from a camera at the origin looking down -z with a 90
+     * degree field of view
+     */
+    private static SessionFrame createFrame() {
+        SessionFrame frame = new SessionFrame(2);
+        float near = 0.1f, far = 100f;
+        frame.view[0] = frame.view[5] = frame.view[10] = frame.view[15] = 1;
+        frame.projection[0] = 1;
+        frame.projection[5] = 1;
+        frame.projection[10] = (far + near) / (near - far);
+        frame.projection[11] = -1;
+        frame.projection[14] = 2 * far * near / (near - far);
+        frame.screenWidth = 1000;
+        frame.screenHeight = 1000;
+        return frame;
+    }
+
+    /**
+     * Applies two touch samples of a stroke across the screen
+     * @param input
+     * @param frame
+     * @param stroke the number of the stroke, each one is drawn lower
+     * @param sample the first sample, the stroke begins at 0 and ends at TOUCH_SAMPLES - 1
+     * @return the change of the update
+     */
+    private static int touch(StrokeInput input, SessionFrame frame, int stroke, int sample) {
+        frame.touchCount = 2;
+        for (int j = 0; j < 2; j++) {
+            int i = sample + j;
+            frame.touchActions[j] = i == 0 ? TouchSampleQueue.ACTION_DOWN
+                    : i == TOUCH_SAMPLES - 1 ? TouchSampleQueue.ACTION_UP
+                    : TouchSampleQueue.ACTION_MOVE;
+            frame.touchScreen[j * 2] = 100 + i * 8;
+            frame.touchScreen[j * 2 + 1] = 100 + stroke * 100 + i * 2;
+        }
+        return input.update(frame);
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar.rendering;
+
+import com.googlecreativelab.drawar.StrokeStore;
+
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+
+/**
+ * The geometry statistics against the triangle strip the renderer used before
+ */
+public class LineGeometryTest {
+
+    @Test
+    public void geometryStatsCompareWithTheOldStrip() {
+        StrokeStore strokes = new StrokeStore();
+        addStroke(strokes, 10, 0f);
+        addStroke(strokes, 20, 1f);
+        // A single point is not drawn
+        addStroke(strokes, 1, 2f);
+
+        for (boolean quantized : new boolean[]{false, true}) {
+            LineGeometry geometry = new LineGeometry(LineGeometry.BYTES_PER_SHORT);
+            geometry.setQuantized(quantized);
+            geometry.update(strokes, true);
+
+            // The strip had two vertices a point and one more at either end of a stroke, 48 bytes
+            // each whatever the layout in use now
+            int stripVertices = 2 * 10 + 2 + 2 * 20 + 2;
+            int indexedBytes = geometry.getNumVertices() * geometry.getLayout().getStride()
+                    + geometry.getNumIndices() * LineGeometry.BYTES_PER_SHORT;
+            assertEquals(String.format(Locale.US, "strip: %d vertices, %d bytes; "
+                            + "indexed: %d vertices, %d indices, %d batches, %d bytes",
+                    stripVertices, stripVertices * 48, geometry.getNumVertices(),
+                    geometry.getNumIndices(), geometry.getNumBatches(), indexedBytes),
+                    geometry.getGeometryStats());
+            assertEquals(quantized ? 20 : 24, geometry.getLayout().getStride());
+        }
+    }
+
+    private static void addStroke(StrokeStore strokes, int count, float y) {
+        strokes.beginStroke();
+        for (int i = 0; i < count; i++) {
+            strokes.appendPoint(i * 0.01f, y, -1f);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar.rendering;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Page bookkeeping and bounds, and culling the pages of a line against a frustum
+ */
+public class LinePagesTest {
+
+    @Test
+    public void isFullAfterPageSizeIndices() {
+        LinePages pages = new LinePages(10);
+        assertTrue(pages.isFull(0));
+        pages.beginPage(0, 0);
+        assertFalse(pages.isFull(9));
+        assertTrue(pages.isFull(10));
+        pages.beginPage(10, 0);
+        assertFalse(pages.isFull(19));
+        assertTrue(pages.isFull(20));
+    }
+
+    @Test
+    public void boundsContainTheExtendedPoints() {
+        LinePages pages = new LinePages(10);
+        pages.beginPage(0, 0);
+        pages.extend(1, 2, 3);
+        pages.extend(-1, 5, 0);
+        pages.beginPage(6, 1);
+        pages.extend(4, 4, 4);
+
+        float[] bounds = pages.getBounds();
+        assertBounds(bounds, 0, -1, 2, 0, 1, 5, 3);
+        assertBounds(bounds, 1, 4, 4, 4, 4, 4, 4);
+        assertEquals(6, pages.getFirstIndex(1));
+        assertEquals(1, pages.getBatch(1));
+    }
+
+    @Test
+    public void setNumPagesBringsBackDroppedPages() {
+        LinePages pages = new LinePages(10);
+        for (int p = 0; p < 100; p++) {
+            pages.beginPage(p * 10, p);
+            pages.extend(p, p, p);
+        }
+        pages.setNumPages(40);
+        assertEquals(40, pages.getNumPages());
+        assertTrue(pages.isFull(400));
+        pages.setNumPages(100);
+        assertBounds(pages.getBounds(), 99, 99, 99, 99, 99, 99, 99);
+
+        pages.clear();
+        assertEquals(0, pages.getNumPages());
+        assertTrue(pages.isFull(0));
+    }
+
+    @Test
+    public void cullPages() {
+        // 90 degree field of view looking down -z from the origin
+        float near = 0.1f;
+        float far = 100f;
+        float[] viewProjection = new float[16];
+        viewProjection[0] = 1;
+        viewProjection[5] = 1;
+        viewProjection[10] = (far + near) / (near - far);
+        viewProjection[11] = -1;
+        viewProjection[14] = 2 * far * near / (near - far);
+        FrustumCuller culler = new FrustumCuller();
+        culler.setViewProjection(viewProjection);
+
+        // A line along x at 2 m in front of the camera, from 10 m left to 10 m right, with one
+        // page every meter.  The frustum is 4 m wide there.
+        LinePages pages = new LinePages(2);
+        for (int x = -10; x < 10; x++) {
+            pages.beginPage((x + 10) * 2, 0);
+            pages.extend(x, 0, -2);
+            pages.extend(x + 1, 0, -2);
+        }
+        float[] bounds = pages.getBounds();
+        int visible = 0;
+        for (int p = 0; p < pages.getNumPages(); p++) {
+            if (culler.isVisible(bounds, p * LinePages.FLOATS_PER_BOUNDS, 0)) {
+                visible++;
+            }
+        }
+        // The pages from -2 to 2, plus the two that touch a side plane with an end point
+        assertEquals(6, visible);
+        // Inside, outside and on a side plane
+        assertTrue(culler.isVisible(bounds, 10 * LinePages.FLOATS_PER_BOUNDS, 0));
+        assertFalse(culler.isVisible(bounds, 0, 0));
+        assertTrue(culler.isVisible(bounds, 12 * LinePages.FLOATS_PER_BOUNDS, 0));
+
+        // A margin of a meter brings in the next page on either side, which is 0.7 m from the
+        // side plane, but not the one after it at 1.4 m
+        visible = 0;
+        for (int p = 0; p < pages.getNumPages(); p++) {
+            if (culler.isVisible(bounds, p * LinePages.FLOATS_PER_BOUNDS, 1f)) {
+                visible++;
+            }
+        }
+        assertEquals(8, visible);
+    }
+
+    private static void assertBounds(float[] bounds, int page, float minX, float minY, float minZ,
+                                     float maxX, float maxY, float maxZ) {
+        int b = page * LinePages.FLOATS_PER_BOUNDS;
+        assertEquals(minX, bounds[b], 0);
+        assertEquals(minY, bounds[b + 1], 0);
+        assertEquals(minZ, bounds[b + 2], 0);
+        assertEquals(maxX, bounds[b + 3], 0);
+        assertEquals(maxY, bounds[b + 4], 0);
+        assertEquals(maxZ, bounds[b + 5], 0);
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2017 Google Inc. All Rights Reserved.
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.googlecreativelab.drawar.rendering;
+
+import com.googlecreativelab.drawar.AppSettings;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.vecmath.Vector2f;
+import javax.vecmath.Vector3f;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * The cached projection against the per point LineUtils path, for random camera poses
+ */
+public class ScreenProjectorTest {
+    private static final float SCREEN_WIDTH = 1080f;
+    private static final float SCREEN_HEIGHT = 1920f;
+    private static final int POSES = 50;
+    private static final int POINTS = 100;
+
+    // A fraction of a millimeter at the stroke draw distance
+    private static final float TOLERANCE = 1e-5f;
+
+    private final Random mRandom = new Random(3);
+    private final float[] mProjection = new float[16];
+    private final float[] mView = new float[16];
+
+    @Test
+    public void matchesLineUtils() {
+        ScreenProjector projector = new ScreenProjector();
+        float distance = AppSettings.getStrokeDrawDistance();
+        float[] screen = new float[POINTS * 2];
+        float[] world = new float[POINTS * 3];
+        Vector3f single = new Vector3f();
+        for (int pose = 0; pose < POSES; pose++) {
+            setRandomCamera();
+            assertTrue(projector.update(mProjection, mView, SCREEN_WIDTH, SCREEN_HEIGHT));
+            for (int i = 0; i < POINTS; i++) {
+                screen[i * 2] = mRandom.nextFloat() * SCREEN_WIDTH;
+                screen[i * 2 + 1] = mRandom.nextFloat() * SCREEN_HEIGHT;
+            }
+            projector.unproject(screen, POINTS, distance, world);
+
+            for (int i = 0; i < POINTS; i++) {
+                Vector2f touch = new Vector2f(screen[i * 2], screen[i * 2 + 1]);
+                Vector3f expected = LineUtils.GetWorldCoords(touch, SCREEN_WIDTH, SCREEN_HEIGHT,
+                        mProjection, mView);
+                assertEquals(expected.x, world[i * 3], TOLERANCE);
+                assertEquals(expected.y, world[i * 3 + 1], TOLERANCE);
+                assertEquals(expected.z, world[i * 3 + 2], TOLERANCE);
+
+                // The touch point is left as it was
+                assertEquals(screen[i * 2 + 1], touch.y, 0f);
+
+                projector.getWorldCoords(screen[i * 2], screen[i * 2 + 1], distance, single);
+                assertEquals(world[i * 3], single.x, 0f);
+                assertEquals(world[i * 3 + 1], single.y, 0f);
+                assertEquals(world[i * 3 + 2], single.z, 0f);
+            }
+        }
+    }
+
+    @Test
+    public void rayIsNormalized() {
+        ScreenProjector projector = new ScreenProjector();
+        float[] ray = new float[6];
+        for (int pose = 0; pose < POSES; pose++) {
+            setRandomCamera();
+            projector.update(mProjection, mView, SCREEN_WIDTH, SCREEN_HEIGHT);
+            projector.getRay(mRandom.nextFloat() * SCREEN_WIDTH,
+                    mRandom.nextFloat() * SCREEN_HEIGHT, ray, 0);
+            assertEquals(1f, (float) Math.sqrt(ray[3] * ray[3] + ray[4] * ray[4]
+                    + ray[5] * ray[5]), 1e-5f);
+        }
+    }
+
+    @Test
+    public void invertGivesIdentity() {
+        float[] inverse = new float[16];
+        float[] product = new float[16];
+        for (int pose = 0; pose < POSES; pose++) {
+            setRandomCamera();
+            assertTrue(ScreenProjector.invert(inverse, mView));
+            ScreenProjector.multiply(product, mView, inverse);
+            for (int i = 0; i < 16; i++) {
+                assertEquals(i % 5 == 0 ? 1f : 0f, product[i], 1e-5f);
+            }
+        }
+    }
+
+    @Test
+    public void singularMatrixIsInvalid() {
+        ScreenProjector projector = new ScreenProjector();
+        float[] ray = new float[6];
+        float[] fresh = new float[6];
+        projector.getRay(100, 200, fresh, 0);
+
+        // The previous frame is not used, the points are projected with the identity like
+        // LineUtils does, after a singular frame and before any frame
+        setRandomCamera();
+        assertTrue(projector.update(mProjection, mView, SCREEN_WIDTH, SCREEN_HEIGHT));
+        assertFalse(projector.update(new float[16], new float[16], SCREEN_WIDTH, SCREEN_HEIGHT));
+        assertFalse(projector.isValid());
+        projector.getRay(100, 200, ray, 0);
+        Ray expected = LineUtils.projectRay(new Vector2f(100, 200), SCREEN_WIDTH, SCREEN_HEIGHT,
+                new float[16], new float[16]);
+        assertEquals(expected.origin.x, ray[0], TOLERANCE);
+        assertEquals(expected.origin.y, ray[1], TOLERANCE);
+        assertEquals(expected.origin.z, ray[2], TOLERANCE);
+        assertEquals(expected.direction.x, ray[3], TOLERANCE);
+        assertEquals(expected.direction.y, ray[4], TOLERANCE);
+        assertEquals(expected.direction.z, ray[5], TOLERANCE);
+
+        // A new projector has a one pixel screen
+        projector.update(new float[16], new float[16], 1, 1);
+        projector.getRay(100, 200, ray, 0);
+        for (int i = 0; i < 6; i++) {
+            assertFalse(Float.isNaN(fresh[i]) || Float.isInfinite(fresh[i]));
+            assertEquals(fresh[i], ray[i], 0f);
+        }
+    }
+
+    /**
+     * Sets a perspective projection with a random field of view, and a view matrix for a camera
+     * at a random place in the room with a random orientation
+     */
+    private void setRandomCamera() {
+        float near = AppSettings.getNearClip();
+        float far = AppSettings.getFarClip();
+        float f = (float) (1 / Math.tan(Math.toRadians(20 + mRandom.nextFloat() * 20)));
+        Arrays.fill(mProjection, 0);
+        mProjection[0] = f * SCREEN_HEIGHT / SCREEN_WIDTH;
+        mProjection[5] = f;
+        mProjection[10] = (far + near) / (near - far);
+        mProjection[11] = -1;
+        mProjection[14] = 2 * far * near / (near - far);
+
+        // The rows of the rotation are an orthonormal basis, the translation moves the camera
+        Vector3f forward = randomUnit();
+        Vector3f right = new Vector3f();
+        right.cross(forward, randomUnit());
+        right.normalize();
+        Vector3f up = new Vector3f();
+        up.cross(right, forward);
+        Vector3f eye = new Vector3f((mRandom.nextFloat() - 0.5f) * 4,
+                mRandom.nextFloat() * 2, (mRandom.nextFloat() - 0.5f) * 4);
+        set(0, right, eye);
+        set(1, up, eye);
+        forward.negate();
+        set(2, forward, eye);
+        mView[3] = 0;
+        mView[7] = 0;
+        mView[11] = 0;
+        mView[15] = 1;
+    }
+
+    private void set(int row, Vector3f axis, Vector3f eye) {
+        mView[row] = axis.x;
+        mView[4 + row] = axis.y;
+        mView[8 + row] = axis.z;
+        mView[12 + row] = -axis.dot(eye);
+    }
+
+    private Vector3f randomUnit() {
+        Vector3f v = new Vector3f((float) mRandom.nextGaussian(), (float) mRandom.nextGaussian(),
+                (float) mRandom.nextGaussian());
+        v.normalize();
+        return v;
+    }
+}